@@ -3,9 +3,12 @@ package com.apppresser.plugins.caraudio;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -13,6 +16,8 @@ import android.util.Log;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * AndroidAutoController handles MediaSession integration for Android Auto
@@ -33,6 +38,15 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
     private String currentAlbum;
     private String currentArtworkUrl;
     private long currentDuration;
+    // How far CarAudio has buffered the current track, published with each state
+    private long bufferedPosition;
+    
+    // Metadata for the track CarAudio is preparing in its gapless next slot
+    private String nextAlbum;
+    private long nextDuration;
+    
+    // Native queue, so skips and completion move on without a round trip through JavaScript
+    private final PlaybackQueue queue = new PlaybackQueue();
     
     public interface AndroidAutoControllerListener {
         void onPlay();
@@ -42,6 +56,8 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
         void onSkipToPrevious();
         void onSeekTo(long position);
         void onTrackSelected(String url, String title, String artist, String album, String artworkUrl, long duration);
+        // The native side started another track; queueIndex is -1 when it did not come from the queue
+        void onTrackChanged(PlaybackQueue.Entry track, int queueIndex, String reason);
     }
     
     public AndroidAutoController(Context context, CarAudio carAudio) {
@@ -52,6 +68,14 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
         initializeMediaSession();
     }
     
+    /**
+     * Run command on CarAudio's playback thread, where the session and its callbacks live.
+     * Callers on other threads (the plugin, the browser service) go through this.
+     */
+    public void execute(Runnable command) {
+        carAudio.execute(command);
+    }
+    
     public void setListener(AndroidAutoControllerListener listener) {
         this.listener = listener;
     }
@@ -66,45 +90,70 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
         mediaSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS |
                               MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
         
-        // Set callback for media button events
+        // Set callback for media button events, delivered on the playback thread like CarAudio's own callbacks
         mediaSession.setCallback(new MediaSessionCompat.Callback() {
             @Override
             public void onPlay() {
-                Log.d(TAG, "Android Auto requested PLAY");
+                Trace.i(TAG, "onPlay");
+                Metrics.increment("session.command", "play");
                 handlePlayCommand();
             }
             
             @Override
             public void onPause() {
-                Log.d(TAG, "Android Auto requested PAUSE");
+                Trace.i(TAG, "onPause");
+                Metrics.increment("session.command", "pause");
                 handlePauseCommand();
             }
             
             @Override
             public void onStop() {
-                Log.d(TAG, "Android Auto requested STOP");
+                Trace.i(TAG, "onStop");
+                Metrics.increment("session.command", "stop");
                 handleStopCommand();
             }
             
             @Override
             public void onSkipToNext() {
-                Log.d(TAG, "Android Auto requested SKIP TO NEXT");
-                if (listener != null) {
-                    listener.onSkipToNext();
-                }
+                Trace.i(TAG, "onSkipToNext");
+                Metrics.increment("session.command", "skipToNext");
+                skipToNext();
             }
             
             @Override
             public void onSkipToPrevious() {
-                Log.d(TAG, "Android Auto requested SKIP TO PREVIOUS");
-                if (listener != null) {
-                    listener.onSkipToPrevious();
-                }
+                Trace.i(TAG, "onSkipToPrevious");
+                Metrics.increment("session.command", "skipToPrevious");
+                skipToPrevious();
+            }
+            
+            @Override
+            public void onSkipToQueueItem(long id) {
+                Trace.i(TAG, "onSkipToQueueItem", id);
+                Metrics.increment("session.command", "skipToQueueItem");
+                skipToQueueItem((int) id);
+            }
+            
+            @Override
+            public void onSetRepeatMode(int repeatMode) {
+                Trace.i(TAG, "onSetRepeatMode", repeatMode);
+                Metrics.increment("session.command", "setRepeatMode");
+                setRepeatMode(repeatMode);
+            }
+            
+            @Override
+            public void onSetShuffleMode(int shuffleMode) {
+                Trace.i(TAG, "onSetShuffleMode", shuffleMode);
+                Metrics.increment("session.command", "setShuffleMode");
+                setShuffle(shuffleMode != PlaybackStateCompat.SHUFFLE_MODE_NONE);
             }
             
             @Override
             public void onSeekTo(long position) {
-                Log.d(TAG, "Android Auto requested SEEK TO: " + position);
+                Trace.i(TAG, "onSeekTo", position);
+                Metrics.increment("session.command", "seekTo");
+                // Scrubbing in the car favours responsiveness, so seek to the nearest sync frame
+                carAudio.seekTo(position, false);
                 if (listener != null) {
                     listener.onSeekTo(position);
                 }
@@ -112,7 +161,8 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
             
             @Override
             public void onPlayFromMediaId(String mediaId, Bundle extras) {
-                Log.d(TAG, "AndroidAutoController: onPlayFromMediaId called with mediaId: " + mediaId);
+                Trace.i(TAG, "onPlayFromMediaId", mediaId);
+                Metrics.increment("session.command", "playFromMediaId");
                 
                 // This is the key missing piece! When Android Auto selects a track,
                 // it calls this method, but we need to delegate to the MediaBrowserService
@@ -120,27 +170,44 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
                 
                 // We need to get the track info from the MediaBrowserService
                 // and then update our now playing info and start playback
-                Log.d(TAG, "Delegating track selection to MediaBrowserService for lookup");
                 
                 // Delegate to MediaBrowserService to handle track lookup and playback
                 handleTrackSelection(mediaId);
             }
-        });
+            
+            @Override
+            public void onPrepareFromMediaId(String mediaId, Bundle extras) {
+                Trace.i(TAG, "onPrepareFromMediaId", mediaId);
+                Metrics.increment("session.command", "prepareFromMediaId");
+                com.apppresser.plugins.caraudio.CarAudioMediaBrowserService.handlePrepareFromController(mediaId);
+            }
+            
+            @Override
+            public void onPlayFromSearch(String query, Bundle extras) {
+                Trace.i(TAG, "onPlayFromSearch", query);
+                Metrics.increment("session.command", "playFromSearch");
+                try {
+                    com.apppresser.plugins.caraudio.CarAudioMediaBrowserService.handlePlayFromSearchFromController(query, extras);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error handling play from search: " + e.getMessage());
+                }
+            }
+        }, carAudio.getPlaybackHandler());
         
         // Set initial playback state
-        updatePlaybackState(PlaybackStateCompat.STATE_NONE, 0, 0.0f);
+        updatePlaybackState(PlaybackStateCompat.STATE_NONE, 0, 0.0f, null);
         
         // Activate the session
         mediaSession.setActive(true);
         
-        Log.d(TAG, "MediaSession initialized and activated");
+        Trace.i(TAG, "sessionActive");
     }
     
     /**
      * Update the now playing metadata for Android Auto
      */
     public void updateNowPlaying(String url, String title, String artist, String album, String artworkUrl, long durationMs) {
-        Log.d(TAG, "Updating now playing: " + title + " by " + artist + " (URL: " + url + ")");
+        Trace.d(TAG, "nowPlaying", title);
         
         this.currentUrl = url;
         this.currentTitle = title;
@@ -167,7 +234,7 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
      * Update now playing and notify JavaScript about track selection from Android Auto
      */
     public void updateNowPlayingFromAndroidAuto(String url, String title, String artist, String album, String artworkUrl, long durationMs) {
-        Log.d(TAG, "Track selected from Android Auto: " + title + " by " + artist + " (URL: " + url + ")");
+        Trace.i(TAG, "trackSelected", url);
         
         // Update the metadata
         updateNowPlaying(url, title, artist, album, artworkUrl, durationMs);
@@ -179,17 +246,174 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
     }
     
     /**
-     * Update the playback state for Android Auto
+     * Queue the track that should follow the current one without a gap; a null url clears it
+     */
+    public void setNextTrack(String url, String title, String artist, String album, String artworkUrl, long durationMs) {
+        this.nextAlbum = album;
+        this.nextDuration = durationMs;
+        carAudio.setNextTrack(url, title, artist, artworkUrl);
+    }
+    
+    /**
+     * Replace the native queue and publish it to the session. With play set,
+     * the entry at startIndex starts now; otherwise only the next entry is
+     * prepared. While a queue is set it owns the gapless next-track slot.
+     */
+    public void setQueue(List<PlaybackQueue.Entry> entries, int startIndex, String title, boolean play) {
+        queue.set(entries, startIndex);
+        publishQueue(title);
+        if (queue.isEmpty()) {
+            // Release the next-track slot the old queue was using
+            setNextTrack(null, null, null, null, null, 0);
+        } else if (play) {
+            playQueueEntry(queue.current(), "queue");
+        } else {
+            prepareNextFromQueue();
+        }
+    }
+    
+    /**
+     * Start the next queue entry; without one, JavaScript is asked as before
+     */
+    public void skipToNext() {
+        PlaybackQueue.Entry entry = queue.skipToNext();
+        if (entry == null) {
+            if (listener != null) {
+                listener.onSkipToNext();
+            }
+            return;
+        }
+        playQueueEntry(entry, "skipToNext");
+    }
+    
+    /**
+     * Start the previous queue entry; without a queue, JavaScript is asked as before
+     */
+    public void skipToPrevious() {
+        PlaybackQueue.Entry entry = queue.skipToPrevious();
+        if (entry == null) {
+            if (listener != null) {
+                listener.onSkipToPrevious();
+            }
+            return;
+        }
+        playQueueEntry(entry, "skipToPrevious");
+    }
+    
+    public boolean skipToQueueItem(int index) {
+        PlaybackQueue.Entry entry = queue.skipTo(index);
+        if (entry == null) {
+            Log.w(TAG, "No queue item at index " + index);
+            return false;
+        }
+        playQueueEntry(entry, "skipToQueueItem");
+        return true;
+    }
+    
+    public void setShuffle(boolean enabled) {
+        queue.setShuffle(enabled);
+        mediaSession.setShuffleMode(enabled ? PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE);
+        prepareNextFromQueue();
+    }
+    
+    /**
+     * Set one of PlaybackQueue's REPEAT_ modes, which match PlaybackStateCompat's
+     */
+    public void setRepeatMode(int repeatMode) {
+        queue.setRepeatMode(repeatMode);
+        mediaSession.setRepeatMode(queue.getRepeatMode());
+        prepareNextFromQueue();
+    }
+    
+    public PlaybackQueue getQueue() {
+        return queue;
+    }
+    
+    /**
+     * Speculatively prepare a URL the user is likely to pick, if the prepare-ahead pool is enabled
+     */
+    public void prepareAhead(String url) {
+        carAudio.prepareAhead(url);
+    }
+    
+    public int getPrepareAheadCapacity() {
+        return carAudio.getPrepareAheadCapacity();
+    }
+    
+    private void publishQueue(String title) {
+        List<PlaybackQueue.Entry> entries = queue.getEntries();
+        List<MediaSessionCompat.QueueItem> items = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            PlaybackQueue.Entry entry = entries.get(i);
+            MediaDescriptionCompat.Builder description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(entry.mediaId != null ? entry.mediaId : entry.url)
+                    .setTitle(entry.title)
+                    .setSubtitle(entry.artist)
+                    .setDescription(entry.album);
+            if (entry.artwork != null && !entry.artwork.isEmpty()) {
+                description.setIconUri(Uri.parse(entry.artwork));
+            }
+            // Queue item IDs are indexes in the order the queue was set, so they survive shuffling
+            items.add(new MediaSessionCompat.QueueItem(description.build(), i));
+        }
+        mediaSession.setQueue(items.isEmpty() ? null : items);
+        mediaSession.setQueueTitle(items.isEmpty() ? null : title);
+        mediaSession.setRepeatMode(queue.getRepeatMode());
+        mediaSession.setShuffleMode(queue.isShuffle() ? PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE);
+        Trace.i(TAG, "queueSet", items.size());
+    }
+    
+    private void playQueueEntry(PlaybackQueue.Entry entry, String reason) {
+        Trace.i(TAG, "queuePlay", reason, queue.getCurrentIndex());
+        updateNowPlaying(entry.url, entry.title, entry.artist, entry.album, entry.artwork, entry.duration);
+        carAudio.play(entry.url, entry.title, entry.artist, entry.artwork, entry.alternateUrls);
+        prepareNextFromQueue();
+        
+        // JavaScript hears about it after the track is already on its way
+        if (listener != null) {
+            listener.onTrackChanged(entry, queue.getCurrentIndex(), reason);
+        }
+    }
+    
+    // Keep CarAudio's gapless slot on whatever the queue plays next
+    private void prepareNextFromQueue() {
+        if (queue.isEmpty()) {
+            return;
+        }
+        PlaybackQueue.Entry next = queue.peekNext();
+        if (next != null) {
+            setNextTrack(next.url, next.title, next.artist, next.album, next.artwork, next.duration);
+        } else {
+            setNextTrack(null, null, null, null, null, 0);
+        }
+    }
+    
+    /**
+     * Update the playback state for Android Auto with the player's real position and speed.
+     * Clients extrapolate from the position, speed and update time, so this only needs to
+     * be published when the state changes, never periodically while playing.
      */
-    public void updatePlaybackState(int state, long position) {
-        updatePlaybackState(state, position, 1.0f);
+    public void updatePlaybackState(int state) {
+        updatePlaybackState(state, null);
+    }
+    
+    private void updatePlaybackState(int state, String errorMessage) {
+        long position = carAudio.getCurrentPosition();
+        float playbackSpeed = state == PlaybackStateCompat.STATE_PLAYING ? carAudio.getPlaybackSpeed() : 0.0f;
+        updatePlaybackState(state, position, playbackSpeed, errorMessage);
     }
     
-    private void updatePlaybackState(int state, long position, float playbackSpeed) {
+    private void updatePlaybackState(int state, long position, float playbackSpeed, String errorMessage) {
         // Define available actions based on state
         long actions = PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
                       PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
-                      PlaybackStateCompat.ACTION_SEEK_TO;
+                      PlaybackStateCompat.ACTION_SEEK_TO |
+                      PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID |
+                      PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH |
+                      PlaybackStateCompat.ACTION_PREPARE_FROM_MEDIA_ID |
+                      PlaybackStateCompat.ACTION_SKIP_TO_QUEUE_ITEM |
+                      PlaybackStateCompat.ACTION_SET_REPEAT_MODE |
+                      PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE;
         
         switch (state) {
             case PlaybackStateCompat.STATE_PLAYING:
@@ -204,65 +428,63 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
                 break;
         }
         
-        PlaybackStateCompat playbackState = new PlaybackStateCompat.Builder()
+        PlaybackStateCompat.Builder builder = new PlaybackStateCompat.Builder()
                 .setActions(actions)
-                .setState(state, position, playbackSpeed)
-                .build();
+                .setState(state, position, playbackSpeed, SystemClock.elapsedRealtime())
+                .setBufferedPosition(bufferedPosition)
+                .setActiveQueueItemId(queue.getCurrentIndex());
+        if (errorMessage != null) {
+            builder.setErrorMessage(PlaybackStateCompat.ERROR_CODE_UNKNOWN_ERROR, errorMessage);
+        }
                 
-        mediaSession.setPlaybackState(playbackState);
+        mediaSession.setPlaybackState(builder.build());
         
-        Log.d(TAG, "Updated playback state: " + getStateString(state) + " at position " + position);
+        Trace.d(TAG, "playbackState", getStateString(state), position);
     }
     
     /**
      * Call this when your CarAudio starts playing
      */
-    public void notifyPlaying(long position) {
-        updatePlaybackState(PlaybackStateCompat.STATE_PLAYING, position);
+    public void notifyPlaying() {
+        updatePlaybackState(PlaybackStateCompat.STATE_PLAYING);
     }
     
     /**
      * Call this when your CarAudio is paused
      */
-    public void notifyPaused(long position) {
-        updatePlaybackState(PlaybackStateCompat.STATE_PAUSED, position);
+    public void notifyPaused() {
+        updatePlaybackState(PlaybackStateCompat.STATE_PAUSED);
     }
     
     /**
      * Call this when your CarAudio is stopped
      */
     public void notifyStopped() {
-        updatePlaybackState(PlaybackStateCompat.STATE_STOPPED, 0);
+        updatePlaybackState(PlaybackStateCompat.STATE_STOPPED);
     }
     
     /**
      * Call this when your CarAudio is buffering/preparing
      */
-    public void notifyBuffering(long position) {
-        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING, position);
+    public void notifyBuffering() {
+        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING);
     }
     
     /**
      * Call this when there's an error
      */
     public void notifyError(String errorMessage) {
-        PlaybackStateCompat errorState = new PlaybackStateCompat.Builder()
-                .setState(PlaybackStateCompat.STATE_ERROR, 0, 0.0f)
-                .setErrorMessage(PlaybackStateCompat.ERROR_CODE_UNKNOWN_ERROR, errorMessage)
-                .build();
-        mediaSession.setPlaybackState(errorState);
+        updatePlaybackState(PlaybackStateCompat.STATE_ERROR, errorMessage);
         
         Log.e(TAG, "Updated playback state to ERROR: " + errorMessage);
     }
     
     public void handlePlayCommand() {
-        Log.d(TAG, "handlePlayCommand() called");
-        Log.d(TAG, "CarAudio state - isPlaying: " + carAudio.isPlaying() + ", isPaused: " + carAudio.isPaused() + ", isStopped: " + carAudio.isStopped());
-        Log.d(TAG, "Current URL: " + currentUrl);
+        Trace.d(TAG, "handlePlayCommand", currentUrl);
         
         if (carAudio.isPaused()) {
             // Resume existing audio - state will be updated via CarAudioStateListener
-            Log.d(TAG, "Resuming paused audio");
+            Trace.d(TAG, "resumePaused");
             carAudio.resume();
             // Notify JavaScript about the resume action
             if (listener != null) {
@@ -270,8 +492,8 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
             }
         } else if (carAudio.isPlaying()) {
             // Already playing, just update state
-            Log.d(TAG, "Already playing, updating state");
-            updatePlaybackState(PlaybackStateCompat.STATE_PLAYING, 0);
+            Trace.d(TAG, "alreadyPlaying");
+            updatePlaybackState(PlaybackStateCompat.STATE_PLAYING);
             // Notify JavaScript about the play action
             if (listener != null) {
                 listener.onPlay();
@@ -280,27 +502,23 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
             // Not currently playing anything
             if (currentUrl != null && !currentUrl.isEmpty()) {
                 // We have a URL (from Android Auto or JavaScript), use it - state will be updated via CarAudioStateListener
-                Log.d(TAG, "Starting playback with URL: " + currentUrl);
-                Log.d(TAG, "Track info - Title: " + currentTitle + ", Artist: " + currentArtist);
-                
                 // Start playback - CarAudioStateListener will handle state updates
                 carAudio.play(currentUrl, currentTitle, currentArtist, currentArtworkUrl);
                 
                 // Only notify JavaScript for non-Android Auto initiated playback
                 // Android Auto track selections are already notified via onTrackSelected
-                Log.d(TAG, "Playback started via CarAudio, state updates will come via CarAudioStateListener");
             } else {
                 // No URL available, notify listener to request one from JavaScript
-                Log.d(TAG, "No URL available, requesting from JavaScript");
+                Trace.i(TAG, "requestUrlFromJs");
                 if (listener != null) {
                     listener.onPlay();
                 }
                 
                 // Fallback to sample URL only if JavaScript doesn't respond
-                new android.os.Handler().postDelayed(() -> {
+                carAudio.getPlaybackHandler().postDelayed(() -> {
                     if (!carAudio.isPlaying() && (currentUrl == null || currentUrl.isEmpty())) {
                         String fallbackUrl = "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-1.mp3";
-                        Log.d(TAG, "JavaScript didn't provide URL, using fallback: " + fallbackUrl);
+                        Trace.i(TAG, "fallbackUrl", fallbackUrl);
                         carAudio.play(fallbackUrl, "Sample Track", "Sample Artist", null);
                         updateNowPlaying(fallbackUrl, "Sample Track", "Sample Artist", "Sample Album", null, 180000);
                     }
@@ -332,7 +550,7 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
     }
     
     private void handleTrackSelection(String mediaId) {
-        Log.d(TAG, "handleTrackSelection called with mediaId: " + mediaId);
+        Trace.d(TAG, "handleTrackSelection", mediaId);
         
         // Import the MediaBrowserService class to call its static method
         try {
@@ -376,8 +594,12 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
                     MediaMetadataCompat metadata = metadataBuilder
                             .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap)
                             .build();
-                    mediaSession.setMetadata(metadata);
-                    Log.d(TAG, "Artwork loaded and updated");
+                    execute(() -> {
+                        if (mediaSession != null) {
+                            mediaSession.setMetadata(metadata);
+                            Trace.d(TAG, "artworkLoaded");
+                        }
+                    });
                 }
             }
         }.execute(artworkUrl);
@@ -403,7 +625,7 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
      * Release resources
      */
     public void release() {
-        Log.d(TAG, "Releasing AndroidAutoController resources");
+        Trace.i(TAG, "release");
         
         if (mediaSession != null) {
             mediaSession.setActive(false);
@@ -412,7 +634,7 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
         }
     }
     
-    // Helper method to convert state int to string for logging
+    // Helper method to convert state int to string for tracing
     private String getStateString(int state) {
         switch (state) {
             case PlaybackStateCompat.STATE_NONE:
@@ -435,28 +657,27 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
     // CarAudio.CarAudioStateListener implementation
     @Override
     public void onPreparing() {
-        Log.d(TAG, "CarAudio is preparing - setting buffering state");
-        Log.d(TAG, "Current track: " + currentTitle + " by " + currentArtist + " (" + currentUrl + ")");
-        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING, 0);
+        Trace.d(TAG, "onPreparing", currentUrl);
+        bufferedPosition = 0;
+        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING);
     }
     
     @Override
     public void onPlaying() {
-        Log.d(TAG, "CarAudio started playing - setting playing state");
-        Log.d(TAG, "Now playing: " + currentTitle + " by " + currentArtist);
-        updatePlaybackState(PlaybackStateCompat.STATE_PLAYING, 0);
+        Trace.d(TAG, "onPlaying", currentTitle);
+        updatePlaybackState(PlaybackStateCompat.STATE_PLAYING);
     }
     
     @Override
     public void onPaused() {
-        Log.d(TAG, "CarAudio paused - setting paused state");
-        updatePlaybackState(PlaybackStateCompat.STATE_PAUSED, 0);
+        Trace.d(TAG, "onPaused");
+        updatePlaybackState(PlaybackStateCompat.STATE_PAUSED);
     }
     
     @Override
     public void onStopped() {
-        Log.d(TAG, "CarAudio stopped - setting stopped state");
-        updatePlaybackState(PlaybackStateCompat.STATE_STOPPED, 0);
+        Trace.d(TAG, "onStopped");
+        updatePlaybackState(PlaybackStateCompat.STATE_STOPPED);
     }
     
     @Override
@@ -466,9 +687,54 @@ public class AndroidAutoController implements CarAudio.CarAudioStateListener {
         notifyError(errorMessage);
     }
     
+    @Override
+    public void onCompleted() {
+        Trace.d(TAG, "onCompleted");
+        // The next entry was not prepared in time for a gapless handover, so start it now
+        PlaybackQueue.Entry entry = queue.advance();
+        if (entry != null) {
+            playQueueEntry(entry, "completion");
+            return;
+        }
+        updatePlaybackState(PlaybackStateCompat.STATE_STOPPED);
+    }
+    
+    @Override
+    public void onTrackChanged(String url, String title, String artist, String artwork) {
+        Trace.i(TAG, "onTrackChanged", url);
+        PlaybackQueue.Entry track;
+        int queueIndex = -1;
+        PlaybackQueue.Entry expected = queue.peekNext();
+        if (expected != null && url.equals(expected.url)) {
+            track = queue.advance();
+            queueIndex = queue.getCurrentIndex();
+        } else {
+            track = new PlaybackQueue.Entry(null, url, title, artist, nextAlbum, artwork, nextDuration);
+        }
+        nextAlbum = null;
+        nextDuration = 0;
+        
+        updateNowPlaying(track.url, track.title, track.artist, track.album, track.artwork, track.duration);
+        bufferedPosition = 0;
+        updatePlaybackState(PlaybackStateCompat.STATE_PLAYING);
+        if (queueIndex >= 0) {
+            prepareNextFromQueue();
+        }
+        
+        if (listener != null) {
+            listener.onTrackChanged(track, queueIndex, "completion");
+        }
+    }
+    
     @Override
     public void onBuffering() {
-        Log.d(TAG, "CarAudio buffering - setting buffering state");
-        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING, 0);
+        Trace.d(TAG, "onBuffering");
+        updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING);
+    }
+    
+    @Override
+    public void onBufferedPosition(long positionMs) {
+        // Goes out with the next state change rather than republishing the state for every update
+        bufferedPosition = positionMs;
     }
 }
\ No newline at end of file
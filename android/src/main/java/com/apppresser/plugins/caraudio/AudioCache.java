@@ -0,0 +1,342 @@
+package com.apppresser.plugins.caraudio;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded disk cache of streamed audio, filled by the caching proxy.
+ *
+ * Each URL gets a sparse data file and a small metadata file holding the
+ * total length, content type and the byte ranges already on disk, so seeks
+ * can be cached as well as the start of a track. Entries are kept in access
+ * order and the least recently used are deleted once the cache is over its
+ * size; entries in use by a connection are never deleted.
+ *
+ * Metadata layout: magic, format version, URL, total length, content type,
+ * range count, then each range's start and end (exclusive).
+ */
+class AudioCache {
+
+    private static final String TAG = "AudioCache";
+    private static final int MAGIC = 0x43414143; // "CAAC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * Byte ranges held on disk, as sorted, non-overlapping [start, end) pairs.
+     */
+    static final class Ranges {
+        private long[] bounds = new long[0];
+
+        /**
+         * Add [start, end), merging it with any range it overlaps or touches.
+         */
+        void add(long start, long end) {
+            if (end <= start) {
+                return;
+            }
+            List<long[]> merged = new ArrayList<>();
+            for (int i = 0; i < bounds.length; i += 2) {
+                long s = bounds[i];
+                long e = bounds[i + 1];
+                if (e < start || s > end) {
+                    merged.add(new long[] { s, e });
+                } else {
+                    start = Math.min(start, s);
+                    end = Math.max(end, e);
+                }
+            }
+            merged.add(new long[] { start, end });
+            merged.sort((a, b) -> Long.compare(a[0], b[0]));
+            long[] next = new long[merged.size() * 2];
+            for (int i = 0; i < merged.size(); i++) {
+                next[i * 2] = merged.get(i)[0];
+                next[i * 2 + 1] = merged.get(i)[1];
+            }
+            bounds = next;
+        }
+
+        /**
+         * End of the cached run that contains position, or position itself if it isn't cached.
+         */
+        long runEnd(long position) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (position >= bounds[i] && position < bounds[i + 1]) {
+                    return bounds[i + 1];
+                }
+            }
+            return position;
+        }
+
+        long total() {
+            long total = 0;
+            for (int i = 0; i < bounds.length; i += 2) {
+                total += bounds[i + 1] - bounds[i];
+            }
+            return total;
+        }
+
+        int count() {
+            return bounds.length / 2;
+        }
+    }
+
+    /**
+     * One cached URL; connections hold it between acquire() and release().
+     */
+    static final class Entry {
+        final String key;
+        final String url;
+        final File data;
+        final File meta;
+        final Ranges ranges = new Ranges();
+        long length = -1;
+        String contentType;
+        int users;
+
+        Entry(File dir, String key, String url) {
+            this.key = key;
+            this.url = url;
+            this.data = new File(dir, key + DATA_SUFFIX);
+            this.meta = new File(dir, key + META_SUFFIX);
+        }
+    }
+
+    private final File dir;
+    private long maxBytes;
+    private long totalBytes = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Open the cache in dir, picking up entries left by earlier runs, least recently modified first.
+     */
+    AudioCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create cache directory " + dir);
+        }
+        loadEntries();
+        trim();
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Bytes of audio currently on disk.
+     */
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * Get or create the entry for url and hold it until release().
+     */
+    public synchronized Entry acquire(String url) {
+        String key = keyFor(url);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(dir, key, url);
+            entries.put(key, entry);
+        }
+        entry.users++;
+        return entry;
+    }
+
+    /**
+     * Let go of an entry, saving its metadata and trimming the cache once nobody holds it.
+     */
+    public synchronized void release(Entry entry) {
+        entry.users--;
+        if (entry.users == 0) {
+            if (entries.get(entry.key) == entry) {
+                if (entry.ranges.count() == 0) {
+                    // Nothing was cached, e.g. a live stream; don't keep an empty entry around
+                    entries.remove(entry.key);
+                    entry.data.delete();
+                    entry.meta.delete();
+                } else {
+                    saveMeta(entry);
+                }
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Record the total length and content type reported by the origin. A different
+     * length means the resource changed, so its cached ranges are forgotten; the
+     * stale bytes stay in the file, which other connections may have open, until
+     * they are overwritten.
+     */
+    public synchronized void setInfo(Entry entry, long length, String contentType) {
+        if (entry.length >= 0 && entry.length != length) {
+            totalBytes -= entry.ranges.total();
+            entry.ranges.bounds = new long[0];
+        }
+        entry.length = length;
+        entry.contentType = contentType;
+    }
+
+    /**
+     * Record that [start, end) of the entry's data file now holds valid bytes,
+     * trimming other entries if that takes the cache over its size.
+     */
+    public synchronized void addRange(Entry entry, long start, long end) {
+        long before = entry.ranges.total();
+        entry.ranges.add(start, end);
+        totalBytes += entry.ranges.total() - before;
+        trim();
+    }
+
+    /**
+     * End of the cached run starting at position, or position if that byte isn't cached.
+     */
+    public synchronized long cachedRunEnd(Entry entry, long position) {
+        return entry.ranges.runEnd(position);
+    }
+
+    public synchronized long getLength(Entry entry) {
+        return entry.length;
+    }
+
+    public synchronized String getContentType(Entry entry) {
+        return entry.contentType;
+    }
+
+    /**
+     * Delete every entry that is not in use.
+     */
+    public synchronized void clear() {
+        long keep = maxBytes;
+        maxBytes = 0;
+        trim();
+        maxBytes = keep;
+    }
+
+    // Evict least recently used entries until the cache fits, skipping entries in use
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.users > 0) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= entry.ranges.total();
+            entry.data.delete();
+            entry.meta.delete();
+            Trace.d(TAG, "evict", entry.url);
+        }
+    }
+
+    private void saveMeta(Entry entry) {
+        if (entry.length < 0 || entry.ranges.count() == 0) {
+            return;
+        }
+        File temp = new File(entry.meta.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(entry.url);
+            out.writeLong(entry.length);
+            out.writeUTF(entry.contentType != null ? entry.contentType : "");
+            out.writeInt(entry.ranges.count());
+            for (long bound : entry.ranges.bounds) {
+                out.writeLong(bound);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save cache metadata: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(entry.meta)) {
+            temp.delete();
+        }
+    }
+
+    private void loadEntries() {
+        File[] metas = dir.listFiles((parent, name) -> name.endsWith(META_SUFFIX));
+        if (metas == null) {
+            return;
+        }
+        Arrays.sort(metas, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File meta : metas) {
+            String key = meta.getName().substring(0, meta.getName().length() - META_SUFFIX.length());
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Unknown format");
+                }
+                Entry entry = new Entry(dir, key, in.readUTF());
+                entry.length = in.readLong();
+                String contentType = in.readUTF();
+                entry.contentType = contentType.isEmpty() ? null : contentType;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entry.ranges.add(in.readLong(), in.readLong());
+                }
+                if (!entry.data.exists() || entry.data.length() < lastBound(entry.ranges)) {
+                    throw new IOException("Data file is missing or short");
+                }
+                entries.put(key, entry);
+                totalBytes += entry.ranges.total();
+            } catch (IOException e) {
+                meta.delete();
+                new File(dir, key + DATA_SUFFIX).delete();
+            }
+        }
+        // Data files whose metadata was never written hold nothing we can trust
+        File[] orphans = dir.listFiles((parent, name) -> name.endsWith(DATA_SUFFIX)
+                && !entries.containsKey(name.substring(0, name.length() - DATA_SUFFIX.length())));
+        if (orphans != null) {
+            for (File orphan : orphans) {
+                orphan.delete();
+            }
+        }
+    }
+
+    private static long lastBound(Ranges ranges) {
+        return ranges.bounds.length > 0 ? ranges.bounds[ranges.bounds.length - 1] : 0;
+    }
+
+    static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
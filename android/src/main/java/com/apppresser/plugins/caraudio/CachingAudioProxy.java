@@ -0,0 +1,473 @@
+package com.apppresser.plugins.caraudio;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP proxy on the loopback interface that MediaPlayer streams through, so
+ * replays, seeks back and resumes are served from the AudioCache instead of
+ * the network.
+ *
+ * Each request is answered with the requested range of the origin resource.
+ * Runs already on disk are sent with FileChannel.transferTo straight to the
+ * socket. The rest is fetched from the origin with a Range request and teed
+ * into the cache as it is forwarded. Resources without a known length, such
+ * as live streams, are passed through without caching. Only URLs handed out
+ * by proxyUrl() are served, under a random per-process path prefix, so
+ * other apps on the device can't use the proxy to fetch arbitrary URLs.
+ */
+class CachingAudioProxy {
+
+    private static final String TAG = "CachingAudioProxy";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+
+    private final AudioCache cache;
+    private final String secret;
+    // Cache key -> origin URL, for every URL handed out by proxyUrl()
+    private final Map<String, String> origins = new ConcurrentHashMap<>();
+    // Origin URL -> requests sent to the origin for it, so callers can tell cache-only responses apart
+    private final Map<String, AtomicInteger> originFetches = new ConcurrentHashMap<>();
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "CarAudioProxyConnection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocketChannel server;
+    private volatile int port = -1;
+
+    CachingAudioProxy(AudioCache cache) {
+        this.cache = cache;
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        this.secret = hex.toString();
+    }
+
+    public AudioCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Bind to an ephemeral loopback port and start accepting connections.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        port = server.socket().getLocalPort();
+        final ServerSocketChannel accepting = server;
+        Thread acceptThread = new Thread(() -> acceptLoop(accepting), "CarAudioProxy");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Trace.i(TAG, "started", port);
+    }
+
+    public synchronized void stop() {
+        port = -1;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Closing is best effort; the accept loop exits either way
+            }
+            server = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return port > 0;
+    }
+
+    /**
+     * URL to hand to MediaPlayer for url; anything but http(s), or any URL while
+     * the proxy is stopped, is returned unchanged.
+     */
+    public String proxyUrl(String url) {
+        int localPort = port;
+        if (localPort <= 0 || url == null) {
+            return url;
+        }
+        String lower = url.toLowerCase(Locale.US);
+        if (!lower.startsWith("http://") && !lower.startsWith("https://")) {
+            return url;
+        }
+        String key = AudioCache.keyFor(url);
+        origins.put(key, url);
+        return "http://127.0.0.1:" + localPort + "/" + secret + "/" + key;
+    }
+
+    /**
+     * How many requests for url have gone to its origin. A count that is unchanged
+     * across a prepare means the cache answered everything the player asked for.
+     */
+    public int originFetchCount(String url) {
+        AtomicInteger count = originFetches.get(url);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Whether source is a URL handed out by this proxy's proxyUrl().
+     */
+    public boolean serves(String source) {
+        return source != null && source.startsWith("http://127.0.0.1:") && source.contains("/" + secret + "/");
+    }
+
+    private void acceptLoop(ServerSocketChannel accepting) {
+        while (true) {
+            try {
+                SocketChannel client = accepting.accept();
+                connections.execute(() -> handle(client));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Accept failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * A parsed client request; rangeEnd is inclusive and -1 when open-ended.
+     */
+    private static final class Request {
+        String method;
+        String path;
+        String userAgent;
+        boolean hasRange;
+        long rangeStart = 0;
+        long rangeEnd = -1;
+        long suffixLength = -1;
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            Request request = readRequest(channel);
+            if (request == null) {
+                return;
+            }
+            String url = resolve(request.path);
+            if (url == null) {
+                writeStatus(channel, 404, "Not Found");
+                return;
+            }
+            serve(channel, request, url);
+        } catch (IOException e) {
+            // The player closes connections whenever it seeks or stops; that is not an error
+            Trace.d(TAG, "connectionClosed", e.getMessage());
+        }
+    }
+
+    private String resolve(String path) {
+        String prefix = "/" + secret + "/";
+        if (path == null || !path.startsWith(prefix)) {
+            return null;
+        }
+        return origins.get(path.substring(prefix.length()));
+    }
+
+    private void serve(SocketChannel channel, Request request, String url) throws IOException {
+        AudioCache.Entry entry = cache.acquire(url);
+        HttpURLConnection upstream = null;
+        try (RandomAccessFile file = new RandomAccessFile(entry.data, "rw"); FileChannel data = file.getChannel()) {
+            long length = cache.getLength(entry);
+            long start = request.rangeStart;
+            long upstreamOffset = -1;
+
+            if (length < 0) {
+                // Nothing known about this resource yet: ask the origin for its length and type first
+                upstream = openUpstream(url, Math.max(0, start), request.userAgent);
+                int code = upstream.getResponseCode();
+                upstreamOffset = code == 206 ? parseContentRangeStart(upstream.getHeaderField("Content-Range")) : 0;
+                length = code == 206 ? parseContentRangeTotal(upstream.getHeaderField("Content-Range"))
+                        : code == 200 ? parseLong(upstream.getHeaderField("Content-Length")) : -1;
+                if (code != 200 && code != 206) {
+                    writeStatus(channel, code == 416 ? 416 : 502, code == 416 ? "Range Not Satisfiable" : "Bad Gateway");
+                    return;
+                }
+                if (length < 0 || upstreamOffset < 0) {
+                    passThrough(channel, upstream, code);
+                    return;
+                }
+                cache.setInfo(entry, length, upstream.getContentType());
+            }
+
+            if (request.suffixLength >= 0) {
+                start = Math.max(0, length - request.suffixLength);
+            }
+            if (start >= length) {
+                writeHeaders(channel, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\nContent-Length: 0\r\n");
+                return;
+            }
+            long last = request.rangeEnd >= 0 ? Math.min(request.rangeEnd, length - 1) : length - 1;
+            String contentType = cache.getContentType(entry);
+            StringBuilder headers = new StringBuilder()
+                    .append("Content-Type: ").append(contentType != null ? contentType : DEFAULT_CONTENT_TYPE).append("\r\n")
+                    .append("Content-Length: ").append(last - start + 1).append("\r\n")
+                    .append("Accept-Ranges: bytes\r\n");
+            if (request.hasRange) {
+                headers.append("Content-Range: bytes ").append(start).append('-').append(last).append('/').append(length).append("\r\n");
+            }
+            writeHeaders(channel, request.hasRange ? "206 Partial Content" : "200 OK", headers.toString());
+            if ("HEAD".equals(request.method)) {
+                return;
+            }
+
+            long position = start;
+            while (position <= last) {
+                long runEnd = Math.min(cache.cachedRunEnd(entry, position), last + 1);
+                if (runEnd > position) {
+                    transferFromDisk(data, position, runEnd - position, channel);
+                    Trace.d(TAG, "servedFromCache", runEnd - position);
+                    position = runEnd;
+                    continue;
+                }
+                // Not on disk: stream the rest from the origin, teeing it into the cache
+                if (upstream == null || upstreamOffset > position) {
+                    if (upstream != null) {
+                        upstream.disconnect();
+                    }
+                    upstream = openUpstream(url, position, request.userAgent);
+                    int code = upstream.getResponseCode();
+                    upstreamOffset = code == 206 ? parseContentRangeStart(upstream.getHeaderField("Content-Range")) : code == 200 ? 0 : -1;
+                    if (upstreamOffset < 0 || upstreamOffset > position) {
+                        throw new IOException("Origin answered " + code + " for a range request");
+                    }
+                }
+                position = tee(upstream, upstreamOffset, data, entry, position, last, channel);
+                upstream.disconnect();
+                upstream = null;
+            }
+        } finally {
+            if (upstream != null) {
+                upstream.disconnect();
+            }
+            cache.release(entry);
+        }
+    }
+
+    // Copy origin bytes into the data file from upstreamOffset on, forwarding those from position to last
+    private long tee(HttpURLConnection upstream, long upstreamOffset, FileChannel data, AudioCache.Entry entry,
+                     long position, long last, SocketChannel channel) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = upstreamOffset;
+        try (InputStream in = upstream.getInputStream()) {
+            while (position <= last) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Origin closed the stream at " + offset);
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    data.write(chunk, offset + chunk.position());
+                }
+                cache.addRange(entry, offset, offset + read);
+
+                // Forward only the part of the chunk the client asked for
+                long from = Math.max(position, offset);
+                long to = Math.min(last + 1, offset + read);
+                if (to > from) {
+                    ByteBuffer forward = ByteBuffer.wrap(buffer, (int) (from - offset), (int) (to - from));
+                    while (forward.hasRemaining()) {
+                        channel.write(forward);
+                    }
+                    position = to;
+                }
+                offset += read;
+            }
+        }
+        return position;
+    }
+
+    private static void transferFromDisk(FileChannel data, long position, long count, SocketChannel channel) throws IOException {
+        while (count > 0) {
+            long sent = data.transferTo(position, count, channel);
+            if (sent <= 0) {
+                throw new IOException("Cache file is shorter than its recorded ranges");
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    // Forward a response we can't cache, such as a live stream without a length
+    private static void passThrough(SocketChannel channel, HttpURLConnection upstream, int code) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        String contentType = upstream.getContentType();
+        headers.append("Content-Type: ").append(contentType != null ? contentType : DEFAULT_CONTENT_TYPE).append("\r\n");
+        String contentRange = upstream.getHeaderField("Content-Range");
+        if (code == 206 && contentRange != null) {
+            headers.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        writeHeaders(channel, code == 206 ? "206 Partial Content" : "200 OK", headers.toString());
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = upstream.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        }
+    }
+
+    private HttpURLConnection openUpstream(String url, long position, String userAgent) throws IOException {
+        originFetches.computeIfAbsent(url, key -> new AtomicInteger()).incrementAndGet();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(true);
+        // Byte offsets must refer to the resource itself, not a compressed encoding of it
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (position > 0) {
+            connection.setRequestProperty("Range", "bytes=" + position + "-");
+        }
+        if (userAgent != null) {
+            connection.setRequestProperty("User-Agent", userAgent);
+        }
+        return connection;
+    }
+
+    private static Request readRequest(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        int headerEnd = -1;
+        while (headerEnd < 0) {
+            if (!buffer.hasRemaining() || channel.read(buffer) < 0) {
+                return null;
+            }
+            headerEnd = indexOfHeaderEnd(buffer.array(), buffer.position());
+        }
+        String head = new String(buffer.array(), 0, headerEnd, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 2) {
+            return null;
+        }
+
+        Request request = new Request();
+        request.method = requestLine[0];
+        request.path = requestLine[1];
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if ("Range".equalsIgnoreCase(name)) {
+                parseRange(request, value);
+            } else if ("User-Agent".equalsIgnoreCase(name)) {
+                request.userAgent = value;
+            }
+        }
+        return request;
+    }
+
+    // Only single ranges are supported, which is all MediaPlayer sends
+    private static void parseRange(Request request, String value) {
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return;
+        }
+        String first = spec.substring(0, dash).trim();
+        String second = spec.substring(dash + 1).trim();
+        if (first.isEmpty()) {
+            long suffix = parseLong(second);
+            if (suffix >= 0) {
+                request.hasRange = true;
+                request.suffixLength = suffix;
+            }
+            return;
+        }
+        long start = parseLong(first);
+        long end = second.isEmpty() ? -1 : parseLong(second);
+        if (start >= 0 && (second.isEmpty() || end >= start)) {
+            request.hasRange = true;
+            request.rangeStart = start;
+            request.rangeEnd = end;
+        }
+    }
+
+    private static int indexOfHeaderEnd(byte[] bytes, int limit) {
+        for (int i = 3; i < limit; i++) {
+            if (bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // "bytes start-end/total" -> start, or -1
+    private static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash > 0 ? parseLong(contentRange.substring("bytes ".length(), dash).trim()) : -1;
+    }
+
+    // "bytes start-end/total" -> total, or -1 when it is missing or "*"
+    private static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash >= 0 ? parseLong(contentRange.substring(slash + 1).trim()) : -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeStatus(SocketChannel channel, int code, String reason) throws IOException {
+        writeHeaders(channel, code + " " + reason, "Content-Length: 0\r\n");
+    }
+
+    private static void writeHeaders(SocketChannel channel, String status, String headers) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        ByteBuffer bytes = ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -1,26 +1,71 @@
 package com.apppresser.plugins.caraudio;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.security.NetworkSecurityPolicy;
 import android.util.Log;
+import com.apppresser.plugins.caraudio.PlaybackStateMachine.State;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
-public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener, AudioManager.OnAudioFocusChangeListener {
+public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener, MediaPlayer.OnSeekCompleteListener,
+        MediaPlayer.OnInfoListener, MediaPlayer.OnBufferingUpdateListener, AudioManager.OnAudioFocusChangeListener {
 
     public static final String TAG = "CarAudio";
     private Context context;
     private MediaPlayer mediaPlayer;
     private AudioManager audioManager;
     private AudioFocusRequest audioFocusRequest;
-    private Handler timeoutHandler;
+    // All player work happens on one thread. MediaPlayer calls back on the looper of the thread
+    // that created it, timeouts and retries are posted here, and public commands from the plugin,
+    // the session or the browser service hop here, so state needs no locks and stays off the main thread.
+    private final HandlerThread playbackThread;
+    private final Handler playbackHandler;
+    private final ConfinedExecutor playbackExecutor;
     private Runnable timeoutRunnable;
-    private static final int PREPARE_TIMEOUT = 30000; // 30 seconds timeout
+    
+    // Prepare failures and timeouts move on to the item's alternate URLs, then retry the list after a
+    // backoff. Timeouts follow measured latency and hosts that keep failing are skipped, see RetryPolicy.
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private List<String> candidateUrls = Collections.emptyList();
+    private int candidateIndex;
+    private int round;
+    private boolean attemptedThisRound;
+    private Runnable retryRunnable;
+    private String lastError;
+    // Remote URL being prepared for the current player and when it started, for latency samples; null for local files
+    private String preparingRemoteUrl;
+    private long prepareStartedAt;
+    private long nextPrepareStartedAt;
+    // Origin fetches through the cache proxy when each prepare started, or -1 when it bypassed the proxy
+    private int prepareOriginFetches = -1;
+    private int nextPrepareOriginFetches = -1;
+    
+    // Scrubbing sends many targets, but only one seek runs on the player at a time; the latest
+    // target requested meanwhile replaces any earlier one and runs when the seek completes.
+    private final SeekCoalescer seeks = new SeekCoalescer();
+    
+    // Last position read from the player, for the states in which it can't be read
+    private final PlaybackPosition lastPosition = new PlaybackPosition();
+    
+    // Time to first audio, stalls and play time for each track; read by the plugin from its own thread
+    private final PlaybackQuality quality = new PlaybackQuality();
+    private int bufferedPercent = -1;
     
     // Callback interface for state changes
     public interface CarAudioStateListener {
@@ -30,26 +75,112 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
         void onStopped();
         void onError(String errorMessage);
         void onBuffering();
+        // How far the current track has been buffered, from the player's buffering updates
+        void onBufferedPosition(long positionMs);
+        // The track played to its end with no next track prepared
+        void onCompleted();
+        // The prepared next track took over at completion without a gap
+        void onTrackChanged(String url, String title, String artist, String artwork);
     }
     
     private CarAudioStateListener stateListener;
     
-    // Playback state
-    private enum PlaybackState {
-        IDLE, PREPARING, PREPARED, PLAYING, PAUSED, STOPPED, ERROR
-    }
+    // Playback state; transitions are checked against a table and logged. Each new track begins a
+    // generation, and playerGeneration is the one the current player's prepare belongs to.
+    private final PlaybackStateMachine state = new PlaybackStateMachine();
+    private long playerGeneration;
     
-    private PlaybackState currentState = PlaybackState.IDLE;
-    private String currentUrl;
+    // Written on the playback thread only; volatile so getters can be called from anywhere
+    private volatile String currentUrl;
     private String currentTitle;
     private String currentArtist;
     private String currentArtwork;
+    
+    // Gapless "next track" slot: a second player prepared in the background and chained with
+    // setNextMediaPlayer. At completion the two players swap roles, so neither is re-allocated.
+    private MediaPlayer nextPlayer;
+    private boolean nextPrepared = false;
+    // setNextMediaPlayer succeeded, so the framework starts nextPlayer itself at completion
+    private boolean nextChained = false;
+    private volatile String nextUrl;
+    private String nextTitle;
+    private String nextArtist;
+    private String nextArtwork;
+    
+    // Players prepared ahead for likely selections (focused browse items, prepare requests).
+    // Disabled until limits are set; memory is charged at a rough per-player estimate.
+    private static final long PREPARED_PLAYER_BYTES = 4L * 1024 * 1024;
+    private final PrepareAheadPool<MediaPlayer> prepareAheadPool = new PrepareAheadPool<>(MediaPlayer::release, PREPARED_PLAYER_BYTES);
+    
+    // Streams go through a loopback proxy that caches them on disk, so replays and seeks back
+    // don't hit the network. Null while disabled, starting, or if cleartext to loopback is blocked.
+    private static final String AUDIO_CACHE_DIR = "caraudio_audio";
+    private static final long DEFAULT_AUDIO_CACHE_BYTES = 256L * 1024 * 1024;
+    private final Object proxyLock = new Object();
+    private volatile CachingAudioProxy audioProxy;
+    // Proxy switched off while the current or next player streams through it; stopped once neither does
+    private volatile CachingAudioProxy retiredProxy;
+    private long audioCacheLimit = DEFAULT_AUDIO_CACHE_BYTES;
+    // Data source each player was last given, to tell which ones stream through a proxy
+    private final Map<MediaPlayer, String> playerSources = new WeakHashMap<>();
+    
+    // Downloaded copies are played in preference to the network; set once the plugin has opened them
+    private volatile OfflineDownloads offlineDownloads;
+    
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                // Only the phone UI went away; the car may still be browsing
+                return;
+            }
+            // Pooled players belong to the playback thread, so they are released there
+            execute(() -> {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                    prepareAheadPool.clear();
+                } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                    prepareAheadPool.trimTo(1);
+                }
+            });
+            Trace.i(TAG, "trimMemory", level);
+        }
+        
+        @Override
+        public void onLowMemory() {
+            execute(prepareAheadPool::clear);
+        }
+        
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
 
     public CarAudio(Context context) {
         this.context = context;
         this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        this.timeoutHandler = new Handler(Looper.getMainLooper());
-        initializeMediaPlayer();
+        this.playbackThread = new HandlerThread("CarAudioPlayback", Process.THREAD_PRIORITY_AUDIO);
+        this.playbackThread.start();
+        this.playbackHandler = new Handler(playbackThread.getLooper());
+        this.playbackExecutor = new ConfinedExecutor(playbackThread, playbackHandler::post);
+        context.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        // Created on the playback thread so its callbacks are delivered there
+        playbackHandler.post(this::initializeMediaPlayer);
+        startAudioProxy();
+    }
+    
+    /**
+     * Run command on the playback thread: at once if already there, otherwise after the commands queued before it.
+     */
+    public void execute(Runnable command) {
+        playbackExecutor.execute(command);
+    }
+    
+    public Handler getPlaybackHandler() {
+        return playbackHandler;
+    }
+    
+    private boolean isPlaybackThread() {
+        return playbackExecutor.inThread();
     }
     
     public void setStateListener(CarAudioStateListener listener) {
@@ -61,10 +192,20 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
             mediaPlayer.release();
         }
         
-        mediaPlayer = new MediaPlayer();
-        mediaPlayer.setOnPreparedListener(this);
-        mediaPlayer.setOnErrorListener(this);
-        mediaPlayer.setOnCompletionListener(this);
+        mediaPlayer = createMediaPlayer();
+        
+        // Log current audio settings
+        logAudioSettings();
+    }
+    
+    private MediaPlayer createMediaPlayer() {
+        MediaPlayer player = new MediaPlayer();
+        player.setOnPreparedListener(this);
+        player.setOnErrorListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnSeekCompleteListener(this);
+        player.setOnInfoListener(this);
+        player.setOnBufferingUpdateListener(this);
         
         // Set audio attributes for media playback
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -73,23 +214,31 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
                 .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
                 .setFlags(AudioAttributes.FLAG_AUDIBILITY_ENFORCED)
                 .build();
-            mediaPlayer.setAudioAttributes(audioAttributes);
-            Log.d(TAG, "Set AudioAttributes for API " + Build.VERSION.SDK_INT);
+            player.setAudioAttributes(audioAttributes);
+            Trace.d(TAG, "audioAttributes", Build.VERSION.SDK_INT);
         } else {
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            Log.d(TAG, "Set AudioStreamType STREAM_MUSIC for API " + Build.VERSION.SDK_INT);
+            player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            Trace.d(TAG, "audioStreamType", Build.VERSION.SDK_INT);
         }
         
         // Set volume to maximum
-        mediaPlayer.setVolume(1.0f, 1.0f);
-        Log.d(TAG, "MediaPlayer volume set to maximum");
-        
-        // Log current audio settings
-        logAudioSettings();
+        player.setVolume(1.0f, 1.0f);
+        return player;
     }
 
     public void play(String url, String title, String artist, String artwork) {
-        Log.d(TAG, "play called with url: " + url);
+        play(url, title, artist, artwork, null);
+    }
+    
+    /**
+     * Play url, falling back to alternateUrls in order if it can't be prepared.
+     */
+    public void play(String url, String title, String artist, String artwork, List<String> alternateUrls) {
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> play(url, title, artist, artwork, alternateUrls));
+            return;
+        }
+        Trace.i(TAG, "play", url);
         
         if (url == null || url.trim().isEmpty()) {
             Log.e(TAG, "Invalid URL provided");
@@ -101,6 +250,21 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
         currentTitle = title;
         currentArtist = artist;
         currentArtwork = artwork;
+        cancelRetry();
+        candidateUrls = new ArrayList<>();
+        candidateUrls.add(url);
+        if (alternateUrls != null) {
+            for (String alternate : alternateUrls) {
+                if (alternate != null && !alternate.trim().isEmpty() && !candidateUrls.contains(alternate)) {
+                    candidateUrls.add(alternate);
+                }
+            }
+        }
+        candidateIndex = 0;
+        round = 1;
+        attemptedThisRound = false;
+        lastError = null;
+        preparingRemoteUrl = null;
 
         // Ensure system volume is audible
         ensureAudibleVolume();
@@ -108,72 +272,209 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
         // Request audio focus
         if (!requestAudioFocus()) {
             Log.e(TAG, "Failed to gain audio focus");
+            Metrics.increment("audio.focusDenied");
             return;
         }
-
-        try {
-            // Reset and prepare MediaPlayer
-            currentState = PlaybackState.PREPARING;
+        quality.begin(url, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+        bufferedPercent = -1;
+        
+        // Skipping to the prepared next track starts it without another prepare
+        if (nextPrepared && url.equals(nextUrl)) {
+            cancelPrepareTimeout();
+            unchainNextPlayer();
             mediaPlayer.reset();
-            mediaPlayer.setDataSource(url);
-            
-            Log.d(TAG, "MediaPlayer reset and data source set for: " + url);
-            Log.d(TAG, "Track info - Title: " + title + ", Artist: " + artist);
-            
-            // Notify listener that we're preparing
+            promoteNextPlayer();
+            playerGeneration = state.begin(State.PREPARED, "nextAdopted");
+            if (!state.transition(playerGeneration, State.PLAYING, "startedPrepared")) {
+                return;
+            }
+            mediaPlayer.start();
+            quality.firstAudio(url, SystemClock.elapsedRealtime());
+            Trace.i(TAG, "startedPrepared", url);
             if (stateListener != null) {
-                Log.d(TAG, "Notifying state listener: onPreparing()");
-                stateListener.onPreparing();
+                stateListener.onPlaying();
+            }
+            return;
+        }
+        
+        // A selection that was prepared ahead adopts that player instead of preparing again
+        PrepareAheadPool.Entry<MediaPlayer> pooled = prepareAheadPool.take(url);
+        if (pooled != null) {
+            cancelPrepareTimeout();
+            unchainNextPlayer();
+            mediaPlayer.release();
+            mediaPlayer = pooled.player;
+            Trace.i(TAG, "prepareAheadHit", url, pooled.prepared ? 1 : 0);
+            if (pooled.prepared) {
+                playerGeneration = state.begin(State.PREPARED, "prepareAheadAdopted");
+                if (!state.transition(playerGeneration, State.PLAYING, "startedPrepared")) {
+                    return;
+                }
+                mediaPlayer.start();
+                quality.firstAudio(url, SystemClock.elapsedRealtime());
+                if (stateListener != null) {
+                    stateListener.onPlaying();
+                }
+                chainNextPlayer();
             } else {
-                Log.w(TAG, "No state listener set - AndroidAutoController won't be notified of state changes");
+                // Still preparing; onPrepared starts it as the current player
+                playerGeneration = state.begin(State.PREPARING, "prepareAheadAdopted");
+                if (stateListener != null) {
+                    stateListener.onPreparing();
+                }
+                // If it fails, the usual retries and alternates take over
+                attemptedThisRound = true;
+                setupPrepareTimeout(retryPolicy.prepareTimeout(url, round));
             }
-            
-            // Set up timeout for preparation
-            setupPrepareTimeout();
-            
-            // Prepare asynchronously
-            mediaPlayer.prepareAsync();
-            
-            Log.d(TAG, "Started preparing audio from: " + url);
-            
-        } catch (IOException e) {
-            Log.e(TAG, "Error setting data source: " + e.getMessage());
-            currentState = PlaybackState.ERROR;
-            if (stateListener != null) {
-                stateListener.onError("Error setting data source: " + e.getMessage());
+            return;
+        }
+
+        playerGeneration = state.begin(State.PREPARING, "play");
+        Trace.d(TAG, "dataSource", title);
+        
+        // Notify listener that we're preparing; retries stay in this state
+        if (stateListener != null) {
+            stateListener.onPreparing();
+        } else {
+            Log.w(TAG, "No state listener set - AndroidAutoController won't be notified of state changes");
+        }
+        
+        prepareCandidate();
+    }
+    
+    // Prepare the next candidate URL, skipping hosts whose circuit breaker is open. When a round
+    // through the candidates has failed, retry after a backoff, or give up once attempts are used.
+    private void prepareCandidate() {
+        retryRunnable = null;
+        mediaPlayer.reset();
+        while (candidateIndex < candidateUrls.size()) {
+            String candidate = candidateUrls.get(candidateIndex);
+            String source = sourceFor(candidate);
+            boolean remote = isRemote(source);
+            long now = SystemClock.elapsedRealtime();
+            if (remote && !retryPolicy.checkHost(candidate, now)) {
+                Trace.i(TAG, "circuitOpen", candidate, retryPolicy.retryAfter(candidate, now));
+                if (lastError == null) {
+                    lastError = "Host " + RetryPolicy.hostOf(candidate) + " is failing; skipped for "
+                        + retryPolicy.retryAfter(candidate, now) + "ms";
+                }
+                candidateIndex++;
+                continue;
+            }
+            try {
+                setDataSource(mediaPlayer, source);
+                preparingRemoteUrl = remote ? candidate : null;
+                prepareStartedAt = now;
+                prepareOriginFetches = originFetchCount(source, candidate);
+                attemptedThisRound = true;
+                setupPrepareTimeout(remote ? retryPolicy.prepareTimeout(candidate, round) : RetryPolicy.MAX_TIMEOUT_MS);
+                mediaPlayer.prepareAsync();
+                Trace.d(TAG, "prepareAsync", candidate, round);
+                return;
+            } catch (IOException | IllegalStateException e) {
+                // A source MediaPlayer can't open won't get better on retry
+                Log.e(TAG, "Error setting data source: " + e.getMessage());
+                Metrics.increment("player.dataSourceError");
+                lastError = "Error setting data source: " + e.getMessage();
+                mediaPlayer.reset();
+                candidateIndex++;
             }
-            abandonAudioFocus();
         }
+        
+        if (attemptedThisRound && round < retryPolicy.getMaxAttempts()) {
+            round++;
+            candidateIndex = 0;
+            attemptedThisRound = false;
+            long delay = retryPolicy.backoff(round);
+            Trace.i(TAG, "retry", currentUrl, delay);
+            Metrics.increment("player.prepareRetry");
+            long generation = playerGeneration;
+            retryRunnable = () -> {
+                if (state.isCurrent(generation) && state.is(State.PREPARING)) {
+                    prepareCandidate();
+                }
+            };
+            playbackHandler.postDelayed(retryRunnable, delay);
+            return;
+        }
+        
+        if (!state.transition(playerGeneration, State.ERROR, "prepareFailed")) {
+            // Stopped or replaced while preparing; there is nothing left to report
+            return;
+        }
+        Log.e(TAG, "Giving up on " + currentUrl + ": " + lastError);
+        Metrics.increment("player.prepareFailed");
+        quality.end(SystemClock.elapsedRealtime(), true);
+        if (stateListener != null) {
+            stateListener.onError(lastError != null ? lastError : "Could not prepare " + currentUrl);
+        }
+        abandonAudioFocus();
+    }
+    
+    // The candidate being prepared failed or timed out; count it against its host and try the next one
+    private void prepareFailed(String error) {
+        cancelPrepareTimeout();
+        lastError = error;
+        if (preparingRemoteUrl != null && retryPolicy.recordFailure(preparingRemoteUrl, SystemClock.elapsedRealtime())) {
+            Trace.i(TAG, "circuitOpened", RetryPolicy.hostOf(preparingRemoteUrl));
+            Metrics.increment("player.circuitOpened");
+        }
+        preparingRemoteUrl = null;
+        candidateIndex++;
+        prepareCandidate();
+    }
+    
+    private boolean cancelRetry() {
+        if (retryRunnable == null) {
+            return false;
+        }
+        playbackHandler.removeCallbacks(retryRunnable);
+        retryRunnable = null;
+        return true;
+    }
+    
+    // Sources that go over the network, directly or through the loopback cache proxy
+    private static boolean isRemote(String source) {
+        return source.regionMatches(true, 0, "http", 0, 4);
     }
 
     public void pause() {
-        Log.d(TAG, "pause called");
+        if (!isPlaybackThread()) {
+            playbackHandler.post(this::pause);
+            return;
+        }
+        Trace.i(TAG, "pause");
         
-        if (currentState == PlaybackState.PLAYING && mediaPlayer != null) {
+        if (mediaPlayer != null && state.transition(State.PAUSED, "pause")) {
             mediaPlayer.pause();
-            currentState = PlaybackState.PAUSED;
+            quality.paused(SystemClock.elapsedRealtime());
             if (stateListener != null) {
                 stateListener.onPaused();
             }
-            Log.d(TAG, "Audio paused");
+            Trace.d(TAG, "paused");
         } else {
             Log.w(TAG, "Cannot pause - not currently playing");
         }
     }
 
     public void resume() {
-        Log.d(TAG, "resume called");
+        if (!isPlaybackThread()) {
+            playbackHandler.post(this::resume);
+            return;
+        }
+        Trace.i(TAG, "resume");
         
-        if (currentState == PlaybackState.PAUSED && mediaPlayer != null) {
-            if (requestAudioFocus()) {
+        if (state.is(State.PAUSED) && mediaPlayer != null) {
+            if (!requestAudioFocus()) {
+                Log.e(TAG, "Failed to gain audio focus for resume");
+                Metrics.increment("audio.focusDenied");
+            } else if (state.transition(State.PLAYING, "resume")) {
                 mediaPlayer.start();
-                currentState = PlaybackState.PLAYING;
+                quality.resumed(SystemClock.elapsedRealtime());
                 if (stateListener != null) {
                     stateListener.onPlaying();
                 }
-                Log.d(TAG, "Audio resumed");
-            } else {
-                Log.e(TAG, "Failed to gain audio focus for resume");
+                Trace.d(TAG, "resumed");
             }
         } else {
             Log.w(TAG, "Cannot resume - not currently paused");
@@ -181,47 +482,450 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
     }
 
     public void stop() {
-        Log.d(TAG, "stop called");
+        if (!isPlaybackThread()) {
+            playbackHandler.post(this::stop);
+            return;
+        }
+        Trace.i(TAG, "stop");
         
         cancelPrepareTimeout();
         
-        if (mediaPlayer != null && (currentState == PlaybackState.PLAYING || currentState == PlaybackState.PAUSED || currentState == PlaybackState.PREPARING)) {
+        State current = state.get();
+        if (cancelRetry() && current == State.PREPARING) {
+            // Waiting to retry: the player is idle, so there is nothing to stop
+            if (state.transition(State.STOPPED, "stop") && stateListener != null) {
+                stateListener.onStopped();
+            }
+        } else if (mediaPlayer != null && (current == State.PLAYING || current == State.PAUSED || current == State.PREPARING)
+                && state.transition(State.STOPPED, "stop")) {
             mediaPlayer.stop();
-            currentState = PlaybackState.STOPPED;
             if (stateListener != null) {
                 stateListener.onStopped();
             }
-            Log.d(TAG, "Audio stopped");
+            Trace.d(TAG, "stopped");
         }
+        quality.end(SystemClock.elapsedRealtime(), false);
+        scheduleRetiredProxyCheck();
         
         abandonAudioFocus();
     }
 
+    /**
+     * Release the players and end the playback thread once the commands already queued have run.
+     */
     public void release() {
-        Log.d(TAG, "Releasing CarAudio resources");
+        if (!isPlaybackThread()) {
+            playbackHandler.post(this::release);
+            return;
+        }
+        Trace.i(TAG, "release");
         
         cancelPrepareTimeout();
+        cancelRetry();
         abandonAudioFocus();
         
         if (mediaPlayer != null) {
             mediaPlayer.release();
             mediaPlayer = null;
         }
+        if (nextPlayer != null) {
+            nextPlayer.release();
+            nextPlayer = null;
+        }
+        clearNextTrackInfo();
+        prepareAheadPool.clear();
+        context.getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        synchronized (proxyLock) {
+            audioCacheLimit = 0;
+            if (audioProxy != null) {
+                audioProxy.stop();
+                audioProxy = null;
+            }
+            if (retiredProxy != null) {
+                retiredProxy.stop();
+                retiredProxy = null;
+            }
+        }
         
-        currentState = PlaybackState.IDLE;
+        if (!state.is(State.IDLE)) {
+            state.transition(State.IDLE, "release");
+        }
+        quality.end(SystemClock.elapsedRealtime(), false);
+        playbackThread.quitSafely();
+    }
+
+    /**
+     * Prepare the track that should follow the current one, so completion hands
+     * over without a gap. Pass a null url to clear the slot.
+     */
+    public void setNextTrack(String url, String title, String artist, String artwork) {
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> setNextTrack(url, title, artist, artwork));
+            return;
+        }
+        if (url != null && url.equals(nextUrl)) {
+            return;
+        }
+        
+        // Unchain and recycle whatever was in the slot
+        unchainNextPlayer();
+        if (nextPlayer != null) {
+            nextPlayer.reset();
+        }
+        clearNextTrackInfo();
+        
+        if (url == null || url.trim().isEmpty()) {
+            return;
+        }
+        
+        // Reuse a player prepared ahead for the same URL
+        PrepareAheadPool.Entry<MediaPlayer> pooled = prepareAheadPool.take(url);
+        if (pooled != null) {
+            if (nextPlayer != null) {
+                nextPlayer.release();
+            }
+            nextPlayer = pooled.player;
+            nextPrepared = pooled.prepared;
+            nextUrl = url;
+            nextTitle = title;
+            nextArtist = artist;
+            nextArtwork = artwork;
+            chainNextPlayer();
+            return;
+        }
+        
+        String source = sourceFor(url);
+        if (isRemote(source) && retryPolicy.retryAfter(url, SystemClock.elapsedRealtime()) > 0) {
+            // Its host is failing; completion will fall back to a normal play, which can use alternates
+            Trace.d(TAG, "nextSkippedCircuitOpen", url);
+            return;
+        }
+        if (nextPlayer == null) {
+            nextPlayer = createMediaPlayer();
+        }
+        try {
+            setDataSource(nextPlayer, source);
+            nextPrepareStartedAt = isRemote(source) ? SystemClock.elapsedRealtime() : 0;
+            nextPrepareOriginFetches = originFetchCount(source, url);
+            nextUrl = url;
+            nextTitle = title;
+            nextArtist = artist;
+            nextArtwork = artwork;
+            nextPlayer.prepareAsync();
+            Trace.d(TAG, "prepareNext", url);
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "Could not prepare next track: " + e.getMessage());
+            nextPlayer.reset();
+            clearNextTrackInfo();
+        }
+    }
+    
+    public String getNextUrl() {
+        return nextUrl;
+    }
+    
+    /**
+     * Cap the prepare-ahead pool; maxPlayers of 0 (the default) disables it and releases its players.
+     */
+    public void setPrepareAheadLimits(int maxPlayers, long maxBytes) {
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> setPrepareAheadLimits(maxPlayers, maxBytes));
+            return;
+        }
+        prepareAheadPool.setLimits(maxPlayers, maxBytes);
+        Trace.i(TAG, "prepareAheadLimits", prepareAheadPool.capacity());
+    }
+    
+    /**
+     * How many rounds through an item's URLs a play() makes before it reports an error; 1 disables retries.
+     */
+    public void setPrepareAttempts(int attempts) {
+        retryPolicy.setMaxAttempts(attempts);
+    }
+    
+    public int getPrepareAttempts() {
+        return retryPolicy.getMaxAttempts();
+    }
+    
+    public int getPrepareAheadCapacity() {
+        return prepareAheadPool.capacity();
+    }
+    
+    /**
+     * Size the on-disk audio cache; 0 turns the caching proxy off and deletes the cache.
+     * New sources bypass the proxy at once. The current and next tracks may still
+     * stream through it, and their range requests and seeks need it, so it is only
+     * stopped, and its cache deleted, once neither player uses it.
+     */
+    public void setAudioCacheLimit(long maxBytes) {
+        synchronized (proxyLock) {
+            audioCacheLimit = Math.max(0, maxBytes);
+            if (audioCacheLimit > 0 && audioProxy == null && retiredProxy != null) {
+                // Take it back rather than open a second cache on the same directory
+                audioProxy = retiredProxy;
+                retiredProxy = null;
+            }
+            if (audioProxy == null) {
+                if (audioCacheLimit > 0) {
+                    startAudioProxy();
+                }
+            } else if (audioCacheLimit == 0) {
+                retiredProxy = audioProxy;
+                audioProxy = null;
+                execute(this::retireAudioProxy);
+            } else {
+                audioProxy.getCache().setMaxBytes(audioCacheLimit);
+            }
+        }
+        Trace.i(TAG, "audioCacheLimit", audioCacheLimit);
+    }
+    
+    /**
+     * Bytes of audio in the disk cache, or 0 while the cache is off.
+     */
+    public long getAudioCacheSize() {
+        CachingAudioProxy proxy = audioProxy;
+        return proxy != null ? proxy.getCache().size() : 0;
+    }
+    
+    // Players prepared ahead through the retired proxy would need it later; drop them now
+    private void retireAudioProxy() {
+        CachingAudioProxy retired = retiredProxy;
+        if (retired == null) {
+            return;
+        }
+        prepareAheadPool.clear();
+        stopRetiredProxyIfUnused();
+    }
+    
+    // Checked after the command that changed a player's source has finished, when the state is settled
+    private void scheduleRetiredProxyCheck() {
+        if (retiredProxy != null) {
+            playbackHandler.post(this::stopRetiredProxyIfUnused);
+        }
+    }
+    
+    private void stopRetiredProxyIfUnused() {
+        CachingAudioProxy retired;
+        synchronized (proxyLock) {
+            retired = retiredProxy;
+            if (retired == null || streamsThrough(retired)) {
+                return;
+            }
+            retiredProxy = null;
+        }
+        retired.stop();
+        retired.getCache().clear();
+        Trace.i(TAG, "retiredProxyStopped");
+    }
+    
+    // Whether the current player (unless stopped or failed) or the next one reads from proxy
+    private boolean streamsThrough(CachingAudioProxy proxy) {
+        State current = state.get();
+        boolean currentInUse = mediaPlayer != null && current != State.IDLE && current != State.STOPPED
+            && current != State.ERROR && proxy.serves(playerSources.get(mediaPlayer));
+        boolean nextInUse = nextPlayer != null && nextUrl != null && proxy.serves(playerSources.get(nextPlayer));
+        return currentInUse || nextInUse;
+    }
+    
+    // Origin fetches so far for url through the proxy that serves source, or -1 if source bypasses the proxies
+    private int originFetchCount(String source, String url) {
+        CachingAudioProxy proxy = audioProxy;
+        if (proxy == null || !proxy.serves(source)) {
+            proxy = retiredProxy;
+        }
+        return proxy != null && proxy.serves(source) ? proxy.originFetchCount(url) : -1;
+    }
+    
+    // Whether a prepare that started with fetchesAtStart origin fetches went to the origin. A prepare
+    // served entirely from the disk cache says nothing about the host's latency, so it isn't sampled.
+    private boolean reachedOrigin(MediaPlayer player, String url, int fetchesAtStart) {
+        return fetchesAtStart < 0 || originFetchCount(playerSources.get(player), url) != fetchesAtStart;
+    }
+    
+    private void setDataSource(MediaPlayer player, String source) throws IOException {
+        player.setDataSource(source);
+        playerSources.put(player, source);
+        scheduleRetiredProxyCheck();
+    }
+    
+    // Opening the cache reads its index from disk, so the proxy is started off the calling thread
+    private void startAudioProxy() {
+        Thread starter = new Thread(() -> {
+            if (!isLoopbackCleartextPermitted()) {
+                Log.w(TAG, "Cleartext traffic to 127.0.0.1 is not permitted; streaming without the audio cache");
+                return;
+            }
+            synchronized (proxyLock) {
+                if (audioProxy != null || audioCacheLimit == 0) {
+                    return;
+                }
+                try {
+                    CachingAudioProxy proxy = new CachingAudioProxy(new AudioCache(new File(context.getCacheDir(), AUDIO_CACHE_DIR), audioCacheLimit));
+                    proxy.start();
+                    audioProxy = proxy;
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not start the audio cache proxy: " + e.getMessage());
+                }
+            }
+        }, "CarAudioProxyStart");
+        starter.setDaemon(true);
+        starter.start();
+    }
+    
+    private static boolean isLoopbackCleartextPermitted() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return NetworkSecurityPolicy.getInstance().isCleartextTrafficPermitted("127.0.0.1");
+        }
+        return NetworkSecurityPolicy.getInstance().isCleartextTrafficPermitted();
+    }
+    
+    public void setOfflineDownloads(OfflineDownloads downloads) {
+        offlineDownloads = downloads;
+    }
+    
+    // What MediaPlayer is given for url: a downloaded copy if there is one, else the caching proxy's URL when it is running
+    private String sourceFor(String url) {
+        OfflineDownloads downloads = offlineDownloads;
+        File local = downloads != null ? downloads.localFile(url) : null;
+        if (local != null) {
+            Trace.d(TAG, "offlineSource", url);
+            return local.getAbsolutePath();
+        }
+        CachingAudioProxy proxy = audioProxy;
+        return proxy != null ? proxy.proxyUrl(url) : url;
+    }
+    
+    /**
+     * Speculatively prepare url so a later play() of it starts at once. Does
+     * nothing when the pool is disabled or url is already playing or prepared.
+     */
+    public void prepareAhead(String url) {
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> prepareAhead(url));
+            return;
+        }
+        if (url == null || url.trim().isEmpty() || prepareAheadPool.capacity() == 0) {
+            return;
+        }
+        if (url.equals(nextUrl) || prepareAheadPool.touch(url)
+                || (url.equals(currentUrl) && !state.is(State.STOPPED) && !state.is(State.ERROR))) {
+            return;
+        }
+        
+        String source = sourceFor(url);
+        if (isRemote(source) && retryPolicy.retryAfter(url, SystemClock.elapsedRealtime()) > 0) {
+            return;
+        }
+        
+        MediaPlayer player = createMediaPlayer();
+        try {
+            setDataSource(player, source);
+            // Pooled before prepareAsync, so onPrepared always finds it
+            if (!prepareAheadPool.put(url, player)) {
+                player.release();
+                return;
+            }
+            player.prepareAsync();
+            Trace.d(TAG, "prepareAhead", url);
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "Could not prepare ahead: " + e.getMessage());
+            if (!prepareAheadPool.discard(player)) {
+                player.release();
+            }
+        }
+    }
+    
+    // Chain the next player once both players are prepared
+    private void chainNextPlayer() {
+        if (!nextPrepared || mediaPlayer == null) {
+            return;
+        }
+        State current = state.get();
+        if (current == State.PLAYING || current == State.PAUSED) {
+            try {
+                mediaPlayer.setNextMediaPlayer(nextPlayer);
+                nextChained = true;
+                Trace.d(TAG, "chainedNext", nextUrl);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                nextChained = false;
+                Log.w(TAG, "Could not chain next track: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void unchainNextPlayer() {
+        nextChained = false;
+        if (mediaPlayer != null && nextPrepared) {
+            try {
+                mediaPlayer.setNextMediaPlayer(null);
+            } catch (IllegalStateException e) {
+                // The current player was reset or failed; nothing is chained to it any more
+            }
+        }
+    }
+    
+    // Swap roles: the prepared next player becomes current and the old one becomes the spare
+    private void promoteNextPlayer() {
+        MediaPlayer previous = mediaPlayer;
+        mediaPlayer = nextPlayer;
+        nextPlayer = previous;
+        
+        currentUrl = nextUrl;
+        currentTitle = nextTitle;
+        currentArtist = nextArtist;
+        currentArtwork = nextArtwork;
+        clearNextTrackInfo();
+    }
+    
+    private void clearNextTrackInfo() {
+        scheduleRetiredProxyCheck();
+        nextPrepared = false;
+        nextChained = false;
+        nextUrl = null;
+        nextTitle = null;
+        nextArtist = null;
+        nextArtwork = null;
     }
 
     // MediaPlayer.OnPreparedListener
     @Override
     public void onPrepared(MediaPlayer mp) {
-        Log.d(TAG, "MediaPlayer prepared successfully");
+        if (mp == nextPlayer) {
+            nextPrepared = true;
+            if (nextPrepareStartedAt != 0) {
+                long latency = SystemClock.elapsedRealtime() - nextPrepareStartedAt;
+                if (reachedOrigin(mp, nextUrl, nextPrepareOriginFetches)) {
+                    retryPolicy.recordSuccess(nextUrl, latency);
+                }
+                Metrics.record("player.prepareNextMs", latency);
+            }
+            Trace.d(TAG, "nextPrepared", nextUrl);
+            chainNextPlayer();
+            return;
+        }
+        if (prepareAheadPool.markPrepared(mp)) {
+            Trace.d(TAG, "preparedAhead");
+            return;
+        }
+        if (mp != mediaPlayer || !state.is(State.PREPARING) || !state.transition(playerGeneration, State.PREPARED, "prepared")) {
+            // Not the player of the track being prepared any more
+            Trace.d(TAG, "stalePrepared");
+            return;
+        }
         cancelPrepareTimeout();
+        if (preparingRemoteUrl != null) {
+            long latency = SystemClock.elapsedRealtime() - prepareStartedAt;
+            if (reachedOrigin(mp, preparingRemoteUrl, prepareOriginFetches)) {
+                retryPolicy.recordSuccess(preparingRemoteUrl, latency);
+            }
+            Metrics.record("player.prepareMs", latency);
+            preparingRemoteUrl = null;
+        }
         
-        currentState = PlaybackState.PREPARED;
-        
-        // Log audio details
-        Log.d(TAG, "Audio duration: " + mp.getDuration() + "ms");
-        Log.d(TAG, "MediaPlayer isPlaying before start: " + mp.isPlaying());
+        if (Trace.debug()) {
+            Trace.d(TAG, "prepared", mp.getDuration());
+        }
         
         // Ensure volume is set
         mp.setVolume(1.0f, 1.0f);
@@ -230,29 +934,183 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
         logAudioSettings();
         
         // Start playback
+        if (!state.transition(playerGeneration, State.PLAYING, "started")) {
+            return;
+        }
         mp.start();
-        currentState = PlaybackState.PLAYING;
+        quality.firstAudio(candidateUrls.get(candidateIndex), SystemClock.elapsedRealtime());
         
         // Notify listener that playback started
         if (stateListener != null) {
-            Log.d(TAG, "Notifying state listener: onPlaying()");
             stateListener.onPlaying();
         } else {
             Log.w(TAG, "No state listener set - AndroidAutoController won't be notified that playback started");
         }
         
-        Log.d(TAG, "Audio playback started");
-        Log.d(TAG, "MediaPlayer isPlaying after start: " + mp.isPlaying());
-        Log.d(TAG, "MediaPlayer current position: " + mp.getCurrentPosition());
+        Trace.i(TAG, "started");
+        chainNextPlayer();
+    }
+
+    /**
+     * Seek the current track to positionMs. Precise seeks land on the exact position; fast seeks
+     * land on the nearest sync frame, which avoids decoding from it on streams. Buffering is
+     * reported while the seek runs, and seeks requested before it completes are coalesced.
+     */
+    public void seekTo(long positionMs, boolean precise) {
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> seekTo(positionMs, precise));
+            return;
+        }
+        State current = state.get();
+        if (mediaPlayer == null || (current != State.PREPARED && current != State.PLAYING && current != State.PAUSED)) {
+            Log.w(TAG, "Cannot seek - no track prepared");
+            return;
+        }
+        long target = SeekCoalescer.clamp(positionMs, mediaPlayer.getDuration());
+        
+        if (!seeks.request(target, precise, state.generation())) {
+            Trace.d(TAG, "seekCoalesced", target);
+            return;
+        }
+        if (stateListener != null) {
+            stateListener.onBuffering();
+        }
+        startSeek(target, precise);
+    }
+    
+    private void startSeek(long positionMs, boolean precise) {
+        Trace.i(TAG, "seek", precise ? "precise" : "fast", positionMs);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mediaPlayer.seekTo(positionMs, precise ? MediaPlayer.SEEK_CLOSEST : MediaPlayer.SEEK_CLOSEST_SYNC);
+        } else {
+            // No seek modes before API 26; the player decides
+            mediaPlayer.seekTo((int) positionMs);
+        }
+    }
+    
+    // A seek of the current track is still running
+    private boolean isSeeking() {
+        return seeks.isSeeking(state.generation());
+    }
+    
+    // MediaPlayer.OnSeekCompleteListener
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        if (mp != mediaPlayer || !isSeeking()) {
+            // A seek on a player or track that has since been replaced
+            return;
+        }
+        SeekCoalescer.Seek next = seeks.complete();
+        if (next != null) {
+            startSeek(next.positionMs, next.precise);
+            return;
+        }
+        Trace.d(TAG, "seekComplete");
+        if (stateListener != null) {
+            // Republishes the state with the position the seek landed on
+            if (state.is(State.PLAYING)) {
+                stateListener.onPlaying();
+            } else if (state.is(State.PAUSED)) {
+                stateListener.onPaused();
+            }
+        }
+    }
+
+    // MediaPlayer.OnInfoListener
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (mp != mediaPlayer) {
+            return false;
+        }
+        switch (what) {
+            case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                Trace.i(TAG, "bufferingStart", bufferedPercent);
+                // Rebuffering after a seek is expected, not a stall
+                if (state.is(State.PLAYING) && !isSeeking()) {
+                    quality.stallStarted(SystemClock.elapsedRealtime());
+                    Metrics.increment("player.stall");
+                }
+                if (stateListener != null) {
+                    stateListener.onBuffering();
+                }
+                return true;
+            case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                Trace.i(TAG, "bufferingEnd");
+                quality.stallEnded(SystemClock.elapsedRealtime());
+                if (stateListener != null && !isSeeking()) {
+                    // Republish the state the stall interrupted, with the position it resumed from
+                    if (state.is(State.PLAYING)) {
+                        stateListener.onPlaying();
+                    } else if (state.is(State.PAUSED)) {
+                        stateListener.onPaused();
+                    }
+                }
+                return true;
+            default:
+                Trace.d(TAG, "info", what);
+                return false;
+        }
+    }
+    
+    // MediaPlayer.OnBufferingUpdateListener; called about once a second while streaming
+    @Override
+    public void onBufferingUpdate(MediaPlayer mp, int percent) {
+        if (mp != mediaPlayer || percent == bufferedPercent) {
+            return;
+        }
+        bufferedPercent = percent;
+        quality.bufferedPercent(percent);
+        int duration = mp.getDuration();
+        if (stateListener != null && duration > 0) {
+            stateListener.onBufferedPosition((long) duration * percent / 100);
+        }
+    }
+    
+    /**
+     * Quality numbers for the current track, or null when nothing is playing.
+     */
+    public PlaybackQuality.Snapshot getCurrentQuality() {
+        return quality.current(SystemClock.elapsedRealtime());
+    }
+    
+    /**
+     * Quality numbers for recently finished tracks, oldest first.
+     */
+    public List<PlaybackQuality.Snapshot> getRecentQuality() {
+        return quality.recent();
     }
 
     // MediaPlayer.OnErrorListener
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
+        Metrics.increment("player.error", what + "/" + extra);
+        if (mp == nextPlayer) {
+            // A broken next track must not interrupt the current one; completion will just stop
+            Log.w(TAG, "Next track failed to prepare - what: " + what + ", extra: " + extra);
+            if (nextPrepareStartedAt != 0 && !nextPrepared) {
+                retryPolicy.recordFailure(nextUrl, SystemClock.elapsedRealtime());
+            }
+            unchainNextPlayer();
+            nextPlayer.reset();
+            clearNextTrackInfo();
+            return true;
+        }
+        if (prepareAheadPool.discard(mp)) {
+            Log.w(TAG, "Prepare-ahead failed - what: " + what + ", extra: " + extra);
+            return true;
+        }
         Log.e(TAG, "MediaPlayer error - what: " + what + ", extra: " + extra);
+        if (state.is(State.PREPARING) && mp == mediaPlayer && retryRunnable == null) {
+            prepareFailed("MediaPlayer error - what: " + what + ", extra: " + extra);
+            return true;
+        }
         cancelPrepareTimeout();
         
-        currentState = PlaybackState.ERROR;
+        if (!state.transition(State.ERROR, "playerError")) {
+            // Already stopped, failed or released; nothing is playing to fail
+            return true;
+        }
+        quality.end(SystemClock.elapsedRealtime(), true);
         if (stateListener != null) {
             stateListener.onError("MediaPlayer error - what: " + what + ", extra: " + extra);
         }
@@ -265,12 +1123,42 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
     // MediaPlayer.OnCompletionListener
     @Override
     public void onCompletion(MediaPlayer mp) {
-        Log.d(TAG, "Audio playback completed");
-        currentState = PlaybackState.STOPPED;
-        if (stateListener != null) {
-            stateListener.onStopped();
+        if (mp == mediaPlayer && nextPrepared && !nextChained && state.is(State.PLAYING)) {
+            // Prepared but never chained, so nothing started it: play it normally, which adopts the
+            // prepared player without preparing again, then report the change as a completion
+            Trace.i(TAG, "unchainedHandover", nextUrl);
+            play(nextUrl, nextTitle, nextArtist, nextArtwork);
+            if (stateListener != null && state.is(State.PLAYING)) {
+                stateListener.onTrackChanged(currentUrl, currentTitle, currentArtist, currentArtwork);
+            }
+            return;
+        }
+        long handover = mp == mediaPlayer && nextPrepared ? state.begin(State.PLAYING, "gaplessHandover") : -1;
+        if (handover >= 0) {
+            // The chained player is already playing; hand over the roles and recycle the finished one
+            promoteNextPlayer();
+            playerGeneration = handover;
+            long now = SystemClock.elapsedRealtime();
+            quality.begin(currentUrl, now, System.currentTimeMillis());
+            quality.firstAudio(currentUrl, now);
+            bufferedPercent = -1;
+            nextPlayer.reset();
+            Trace.i(TAG, "gaplessHandover", currentUrl);
+            if (stateListener != null) {
+                stateListener.onTrackChanged(currentUrl, currentTitle, currentArtist, currentArtwork);
+            }
+            return;
+        }
+        if (!state.transition(State.STOPPED, "completed")) {
+            Trace.d(TAG, "staleCompletion");
+            return;
         }
+        Trace.i(TAG, "completed");
+        quality.end(SystemClock.elapsedRealtime(), false);
         abandonAudioFocus();
+        if (stateListener != null) {
+            stateListener.onCompleted();
+        }
     }
 
     // Audio Focus Management
@@ -285,7 +1173,7 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
                 audioFocusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
                     .setAudioAttributes(audioAttributes)
                     .setAcceptsDelayedFocusGain(true)
-                    .setOnAudioFocusChangeListener(this)
+                    .setOnAudioFocusChangeListener(this, playbackHandler)
                     .build();
             }
             
@@ -308,29 +1196,36 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
     // AudioManager.OnAudioFocusChangeListener
     @Override
     public void onAudioFocusChange(int focusChange) {
-        Log.d(TAG, "Audio focus changed: " + focusChange);
+        if (!isPlaybackThread()) {
+            playbackHandler.post(() -> onAudioFocusChange(focusChange));
+            return;
+        }
+        Trace.d(TAG, "audioFocus", focusChange);
         
         switch (focusChange) {
             case AudioManager.AUDIOFOCUS_LOSS:
+                Metrics.increment("audio.focusLoss", "permanent");
                 // Lost focus for an unbounded amount of time: stop playback
                 stop();
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                Metrics.increment("audio.focusLoss", "transient");
                 // Lost focus for a short time: pause playback
-                if (currentState == PlaybackState.PLAYING) {
+                if (state.is(State.PLAYING)) {
                     pause();
                 }
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                Metrics.increment("audio.focusLoss", "canDuck");
                 // Lost focus but can duck (lower volume)
                 // For simplicity, we'll pause instead of ducking
-                if (currentState == PlaybackState.PLAYING) {
+                if (state.is(State.PLAYING)) {
                     pause();
                 }
                 break;
             case AudioManager.AUDIOFOCUS_GAIN:
                 // Regained focus: resume playback if paused
-                if (currentState == PlaybackState.PAUSED) {
+                if (state.is(State.PAUSED)) {
                     resume();
                 }
                 break;
@@ -338,65 +1233,120 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
     }
 
     // Timeout Management
-    private void setupPrepareTimeout() {
+    private void setupPrepareTimeout(final long timeoutMs) {
         cancelPrepareTimeout();
+        final long generation = playerGeneration;
         
         timeoutRunnable = new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "MediaPlayer preparation timed out after " + PREPARE_TIMEOUT + "ms");
-                if (currentState == PlaybackState.PREPARING) {
-                    currentState = PlaybackState.ERROR;
-                    if (stateListener != null) {
-                        stateListener.onError("MediaPlayer preparation timed out after " + PREPARE_TIMEOUT + "ms");
-                    }
-                    if (mediaPlayer != null) {
-                        mediaPlayer.reset();
-                    }
-                    abandonAudioFocus();
+                timeoutRunnable = null;
+                if (!state.isCurrent(generation)) {
+                    // Left over from a track that has since been replaced
+                    return;
+                }
+                Log.e(TAG, "MediaPlayer preparation timed out after " + timeoutMs + "ms");
+                Metrics.increment("player.prepareTimeout");
+                if (state.is(State.PREPARING) && mediaPlayer != null) {
+                    prepareFailed("MediaPlayer preparation timed out after " + timeoutMs + "ms");
                 }
             }
         };
         
-        timeoutHandler.postDelayed(timeoutRunnable, PREPARE_TIMEOUT);
+        playbackHandler.postDelayed(timeoutRunnable, timeoutMs);
     }
 
     private void cancelPrepareTimeout() {
         if (timeoutRunnable != null) {
-            timeoutHandler.removeCallbacks(timeoutRunnable);
+            playbackHandler.removeCallbacks(timeoutRunnable);
             timeoutRunnable = null;
         }
     }
 
     // Getters for current state
     public boolean isPlaying() {
-        return currentState == PlaybackState.PLAYING;
+        return state.is(State.PLAYING);
     }
 
     public boolean isPaused() {
-        return currentState == PlaybackState.PAUSED;
+        return state.is(State.PAUSED);
     }
 
     public boolean isStopped() {
-        return currentState == PlaybackState.STOPPED || currentState == PlaybackState.IDLE;
+        State current = state.get();
+        return current == State.STOPPED || current == State.IDLE;
+    }
+    
+    public String getStateName() {
+        return state.get().name().toLowerCase();
+    }
+    
+    public long getStateGeneration() {
+        return state.generation();
+    }
+    
+    /**
+     * Recent state transitions, oldest first, including rejected and stale ones.
+     */
+    public List<PlaybackStateMachine.Transition> getStateLog() {
+        return state.dumpLog();
     }
 
     public String getCurrentUrl() {
         return currentUrl;
     }
 
-    // Audio debugging methods
+    /**
+     * Position of the current track in milliseconds: the player's while it is prepared, where it
+     * ended once stopped or failed, and 0 while a track is starting. Reads the player, so call on
+     * the playback thread.
+     */
+    public long getCurrentPosition() {
+        State current = state.get();
+        long now = SystemClock.elapsedRealtime();
+        if (current == State.IDLE || current == State.PREPARING) {
+            lastPosition.reset();
+        } else if (mediaPlayer == null || current == State.STOPPED || current == State.ERROR) {
+            lastPosition.freeze(now);
+        } else {
+            try {
+                lastPosition.read(mediaPlayer.getCurrentPosition(), getPlaybackSpeed(), now);
+            } catch (IllegalStateException e) {
+                lastPosition.freeze(now);
+            }
+        }
+        return lastPosition.positionAt(now);
+    }
+    
+    /**
+     * Speed the position is advancing at: the player's rate while playing, 0 otherwise.
+     */
+    public float getPlaybackSpeed() {
+        if (mediaPlayer == null || !state.is(State.PLAYING)) {
+            return 0.0f;
+        }
+        try {
+            return mediaPlayer.getPlaybackParams().getSpeed();
+        } catch (IllegalStateException e) {
+            return 1.0f;
+        }
+    }
+
+    // Audio debugging methods; these query AudioManager over binder, so only when tracing
     private void logAudioSettings() {
+        if (!Trace.debug()) {
+            return;
+        }
         try {
             // Log system audio settings
             int musicVolume = audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
             int maxMusicVolume = audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-            Log.d(TAG, "System music volume: " + musicVolume + "/" + maxMusicVolume);
+            Trace.d(TAG, "musicVolume", maxMusicVolume + " max", musicVolume);
             
             // Check if audio is muted
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 boolean isMusicMuted = audioManager.isStreamMute(AudioManager.STREAM_MUSIC);
-                Log.d(TAG, "Music stream muted: " + isMusicMuted);
+                Trace.d(TAG, "musicMuted", isMusicMuted ? 1 : 0);
             }
             
             // Check audio mode
@@ -416,19 +1366,19 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
                     modeString = "IN_COMMUNICATION";
                     break;
             }
-            Log.d(TAG, "Audio mode: " + modeString + " (" + audioMode + ")");
+            Trace.d(TAG, "audioMode", modeString, audioMode);
             
             // Check if speaker is on
             boolean isSpeakerOn = audioManager.isSpeakerphoneOn();
-            Log.d(TAG, "Speakerphone on: " + isSpeakerOn);
+            Trace.d(TAG, "speakerphone", isSpeakerOn ? 1 : 0);
             
             // Check if wired headset is connected
             boolean isWiredHeadsetOn = audioManager.isWiredHeadsetOn();
-            Log.d(TAG, "Wired headset connected: " + isWiredHeadsetOn);
+            Trace.d(TAG, "wiredHeadset", isWiredHeadsetOn ? 1 : 0);
             
             // Check if Bluetooth A2DP is connected
             boolean isBluetoothA2dpOn = audioManager.isBluetoothA2dpOn();
-            Log.d(TAG, "Bluetooth A2DP connected: " + isBluetoothA2dpOn);
+            Trace.d(TAG, "bluetoothA2dp", isBluetoothA2dpOn ? 1 : 0);
             
         } catch (Exception e) {
             Log.e(TAG, "Error logging audio settings: " + e.getMessage());
@@ -445,14 +1395,14 @@ public class CarAudio implements MediaPlayer.OnPreparedListener, MediaPlayer.OnE
             if (currentVolume < maxVolume * 0.3) {
                 int targetVolume = (int) (maxVolume * 0.7);
                 audioManager.setStreamVolume(AudioManager.STREAM_MUSIC, targetVolume, 0);
-                Log.d(TAG, "Increased system volume from " + currentVolume + " to " + targetVolume);
+                Trace.i(TAG, "volumeRaised", targetVolume);
             }
             
             // Unmute if muted
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 if (audioManager.isStreamMute(AudioManager.STREAM_MUSIC)) {
                     audioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_UNMUTE, 0);
-                    Log.d(TAG, "Unmuted music stream");
+                    Trace.i(TAG, "unmuted");
                 }
             }
         } catch (Exception e) {
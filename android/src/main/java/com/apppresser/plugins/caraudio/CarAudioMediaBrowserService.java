@@ -1,7 +1,12 @@
 package com.apppresser.plugins.caraudio;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -9,10 +14,14 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.media.MediaBrowserServiceCompat;
+import androidx.media.utils.MediaConstants;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
     private static final String TAG = "CarAudioMediaBrowser";
@@ -28,137 +37,297 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
     // Static reference to the service instance for notifying changes
     private static CarAudioMediaBrowserService serviceInstance;
     
-    // Static data structures for dynamic MediaItems
-    private static final Map<String, List<MediaItemData>> mediaItemsMap = new HashMap<>();
-    private static final Map<String, String> mediaItemUrls = new HashMap<>();
-    
-    // Data class to hold MediaItem information
-    public static class MediaItemData {
-        public String mediaId;
-        public String title;
-        public String subtitle;
-        public String description;
-        public boolean isBrowsable;
-        public String url;
-        public String artwork;
+    // Static catalog of dynamic MediaItems, published as immutable snapshots
+    private static final MediaCatalog catalog = new MediaCatalog();
+    
+    // Binary copy of the catalog, so a cold-started service can answer before the WebView boots
+    private static final String CATALOG_FILE = "caraudio_catalog.bin";
+    private static CatalogStore catalogStore;
+    // Hash of the placeholder catalog from seedDefaultMediaItems, which is never saved
+    private static volatile String defaultCatalogHash;
+    // Browses that arrived while the saved catalog was still being decoded, answered once it is published
+    private static final Object restoreLock = new Object();
+    private static boolean restorePending;
+    private static final List<Runnable> afterRestore = new ArrayList<>();
+    
+    // Word-prefix index over titles, subtitles and descriptions, kept in step with catalog commits
+    private static final MediaSearchIndex searchIndex = new MediaSearchIndex();
+    private static final int MAX_SEARCH_RESULTS = 50;
+    
+    static {
+        catalog.addCommitListener(searchIndex::onCommit);
+        catalog.addCommitListener((previous, next, changedParents) -> Metrics.set("catalog.items", next.size()));
+    }
+    
+    // Unpaged results are capped well under the 1MB binder buffer, which is shared by the whole process
+    private static final int MAX_RESULT_BYTES = 256 * 1024;
+    
+    // Built MediaItem lists per parent, reused until that parent's children change
+    private static final ChildrenCache<MediaBrowserCompat.MediaItem> mediaItemCache =
+        new ChildrenCache<>(CarAudioMediaBrowserService::buildMediaItem, MAX_RESULT_BYTES);
+    
+    // Lazy loading: folders with no published children are requested from JavaScript on first browse
+    public interface ChildrenProvider {
+        void requestChildren(String parentId);
+    }
+    
+    private static final long LAZY_LOAD_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_LAZY_CACHE_SIZE = 50;
+    private static volatile ChildrenProvider childrenProvider;
+    // Browse results waiting for JavaScript to answer, and the provided folders in eviction order
+    private static final LazyFolders<PendingLoad> lazyFolders = new LazyFolders<>(DEFAULT_LAZY_CACHE_SIZE);
+    
+    private static final class PendingLoad {
+        final Result<List<MediaBrowserCompat.MediaItem>> result;
+        final Bundle options;
+        final long requestedAt;
         
-        public MediaItemData(String mediaId, String title, String subtitle, String description, boolean isBrowsable, String url, String artwork) {
-            this.mediaId = mediaId;
-            this.title = title;
-            this.subtitle = subtitle;
-            this.description = description;
-            this.isBrowsable = isBrowsable;
-            this.url = url;
-            this.artwork = artwork;
+        PendingLoad(Result<List<MediaBrowserCompat.MediaItem>> result, Bundle options, long requestedAt) {
+            this.result = result;
+            this.options = options;
+            this.requestedAt = requestedAt;
         }
     }
     
+    // Catalog change notifications are coalesced per parent and flushed once per window or batch
+    private static final long DEFAULT_NOTIFY_DELAY_MS = 150;
+    private static final DirtyParents dirtyParents = new DirtyParents();
+    private static final Handler notifyHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable flushRunnable = CarAudioMediaBrowserService::flushCatalogChanges;
+    private static volatile long notifyDelayMs = DEFAULT_NOTIFY_DELAY_MS;
+    
     // Static methods for managing MediaItems from JavaScript
     public static void clearMediaItems() {
-        synchronized (mediaItemsMap) {
-            int previousSize = mediaItemsMap.size();
-            
-            // Store the parent IDs that had items before clearing
-            List<String> affectedParents = new ArrayList<>(mediaItemsMap.keySet());
-            
-            mediaItemsMap.clear();
-            mediaItemUrls.clear();
-            Log.d(TAG, "Cleared all media items (was " + previousSize + " parents)");
-            Log.d(TAG, "MediaItems map is now empty: " + mediaItemsMap.isEmpty());
-            
-            // Notify Android Auto that the media catalog has changed
-            notifyMediaCatalogChanged(affectedParents);
-        }
+        int previousSize = catalog.getParentCount();
+        
+        // Store the parent IDs that had items before clearing
+        Set<String> affectedParents = catalog.clear();
+        
+        Trace.i(TAG, "clearMediaItems", previousSize);
+        mediaItemCache.invalidate(affectedParents);
+        
+        // Notify Android Auto that the media catalog has changed
+        notifyMediaCatalogChanged(affectedParents);
     }
     
     public static void addBrowsableItem(String parentId, String mediaId, String title, String subtitle) {
-        Log.d(TAG, "addBrowsableItem called - parentId: " + parentId + ", mediaId: " + mediaId + ", title: " + title);
-        synchronized (mediaItemsMap) {
-            List<MediaItemData> items = mediaItemsMap.get(parentId);
-            if (items == null) {
-                items = new ArrayList<>();
-                mediaItemsMap.put(parentId, items);
-                Log.d(TAG, "Created new items list for parent: " + parentId);
-            }
-            items.add(new MediaItemData(mediaId, title, subtitle, "", true, "", ""));
-            Log.d(TAG, "Added browsable item: " + title + " to parent: " + parentId + " (total items: " + items.size() + ")");
-            Log.d(TAG, "Total parents in map: " + mediaItemsMap.size());
-            
-            // Log all current parents
-            Log.d(TAG, "Current parents in map:");
-            for (String key : mediaItemsMap.keySet()) {
-                Log.d(TAG, "  - " + key + " (" + mediaItemsMap.get(key).size() + " items)");
-            }
-            
-            // Notify Android Auto that this parent's children have changed
-            notifyMediaCatalogChanged(parentId);
-        }
+        Trace.d(TAG, "addBrowsableItem", mediaId);
+        catalog.add(new MediaItemData(parentId, mediaId, title, subtitle, "", true, "", ""));
+        mediaItemCache.invalidate(parentId);
+        
+        // Notify Android Auto that this parent's children have changed
+        notifyMediaCatalogChanged(parentId);
     }
     
     public static void addPlayableItem(String parentId, String mediaId, String title, String subtitle, String description, String url, String artwork) {
-        Log.d(TAG, "addPlayableItem called - parentId: " + parentId + ", mediaId: " + mediaId + ", title: " + title + ", url: " + url);
-        synchronized (mediaItemsMap) {
-            List<MediaItemData> items = mediaItemsMap.get(parentId);
-            if (items == null) {
-                items = new ArrayList<>();
-                mediaItemsMap.put(parentId, items);
-                Log.d(TAG, "Created new items list for parent: " + parentId);
-            }
-            items.add(new MediaItemData(mediaId, title, subtitle, description, false, url, artwork));
-            
-            // Store URL mapping for playback
-            if (url != null && !url.isEmpty()) {
-                mediaItemUrls.put(mediaId, url);
-                Log.d(TAG, "Stored URL mapping: " + mediaId + " -> " + url);
+        Trace.d(TAG, "addPlayableItem", mediaId);
+        catalog.add(new MediaItemData(parentId, mediaId, title, subtitle, description, false, url, artwork));
+        mediaItemCache.invalidate(parentId);
+        
+        // Notify Android Auto that this parent's children have changed
+        notifyMediaCatalogChanged(parentId);
+    }
+    
+    // Remove one item; its own children, if any, stay in the catalog. Returns false if it was not found.
+    public static boolean removeMediaItem(String mediaId) {
+        Trace.i(TAG, "removeMediaItem", mediaId);
+        MediaItemData[] removed = new MediaItemData[1];
+        applyEdit(editor -> removed[0] = editor.remove(mediaId));
+        return removed[0] != null;
+    }
+    
+    // Replace an item's fields in place; a different parentId moves it. Returns false if it was not found.
+    public static boolean updateMediaItem(MediaItemData item) {
+        Trace.i(TAG, "updateMediaItem", item.mediaId);
+        boolean[] updated = new boolean[1];
+        applyEdit(editor -> updated[0] = editor.update(item));
+        return updated[0];
+    }
+    
+    // Move an item under another parent at a position (negative appends). Returns false if it was not found.
+    public static boolean moveMediaItem(String mediaId, String newParentId, int position) {
+        Trace.i(TAG, "moveMediaItem", mediaId, position);
+        MediaItemData[] moved = new MediaItemData[1];
+        applyEdit(editor -> moved[0] = editor.move(mediaId, newParentId, position));
+        return moved[0] != null;
+    }
+    
+    // Remove an item and everything below it. Returns the number of items removed.
+    public static int removeMediaSubtree(String mediaId) {
+        Trace.i(TAG, "removeMediaSubtree", mediaId);
+        int[] removed = new int[1];
+        applyEdit(editor -> removed[0] = editor.removeSubtree(mediaId));
+        return removed[0];
+    }
+    
+    // Commit an incremental edit and notify exactly the parents it changed
+    private static void applyEdit(MediaCatalog.Edit edit) {
+        Set<String> affectedParents = catalog.update(edit);
+        if (affectedParents.isEmpty()) {
+            return;
+        }
+        mediaItemCache.invalidate(affectedParents);
+        notifyMediaCatalogChanged(affectedParents);
+    }
+    
+    // Replace the whole catalog with a single snapshot swap, so browsers never see a half-built tree.
+    // Only parents whose children differ from the live catalog are invalidated and notified.
+    // Returns the changed parents and the number of new items; nothing changed when the catalog hash is unchanged.
+    public static MediaCatalog.Replacement replaceMediaItems(List<MediaItemData> items, @Nullable String contentHash) {
+        return replaceMediaItems(MediaCatalog.Loader.of(items), contentHash);
+    }
+    
+    // As above, for a tree collected while parsing, so the items never sit in a list of their own
+    public static MediaCatalog.Replacement replaceMediaItems(MediaCatalog.Loader items, @Nullable String contentHash) {
+        Trace.i(TAG, "replaceMediaItems", items.size());
+        MediaCatalog.Replacement replacement = catalog.replace(items, contentHash);
+        Set<String> affectedParents = replacement.changedParents;
+        if (affectedParents.isEmpty()) {
+            Trace.d(TAG, "catalogUnchanged");
+            return replacement;
+        }
+        mediaItemCache.invalidate(affectedParents);
+        
+        // End of a bulk operation: notify the changed parents now instead of waiting for the window
+        beginBatch();
+        notifyMediaCatalogChanged(affectedParents);
+        endBatch();
+        return replacement;
+    }
+    
+    // Look up an item in the current catalog, or null
+    public static MediaItemData findMediaItem(String mediaId) {
+        return catalog.find(mediaId);
+    }
+    
+    // Hash of the catalog last applied by replaceMediaItems, or null after incremental edits
+    public static String getCatalogHash() {
+        return catalog.snapshot().getContentHash();
+    }
+
+    // Restore the persisted catalog in the background, then persist every later commit to app storage.
+    // Safe to call more than once; only the first call restores.
+    public static synchronized void initCatalogStore(Context context) {
+        if (catalogStore != null) {
+            return;
+        }
+        catalogStore = new CatalogStore(new File(context.getFilesDir(), CATALOG_FILE));
+        synchronized (restoreLock) {
+            restorePending = true;
+        }
+        catalogStore.execute(() -> {
+            long restoredVersion = 0;
+            try {
+                restoreCatalogFromDisk();
+                restoredVersion = catalog.snapshot().getVersion();
+            } finally {
+                // Whatever became of the restore, later commits are persisted. Those published while
+                // the file was decoded are saved too, except the placeholder catalog.
+                catalog.addCommitListener((previous, next, changedParents) -> saveCatalog(next));
+                MediaCatalog.Snapshot latest = catalog.snapshot();
+                if (latest.getVersion() != restoredVersion) {
+                    saveCatalog(latest);
+                }
+                finishRestore();
             }
-            
-            Log.d(TAG, "Added playable item: " + title + " to parent: " + parentId + " (total items: " + items.size() + ")");
-            Log.d(TAG, "Total parents in map: " + mediaItemsMap.size());
-            
-            // Log all current parents
-            Log.d(TAG, "Current parents in map:");
-            for (String key : mediaItemsMap.keySet()) {
-                Log.d(TAG, "  - " + key + " (" + mediaItemsMap.get(key).size() + " items)");
+        });
+    }
+    
+    // Answer the browses held back by the restore, on the main thread like any other onLoadChildren
+    private static void finishRestore() {
+        List<Runnable> waiting;
+        synchronized (restoreLock) {
+            restorePending = false;
+            waiting = new ArrayList<>(afterRestore);
+            afterRestore.clear();
+        }
+        Trace.i(TAG, "restoreFinished", waiting.size());
+        for (Runnable browse : waiting) {
+            notifyHandler.post(browse);
+        }
+    }
+    
+    private static void saveCatalog(MediaCatalog.Snapshot snapshot) {
+        String hash = snapshot.getContentHash();
+        if (hash == null || !hash.equals(defaultCatalogHash)) {
+            catalogStore.scheduleSave(snapshot);
+        }
+    }
+    
+    // Load the persisted catalog, on the store's thread, unless something has been published in this process
+    private static void restoreCatalogFromDisk() {
+        if (catalog.snapshot().getVersion() != 0) {
+            return;
+        }
+        CatalogStore.Loaded loaded;
+        try {
+            loaded = catalogStore.load();
+        } catch (IOException | RuntimeException e) {
+            // A corrupt file would fail the same way on every start; drop it and wait for a fresh catalog
+            Log.e(TAG, "Failed to restore catalog from disk: " + e.getMessage());
+            catalogStore.discard();
+            return;
+        }
+        if (loaded != null && publishIfUnpublished(loaded.items, loaded.contentHash)) {
+            Trace.i(TAG, "restoredFromDisk", loaded.items.size());
+        }
+    }
+    
+    // Publish placeholder items if the catalog is still empty once any saved catalog has been restored.
+    // They are never saved, so they cannot replace a real catalog on disk.
+    public static void seedDefaultMediaItems(List<MediaItemData> items) {
+        String hash = MediaCatalog.computeContentHash(items);
+        defaultCatalogHash = hash;
+        Runnable seed = () -> {
+            if (publishIfUnpublished(MediaCatalog.Loader.of(items), hash)) {
+                Trace.i(TAG, "seededDefaults", items.size());
             }
-            
-            // Notify Android Auto that this parent's children have changed
-            notifyMediaCatalogChanged(parentId);
+        };
+        CatalogStore store;
+        synchronized (CarAudioMediaBrowserService.class) {
+            store = catalogStore;
         }
+        if (store != null) {
+            // Queued behind the restore
+            store.execute(seed);
+        } else {
+            seed.run();
+        }
+    }
+    
+    // Publish items as the first catalog of this process and notify the parents it fills
+    private static boolean publishIfUnpublished(MediaCatalog.Loader items, String contentHash) {
+        MediaCatalog.Replacement replacement = catalog.replaceIfUnpublished(items, contentHash);
+        if (replacement == null) {
+            return false;
+        }
+        mediaItemCache.invalidate(replacement.changedParents);
+        beginBatch();
+        notifyMediaCatalogChanged(replacement.changedParents);
+        endBatch();
+        return true;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        Log.d(TAG, "MediaBrowserService created");
+        Trace.i(TAG, "onCreate");
         
         // Store reference to this service instance
         serviceInstance = this;
         
-        // Debug: Log current media items
-        synchronized (mediaItemsMap) {
-            Log.d(TAG, "Current media items map size: " + mediaItemsMap.size());
-            for (String parentId : mediaItemsMap.keySet()) {
-                List<MediaItemData> items = mediaItemsMap.get(parentId);
-                Log.d(TAG, "Parent ID: " + parentId + " has " + (items != null ? items.size() : 0) + " items");
-                if (items != null) {
-                    for (MediaItemData item : items) {
-                        Log.d(TAG, "  - " + item.title + " (browsable: " + item.isBrowsable + ")");
-                    }
-                }
-            }
-        }
+        // Cold start without the app UI: answer from the last persisted catalog once it is decoded
+        initCatalogStore(this);
         
         // Use the static controller if available
         this.androidAutoController = staticAndroidAutoController;
         
         if (androidAutoController != null) {
             // Use the AndroidAutoController's MediaSession instead of creating our own
-            Log.d(TAG, "Using AndroidAutoController's MediaSession");
             MediaSessionCompat.Token token = androidAutoController.getSessionToken();
             if (token != null) {
                 setSessionToken(token);
-                Log.d(TAG, "Set session token from AndroidAutoController - SUCCESS");
-                Log.d(TAG, "AndroidAutoController is connected: " + androidAutoController.isAndroidAutoConnected());
+                Trace.i(TAG, "controllerSessionToken");
             } else {
                 Log.e(TAG, "AndroidAutoController session token is null - this will cause issues!");
             }
@@ -182,7 +351,9 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
                     PlaybackStateCompat.ACTION_STOP |
                     PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
                     PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
-                    PlaybackStateCompat.ACTION_SEEK_TO);
+                    PlaybackStateCompat.ACTION_SEEK_TO |
+                    PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID |
+                    PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH);
             
             mediaSession.setPlaybackState(stateBuilder.build());
             
@@ -191,7 +362,7 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
             
             // Set the session's token so that client activities can communicate with it.
             setSessionToken(mediaSession.getSessionToken());
-            Log.d(TAG, "Fallback MediaSession created and token set");
+            Trace.i(TAG, "fallbackSessionToken");
         }
     }
 
@@ -208,129 +379,298 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
     @Nullable
     @Override
     public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
-        Log.d(TAG, "onGetRoot called with clientPackageName: " + clientPackageName);
+        Trace.i(TAG, "onGetRoot", clientPackageName);
         // Return a root ID that clients can use with onLoadChildren() to retrieve
-        // the content hierarchy.
-        return new BrowserRoot(MEDIA_ROOT_ID, null);
+        // the content hierarchy, and advertise onSearch() support.
+        Bundle rootExtras = new Bundle();
+        rootExtras.putBoolean(MediaConstants.BROWSER_SERVICE_EXTRAS_KEY_SEARCH_SUPPORTED, true);
+        return new BrowserRoot(MEDIA_ROOT_ID, rootExtras);
     }
 
     @Override
-    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
-        Log.d(TAG, "onLoadChildren called with parentId: " + parentId);
+    public void onSearch(@NonNull String query, @Nullable Bundle extras, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        Trace.i(TAG, "onSearch", query);
         
-        List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
+        List<MediaItemData> matches = searchIndex.search(catalog.snapshot(), query, MAX_SEARCH_RESULTS);
+        List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>(matches.size());
+        for (MediaItemData itemData : matches) {
+            mediaItems.add(buildMediaItem(itemData));
+        }
+        result.sendResult(mediaItems);
+    }
+    
+    // Resolve a voice query to the best playable mediaId, or null if nothing matches
+    public static String findMediaIdForSearch(@Nullable String query, @Nullable Bundle extras) {
+        StringBuilder text = new StringBuilder(query != null ? query : "");
+        if (extras != null) {
+            // Structured hints from the assistant, e.g. "play <title> by <artist>"
+            for (String key : new String[] { MediaStore.EXTRA_MEDIA_TITLE, MediaStore.EXTRA_MEDIA_ARTIST, MediaStore.EXTRA_MEDIA_ALBUM }) {
+                String value = extras.getString(key);
+                if (value != null && !value.isEmpty()) {
+                    text.append(' ').append(value);
+                }
+            }
+        }
+        MediaItemData match = searchIndex.findBestPlayable(catalog.snapshot(), text.toString());
+        return match != null ? match.mediaId : null;
+    }
+    
+    // Play the best match for a voice query; an empty query resumes the current track
+    public static void handlePlayFromSearchFromController(@Nullable String query, @Nullable Bundle extras) {
+        Trace.i(TAG, "playFromSearch", query);
         
-        synchronized (mediaItemsMap) {
-            // Log current state of media items map
-            Log.d(TAG, "Current mediaItemsMap size: " + mediaItemsMap.size());
-            for (String key : mediaItemsMap.keySet()) {
-                List<MediaItemData> items = mediaItemsMap.get(key);
-                Log.d(TAG, "  Key: " + key + " has " + (items != null ? items.size() : 0) + " items");
+        if ((query == null || query.trim().isEmpty()) && (extras == null || extras.isEmpty())) {
+            if (staticAndroidAutoController != null) {
+                staticAndroidAutoController.handlePlayCommand();
             }
-            
-            List<MediaItemData> items = mediaItemsMap.get(parentId);
-            
-            if (items != null && !items.isEmpty()) {
-                Log.d(TAG, "Found " + items.size() + " dynamic items for parentId: " + parentId);
-                // Use dynamic items from JavaScript
-                for (MediaItemData itemData : items) {
-                    Log.d(TAG, "Adding item: " + itemData.title + " (browsable: " + itemData.isBrowsable + ")");
-                    
-                    android.support.v4.media.MediaDescriptionCompat.Builder descBuilder = 
-                        new android.support.v4.media.MediaDescriptionCompat.Builder()
-                            .setMediaId(itemData.mediaId)
-                            .setTitle(itemData.title)
-                            .setSubtitle(itemData.subtitle);
-                    
-                    if (itemData.description != null && !itemData.description.isEmpty()) {
-                        descBuilder.setDescription(itemData.description);
-                    }
-                    
-                    MediaBrowserCompat.MediaItem mediaItem = new MediaBrowserCompat.MediaItem(
-                        descBuilder.build(),
-                        itemData.isBrowsable ? MediaBrowserCompat.MediaItem.FLAG_BROWSABLE : MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
-                    );
-                    
-                    mediaItems.add(mediaItem);
+            return;
+        }
+        
+        String mediaId = findMediaIdForSearch(query, extras);
+        if (mediaId == null) {
+            Log.e(TAG, "No playable media item matches query: " + query);
+            return;
+        }
+        handleTrackSelectionFromController(mediaId);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        onLoadChildren(parentId, result, Bundle.EMPTY);
+    }
+    
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result, @NonNull Bundle options) {
+        Trace.d(TAG, "onLoadChildren", parentId);
+        Metrics.increment("browse.loadChildren", parentId);
+        long requestedAt = SystemClock.elapsedRealtime();
+        
+        synchronized (restoreLock) {
+            if (restorePending) {
+                // A cold start is still decoding the saved catalog; answer from it rather than from an empty tree
+                result.detach();
+                afterRestore.add(() -> loadChildren(parentId, result, options, requestedAt, true));
+                return;
+            }
+        }
+        loadChildren(parentId, result, options, requestedAt, false);
+    }
+    
+    private static void loadChildren(String parentId, Result<List<MediaBrowserCompat.MediaItem>> result, Bundle options,
+                                     long requestedAt, boolean detached) {
+        // Read from the current snapshot without blocking writers
+        MediaCatalog.Snapshot snapshot = catalog.snapshot();
+        
+        ChildrenProvider provider = childrenProvider;
+        if (provider != null) {
+            if (!snapshot.containsParent(parentId) && isBrowsableParent(snapshot, parentId)) {
+                // Not materialized yet: hold the result until JavaScript provides the children
+                if (!detached) {
+                    result.detach();
                 }
-            } else {
-                Log.d(TAG, "No items found for parentId: " + parentId);
+                LazyFolders.Request<PendingLoad> request = lazyFolders.await(parentId, new PendingLoad(result, options, requestedAt));
+                if (request != null) {
+                    request.timeout = () -> {
+                        Metrics.increment("browse.lazyLoadTimeout");
+                        completePendingLoads(parentId);
+                    };
+                    Trace.i(TAG, "requestChildren", parentId);
+                    notifyHandler.postDelayed(request.timeout, LAZY_LOAD_TIMEOUT_MS);
+                    provider.requestChildren(parentId);
+                }
+                return;
             }
+            // Mark as recently browsed so it is the last to be evicted
+            lazyFolders.touch(parentId);
         }
         
-        Log.d(TAG, "Returning " + mediaItems.size() + " media items for parentId: " + parentId);
-        for (MediaBrowserCompat.MediaItem item : mediaItems) {
-            Log.d(TAG, "  - " + item.getDescription().getTitle() + " (ID: " + item.getDescription().getMediaId() + ")");
+        sendChildren(snapshot, parentId, result, options);
+        Metrics.record("browse.loadChildrenMs", parentId, SystemClock.elapsedRealtime() - requestedAt);
+    }
+    
+    private static boolean isBrowsableParent(MediaCatalog.Snapshot snapshot, String parentId) {
+        if (MEDIA_ROOT_ID.equals(parentId)) {
+            return true;
         }
+        MediaItemData parent = snapshot.find(parentId);
+        return parent != null && parent.isBrowsable;
+    }
+    
+    private static void sendChildren(MediaCatalog.Snapshot snapshot, String parentId, Result<List<MediaBrowserCompat.MediaItem>> result, Bundle options) {
+        int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        
+        ChildrenCache.Children<MediaBrowserCompat.MediaItem> children =
+            mediaItemCache.get(parentId, snapshot.getChildren(parentId));
+        List<MediaBrowserCompat.MediaItem> mediaItems = children.page(page, pageSize);
+        if (!ChildrenCache.isPaged(page, pageSize) && mediaItems.size() < children.items.size()) {
+            // Too large for one binder transaction; clients that need the rest should page
+            Trace.i(TAG, "truncateChildren", parentId, mediaItems.size());
+        }
+        
+        Trace.d(TAG, "sendChildren", parentId, mediaItems.size());
         
         result.sendResult(mediaItems);
+        
+        if (page <= 0) {
+            prepareAheadInFolder(snapshot, parentId);
+        }
     }
-
+    
+    // Focus starts on a folder's first playable item, so it is the likeliest tap; prepare it ahead
+    private static void prepareAheadInFolder(MediaCatalog.Snapshot snapshot, String parentId) {
+        AndroidAutoController controller = staticAndroidAutoController;
+        if (controller == null || controller.getPrepareAheadCapacity() == 0) {
+            return;
+        }
+        for (MediaItemData item : snapshot.getChildren(parentId)) {
+            if (!item.isBrowsable && item.url != null && !item.url.isEmpty()) {
+                controller.prepareAhead(item.url);
+                return;
+            }
+        }
+    }
+    
+    // Enable lazy loading with a provider (usually the plugin), or disable it with null
+    public static void setChildrenProvider(@Nullable ChildrenProvider provider) {
+        childrenProvider = provider;
+        if (provider == null) {
+            // Nobody will answer any more; release anything still waiting
+            for (String parentId : lazyFolders.pendingParents()) {
+                completePendingLoads(parentId);
+            }
+        }
+    }
+    
+    // Store the catalog as pooled parallel arrays instead of one object per item, for very large catalogs
+    public static void setCompactStorage(boolean enabled) {
+        catalog.setCompactStorage(enabled);
+        Trace.i(TAG, "compactStorage", enabled ? 1 : 0);
+    }
+    
+    public static void setLazyCacheSize(int size) {
+        evictLazyParents(lazyFolders.setCapacity(size));
+    }
+    
+    // Answer for a lazily loaded folder: publish its children, complete waiting results, evict the coldest folders
+    public static void provideChildren(String parentId, List<MediaItemData> items) {
+        Trace.i(TAG, "provideChildren", parentId, items.size());
+        Set<String> affectedParents = catalog.update(editor -> editor.setChildren(parentId, items));
+        mediaItemCache.invalidate(affectedParents);
+        
+        List<String> evicted = lazyFolders.provided(parentId);
+        if (!completePendingLoads(parentId)) {
+            // Provided ahead of a browse: let subscribed browsers refresh instead
+            notifyMediaCatalogChanged(parentId);
+        }
+        evictLazyParents(evicted);
+    }
+    
+    // Returns false if nothing was waiting for this parent
+    private static boolean completePendingLoads(String parentId) {
+        LazyFolders.Request<PendingLoad> waiting = lazyFolders.complete(parentId);
+        if (waiting == null) {
+            return false;
+        }
+        notifyHandler.removeCallbacks(waiting.timeout);
+        
+        // On timeout this sends whatever is available, usually an empty folder
+        MediaCatalog.Snapshot snapshot = catalog.snapshot();
+        long now = SystemClock.elapsedRealtime();
+        for (PendingLoad pending : waiting.waiters) {
+            sendChildren(snapshot, parentId, pending.result, pending.options);
+            // Includes the wait for JavaScript to provide the children
+            Metrics.record("browse.loadChildrenMs", parentId, now - pending.requestedAt);
+        }
+        return true;
+    }
+    
+    // Drop evicted folders' children and everything loaded below them, so their memory is released
+    private static void evictLazyParents(List<String> evicted) {
+        if (evicted.isEmpty()) {
+            return;
+        }
+        Trace.i(TAG, "evictLazyParents", evicted.size());
+        Set<String> affectedParents = catalog.update(editor -> {
+            for (String parentId : evicted) {
+                editor.removeDescendants(parentId);
+            }
+        });
+        mediaItemCache.invalidate(affectedParents);
+        // Folders loaded below an evicted one went with it and no longer count towards the cache size
+        MediaCatalog.Snapshot snapshot = catalog.snapshot();
+        for (String parentId : lazyFolders.loadedParents()) {
+            if (!snapshot.containsParent(parentId)) {
+                lazyFolders.forget(parentId);
+            }
+        }
+    }
+    
+    private static MediaBrowserCompat.MediaItem buildMediaItem(MediaItemData itemData) {
+        android.support.v4.media.MediaDescriptionCompat.Builder descBuilder = 
+            new android.support.v4.media.MediaDescriptionCompat.Builder()
+                .setMediaId(itemData.mediaId)
+                .setTitle(itemData.title)
+                .setSubtitle(itemData.subtitle);
+        
+        if (itemData.description != null && !itemData.description.isEmpty()) {
+            descBuilder.setDescription(itemData.description);
+        }
+        
+        return new MediaBrowserCompat.MediaItem(
+            descBuilder.build(),
+            itemData.isBrowsable ? MediaBrowserCompat.MediaItem.FLAG_BROWSABLE : MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
+        );
+    }
+    
     public static void setAndroidAutoController(AndroidAutoController controller) {
         staticAndroidAutoController = controller;
-        Log.d(TAG, "AndroidAutoController set in MediaBrowserService (static)");
+        Trace.i(TAG, "setAndroidAutoController");
     }
     
     // Static method to handle track selection from AndroidAutoController
     public static void handleTrackSelectionFromController(String mediaId) {
-        Log.d(TAG, "handleTrackSelectionFromController called with mediaId: " + mediaId);
-        
-        // Get URL from dynamic mapping first
-        String audioUrl = mediaItemUrls.get(mediaId);
-        String title = "Unknown Track";
-        String artist = "Unknown Artist";
-        String album = "Unknown Album";
+        Trace.i(TAG, "trackSelection", mediaId);
         
-        // Find the item data for metadata
-        synchronized (mediaItemsMap) {
-            for (List<MediaItemData> items : mediaItemsMap.values()) {
-                for (MediaItemData item : items) {
-                    if (mediaId.equals(item.mediaId)) {
-                        title = item.title;
-                        artist = item.subtitle; // Using subtitle as artist
-                        album = item.description; // Using description as album
-                        if (audioUrl == null || audioUrl.isEmpty()) {
-                            audioUrl = item.url;
-                        }
-                        break;
-                    }
-                }
-            }
-        }
+        // Single index lookup for URL and metadata
+        MediaItemData item = catalog.find(mediaId);
         
         // Check if we found the track data
-        if (audioUrl == null || audioUrl.isEmpty()) {
+        if (item == null || item.url == null || item.url.isEmpty()) {
             Log.e(TAG, "No URL found for mediaId: " + mediaId + " - track not found in media items");
             return; // Don't try to play if we don't have the proper data
-        } else {
-            Log.d(TAG, "Found URL for mediaId " + mediaId + ": " + audioUrl);
         }
         
-        Log.d(TAG, "Track info - Title: " + title + ", Artist: " + artist + ", Album: " + album + ", URL: " + audioUrl);
-        
         // Update the AndroidAutoController with the new track info and start playback
         if (staticAndroidAutoController != null) {
-            Log.d(TAG, "Updating AndroidAutoController with track info and starting playback");
-            
-            // Use the method that notifies JavaScript about track selection
-            staticAndroidAutoController.updateNowPlayingFromAndroidAuto(audioUrl, title, artist, album, null, 180000);
+            // Use the method that notifies JavaScript about track selection; subtitle is the artist
+            // and description the album
+            staticAndroidAutoController.updateNowPlayingFromAndroidAuto(item.url, item.title, item.subtitle, item.description, null, 180000);
             
             // Start playback
             staticAndroidAutoController.handlePlayCommand();
-            
-            Log.d(TAG, "Track selection and playback initiated");
         } else {
             Log.e(TAG, "staticAndroidAutoController is null, cannot handle track selection");
         }
     }
     
+    // Static method to handle a prepare request: warm the prepare-ahead pool without starting playback
+    public static void handlePrepareFromController(String mediaId) {
+        MediaItemData item = catalog.find(mediaId);
+        if (item == null || item.url == null || item.url.isEmpty() || staticAndroidAutoController == null) {
+            Log.w(TAG, "Cannot prepare mediaId: " + mediaId);
+            return;
+        }
+        staticAndroidAutoController.prepareAhead(item.url);
+    }
+    
     public void updateAndroidAutoController(AndroidAutoController controller) {
         this.androidAutoController = controller;
         if (controller != null) {
             MediaSessionCompat.Token token = controller.getSessionToken();
             if (token != null) {
                 setSessionToken(token);
-                Log.d(TAG, "Updated session token from AndroidAutoController");
+                Trace.i(TAG, "controllerSessionToken");
             }
         }
     }
@@ -341,33 +681,13 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
         
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
-            Log.d(TAG, "MediaBrowserService: onPlayFromMediaId called with mediaId: " + mediaId);
+            Trace.i(TAG, "onPlayFromMediaId", mediaId);
             
-            // Get URL from dynamic mapping first
-            String audioUrl = mediaItemUrls.get(mediaId);
-            String title = "Unknown Track";
-            String artist = "Unknown Artist";
-            String album = "Unknown Album";
-            
-            // Find the item data for metadata
-            synchronized (mediaItemsMap) {
-                for (List<MediaItemData> items : mediaItemsMap.values()) {
-                    for (MediaItemData item : items) {
-                        if (mediaId.equals(item.mediaId)) {
-                            title = item.title;
-                            artist = item.subtitle; // Using subtitle as artist
-                            album = item.description; // Using description as album
-                            if (audioUrl == null || audioUrl.isEmpty()) {
-                                audioUrl = item.url;
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
+            // Single index lookup for URL and metadata
+            MediaItemData item = catalog.find(mediaId);
             
             // Check if we found the track data
-            if (audioUrl == null || audioUrl.isEmpty()) {
+            if (item == null || item.url == null || item.url.isEmpty()) {
                 Log.e(TAG, "No URL found for mediaId: " + mediaId + " - cannot play track");
                 // Set error state if we have our own mediaSession
                 if (mediaSession != null && stateBuilder != null) {
@@ -376,27 +696,20 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
                         .build());
                 }
                 return;
-            } else {
-                Log.d(TAG, "Found URL for mediaId " + mediaId + ": " + audioUrl);
             }
             
-            Log.d(TAG, "Selected track: " + title + " with URL: " + audioUrl);
-            Log.d(TAG, "Track metadata - Title: " + title + ", Artist: " + artist + ", Album: " + album);
-            
             // Update the AndroidAutoController with the new track info
-            if (androidAutoController != null) {
-                Log.d(TAG, "Updating AndroidAutoController with: " + title + " (" + audioUrl + ")");
-                
-                // Use the new method that notifies JavaScript about track selection
-                androidAutoController.updateNowPlayingFromAndroidAuto(audioUrl, title, artist, album, null, 180000);
-                
-                // Directly trigger playback through AndroidAutoController
-                Log.d(TAG, "Calling androidAutoController.handlePlayCommand()");
-                androidAutoController.handlePlayCommand();
-                Log.d(TAG, "androidAutoController.handlePlayCommand() completed");
-                
-                // Log the current state after attempting to play
-                Log.d(TAG, "Post-play state check - AndroidAutoController ready: " + androidAutoController.isAndroidAutoConnected());
+            AndroidAutoController controller = androidAutoController;
+            if (controller != null) {
+                // This session calls back on the main thread; the controller's work belongs on the playback thread
+                controller.execute(() -> {
+                    // Use the new method that notifies JavaScript about track selection; subtitle is
+                    // the artist and description the album
+                    controller.updateNowPlayingFromAndroidAuto(item.url, item.title, item.subtitle, item.description, null, 180000);
+                    
+                    // Directly trigger playback through AndroidAutoController
+                    controller.handlePlayCommand();
+                });
             } else {
                 Log.e(TAG, "AndroidAutoController is null, cannot play media");
                 // Set error state only if we have our own mediaSession
@@ -407,6 +720,26 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
                 }
             }
         }
+        
+        @Override
+        public void onPlayFromSearch(String query, Bundle extras) {
+            Trace.i(TAG, "onPlayFromSearch", query);
+            
+            String mediaId = findMediaIdForSearch(query, extras);
+            if (mediaId != null) {
+                onPlayFromMediaId(mediaId, extras);
+            } else if (androidAutoController != null && (query == null || query.trim().isEmpty())) {
+                AndroidAutoController controller = androidAutoController;
+                controller.execute(controller::handlePlayCommand);
+            } else {
+                Log.e(TAG, "No playable media item matches query: " + query);
+                if (mediaSession != null && stateBuilder != null) {
+                    mediaSession.setPlaybackState(stateBuilder
+                        .setState(PlaybackStateCompat.STATE_ERROR, 0, 0.0f)
+                        .build());
+                }
+            }
+        }
     }
     
     // Method to get sample URL for testing
@@ -414,41 +747,66 @@ public class CarAudioMediaBrowserService extends MediaBrowserServiceCompat {
         return "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-1.mp3";
     }
     
-    // Static method to notify Android Auto that media catalog has changed
+    // Configure how long catalog changes are coalesced before Android Auto is notified
+    public static void setNotifyDelay(long delayMs) {
+        notifyDelayMs = Math.max(0, delayMs);
+        Trace.i(TAG, "notifyDelay", notifyDelayMs);
+    }
+    
+    // Hold notifications until the matching endBatch(), so a bulk load notifies each parent once
+    public static void beginBatch() {
+        dirtyParents.beginBatch();
+    }
+    
+    public static void endBatch() {
+        if (dirtyParents.endBatch()) {
+            flushCatalogChanges();
+        }
+    }
+    
+    // Mark a parent as changed; Android Auto is notified when the window elapses or the batch ends
     private static void notifyMediaCatalogChanged(String parentId) {
-        if (serviceInstance != null) {
-            Log.d(TAG, "Notifying Android Auto that children changed for parent: " + parentId);
-            serviceInstance.notifyChildrenChanged(parentId);
-        } else {
-            Log.w(TAG, "Cannot notify media catalog change - service instance is null");
+        if (dirtyParents.mark(parentId)) {
+            notifyHandler.postDelayed(flushRunnable, notifyDelayMs);
         }
     }
     
-    // Static method to notify multiple parent changes
-    private static void notifyMediaCatalogChanged(List<String> parentIds) {
-        if (serviceInstance != null && parentIds != null) {
+    // Mark multiple parents as changed; the root is among them only if its own children changed
+    private static void notifyMediaCatalogChanged(Collection<String> parentIds) {
+        if (parentIds != null && dirtyParents.mark(parentIds)) {
+            notifyHandler.postDelayed(flushRunnable, notifyDelayMs);
+        }
+    }
+    
+    // Send one notifyChildrenChanged per dirty parent
+    private static void flushCatalogChanges() {
+        // Cancel first: a change after the drain below then schedules its own flush
+        notifyHandler.removeCallbacks(flushRunnable);
+        List<String> parentIds = dirtyParents.drain();
+        if (parentIds.isEmpty()) {
+            return;
+        }
+        
+        CarAudioMediaBrowserService service = serviceInstance;
+        if (service != null) {
+            Trace.d(TAG, "notifyChildrenChanged", parentIds.size());
             for (String parentId : parentIds) {
-                Log.d(TAG, "Notifying Android Auto that children changed for parent: " + parentId);
-                serviceInstance.notifyChildrenChanged(parentId);
+                service.notifyChildrenChanged(parentId);
             }
-            // Also notify the root in case items were added/removed from root level
-            Log.d(TAG, "Notifying Android Auto that root children changed");
-            serviceInstance.notifyChildrenChanged(MEDIA_ROOT_ID);
         } else {
-            Log.w(TAG, "Cannot notify media catalog changes - service instance is null or parentIds is null");
+            Log.w(TAG, "Cannot notify media catalog changes - service instance is null");
         }
     }
     
     // Public method to manually refresh Android Auto UI (callable from plugin)
     public static void refreshAndroidAutoUI() {
-        Log.d(TAG, "Manual refresh of Android Auto UI requested");
+        Trace.i(TAG, "refreshAndroidAutoUI");
         if (serviceInstance != null) {
             // Notify all current parents that their children may have changed
-            synchronized (mediaItemsMap) {
-                List<String> allParents = new ArrayList<>(mediaItemsMap.keySet());
-                allParents.add(MEDIA_ROOT_ID); // Always include root
-                notifyMediaCatalogChanged(allParents);
-            }
+            List<String> allParents = new ArrayList<>(catalog.snapshot().getParentIds());
+            allParents.add(MEDIA_ROOT_ID); // Always include root
+            notifyMediaCatalogChanged(allParents);
+            flushCatalogChanges();
         } else {
             Log.w(TAG, "Cannot refresh Android Auto UI - service instance is null");
         }
@@ -5,19 +5,37 @@ import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
-import android.util.Log;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
 import com.getcapacitor.JSArray;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CapacitorPlugin(name = "CarAudio")
 public class CarAudioPlugin extends Plugin implements AndroidAutoController.AndroidAutoControllerListener {
 
     private CarAudio implementation;
     private AndroidAutoController androidAutoController;
-    private boolean androidAutoEnabled = false;
+    private volatile boolean androidAutoEnabled = false;
+    
+    // Runs catalog imports and download bookkeeping off the bridge thread
+    private final ExecutorService catalogExecutor = Executors.newSingleThreadExecutor();
+    
+    // Opened on catalogExecutor; download methods run there too, so they always see it
+    private static final String OFFLINE_DIR = "caraudio_offline";
+    private static final long DEFAULT_DOWNLOAD_QUOTA_BYTES = 1024L * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 2;
+    private volatile OfflineDownloads offlineDownloads;
 
     @Override
     public void load() {
@@ -32,33 +50,41 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         // Register the AndroidAutoController with the MediaBrowserService
         CarAudioMediaBrowserService.setAndroidAutoController(androidAutoController);
         
-        // Auto-populate media items for Android Auto
+        // Persist catalog changes so Android Auto can browse after the process is restarted
+        CarAudioMediaBrowserService.initCatalogStore(getContext());
+        
+        // Downloaded tracks play from storage, including ones selected in Android Auto
+        catalogExecutor.execute(() -> {
+            offlineDownloads = new OfflineDownloads(new File(getContext().getFilesDir(), OFFLINE_DIR),
+                DEFAULT_DOWNLOAD_QUOTA_BYTES, DEFAULT_MAX_CONCURRENT_DOWNLOADS, this::onDownloadChanged);
+            implementation.setOfflineDownloads(offlineDownloads);
+        });
+        
+        // Placeholder items for Android Auto, used only when no saved catalog was restored
         setupDefaultMediaItems();
         
-        Log.d("CarAudioPlugin", "CarAudio plugin loaded with Android Auto support");
+        Trace.i("CarAudioPlugin", "loaded");
     }
     
     private void setupDefaultMediaItems() {
-        Log.d("CarAudioPlugin", "Setting up default media items for Android Auto");
-        
-        // Clear any existing items first
-        CarAudioMediaBrowserService.clearMediaItems();
+        List<MediaItemData> items = new ArrayList<>();
         
         // Add test browsable folders
-        CarAudioMediaBrowserService.addBrowsableItem("media_root_id", "test_playlists", "Test Playlists", "Debug playlists");
-        CarAudioMediaBrowserService.addBrowsableItem("media_root_id", "test_albums", "Test Albums", "Debug albums");
+        items.add(new MediaItemData("media_root_id", "test_playlists", "Test Playlists", "Debug playlists", "", true, "", ""));
+        items.add(new MediaItemData("media_root_id", "test_albums", "Test Albums", "Debug albums", "", true, "", ""));
         
         // Add playable items to playlists
-        CarAudioMediaBrowserService.addPlayableItem("test_playlists", "test_track_1", "Debug Song 1", "Debug Artist", "Debug Album", 
-            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-1.mp3", "");
-        CarAudioMediaBrowserService.addPlayableItem("test_playlists", "test_track_2", "Debug Song 2", "Debug Artist 2", "Debug Album 2", 
-            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-2.mp3", "");
+        items.add(new MediaItemData("test_playlists", "test_track_1", "Debug Song 1", "Debug Artist", "Debug Album", false,
+            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-1.mp3", ""));
+        items.add(new MediaItemData("test_playlists", "test_track_2", "Debug Song 2", "Debug Artist 2", "Debug Album 2", false,
+            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-2.mp3", ""));
         
         // Add items to albums
-        CarAudioMediaBrowserService.addPlayableItem("test_albums", "album_track_1", "Album Track 1", "Album Artist", "Test Album", 
-            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-3.mp3", "");
+        items.add(new MediaItemData("test_albums", "album_track_1", "Album Track 1", "Album Artist", "Test Album", false,
+            "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-3.mp3", ""));
         
-        Log.d("CarAudioPlugin", "Default media items setup completed");
+        // Published after the restore, and only if it found nothing
+        CarAudioMediaBrowserService.seedDefaultMediaItems(items);
     }
     
     // Add this new method to enable/disable Android Auto
@@ -88,7 +114,7 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         String artwork = call.getString("artwork", "");
         Long duration = call.getLong("duration", 0L);
         
-        androidAutoController.updateNowPlaying(url, title, artist, album, artwork, duration);
+        androidAutoController.execute(() -> androidAutoController.updateNowPlaying(url, title, artist, album, artwork, duration));
         
         JSObject result = new JSObject();
         result.put("success", true);
@@ -104,25 +130,21 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         String album = call.getString("album", "");
         String artwork = call.getString("artwork", "");
         Long duration = call.getLong("duration", 0L);
+        List<String> alternateUrls = toStringList(call.getArray("alternateUrls"));
         
         // Enable Android Auto by default
         androidAutoEnabled = true;
         
-        // Your existing CarAudio play logic
-        implementation.play(url, title, artist, artwork);
-        
-        // Add Android Auto integration
-        if (androidAutoEnabled) {
-            androidAutoController.updateNowPlaying(url, title, artist, album, artwork, duration);
-            androidAutoController.notifyBuffering(0);
+        // Player and session calls are queued on the playback thread, so they run in call order
+        implementation.execute(() -> {
+            // Your existing CarAudio play logic
+            implementation.play(url, title, artist, artwork, alternateUrls);
             
-            // Notify playing after a short delay (when CarAudio is ready)
-            new android.os.Handler().postDelayed(() -> {
-                if (implementation.isPlaying()) {
-                    androidAutoController.notifyPlaying(0);
-                }
-            }, 1000);
-        }
+            // Add Android Auto integration; the playback state follows from CarAudio's state listener
+            if (androidAutoEnabled) {
+                androidAutoController.updateNowPlaying(url, title, artist, album, artwork, duration);
+            }
+        });
         
         // Your existing response
         JSObject result = new JSObject();
@@ -133,12 +155,9 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
     // Modify your existing pause method
     @PluginMethod
     public void pause(PluginCall call) {
+        // Android Auto's playback state follows from CarAudio's state listener
         implementation.pause();
         
-        if (androidAutoEnabled) {
-            androidAutoController.notifyPaused(0);
-        }
-        
         JSObject result = new JSObject();
         result.put("success", true);
         call.resolve(result);
@@ -147,12 +166,9 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
     // Modify your existing resume method
     @PluginMethod
     public void resume(PluginCall call) {
+        // Android Auto's playback state follows from CarAudio's state listener
         implementation.resume();
         
-        if (androidAutoEnabled) {
-            androidAutoController.notifyPlaying(0);
-        }
-        
         JSObject result = new JSObject();
         result.put("success", true);
         call.resolve(result);
@@ -161,11 +177,23 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
     // Modify your existing stop method
     @PluginMethod
     public void stop(PluginCall call) {
+        // Android Auto's playback state follows from CarAudio's state listener
         implementation.stop();
         
-        if (androidAutoEnabled) {
-            androidAutoController.notifyStopped();
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
+    @PluginMethod
+    public void seekTo(PluginCall call) {
+        Long position = call.getLong("position");
+        if (position == null) {
+            call.reject("position is required");
+            return;
         }
+        // Rapid calls while scrubbing are coalesced natively into the last one
+        implementation.seekTo(position, !"fast".equals(call.getString("mode", "precise")));
         
         JSObject result = new JSObject();
         result.put("success", true);
@@ -230,10 +258,384 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         notifyListeners("androidAutoCommand", data);
     }
     
+    @Override
+    public void onTrackChanged(PlaybackQueue.Entry track, int queueIndex, String reason) {
+        JSObject data = new JSObject();
+        data.put("action", "trackChanged");
+        data.put("reason", reason);
+        data.put("url", track.url);
+        data.put("title", track.title);
+        data.put("artist", track.artist);
+        data.put("album", track.album);
+        data.put("artwork", track.artwork);
+        data.put("duration", track.duration);
+        if (queueIndex >= 0) {
+            data.put("queueIndex", queueIndex);
+            data.put("mediaId", track.mediaId);
+        }
+        notifyListeners("androidAutoCommand", data);
+    }
+    
+    // Replace the native queue; skips and completion then move through it without waiting for JavaScript
+    @PluginMethod
+    public void setQueue(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items array is required");
+            return;
+        }
+        
+        try {
+            List<PlaybackQueue.Entry> entries = new ArrayList<>(items.length());
+            for (int i = 0; i < items.length(); i++) {
+                PlaybackQueue.Entry entry = toQueueEntry(items.getJSONObject(i));
+                if (entry == null) {
+                    call.reject("Queue item " + i + " has no url and no mediaId in the catalog");
+                    return;
+                }
+                entries.add(entry);
+            }
+            
+            int startIndex = call.getInt("startIndex", 0);
+            String title = call.getString("title");
+            boolean play = call.getBoolean("play", false);
+            androidAutoController.execute(() -> androidAutoController.setQueue(entries, startIndex, title, play));
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("itemsAdded", entries.size());
+            call.resolve(result);
+        } catch (JSONException e) {
+            call.reject("Error parsing items array: " + e.getMessage());
+        }
+    }
+    
+    @PluginMethod
+    public void skipToNext(PluginCall call) {
+        androidAutoController.execute(() -> {
+            androidAutoController.skipToNext();
+            call.resolve(queueState());
+        });
+    }
+    
+    @PluginMethod
+    public void skipToPrevious(PluginCall call) {
+        androidAutoController.execute(() -> {
+            androidAutoController.skipToPrevious();
+            call.resolve(queueState());
+        });
+    }
+    
+    @PluginMethod
+    public void skipToQueueItem(PluginCall call) {
+        Integer index = call.getInt("index");
+        if (index == null) {
+            call.reject("index is required");
+            return;
+        }
+        androidAutoController.execute(() -> {
+            if (!androidAutoController.skipToQueueItem(index)) {
+                call.reject("No queue item at index " + index);
+                return;
+            }
+            call.resolve(queueState());
+        });
+    }
+    
+    // Set shuffle and/or repeat ("none", "one" or "all"); fields left out keep their current values
+    @PluginMethod
+    public void setQueueMode(PluginCall call) {
+        Boolean shuffle = call.getBoolean("shuffle");
+        String repeat = call.getString("repeat");
+        androidAutoController.execute(() -> {
+            if (shuffle != null) {
+                androidAutoController.setShuffle(shuffle);
+            }
+            if (repeat != null) {
+                androidAutoController.setRepeatMode(parseRepeatMode(repeat));
+            }
+            call.resolve(queueState());
+        });
+    }
+    
+    private JSObject queueState() {
+        PlaybackQueue queue = androidAutoController.getQueue();
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("index", queue.getCurrentIndex());
+        result.put("shuffle", queue.isShuffle());
+        result.put("repeat", repeatModeName(queue.getRepeatMode()));
+        return result;
+    }
+    
+    private static int parseRepeatMode(String name) {
+        if ("one".equalsIgnoreCase(name)) {
+            return PlaybackQueue.REPEAT_ONE;
+        }
+        if ("all".equalsIgnoreCase(name)) {
+            return PlaybackQueue.REPEAT_ALL;
+        }
+        return PlaybackQueue.REPEAT_NONE;
+    }
+    
+    private static String repeatModeName(int mode) {
+        switch (mode) {
+            case PlaybackQueue.REPEAT_ONE:
+                return "one";
+            case PlaybackQueue.REPEAT_ALL:
+                return "all";
+            default:
+                return "none";
+        }
+    }
+    
+    // Convert one JavaScript queue item; items given only a mediaId are filled in from the catalog
+    private static PlaybackQueue.Entry toQueueEntry(JSONObject item) {
+        String mediaId = item.optString("mediaId", null);
+        String url = item.optString("url", "");
+        MediaItemData catalogItem = mediaId != null ? CarAudioMediaBrowserService.findMediaItem(mediaId) : null;
+        if (url.isEmpty() && catalogItem != null) {
+            url = catalogItem.url != null ? catalogItem.url : "";
+        }
+        if (url.isEmpty()) {
+            return null;
+        }
+        
+        // Catalog items keep the artist in subtitle and the album in description
+        return new PlaybackQueue.Entry(
+            mediaId,
+            url,
+            item.optString("title", catalogItem != null ? catalogItem.title : ""),
+            item.optString("artist", catalogItem != null ? catalogItem.subtitle : ""),
+            item.optString("album", catalogItem != null ? catalogItem.description : ""),
+            item.optString("artwork", catalogItem != null ? catalogItem.artwork : ""),
+            item.optLong("duration", 0L),
+            toStringList(item.optJSONArray("alternateUrls")));
+    }
+    
+    private static List<String> toStringList(JSONArray array) {
+        List<String> strings = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                String value = array.optString(i, "");
+                if (!value.isEmpty()) {
+                    strings.add(value);
+                }
+            }
+        }
+        return strings;
+    }
+    
+    // Prepare the track that plays after the current one, so the change is gapless; omit url to clear
+    @PluginMethod
+    public void setNextTrack(PluginCall call) {
+        String url = call.getString("url");
+        String title = call.getString("title", "");
+        String artist = call.getString("artist", "");
+        String album = call.getString("album", "");
+        String artwork = call.getString("artwork", "");
+        long duration = call.getLong("duration", 0L);
+        androidAutoController.execute(() -> androidAutoController.setNextTrack(url, title, artist, album, artwork, duration));
+        
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
+    // Tune native playback; prepareAheadPlayers of 0 (the default) disables the prepare-ahead pool
+    @PluginMethod
+    public void configurePlayback(PluginCall call) {
+        Integer prepareAheadPlayers = call.getInt("prepareAheadPlayers");
+        long memoryMb = call.getLong("prepareAheadMemoryMb", 0L);
+        Long audioCacheMb = call.getLong("audioCacheMb");
+        Integer prepareAttempts = call.getInt("prepareAttempts");
+        implementation.execute(() -> {
+            if (prepareAheadPlayers != null) {
+                implementation.setPrepareAheadLimits(prepareAheadPlayers, memoryMb * 1024 * 1024);
+            }
+            if (audioCacheMb != null) {
+                implementation.setAudioCacheLimit(audioCacheMb * 1024 * 1024);
+            }
+            if (prepareAttempts != null) {
+                implementation.setPrepareAttempts(prepareAttempts);
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("prepareAheadCapacity", implementation.getPrepareAheadCapacity());
+            result.put("audioCacheBytes", implementation.getAudioCacheSize());
+            result.put("prepareAttempts", implementation.getPrepareAttempts());
+            call.resolve(result);
+        });
+    }
+    
+    // Hint the URLs or catalog mediaIds the user is likely to play next, so they can be prepared ahead
+    @PluginMethod
+    public void prepareAhead(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items array is required");
+            return;
+        }
+        
+        int requested = 0;
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.optJSONObject(i);
+            if (item == null) {
+                continue;
+            }
+            String url = item.optString("url", "");
+            if (url.isEmpty()) {
+                MediaItemData catalogItem = CarAudioMediaBrowserService.findMediaItem(item.optString("mediaId", ""));
+                url = catalogItem != null && catalogItem.url != null ? catalogItem.url : "";
+            }
+            if (!url.isEmpty()) {
+                androidAutoController.prepareAhead(url);
+                requested++;
+            }
+        }
+        
+        JSObject result = new JSObject();
+        result.put("success", requested > 0 && implementation.getPrepareAheadCapacity() > 0);
+        result.put("requested", requested);
+        call.resolve(result);
+    }
+    
+    // Download URLs or catalog mediaIds for offline playback; progress arrives as downloadProgress events
+    @PluginMethod
+    public void downloadItems(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items array is required");
+            return;
+        }
+        
+        catalogExecutor.execute(() -> {
+            int queued = 0;
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                if (item == null) {
+                    continue;
+                }
+                String mediaId = item.optString("mediaId", "");
+                String url = resolveDownloadUrl(item.optString("url", ""), mediaId);
+                if (url != null && offlineDownloads.enqueue(url, mediaId.isEmpty() ? null : mediaId, item.optString("sha256", ""))) {
+                    queued++;
+                }
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("queued", queued);
+            call.resolve(result);
+        });
+    }
+    
+    @PluginMethod
+    public void cancelDownload(PluginCall call) {
+        String url = call.getString("url", "");
+        String mediaId = call.getString("mediaId", "");
+        catalogExecutor.execute(() -> {
+            String resolved = resolveDownloadUrl(url, mediaId);
+            JSObject result = new JSObject();
+            result.put("success", resolved != null && offlineDownloads.cancel(resolved));
+            call.resolve(result);
+        });
+    }
+    
+    @PluginMethod
+    public void removeDownload(PluginCall call) {
+        String url = call.getString("url", "");
+        String mediaId = call.getString("mediaId", "");
+        catalogExecutor.execute(() -> {
+            String resolved = resolveDownloadUrl(url, mediaId);
+            JSObject result = new JSObject();
+            result.put("success", resolved != null && offlineDownloads.remove(resolved));
+            call.resolve(result);
+        });
+    }
+    
+    // Completed downloads plus those queued or in progress
+    @PluginMethod
+    public void getDownloads(PluginCall call) {
+        catalogExecutor.execute(() -> {
+            JSArray downloads = new JSArray();
+            for (OfflineDownloads.Stored stored : offlineDownloads.getStored()) {
+                JSObject entry = new JSObject();
+                entry.put("url", stored.url);
+                if (stored.mediaId != null) {
+                    entry.put("mediaId", stored.mediaId);
+                }
+                entry.put("state", OfflineDownloads.STATE_COMPLETED);
+                entry.put("bytesDownloaded", stored.bytes);
+                entry.put("totalBytes", stored.bytes);
+                downloads.put(entry);
+            }
+            for (OfflineDownloads.Download download : offlineDownloads.getActive()) {
+                downloads.put(downloadToJS(download));
+            }
+            
+            JSObject result = new JSObject();
+            result.put("downloads", downloads);
+            result.put("usedBytes", offlineDownloads.getUsedBytes());
+            result.put("quotaBytes", offlineDownloads.getQuotaBytes());
+            call.resolve(result);
+        });
+    }
+    
+    // Concurrency applies to downloads not yet started; a smaller quota evicts least recently played downloads at once
+    @PluginMethod
+    public void configureDownloads(PluginCall call) {
+        Integer maxConcurrent = call.getInt("maxConcurrent");
+        Long quotaMb = call.getLong("quotaMb");
+        catalogExecutor.execute(() -> {
+            if (maxConcurrent != null) {
+                offlineDownloads.setMaxConcurrent(maxConcurrent);
+            }
+            if (quotaMb != null) {
+                offlineDownloads.setQuotaBytes(Math.max(0, quotaMb) * 1024 * 1024);
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("usedBytes", offlineDownloads.getUsedBytes());
+            result.put("quotaBytes", offlineDownloads.getQuotaBytes());
+            call.resolve(result);
+        });
+    }
+    
+    // url if given, else the catalog item's url for mediaId; null if neither resolves
+    private static String resolveDownloadUrl(String url, String mediaId) {
+        if (url != null && !url.isEmpty()) {
+            return url;
+        }
+        MediaItemData catalogItem = mediaId != null && !mediaId.isEmpty() ? CarAudioMediaBrowserService.findMediaItem(mediaId) : null;
+        return catalogItem != null && catalogItem.url != null && !catalogItem.url.isEmpty() ? catalogItem.url : null;
+    }
+    
+    private void onDownloadChanged(OfflineDownloads.Download download) {
+        notifyListeners("downloadProgress", downloadToJS(download));
+    }
+    
+    private static JSObject downloadToJS(OfflineDownloads.Download download) {
+        JSObject data = new JSObject();
+        data.put("url", download.url);
+        if (download.mediaId != null) {
+            data.put("mediaId", download.mediaId);
+        }
+        data.put("state", download.state);
+        data.put("bytesDownloaded", download.bytesDownloaded);
+        data.put("totalBytes", download.totalBytes);
+        if (download.error != null) {
+            data.put("error", download.error);
+        }
+        return data;
+    }
+    
     // Method to clear/reset MediaItems from JavaScript
     @PluginMethod
     public void clearMediaItems(PluginCall call) {
-        Log.d("CarAudioPlugin", "clearMediaItems called from JavaScript");
+        Trace.i("CarAudioPlugin", "clearMediaItems");
         CarAudioMediaBrowserService.clearMediaItems();
         
         JSObject result = new JSObject();
@@ -244,7 +646,7 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
     // Method to manually refresh Android Auto UI
     @PluginMethod
     public void refreshAndroidAutoUI(PluginCall call) {
-        Log.d("CarAudioPlugin", "refreshAndroidAutoUI called from JavaScript");
+        Trace.i("CarAudioPlugin", "refreshAndroidAutoUI");
         CarAudioMediaBrowserService.refreshAndroidAutoUI();
         
         JSObject result = new JSObject();
@@ -252,6 +654,181 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         call.resolve(result);
     }
     
+    // Set how much the plugin traces: "off" (default), "info" or "debug"; optionally echo to Logcat
+    @PluginMethod
+    public void setTraceLevel(PluginCall call) {
+        Trace.setLevel(Trace.parseLevel(call.getString("level", "off")));
+        Boolean logcat = call.getBoolean("logcat");
+        if (logcat != null) {
+            Trace.setLogcat(logcat);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("level", Trace.levelName(Trace.getLevel()));
+        call.resolve(result);
+    }
+    
+    // Snapshot of the playback metrics, optionally resetting counters and histograms
+    @PluginMethod
+    public void getPlaybackStats(PluginCall call) {
+        Metrics.Snapshot snapshot = Metrics.snapshot(call.getBoolean("reset", false));
+        
+        JSObject counters = new JSObject();
+        for (Map.Entry<String, Long> entry : snapshot.counters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue());
+        }
+        JSObject gauges = new JSObject();
+        for (Map.Entry<String, Long> entry : snapshot.gauges.entrySet()) {
+            gauges.put(entry.getKey(), entry.getValue());
+        }
+        JSObject histograms = new JSObject();
+        for (Map.Entry<String, Metrics.HistogramSnapshot> entry : snapshot.histograms.entrySet()) {
+            Metrics.HistogramSnapshot histogram = entry.getValue();
+            JSArray buckets = new JSArray();
+            for (long count : histogram.buckets) {
+                buckets.put(count);
+            }
+            JSObject js = new JSObject();
+            js.put("count", histogram.count);
+            js.put("sumMs", histogram.sumMs);
+            js.put("maxMs", histogram.maxMs);
+            js.put("p50Ms", histogram.percentile(50));
+            js.put("p95Ms", histogram.percentile(95));
+            js.put("p99Ms", histogram.percentile(99));
+            js.put("buckets", buckets);
+            histograms.put(entry.getKey(), js);
+        }
+        JSArray bounds = new JSArray();
+        for (long bound : Metrics.BUCKET_BOUNDS_MS) {
+            bounds.put(bound);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("counters", counters);
+        result.put("gauges", gauges);
+        result.put("histograms", histograms);
+        result.put("bucketBoundsMs", bounds);
+        call.resolve(result);
+    }
+    
+    // Quality-of-experience numbers for the current track and recently finished ones
+    @PluginMethod
+    public void getPlaybackQuality(PluginCall call) {
+        PlaybackQuality.Snapshot current = implementation.getCurrentQuality();
+        JSArray recent = new JSArray();
+        for (PlaybackQuality.Snapshot session : implementation.getRecentQuality()) {
+            recent.put(qualityToJS(session));
+        }
+        
+        JSObject result = new JSObject();
+        result.put("current", current != null ? qualityToJS(current) : null);
+        result.put("recent", recent);
+        call.resolve(result);
+    }
+    
+    private JSObject qualityToJS(PlaybackQuality.Snapshot session) {
+        JSObject js = new JSObject();
+        js.put("url", session.url);
+        js.put("host", RetryPolicy.hostOf(session.url));
+        js.put("startedAt", session.startedAtMillis);
+        if (session.timeToFirstAudioMs >= 0) {
+            js.put("timeToFirstAudioMs", session.timeToFirstAudioMs);
+        }
+        js.put("stallCount", session.stallCount);
+        js.put("stallTimeMs", session.stallTimeMs);
+        js.put("playTimeMs", session.playTimeMs);
+        js.put("stallRatio", session.stallRatio());
+        if (session.bufferedPercent >= 0) {
+            js.put("bufferedPercent", session.bufferedPercent);
+        }
+        js.put("failed", session.failed);
+        js.put("active", session.active);
+        return js;
+    }
+    
+    // Current playback state and its recent transitions, including rejected and stale ones
+    @PluginMethod
+    public void dumpStateLog(PluginCall call) {
+        long now = System.currentTimeMillis();
+        JSArray transitions = new JSArray();
+        for (PlaybackStateMachine.Transition transition : implementation.getStateLog()) {
+            JSObject entry = new JSObject();
+            entry.put("ageMs", now - transition.timeMillis);
+            entry.put("generation", transition.generation);
+            entry.put("from", transition.from.name().toLowerCase());
+            entry.put("to", transition.to.name().toLowerCase());
+            entry.put("reason", transition.reason);
+            entry.put("accepted", transition.accepted);
+            transitions.put(entry);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("state", implementation.getStateName());
+        result.put("generation", implementation.getStateGeneration());
+        result.put("transitions", transitions);
+        call.resolve(result);
+    }
+    
+    // Return the recorded trace events, oldest first, and optionally clear them
+    @PluginMethod
+    public void dumpTrace(PluginCall call) {
+        List<Trace.Event> events = Trace.dump();
+        if (call.getBoolean("clear", false)) {
+            Trace.clear();
+        }
+        
+        long now = System.nanoTime();
+        JSArray entries = new JSArray();
+        for (Trace.Event event : events) {
+            JSObject entry = new JSObject();
+            entry.put("ageMs", (now - event.timeNanos) / 1_000_000L);
+            entry.put("level", Trace.levelName(event.level));
+            entry.put("tag", event.tag);
+            entry.put("event", event.name);
+            if (event.detail != null) {
+                entry.put("detail", event.detail);
+            }
+            if (event.value != Trace.NO_VALUE) {
+                entry.put("value", event.value);
+            }
+            entries.put(entry);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("events", entries);
+        call.resolve(result);
+    }
+    
+    // Method to tune catalog behavior from JavaScript
+    @PluginMethod
+    public void configureCatalog(PluginCall call) {
+        Long notifyDelayMs = call.getLong("notifyDelayMs");
+        if (notifyDelayMs != null) {
+            CarAudioMediaBrowserService.setNotifyDelay(notifyDelayMs);
+        }
+        
+        Integer lazyCacheSize = call.getInt("lazyCacheSize");
+        if (lazyCacheSize != null) {
+            CarAudioMediaBrowserService.setLazyCacheSize(lazyCacheSize);
+        }
+        
+        Boolean lazyLoading = call.getBoolean("lazyLoading");
+        if (lazyLoading != null) {
+            // Unpopulated folders are requested through the loadChildren event
+            CarAudioMediaBrowserService.setChildrenProvider(lazyLoading ? this::requestChildren : null);
+        }
+        
+        Boolean compactStorage = call.getBoolean("compactStorage");
+        if (compactStorage != null) {
+            CarAudioMediaBrowserService.setCompactStorage(compactStorage);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
     // Method to add browsable folder from JavaScript
     @PluginMethod
     public void addBrowsableItem(PluginCall call) {
@@ -260,7 +837,7 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         String subtitle = call.getString("subtitle", "");
         String parentId = call.getString("parentId", "media_root_id");
         
-        Log.d("CarAudioPlugin", "addBrowsableItem called from JavaScript - mediaId: " + mediaId + ", title: " + title + ", parentId: " + parentId);
+        Trace.d("CarAudioPlugin", "addBrowsableItem", mediaId);
         
         if (mediaId == null || title == null) {
             call.reject("mediaId and title are required");
@@ -285,7 +862,7 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         String url = call.getString("url", "");
         String artwork = call.getString("artwork", "");
         
-        Log.d("CarAudioPlugin", "addPlayableItem called from JavaScript - mediaId: " + mediaId + ", title: " + title + ", parentId: " + parentId + ", url: " + url);
+        Trace.d("CarAudioPlugin", "addPlayableItem", mediaId);
         
         if (mediaId == null || title == null) {
             call.reject("mediaId and title are required");
@@ -303,40 +880,41 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
     @PluginMethod
     public void setMediaItems(PluginCall call) {
         try {
+            // Periodic syncs can pass the hash of the catalog they sent last time and skip the rebuild
+            String hash = call.getString("hash");
+            if (hash != null && hash.equals(CarAudioMediaBrowserService.getCatalogHash())) {
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("itemsAdded", 0);
+                result.put("changedParents", 0);
+                result.put("hash", hash);
+                call.resolve(result);
+                return;
+            }
+            
             JSArray items = call.getArray("items");
             if (items == null) {
                 call.reject("items array is required");
                 return;
             }
             
-            // Clear existing items first
-            CarAudioMediaBrowserService.clearMediaItems();
-            
-            // Add each item
+            // Build the new tree off to the side, then swap it in as one catalog snapshot
+            List<MediaItemData> mediaItems = new ArrayList<>(items.length());
             for (int i = 0; i < items.length(); i++) {
-                JSONObject item = items.getJSONObject(i);
-                String type = item.getString("type"); // "browsable" or "playable"
-                String mediaId = item.getString("mediaId");
-                String title = item.getString("title");
-                String subtitle = item.optString("subtitle", "");
-                String description = item.optString("description", "");
-                String parentId = item.optString("parentId", "media_root_id");
-                
-                if ("browsable".equals(type)) {
-                    CarAudioMediaBrowserService.addBrowsableItem(parentId, mediaId, title, subtitle);
-                } else if ("playable".equals(type)) {
-                    String url = item.optString("url", "");
-                    String artwork = item.optString("artwork", "");
-                    CarAudioMediaBrowserService.addPlayableItem(parentId, mediaId, title, subtitle, description, url, artwork);
+                MediaItemData mediaItem = toMediaItemData(items.getJSONObject(i), "media_root_id", false);
+                if (mediaItem != null) {
+                    mediaItems.add(mediaItem);
                 }
             }
             
-            // Refresh Android Auto UI to show the new items immediately
-            CarAudioMediaBrowserService.refreshAndroidAutoUI();
+            // Diffs against the live catalog and notifies only the parents that changed
+            MediaCatalog.Replacement replacement = CarAudioMediaBrowserService.replaceMediaItems(mediaItems, hash);
             
             JSObject result = new JSObject();
             result.put("success", true);
-            result.put("itemsAdded", items.length());
+            result.put("itemsAdded", replacement.addedItems);
+            result.put("changedParents", replacement.changedParents.size());
+            result.put("hash", CarAudioMediaBrowserService.getCatalogHash());
             call.resolve(result);
             
         } catch (JSONException e) {
@@ -344,14 +922,258 @@ public class CarAudioPlugin extends Plugin implements AndroidAutoController.Andr
         }
     }
     
+    private void requestChildren(String parentId) {
+        JSObject data = new JSObject();
+        data.put("parentId", parentId);
+        notifyListeners("loadChildren", data);
+    }
+    
+    // Method to answer a loadChildren event with the children of one folder
+    @PluginMethod
+    public void provideChildren(PluginCall call) {
+        String parentId = call.getString("parentId");
+        JSArray items = call.getArray("items");
+        if (parentId == null || items == null) {
+            call.reject("parentId and items are required");
+            return;
+        }
+        
+        try {
+            List<MediaItemData> mediaItems = new ArrayList<>(items.length());
+            for (int i = 0; i < items.length(); i++) {
+                // Children always belong to the requested folder
+                MediaItemData mediaItem = toMediaItemData(items.getJSONObject(i), parentId, true);
+                if (mediaItem != null) {
+                    mediaItems.add(mediaItem);
+                }
+            }
+            
+            CarAudioMediaBrowserService.provideChildren(parentId, mediaItems);
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("itemsAdded", mediaItems.size());
+            call.resolve(result);
+        } catch (JSONException e) {
+            call.reject("Error parsing items array: " + e.getMessage());
+        }
+    }
+    
+    // Remove a single item by mediaId; a folder's children stay unless removeSubtree is used
+    @PluginMethod
+    public void removeItem(PluginCall call) {
+        String mediaId = call.getString("mediaId");
+        if (mediaId == null) {
+            call.reject("mediaId is required");
+            return;
+        }
+        
+        JSObject result = new JSObject();
+        result.put("success", CarAudioMediaBrowserService.removeMediaItem(mediaId));
+        call.resolve(result);
+    }
+    
+    // Remove an item and every item below it
+    @PluginMethod
+    public void removeSubtree(PluginCall call) {
+        String mediaId = call.getString("mediaId");
+        if (mediaId == null) {
+            call.reject("mediaId is required");
+            return;
+        }
+        
+        int removed = CarAudioMediaBrowserService.removeMediaSubtree(mediaId);
+        JSObject result = new JSObject();
+        result.put("success", removed > 0);
+        result.put("itemsRemoved", removed);
+        call.resolve(result);
+    }
+    
+    // Replace an existing item's fields, keeping its position; parentId defaults to its current parent
+    @PluginMethod
+    public void updateItem(PluginCall call) {
+        String mediaId = call.getString("mediaId");
+        if (mediaId == null) {
+            call.reject("mediaId is required");
+            return;
+        }
+        MediaItemData existing = CarAudioMediaBrowserService.findMediaItem(mediaId);
+        if (existing == null) {
+            call.reject("No media item with mediaId: " + mediaId);
+            return;
+        }
+        
+        // Fields left out keep their current values
+        MediaItemData item = new MediaItemData(
+            call.getString("parentId", existing.parentId),
+            mediaId,
+            call.getString("title", existing.title),
+            call.getString("subtitle", existing.subtitle),
+            call.getString("description", existing.description),
+            existing.isBrowsable,
+            call.getString("url", existing.url),
+            call.getString("artwork", existing.artwork));
+        
+        JSObject result = new JSObject();
+        result.put("success", CarAudioMediaBrowserService.updateMediaItem(item));
+        call.resolve(result);
+    }
+    
+    // Move an item under another folder, optionally at a position among its new siblings
+    @PluginMethod
+    public void moveItem(PluginCall call) {
+        String mediaId = call.getString("mediaId");
+        String parentId = call.getString("parentId");
+        if (mediaId == null || parentId == null) {
+            call.reject("mediaId and parentId are required");
+            return;
+        }
+        
+        try {
+            boolean moved = CarAudioMediaBrowserService.moveMediaItem(mediaId, parentId, call.getInt("position", -1));
+            JSObject result = new JSObject();
+            result.put("success", moved);
+            call.resolve(result);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+        }
+    }
+    
+    // Method to import a catalog JSON document from a file path or content URI without building it in JavaScript
+    @PluginMethod
+    public void loadMediaItemsFromFile(PluginCall call) {
+        String path = call.getString("path");
+        String uri = call.getString("uri");
+        if ((path == null || path.isEmpty()) && (uri == null || uri.isEmpty())) {
+            call.reject("path or uri is required");
+            return;
+        }
+        
+        String expectedHash = call.getString("hash");
+        if (expectedHash != null && expectedHash.equals(CarAudioMediaBrowserService.getCatalogHash())) {
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("itemsAdded", 0);
+            result.put("itemsSkipped", 0);
+            result.put("changedParents", 0);
+            result.put("hash", expectedHash);
+            call.resolve(result);
+            return;
+        }
+        
+        catalogExecutor.execute(() -> {
+            long totalBytes = -1;
+            InputStream input;
+            try {
+                if (uri != null && !uri.isEmpty()) {
+                    Uri parsed = Uri.parse(uri);
+                    try (AssetFileDescriptor descriptor = getContext().getContentResolver().openAssetFileDescriptor(parsed, "r")) {
+                        if (descriptor != null) {
+                            totalBytes = descriptor.getLength();
+                        }
+                    } catch (Exception e) {
+                        // Size is only used for progress, so an unknown length is fine
+                    }
+                    input = getContext().getContentResolver().openInputStream(parsed);
+                    if (input == null) {
+                        call.reject("Could not open " + uri);
+                        return;
+                    }
+                } else {
+                    File file = new File(path);
+                    totalBytes = file.length();
+                    input = new FileInputStream(file);
+                }
+            } catch (IOException e) {
+                call.reject("Could not open catalog: " + e.getMessage());
+                return;
+            }
+            
+            final long total = totalBytes;
+            // Items go into the new tree as they are parsed, so the whole catalog is never held twice
+            final MediaCatalog.Loader mediaItems = new MediaCatalog.Loader();
+            final String[] hash = new String[] { expectedHash };
+            CatalogJsonReader reader = new CatalogJsonReader(new CatalogJsonReader.Listener() {
+                @Override
+                public void onItem(MediaItemData item) {
+                    mediaItems.add(item);
+                }
+                
+                @Override
+                public void onHash(String documentHash) {
+                    if (hash[0] == null) {
+                        hash[0] = documentHash;
+                    }
+                }
+                
+                @Override
+                public void onProgress(int itemsRead, long bytesRead) {
+                    JSObject progress = new JSObject();
+                    progress.put("itemsRead", itemsRead);
+                    progress.put("bytesRead", bytesRead);
+                    progress.put("totalBytes", total);
+                    notifyListeners("mediaItemsLoadProgress", progress);
+                }
+            });
+            
+            try {
+                reader.read(input);
+            } catch (IOException | IllegalStateException e) {
+                call.reject("Error parsing catalog: " + e.getMessage());
+                return;
+            }
+            
+            // Same diff-based swap as setMediaItems
+            MediaCatalog.Replacement replacement = CarAudioMediaBrowserService.replaceMediaItems(mediaItems, hash[0]);
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("itemsAdded", replacement.addedItems);
+            result.put("itemsRead", reader.getItemsRead());
+            result.put("itemsSkipped", reader.getItemsSkipped());
+            result.put("changedParents", replacement.changedParents.size());
+            result.put("hash", CarAudioMediaBrowserService.getCatalogHash());
+            call.resolve(result);
+        });
+    }
+    
+    // Convert one JavaScript item to MediaItemData; returns null for unknown types
+    private static MediaItemData toMediaItemData(JSONObject item, String parentId, boolean forceParent) throws JSONException {
+        String type = item.getString("type"); // "browsable" or "playable"
+        String mediaId = item.getString("mediaId");
+        String title = item.getString("title");
+        String subtitle = item.optString("subtitle", "");
+        String description = item.optString("description", "");
+        if (!forceParent) {
+            parentId = item.optString("parentId", parentId);
+        }
+        
+        if ("browsable".equals(type)) {
+            return new MediaItemData(parentId, mediaId, title, subtitle, "", true, "", "");
+        } else if ("playable".equals(type)) {
+            String url = item.optString("url", "");
+            String artwork = item.optString("artwork", "");
+            return new MediaItemData(parentId, mediaId, title, subtitle, description, false, url, artwork);
+        }
+        return null;
+    }
+    
     @Override
     protected void handleOnDestroy() {
-        if (implementation != null) {
-            implementation.release();
+        catalogExecutor.shutdownNow();
+        
+        if (offlineDownloads != null) {
+            offlineDownloads.shutdown();
         }
         
+        // Both are released on the playback thread; the session goes first, as releasing CarAudio ends that thread
         if (androidAutoController != null) {
-            androidAutoController.release();
+            AndroidAutoController controller = androidAutoController;
+            controller.execute(controller::release);
+        }
+        
+        if (implementation != null) {
+            implementation.release();
         }
         
         super.handleOnDestroy();
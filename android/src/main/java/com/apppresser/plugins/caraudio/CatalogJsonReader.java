@@ -0,0 +1,187 @@
+package com.apppresser.plugins.caraudio;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stream-parses a catalog JSON document one item at a time.
+ *
+ * Accepts either a top-level array of items, or an object with an "items"
+ * array and an optional "hash" string. Items use the same fields as
+ * setMediaItems. Only the current item is held in memory while parsing.
+ */
+class CatalogJsonReader {
+
+    /**
+     * Receives parsed items and progress while the document is read.
+     */
+    interface Listener {
+        void onItem(MediaItemData item);
+
+        void onHash(String hash);
+
+        void onProgress(int itemsRead, long bytesRead);
+    }
+
+    private static final int PROGRESS_INTERVAL = 500;
+
+    private final Listener listener;
+    private int itemsRead = 0;
+    private int itemsSkipped = 0;
+    private CountingInputStream counter;
+
+    CatalogJsonReader(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getItemsRead() {
+        return itemsRead;
+    }
+
+    public int getItemsSkipped() {
+        return itemsSkipped;
+    }
+
+    /**
+     * Read the whole document; the stream is closed when done.
+     */
+    public void read(InputStream input) throws IOException {
+        counter = new CountingInputStream(new BufferedInputStream(input, 64 * 1024));
+        try (JsonReader reader = new JsonReader(new InputStreamReader(counter, StandardCharsets.UTF_8))) {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readItems(reader);
+            } else {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("items".equals(name)) {
+                        readItems(reader);
+                    } else if ("hash".equals(name) && reader.peek() == JsonToken.STRING) {
+                        listener.onHash(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+        }
+        listener.onProgress(itemsRead, counter.count);
+    }
+
+    private void readItems(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            MediaItemData item = readItem(reader);
+            if (item == null) {
+                itemsSkipped++;
+                continue;
+            }
+            listener.onItem(item);
+            itemsRead++;
+            if (itemsRead % PROGRESS_INTERVAL == 0) {
+                listener.onProgress(itemsRead, counter.count);
+            }
+        }
+        reader.endArray();
+    }
+
+    // Returns null for items missing type, mediaId or title, matching what setMediaItems requires
+    private static MediaItemData readItem(JsonReader reader) throws IOException {
+        String type = null;
+        String mediaId = null;
+        String title = null;
+        String subtitle = "";
+        String description = "";
+        String parentId = "media_root_id";
+        String url = "";
+        String artwork = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "type":
+                    type = reader.nextString();
+                    break;
+                case "mediaId":
+                    mediaId = reader.nextString();
+                    break;
+                case "title":
+                    title = reader.nextString();
+                    break;
+                case "subtitle":
+                    subtitle = reader.nextString();
+                    break;
+                case "description":
+                    description = reader.nextString();
+                    break;
+                case "parentId":
+                    parentId = reader.nextString();
+                    break;
+                case "url":
+                    url = reader.nextString();
+                    break;
+                case "artwork":
+                    artwork = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (mediaId == null || title == null) {
+            return null;
+        }
+        if ("browsable".equals(type)) {
+            return new MediaItemData(parentId, mediaId, title, subtitle, "", true, "", "");
+        } else if ("playable".equals(type)) {
+            return new MediaItemData(parentId, mediaId, title, subtitle, description, false, url, artwork);
+        }
+        return null;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.apppresser.plugins.caraudio;
+
+import android.util.Log;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persists catalog snapshots to a compact binary file so the browser service
+ * can answer Android Auto after a cold start without waiting for the WebView.
+ *
+ * Layout: magic, format version, content hash, parent count, then for each
+ * parent its ID, child count and the children's fields. Strings are stored as
+ * a length prefix followed by UTF-8 bytes. Saves run on a single background
+ * thread and coalesce, so a burst of commits writes the file once.
+ */
+class CatalogStore {
+
+    private static final String TAG = "CatalogStore";
+    private static final int MAGIC = 0x43414354; // "CACT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int NULL_STRING = -1;
+    // Smallest encoding of an item: the browsable flag and seven length prefixes
+    private static final int MIN_ITEM_BYTES = 1 + 7 * 4;
+
+    /**
+     * Tree and content hash read back from disk.
+     */
+    static final class Loaded {
+        final MediaCatalog.Loader items;
+        final String contentHash;
+
+        Loaded(MediaCatalog.Loader items, String contentHash) {
+            this.items = items;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CarAudioCatalogStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<MediaCatalog.Snapshot> pending = new AtomicReference<>();
+    private volatile long lastSavedVersion = -1;
+    private volatile String lastSavedHash;
+
+    CatalogStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Run a task on the store's background thread, after any queued saves.
+     */
+    public void execute(Runnable task) {
+        writer.execute(task);
+    }
+
+    /**
+     * Queue a snapshot to be written; only the latest queued snapshot is written.
+     */
+    public void scheduleSave(MediaCatalog.Snapshot snapshot) {
+        if (pending.getAndSet(snapshot) == null) {
+            writer.execute(() -> {
+                MediaCatalog.Snapshot latest = pending.getAndSet(null);
+                if (latest != null) {
+                    try {
+                        save(latest);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to save catalog: " + e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Write a snapshot synchronously, replacing the file atomically.
+     */
+    public synchronized void save(MediaCatalog.Snapshot snapshot) throws IOException {
+        String hash = snapshot.getContentHash();
+        if (snapshot.getVersion() == lastSavedVersion || (hash != null && hash.equals(lastSavedHash))) {
+            return;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, hash);
+            out.writeInt(snapshot.getParentCount());
+            for (String parentId : snapshot.getParentIds()) {
+                List<MediaItemData> items = snapshot.getChildren(parentId);
+                writeString(out, parentId);
+                out.writeInt(items.size());
+                for (MediaItemData item : items) {
+                    out.writeBoolean(item.isBrowsable);
+                    writeString(out, item.mediaId);
+                    writeString(out, item.title);
+                    writeString(out, item.subtitle);
+                    writeString(out, item.description);
+                    writeString(out, item.url);
+                    writeString(out, item.artwork);
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+        lastSavedVersion = snapshot.getVersion();
+        lastSavedHash = hash;
+    }
+
+    /**
+     * Decode the file, or return null if there is no usable file.
+     *
+     * The mapping is only a read buffer: each item is decoded straight into a
+     * MediaCatalog.Loader, so the heap holds the new tree once, never an
+     * intermediate list of every item as well. Every count and length is
+     * checked against what is left of the file before it is used, so a
+     * truncated or corrupt file fails with an IOException.
+     */
+    public synchronized Loaded load() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String hash = readString(buffer);
+            int parentCount = readCount(buffer, 4 + 4);
+            MediaCatalog.Loader items = new MediaCatalog.Loader();
+            for (int p = 0; p < parentCount; p++) {
+                String parentId = readString(buffer);
+                int childCount = readCount(buffer, MIN_ITEM_BYTES);
+                for (int c = 0; c < childCount; c++) {
+                    boolean isBrowsable = buffer.get() != 0;
+                    String mediaId = readString(buffer);
+                    String title = readString(buffer);
+                    String subtitle = readString(buffer);
+                    String description = readString(buffer);
+                    String url = readString(buffer);
+                    String artwork = readString(buffer);
+                    items.add(new MediaItemData(parentId, mediaId, title, subtitle, description, isBrowsable, url, artwork));
+                }
+            }
+            lastSavedHash = hash;
+            return new Loaded(items, hash);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated catalog file " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Delete the file, for instance after load() found it unreadable, so later starts do not trip over it again.
+     */
+    public synchronized void discard() {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+        lastSavedVersion = -1;
+        lastSavedHash = null;
+    }
+
+    // A count of records that each take at least minBytes, checked against the rest of the file
+    private int readCount(MappedByteBuffer buffer, int minBytes) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IOException("Corrupt catalog file " + file + ": count " + count);
+        }
+        return count;
+    }
+
+    private String readString(MappedByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupt catalog file " + file + ": string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
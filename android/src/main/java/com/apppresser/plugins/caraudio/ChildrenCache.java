@@ -0,0 +1,133 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Browse results built from the catalog, kept per parent until its children change.
+ *
+ * An entry remembers the catalog list it was built from. Snapshots share the
+ * lists of parents they did not change, so a browse that finds the same list
+ * object reuses the built items, and one that finds another list rebuilds
+ * them; an entry left over from an older snapshot is never served. Edits also
+ * invalidate the parents they touch, so built items are dropped early.
+ */
+class ChildrenCache<M> {
+
+    private static final String TAG = "ChildrenCache";
+
+    // Rough parcel cost of a MediaItem besides its strings (flags, description fields, bundle headers)
+    static final int MEDIA_ITEM_OVERHEAD_BYTES = 160;
+
+    interface ItemBuilder<M> {
+        M build(MediaItemData item);
+    }
+
+    /**
+     * The built items of one parent, together with the catalog list they were built from.
+     */
+    static final class Children<M> {
+        final List<MediaItemData> source;
+        final List<M> items;
+        // How many leading items fit in the result size limit when no page is requested
+        final int unpagedLimit;
+
+        Children(List<MediaItemData> source, List<M> items, int unpagedLimit) {
+            this.source = source;
+            this.items = items;
+            this.unpagedLimit = unpagedLimit;
+        }
+
+        /**
+         * The items to send for one browse: the requested page when one is given,
+         * otherwise as many leading items as fit in one result.
+         */
+        List<M> page(int page, int pageSize) {
+            if (!isPaged(page, pageSize)) {
+                return unpagedLimit < items.size() ? items.subList(0, unpagedLimit) : items;
+            }
+            long from = (long) page * pageSize;
+            if (from >= items.size()) {
+                return Collections.emptyList();
+            }
+            return items.subList((int) from, (int) Math.min(items.size(), from + pageSize));
+        }
+    }
+
+    private final Map<String, Children<M>> cache = new ConcurrentHashMap<>();
+    private final ItemBuilder<M> builder;
+    private final int maxResultBytes;
+    private final Children<M> empty = new Children<>(Collections.<MediaItemData>emptyList(), Collections.<M>emptyList(), 0);
+
+    ChildrenCache(ItemBuilder<M> builder, int maxResultBytes) {
+        this.builder = builder;
+        this.maxResultBytes = maxResultBytes;
+    }
+
+    /**
+     * The built items for a parent's children, building them only if source is not the list they were built from.
+     */
+    public Children<M> get(String parentId, List<MediaItemData> source) {
+        Children<M> cached = cache.get(parentId);
+        if (cached != null && cached.source == source) {
+            return cached;
+        }
+        if (source.isEmpty()) {
+            return empty;
+        }
+
+        List<M> items = new ArrayList<>(source.size());
+        long estimatedBytes = 0;
+        int unpagedLimit = -1;
+        for (MediaItemData item : source) {
+            items.add(builder.build(item));
+            estimatedBytes += estimateParcelSize(item);
+            if (unpagedLimit < 0 && estimatedBytes > maxResultBytes) {
+                unpagedLimit = Math.max(1, items.size() - 1);
+            }
+        }
+        if (unpagedLimit < 0) {
+            unpagedLimit = items.size();
+        }
+
+        // Two browses may build the same parent at once; either result is valid for its source
+        cached = new Children<>(source, Collections.unmodifiableList(items), unpagedLimit);
+        cache.put(parentId, cached);
+        Trace.d(TAG, "builtChildren", parentId, estimatedBytes);
+        return cached;
+    }
+
+    public void invalidate(String parentId) {
+        cache.remove(parentId);
+    }
+
+    public void invalidate(Collection<String> parentIds) {
+        for (String parentId : parentIds) {
+            cache.remove(parentId);
+        }
+    }
+
+    /**
+     * Whether a browse asked for a page (EXTRA_PAGE and EXTRA_PAGE_SIZE) rather than the whole folder.
+     */
+    static boolean isPaged(int page, int pageSize) {
+        return page >= 0 && pageSize > 0;
+    }
+
+    // Strings are written to a Parcel as UTF-16 with a length prefix
+    static int estimateParcelSize(MediaItemData item) {
+        return MEDIA_ITEM_OVERHEAD_BYTES
+            + stringParcelSize(item.mediaId)
+            + stringParcelSize(item.title)
+            + stringParcelSize(item.subtitle)
+            + stringParcelSize(item.description);
+    }
+
+    private static int stringParcelSize(String value) {
+        return value != null ? 8 + value.length() * 2 : 4;
+    }
+}
@@ -0,0 +1,147 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable children of one parent, stored as parallel arrays instead of one
+ * MediaItemData per item.
+ *
+ * Fields that repeat across a catalog (subtitle, description, artwork) are
+ * pool IDs; fields that are unique per item (mediaId, title, url) are kept
+ * as plain references, since pooling them would only add a table entry.
+ * get() builds a fresh MediaItemData on each call.
+ */
+final class CompactItemList extends AbstractList<MediaItemData> implements RandomAccess {
+
+    private static final int REFS_PER_ITEM = 3;
+    private static final int SUBTITLE = 0;
+    private static final int DESCRIPTION = 1;
+    private static final int ARTWORK = 2;
+
+    private final StringPool pool;
+    private final String parentId;
+    private final String[] mediaIds;
+    private final String[] titles;
+    private final String[] urls;
+    private final int[] refs;
+    private final boolean[] browsable;
+    // Open-addressing table of position + 1, keyed by mediaId hash; 0 marks an empty slot
+    private final int[] positions;
+
+    private CompactItemList(StringPool pool, String parentId, int size) {
+        this.pool = pool;
+        this.parentId = parentId;
+        this.mediaIds = new String[size];
+        this.titles = new String[size];
+        this.urls = new String[size];
+        this.refs = new int[size * REFS_PER_ITEM];
+        this.browsable = new boolean[size];
+        this.positions = new int[tableSize(size)];
+    }
+
+    /**
+     * Encode items that all belong to parentId, interning repeated fields in the pool.
+     */
+    static CompactItemList encode(StringPool pool, String parentId, List<MediaItemData> items) {
+        CompactItemList list = new CompactItemList(pool, parentId, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            MediaItemData item = items.get(i);
+            list.mediaIds[i] = item.mediaId;
+            list.titles[i] = canonical(item.title);
+            list.urls[i] = canonical(item.url);
+            list.refs[i * REFS_PER_ITEM + SUBTITLE] = pool.intern(item.subtitle);
+            list.refs[i * REFS_PER_ITEM + DESCRIPTION] = pool.intern(item.description);
+            list.refs[i * REFS_PER_ITEM + ARTWORK] = pool.intern(item.artwork);
+            list.browsable[i] = item.isBrowsable;
+            list.indexPosition(i);
+        }
+        return list;
+    }
+
+    StringPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Mark the pool IDs this list references.
+     */
+    void collectPoolIds(BitSet live) {
+        for (int ref : refs) {
+            if (ref != StringPool.NULL_ID) {
+                live.set(ref);
+            }
+        }
+    }
+
+    @Override
+    public MediaItemData get(int index) {
+        if (index < 0 || index >= mediaIds.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mediaIds.length);
+        }
+        int base = index * REFS_PER_ITEM;
+        return new MediaItemData(parentId, mediaIds[index], titles[index],
+            pool.get(refs[base + SUBTITLE]), pool.get(refs[base + DESCRIPTION]),
+            browsable[index], urls[index], pool.get(refs[base + ARTWORK]));
+    }
+
+    @Override
+    public int size() {
+        return mediaIds.length;
+    }
+
+    /**
+     * Look up a child by mediaId; the last child with that ID wins, as in the catalog index.
+     */
+    MediaItemData find(String mediaId) {
+        int position = positionOf(mediaId);
+        return position >= 0 ? get(position) : null;
+    }
+
+    private int positionOf(String mediaId) {
+        if (mediaId == null) {
+            return -1;
+        }
+        int mask = positions.length - 1;
+        for (int slot = spread(mediaId.hashCode()) & mask; positions[slot] != 0; slot = (slot + 1) & mask) {
+            int position = positions[slot] - 1;
+            if (mediaId.equals(mediaIds[position])) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private void indexPosition(int position) {
+        String mediaId = mediaIds[position];
+        if (mediaId == null) {
+            return;
+        }
+        int mask = positions.length - 1;
+        int slot = spread(mediaId.hashCode()) & mask;
+        while (positions[slot] != 0 && !mediaId.equals(mediaIds[positions[slot] - 1])) {
+            slot = (slot + 1) & mask;
+        }
+        positions[slot] = position + 1;
+    }
+
+    // Power of two with at least twice as many slots as items
+    private static int tableSize(int size) {
+        int slots = 2;
+        while (slots < size * 2) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Share one instance for the empty values JSON parsing produces per item
+    private static String canonical(String value) {
+        return value != null && value.isEmpty() ? "" : value;
+    }
+}
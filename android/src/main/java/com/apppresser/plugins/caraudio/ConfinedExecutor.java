@@ -0,0 +1,42 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs commands on one thread, so the state they touch needs no locks.
+ *
+ * A command from that thread runs at once; one from any other thread is
+ * posted to it and runs after the commands posted before it. CarAudio
+ * confines its players and session work to its playback HandlerThread
+ * this way, posting through the thread's Handler.
+ */
+class ConfinedExecutor implements Executor {
+
+    interface Poster {
+        void post(Runnable command);
+    }
+
+    private final Thread thread;
+    private final Poster poster;
+
+    ConfinedExecutor(Thread thread, Poster poster) {
+        this.thread = thread;
+        this.poster = poster;
+    }
+
+    /**
+     * Whether the caller is on the confining thread.
+     */
+    public boolean inThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (inThread()) {
+            command.run();
+        } else {
+            poster.post(command);
+        }
+    }
+}
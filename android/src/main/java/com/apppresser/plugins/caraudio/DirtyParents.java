@@ -0,0 +1,73 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parents whose children changed since browsers were last notified.
+ *
+ * Changes are coalesced so that each parent is notified once per flush,
+ * however often it changed. mark() tells the caller to schedule a flush only
+ * for the first change after the last one, so a burst of edits shares one
+ * window. Between beginBatch() and the matching endBatch() nothing is
+ * scheduled, and the outermost endBatch() tells the caller to flush at once.
+ * Methods are synchronized; the timer and the notifications stay with the caller.
+ */
+class DirtyParents {
+
+    private final Set<String> parents = new LinkedHashSet<>();
+    private int batchDepth = 0;
+    private boolean flushScheduled = false;
+
+    /**
+     * Mark a parent as changed. Returns true if the caller should schedule a flush.
+     */
+    public synchronized boolean mark(String parentId) {
+        parents.add(parentId);
+        return scheduleLocked();
+    }
+
+    /**
+     * Mark parents as changed. Returns true if the caller should schedule a flush.
+     */
+    public synchronized boolean mark(Collection<String> parentIds) {
+        if (parentIds.isEmpty()) {
+            return false;
+        }
+        parents.addAll(parentIds);
+        return scheduleLocked();
+    }
+
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * End a batch. Returns true once the outermost batch has ended, when the caller should flush.
+     */
+    public synchronized boolean endBatch() {
+        batchDepth = Math.max(0, batchDepth - 1);
+        return batchDepth == 0;
+    }
+
+    /**
+     * Take the parents to notify, in the order they first changed; a later change schedules a new flush.
+     */
+    public synchronized List<String> drain() {
+        flushScheduled = false;
+        List<String> drained = new ArrayList<>(parents);
+        parents.clear();
+        return drained;
+    }
+
+    private boolean scheduleLocked() {
+        if (batchDepth > 0 || flushScheduled) {
+            return false;
+        }
+        flushScheduled = true;
+        return true;
+    }
+}
@@ -0,0 +1,438 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map from String keys, shared structurally between versions.
+ *
+ * A hash array mapped trie: each level consumes five bits of the key's hash
+ * and stores only the slots in use. Changing one key copies the few nodes on
+ * its path and shares the rest with the previous version, so a catalog edit
+ * costs O(log n) instead of a copy of the whole map.
+ *
+ * A Builder edits in place the nodes it has already copied, so a bulk load
+ * does not copy the same path over and over. Nodes are stamped with the
+ * builder that owns them; build() drops that ownership, after which the
+ * result is as immutable as any other version.
+ */
+final class HashTrie<V> extends AbstractMap<String, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // Past this shift the hash is used up and keys with equal hashes share a collision node
+    private static final int MAX_SHIFT = 30;
+
+    private static final class Node {
+        // Builder allowed to change this node in place, or null once published
+        Object owner;
+        // Slots in use, one bit per five-bit hash fragment; unused in a collision node
+        int bitmap;
+        // Entries and child nodes, in bit order
+        Object[] slots;
+        final boolean collision;
+
+        Node(Object owner, int bitmap, Object[] slots, boolean collision) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+            this.collision = collision;
+        }
+    }
+
+    private static final HashTrie<Object> EMPTY = new HashTrie<>(new Node(null, 0, new Object[0], false), 0);
+
+    private final Node root;
+    private final int size;
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> HashTrie<V> empty() {
+        return (HashTrie<V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public V get(Object key) {
+        Entry<String, V> entry = key == null || key instanceof String ? find(root, (String) key) : null;
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key == null || key instanceof String) && find(root, (String) key) != null;
+    }
+
+    Builder<V> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    /**
+     * Number of nodes a lookup of key visits, whether or not the key is present.
+     */
+    int depth(String key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0, depth = 1; ; shift += BITS, depth++) {
+            if (node.collision) {
+                return depth;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            Object slot = (node.bitmap & bit) != 0 ? node.slots[Integer.bitCount(node.bitmap & (bit - 1))] : null;
+            if (!(slot instanceof Node)) {
+                return depth;
+            }
+            node = (Node) slot;
+        }
+    }
+
+    /**
+     * Number of nodes in next that are not shared with previous, i.e. that building next copied or added.
+     */
+    static int unsharedNodes(HashTrie<?> previous, HashTrie<?> next) {
+        return unsharedNodes(previous.root, next.root);
+    }
+
+    private static int unsharedNodes(Node previous, Node next) {
+        if (previous == next) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = 0; i < next.slots.length; i++) {
+            if (next.slots[i] instanceof Node) {
+                count += unsharedNodes(childAt(previous, next, i), (Node) next.slots[i]);
+            }
+        }
+        return count;
+    }
+
+    // The child of previous in the hash position of next's slot i, or null if it has none there
+    private static Node childAt(Node previous, Node next, int i) {
+        if (previous == null || previous.collision || next.collision) {
+            return null;
+        }
+        int bit = Integer.lowestOneBit(next.bitmap);
+        for (int skip = 0; skip < i; skip++) {
+            bit = Integer.lowestOneBit(next.bitmap & ~(bit | (bit - 1)));
+        }
+        if ((previous.bitmap & bit) == 0) {
+            return null;
+        }
+        Object slot = previous.slots[Integer.bitCount(previous.bitmap & (bit - 1))];
+        return slot instanceof Node ? (Node) slot : null;
+    }
+
+    /**
+     * Mutable editor of a trie, started from an existing version, which it leaves untouched.
+     */
+    static final class Builder<V> {
+        private Object owner = new Object();
+        private Node root;
+        private int size;
+        private final int[] delta = new int[1];
+
+        private Builder(HashTrie<V> base) {
+            this.root = base.root;
+            this.size = base.size;
+        }
+
+        public V get(String key) {
+            Entry<String, V> entry = find(root, key);
+            return entry != null ? entry.getValue() : null;
+        }
+
+        public boolean containsKey(String key) {
+            return find(root, key) != null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder<V> put(String key, V value) {
+            delta[0] = 0;
+            root = HashTrie.put(root, 0, hash(key), key, value, owner, delta);
+            size += delta[0];
+            return this;
+        }
+
+        public Builder<V> remove(String key) {
+            delta[0] = 0;
+            Node next = HashTrie.remove(root, 0, hash(key), key, owner, delta);
+            root = next != null ? next : EMPTY.root;
+            size -= delta[0];
+            return this;
+        }
+
+        /**
+         * The edited map. Later changes through this builder copy again rather than alter it.
+         */
+        public HashTrie<V> build() {
+            owner = new Object();
+            return size == 0 ? HashTrie.<V>empty() : new HashTrie<V>(root, size);
+        }
+    }
+
+    // String hashes are cached, but poor in the low bits for short keys; spread the high bits down.
+    // A null key is allowed, as in HashMap.
+    private static int hash(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameKey(Object entry, String key) {
+        Object entryKey = ((Entry<?, ?>) entry).getKey();
+        return entryKey == null ? key == null : entryKey.equals(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<String, V> find(Node node, String key) {
+        int hash = hash(key);
+        for (int shift = 0; ; shift += BITS) {
+            if (node.collision) {
+                for (Object slot : node.slots) {
+                    if (sameKey(slot, key)) {
+                        return (Entry<String, V>) slot;
+                    }
+                }
+                return null;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+            } else {
+                Entry<String, V> entry = (Entry<String, V>) slot;
+                return sameKey(entry, key) ? entry : null;
+            }
+        }
+    }
+
+    // The node itself if the builder owns it, otherwise a copy the builder (or nobody) owns
+    private static Node editable(Node node, Object owner) {
+        if (owner != null && node.owner == owner) {
+            return node;
+        }
+        return new Node(owner, node.bitmap, node.slots.clone(), node.collision);
+    }
+
+    private static Object[] inserted(Object[] slots, int position, Object slot) {
+        Object[] copy = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, copy, 0, position);
+        copy[position] = slot;
+        System.arraycopy(slots, position, copy, position + 1, slots.length - position);
+        return copy;
+    }
+
+    private static Object[] removed(Object[] slots, int position) {
+        Object[] copy = new Object[slots.length - 1];
+        System.arraycopy(slots, 0, copy, 0, position);
+        System.arraycopy(slots, position + 1, copy, position, copy.length - position);
+        return copy;
+    }
+
+    // Returns the node holding the change: this node when nothing changed or it was changed in place
+    @SuppressWarnings("unchecked")
+    private static Node put(Node node, int shift, int hash, String key, Object value, Object owner, int[] added) {
+        if (node.collision) {
+            for (int i = 0; i < node.slots.length; i++) {
+                Entry<String, Object> entry = (Entry<String, Object>) node.slots[i];
+                if (sameKey(entry, key)) {
+                    if (entry.getValue() == value) {
+                        return node;
+                    }
+                    Node edited = editable(node, owner);
+                    edited.slots[i] = new SimpleImmutableEntry<>(key, value);
+                    return edited;
+                }
+            }
+            Node edited = editable(node, owner);
+            edited.slots = inserted(edited.slots, edited.slots.length, new SimpleImmutableEntry<>(key, value));
+            added[0] = 1;
+            return edited;
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int position = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            Node edited = editable(node, owner);
+            edited.slots = inserted(edited.slots, position, new SimpleImmutableEntry<>(key, value));
+            edited.bitmap |= bit;
+            added[0] = 1;
+            return edited;
+        }
+
+        Object slot = node.slots[position];
+        Object replacement;
+        if (slot instanceof Node) {
+            Node child = (Node) slot;
+            Node next = put(child, shift + BITS, hash, key, value, owner, added);
+            if (next == child) {
+                return node;
+            }
+            replacement = next;
+        } else {
+            Entry<String, Object> entry = (Entry<String, Object>) slot;
+            if (sameKey(entry, key)) {
+                if (entry.getValue() == value) {
+                    return node;
+                }
+                replacement = new SimpleImmutableEntry<>(key, value);
+            } else {
+                replacement = split(shift + BITS, entry, hash(entry.getKey()),
+                    new SimpleImmutableEntry<>(key, value), hash, owner);
+                added[0] = 1;
+            }
+        }
+        Node edited = editable(node, owner);
+        edited.slots[position] = replacement;
+        return edited;
+    }
+
+    // A node holding two entries whose hashes agree below shift
+    private static Node split(int shift, Object first, int firstHash, Object second, int secondHash, Object owner) {
+        if (shift > MAX_SHIFT) {
+            return new Node(owner, 0, new Object[] {first, second}, true);
+        }
+        int firstFragment = (firstHash >>> shift) & MASK;
+        int secondFragment = (secondHash >>> shift) & MASK;
+        if (firstFragment == secondFragment) {
+            return new Node(owner, 1 << firstFragment,
+                new Object[] {split(shift + BITS, first, firstHash, second, secondHash, owner)}, false);
+        }
+        Object[] slots = firstFragment < secondFragment ? new Object[] {first, second} : new Object[] {second, first};
+        return new Node(owner, (1 << firstFragment) | (1 << secondFragment), slots, false);
+    }
+
+    // Returns the node without the key, null if it is left empty, or this node if the key was absent
+    @SuppressWarnings("unchecked")
+    private static Node remove(Node node, int shift, int hash, String key, Object owner, int[] removed) {
+        if (node.collision) {
+            for (int i = 0; i < node.slots.length; i++) {
+                if (sameKey(node.slots[i], key)) {
+                    removed[0] = 1;
+                    if (node.slots.length == 1) {
+                        return null;
+                    }
+                    Node edited = editable(node, owner);
+                    edited.slots = removed(edited.slots, i);
+                    return edited;
+                }
+            }
+            return node;
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int position = Integer.bitCount(node.bitmap & (bit - 1));
+        Object slot = node.slots[position];
+        if (slot instanceof Node) {
+            Node child = (Node) slot;
+            Node next = remove(child, shift + BITS, hash, key, owner, removed);
+            if (next == child) {
+                return node;
+            }
+            if (next != null) {
+                Node edited = editable(node, owner);
+                edited.slots[position] = next;
+                return edited;
+            }
+        } else if (!sameKey(slot, key)) {
+            return node;
+        } else {
+            removed[0] = 1;
+        }
+        if (node.slots.length == 1) {
+            return null;
+        }
+        Node edited = editable(node, owner);
+        edited.slots = removed(edited.slots, position);
+        edited.bitmap &= ~bit;
+        return edited;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Depth-first walk keeping the position in each node on the way down
+    private static final class EntryIterator<V> implements Iterator<Entry<String, V>> {
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<Integer> positions = new ArrayDeque<>();
+        private Entry<String, V> next;
+
+        EntryIterator(Node root) {
+            nodes.push(root);
+            positions.push(0);
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!nodes.isEmpty()) {
+                Node node = nodes.peek();
+                int position = positions.pop();
+                if (position == node.slots.length) {
+                    nodes.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                Object slot = node.slots[position];
+                if (slot instanceof Node) {
+                    nodes.push((Node) slot);
+                    positions.push(0);
+                } else {
+                    next = (Entry<String, V>) slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, V> entry = next;
+            advance();
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bookkeeping for folders whose children JavaScript provides on demand.
+ *
+ * Browses of a folder that has not been provided yet wait on one request
+ * per folder, however many browsers ask. Provided folders are kept in
+ * least-recently-browsed order, and once more than the capacity are loaded
+ * the coldest are handed back for eviction. Methods are synchronized; the
+ * catalog edits and the browse results themselves stay with the caller.
+ */
+class LazyFolders<W> {
+
+    /**
+     * Browses waiting for one folder's children.
+     */
+    static final class Request<W> {
+        final List<W> waiters = new ArrayList<>();
+        // Completes the request if JavaScript never answers; set by the caller
+        Runnable timeout;
+    }
+
+    private final Map<String, Request<W>> pending = new HashMap<>();
+    private final LinkedHashMap<String, Boolean> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private int capacity;
+
+    LazyFolders(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Queue a browse for a folder. Returns the new request if it is the first
+     * for that folder, so the caller asks for the children; otherwise null.
+     */
+    public synchronized Request<W> await(String parentId, W waiter) {
+        Request<W> request = pending.get(parentId);
+        boolean first = request == null;
+        if (first) {
+            request = new Request<>();
+            pending.put(parentId, request);
+        }
+        request.waiters.add(waiter);
+        return first ? request : null;
+    }
+
+    /**
+     * Take the request waiting for a folder, or null if nothing is waiting.
+     */
+    public synchronized Request<W> complete(String parentId) {
+        return pending.remove(parentId);
+    }
+
+    public synchronized List<String> pendingParents() {
+        return new ArrayList<>(pending.keySet());
+    }
+
+    /**
+     * Note a browse of a folder, so it is the last to be evicted.
+     */
+    public synchronized void touch(String parentId) {
+        loaded.get(parentId);
+    }
+
+    /**
+     * Record that a folder's children were provided and return the folders
+     * that no longer fit, coldest first. The folder just provided is kept.
+     */
+    public synchronized List<String> provided(String parentId) {
+        loaded.put(parentId, Boolean.TRUE);
+        return evictLocked();
+    }
+
+    /**
+     * Forget folders whose children are gone from the catalog for another reason.
+     */
+    public synchronized void forget(String parentId) {
+        loaded.remove(parentId);
+    }
+
+    /**
+     * Change how many folders stay loaded and return those that no longer fit, coldest first.
+     */
+    public synchronized List<String> setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        return evictLocked();
+    }
+
+    /**
+     * Loaded folders, coldest first.
+     */
+    public synchronized List<String> loadedParents() {
+        return new ArrayList<>(loaded.keySet());
+    }
+
+    private List<String> evictLocked() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<String> iterator = loaded.keySet().iterator();
+        while (loaded.size() > capacity && iterator.hasNext()) {
+            evicted.add(iterator.next());
+            iterator.remove();
+        }
+        return evicted;
+    }
+}
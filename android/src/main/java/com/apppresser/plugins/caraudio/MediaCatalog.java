@@ -0,0 +1,842 @@
+package com.apppresser.plugins.caraudio;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory media tree used by CarAudioMediaBrowserService.
+ *
+ * The tree is published as immutable, versioned snapshots through a single
+ * atomic reference. Readers (onLoadChildren, track selection) grab the current
+ * snapshot and never block. Writers build the next version with an Editor and
+ * swap it in atomically; writers are serialized among themselves only.
+ *
+ * In compact storage mode each parent's children are a CompactItemList and
+ * the index maps mediaId to parentId instead of to an item object, so the
+ * catalog holds no per-item objects besides the index entries.
+ *
+ * The maps are HashTries shared between versions, so an edit copies only the
+ * paths to the keys it changes, plus the children of the parents it touches.
+ * In plain mode those are SharedItemLists, which a single-item add extends
+ * without copying. Building up a catalog one item at a time is therefore
+ * linear overall; in compact mode each add still re-encodes its parent.
+ */
+class MediaCatalog {
+
+    /**
+     * Immutable view of the catalog at one version.
+     */
+    static final class Snapshot {
+        private final long version;
+        private final HashTrie<List<MediaItemData>> children;
+        // Exactly one of these is set: items by mediaId, or parent IDs by mediaId in compact mode
+        private final HashTrie<MediaItemData> index;
+        private final HashTrie<String> parentIndex;
+        private final String contentHash;
+
+        private Snapshot(long version, HashTrie<List<MediaItemData>> children, HashTrie<MediaItemData> index, HashTrie<String> parentIndex, String contentHash) {
+            this.version = version;
+            this.children = children;
+            this.index = index;
+            this.parentIndex = parentIndex;
+            this.contentHash = contentHash;
+        }
+
+        public boolean isCompact() {
+            return parentIndex != null;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Hash of the item list this snapshot was built from by replaceAll,
+         * or null if it has been edited incrementally since.
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * Look up an item by mediaId, or null if it is not in the catalog.
+         */
+        public MediaItemData find(String mediaId) {
+            if (mediaId == null) {
+                return null;
+            }
+            if (parentIndex == null) {
+                return index.get(mediaId);
+            }
+            List<MediaItemData> items = children.get(parentIndex.get(mediaId));
+            return items instanceof CompactItemList ? ((CompactItemList) items).find(mediaId) : null;
+        }
+
+        /**
+         * Return the unmodifiable children of a parent, empty if it has none.
+         */
+        public List<MediaItemData> getChildren(String parentId) {
+            List<MediaItemData> items = children.get(parentId);
+            return items != null ? items : Collections.<MediaItemData>emptyList();
+        }
+
+        /**
+         * Whether children were ever published for this parent, even an empty list.
+         */
+        public boolean containsParent(String parentId) {
+            return children.containsKey(parentId);
+        }
+
+        public int getChildCount(String parentId) {
+            List<MediaItemData> items = children.get(parentId);
+            return items != null ? items.size() : 0;
+        }
+
+        public Set<String> getParentIds() {
+            return Collections.unmodifiableSet(children.keySet());
+        }
+
+        public int getParentCount() {
+            return children.size();
+        }
+
+        public int size() {
+            return parentIndex != null ? parentIndex.size() : index.size();
+        }
+    }
+
+    /**
+     * Builds the next snapshot from a base version. Maps and per-parent lists
+     * are copied lazily, only when first touched, and the maps only along the
+     * paths to the keys that change.
+     */
+    final class Editor {
+        private final Snapshot base;
+        private HashTrie.Builder<List<MediaItemData>> children;
+        private HashTrie.Builder<MediaItemData> index;
+        private HashTrie.Builder<String> parentIndex;
+        // Parents whose children are a private ArrayList of this editor, sealed on commit
+        private final Set<String> touchedParents = new HashSet<>();
+        private final Set<String> changedParents = new HashSet<>();
+
+        private Editor(Snapshot base) {
+            this.base = base;
+        }
+
+        /**
+         * Append an item to its parent's children and index it by mediaId.
+         * A later item with the same mediaId replaces the earlier one in the index.
+         */
+        public Editor add(MediaItemData item) {
+            List<MediaItemData> siblings = childrenOf(item.parentId);
+            if (!base.isCompact() && !touchedParents.contains(item.parentId)
+                    && (siblings == null || siblings instanceof SharedItemList)) {
+                // Extend the shared list rather than copying the siblings
+                SharedItemList shared = siblings != null ? (SharedItemList) siblings : SharedItemList.EMPTY;
+                mutableChildrenMap().put(item.parentId, shared.append(item));
+            } else {
+                mutableChildren(item.parentId).add(item);
+            }
+            indexPut(item);
+            changedParents.add(item.parentId);
+            return this;
+        }
+
+        /**
+         * Remove every item, recording the parents that had children as changed.
+         */
+        public Editor clear() {
+            // Parents added by this editor are already recorded as changed
+            changedParents.addAll(base.children.keySet());
+            children = HashTrie.<List<MediaItemData>>empty().toBuilder();
+            if (base.isCompact()) {
+                parentIndex = HashTrie.<String>empty().toBuilder();
+            } else {
+                index = HashTrie.<MediaItemData>empty().toBuilder();
+            }
+            touchedParents.clear();
+            return this;
+        }
+
+        /**
+         * Replace a parent's children with the given items.
+         */
+        public Editor setChildren(String parentId, List<MediaItemData> items) {
+            removeChildren(parentId);
+            List<MediaItemData> siblings = mutableChildren(parentId);
+            for (MediaItemData item : items) {
+                siblings.add(item);
+                indexPut(item);
+            }
+            changedParents.add(parentId);
+            return this;
+        }
+
+        /**
+         * Drop a parent's children and their index entries. Deeper levels are left as they are.
+         */
+        public Editor removeChildren(String parentId) {
+            List<MediaItemData> items = childrenOf(parentId);
+            if (items == null) {
+                return this;
+            }
+            for (MediaItemData item : items) {
+                indexRemove(item);
+            }
+            mutableChildrenMap().remove(parentId);
+            touchedParents.remove(parentId);
+            changedParents.add(parentId);
+            return this;
+        }
+
+        /**
+         * Look up an item as of this edit, including uncommitted changes.
+         */
+        public MediaItemData find(String mediaId) {
+            if (mediaId == null) {
+                return null;
+            }
+            if (!base.isCompact()) {
+                return index != null ? index.get(mediaId) : base.index.get(mediaId);
+            }
+            String parentId = parentIndex != null ? parentIndex.get(mediaId) : base.parentIndex.get(mediaId);
+            List<MediaItemData> items = parentId != null ? childrenOf(parentId) : null;
+            if (items instanceof CompactItemList) {
+                return ((CompactItemList) items).find(mediaId);
+            }
+            int position = items != null ? lastPositionOf(items, mediaId) : -1;
+            return position >= 0 ? items.get(position) : null;
+        }
+
+        /**
+         * Remove one item from its parent, found through the item's parent pointer.
+         * A browsable item's own children are left in place. Returns the removed item, or null.
+         * Costs a copy of the item's siblings, not of the catalog.
+         */
+        public MediaItemData remove(String mediaId) {
+            MediaItemData item = find(mediaId);
+            if (item == null) {
+                return null;
+            }
+            List<MediaItemData> siblings = mutableChildren(item.parentId);
+            int position = lastPositionOf(siblings, mediaId);
+            if (position >= 0) {
+                siblings.remove(position);
+            }
+            indexRemove(item);
+            changedParents.add(item.parentId);
+            return item;
+        }
+
+        /**
+         * Replace an item in place, keeping its position among its siblings.
+         * If the parent differs, the item is moved to the end of the new parent.
+         * Returns false if no item has that mediaId.
+         */
+        public boolean update(MediaItemData item) {
+            MediaItemData existing = find(item.mediaId);
+            if (existing == null) {
+                return false;
+            }
+            if (!Objects.equals(existing.parentId, item.parentId)) {
+                remove(item.mediaId);
+                add(item);
+                return true;
+            }
+            List<MediaItemData> siblings = mutableChildren(item.parentId);
+            int position = lastPositionOf(siblings, item.mediaId);
+            indexRemove(existing);
+            siblings.set(position, item);
+            indexPut(item);
+            changedParents.add(item.parentId);
+            return true;
+        }
+
+        /**
+         * Move an item under another parent at the given position, or at the end
+         * if position is negative or past the end. Its own children move with it,
+         * since they are keyed by its mediaId. Returns the moved item, or null.
+         */
+        public MediaItemData move(String mediaId, String newParentId, int position) {
+            // Walk up from the destination; meeting the item there would cut its subtree off as a cycle
+            Set<String> ancestors = new HashSet<>();
+            for (String ancestorId = newParentId; ancestorId != null && ancestors.add(ancestorId); ) {
+                if (ancestorId.equals(mediaId)) {
+                    throw new IllegalArgumentException("Cannot move " + mediaId + " under its own subtree");
+                }
+                MediaItemData ancestor = find(ancestorId);
+                ancestorId = ancestor != null ? ancestor.parentId : null;
+            }
+            MediaItemData item = remove(mediaId);
+            if (item == null) {
+                return null;
+            }
+            // Items are shared with older snapshots, so the moved item is a copy
+            MediaItemData moved = new MediaItemData(newParentId, item.mediaId, item.title, item.subtitle,
+                item.description, item.isBrowsable, item.url, item.artwork);
+            List<MediaItemData> siblings = mutableChildren(newParentId);
+            siblings.add(position >= 0 && position <= siblings.size() ? position : siblings.size(), moved);
+            indexPut(moved);
+            changedParents.add(newParentId);
+            return moved;
+        }
+
+        /**
+         * Remove an item and, if it is browsable, every level below it. Only the
+         * removed subtree is visited. Returns the number of items removed.
+         */
+        public int removeSubtree(String mediaId) {
+            MediaItemData root = remove(mediaId);
+            if (root == null) {
+                return 0;
+            }
+            return 1 + removeDescendants(mediaId);
+        }
+
+        /**
+         * Remove every level below a parent, keeping the parent itself, as when
+         * a lazily loaded folder is evicted. Returns the number of items removed.
+         */
+        public int removeDescendants(String parentId) {
+            int removed = 0;
+            Set<String> visited = new HashSet<>();
+            List<String> pending = new ArrayList<>();
+            pending.add(parentId);
+            while (!pending.isEmpty()) {
+                String folderId = pending.remove(pending.size() - 1);
+                // Guard against cycles built from mediaIds that reuse an ancestor's ID
+                if (!visited.add(folderId)) {
+                    continue;
+                }
+                List<MediaItemData> items = childrenOf(folderId);
+                if (items == null) {
+                    continue;
+                }
+                for (MediaItemData item : items) {
+                    if (item.isBrowsable) {
+                        pending.add(item.mediaId);
+                    }
+                }
+                removed += items.size();
+                removeChildren(folderId);
+            }
+            return removed;
+        }
+
+        // Children of a parent as of this edit, or null if it has none
+        private List<MediaItemData> childrenOf(String parentId) {
+            return children != null ? children.get(parentId) : base.children.get(parentId);
+        }
+
+        private HashTrie.Builder<List<MediaItemData>> mutableChildrenMap() {
+            if (children == null) {
+                children = base.children.toBuilder();
+            }
+            return children;
+        }
+
+        private List<MediaItemData> mutableChildren(String parentId) {
+            HashTrie.Builder<List<MediaItemData>> children = mutableChildrenMap();
+            List<MediaItemData> items = children.get(parentId);
+            if (!touchedParents.contains(parentId)) {
+                items = items != null ? new ArrayList<>(items) : new ArrayList<MediaItemData>();
+                children.put(parentId, items);
+                touchedParents.add(parentId);
+            }
+            return items;
+        }
+
+        private void indexPut(MediaItemData item) {
+            if (base.isCompact()) {
+                mutableParentIndex().put(item.mediaId, item.parentId);
+            } else {
+                mutableIndex().put(item.mediaId, item);
+            }
+        }
+
+        // Drop the index entry only if it still points at this item, not a later duplicate elsewhere
+        private void indexRemove(MediaItemData item) {
+            if (base.isCompact()) {
+                HashTrie.Builder<String> parentIndex = mutableParentIndex();
+                if (Objects.equals(parentIndex.get(item.mediaId), item.parentId)) {
+                    parentIndex.remove(item.mediaId);
+                }
+            } else {
+                HashTrie.Builder<MediaItemData> index = mutableIndex();
+                if (index.get(item.mediaId) == item) {
+                    index.remove(item.mediaId);
+                }
+            }
+        }
+
+        private HashTrie.Builder<MediaItemData> mutableIndex() {
+            if (index == null) {
+                index = base.index.toBuilder();
+            }
+            return index;
+        }
+
+        private HashTrie.Builder<String> mutableParentIndex() {
+            if (parentIndex == null) {
+                parentIndex = base.parentIndex.toBuilder();
+            }
+            return parentIndex;
+        }
+
+        /**
+         * Publish the edited tree as the next version and return the parent IDs
+         * whose children changed.
+         */
+        public Set<String> commit() {
+            return MediaCatalog.this.commit(this);
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(0, HashTrie.<List<MediaItemData>>empty(), HashTrie.<MediaItemData>empty(), null, null);
+
+    /**
+     * Notified with each newly published snapshot and the parents that changed
+     * since the previous one, while writers are still serialized.
+     */
+    public interface CommitListener {
+        void onCommit(Snapshot previous, Snapshot next, Set<String> changedParents);
+    }
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(EMPTY);
+    private final Object writeLock = new Object();
+    private final List<CommitListener> commitListeners = new CopyOnWriteArrayList<>();
+    // Shared by compact lists built under the writer lock; replaced when mostly garbage
+    private StringPool pool = new StringPool();
+
+    public void addCommitListener(CommitListener listener) {
+        commitListeners.add(listener);
+    }
+
+    public void removeCommitListener(CommitListener listener) {
+        commitListeners.remove(listener);
+    }
+
+    private void publish(Snapshot previous, Snapshot next, Set<String> changedParents) {
+        current.set(next);
+        for (CommitListener listener : commitListeners) {
+            listener.onCommit(previous, next, changedParents);
+        }
+    }
+
+    /**
+     * Current snapshot; never blocks.
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Start an edit against the current snapshot. Edits must be committed to take effect.
+     */
+    public Editor edit() {
+        return new Editor(current.get());
+    }
+
+    private Set<String> commit(Editor editor) {
+        synchronized (writeLock) {
+            if (current.get() != editor.base) {
+                throw new IllegalStateException("Catalog changed since this edit started");
+            }
+            if (editor.changedParents.isEmpty()) {
+                return Collections.emptySet();
+            }
+            HashTrie<List<MediaItemData>> children = editor.base.children;
+            if (editor.children != null) {
+                for (String parentId : editor.touchedParents) {
+                    List<MediaItemData> items = editor.children.get(parentId);
+                    if (items != null) {
+                        editor.children.put(parentId, seal(parentId, items, editor.base.isCompact()));
+                    }
+                }
+                children = editor.children.build();
+            }
+            HashTrie<MediaItemData> index = editor.index != null ? editor.index.build() : editor.base.index;
+            HashTrie<String> parentIndex = editor.parentIndex != null ? editor.parentIndex.build() : editor.base.parentIndex;
+            publish(editor.base, new Snapshot(editor.base.version + 1, children, index, parentIndex, null), editor.changedParents);
+            return editor.changedParents;
+        }
+    }
+
+    /**
+     * Build and publish the next version in one step while holding the writer lock.
+     */
+    public Set<String> update(Edit edit) {
+        synchronized (writeLock) {
+            Editor editor = edit();
+            edit.apply(editor);
+            return editor.commit();
+        }
+    }
+
+    public interface Edit {
+        void apply(Editor editor);
+    }
+
+    // Position of the last item with this mediaId, matching the index's last-one-wins rule
+    private static int lastPositionOf(List<MediaItemData> items, String mediaId) {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (mediaId.equals(items.get(i).mediaId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<MediaItemData> seal(String parentId, List<MediaItemData> items, boolean compact) {
+        return compact ? CompactItemList.encode(pool, parentId, items) : SharedItemList.of(items);
+    }
+
+    public boolean isCompactStorage() {
+        return current.get().isCompact();
+    }
+
+    /**
+     * Switch between plain and compact storage, re-encoding the current tree.
+     * The content is unchanged, so listeners see no changed parents.
+     */
+    public void setCompactStorage(boolean compact) {
+        synchronized (writeLock) {
+            Snapshot base = current.get();
+            if (base.isCompact() == compact) {
+                return;
+            }
+            pool = new StringPool();
+            HashTrie.Builder<List<MediaItemData>> children = HashTrie.<List<MediaItemData>>empty().toBuilder();
+            for (Map.Entry<String, List<MediaItemData>> entry : base.children.entrySet()) {
+                children.put(entry.getKey(), seal(entry.getKey(), new ArrayList<>(entry.getValue()), compact));
+            }
+            HashTrie<List<MediaItemData>> sealed = children.build();
+            HashTrie<MediaItemData> index = null;
+            HashTrie<String> parentIndex = null;
+            if (compact) {
+                HashTrie.Builder<String> parents = HashTrie.<String>empty().toBuilder();
+                for (Map.Entry<String, MediaItemData> entry : base.index.entrySet()) {
+                    parents.put(entry.getKey(), entry.getValue().parentId);
+                }
+                parentIndex = parents.build();
+            } else {
+                // Index the new list instances, so removals can match entries by identity
+                HashTrie.Builder<MediaItemData> items = HashTrie.<MediaItemData>empty().toBuilder();
+                for (Map.Entry<String, List<MediaItemData>> entry : sealed.entrySet()) {
+                    for (MediaItemData item : entry.getValue()) {
+                        if (entry.getKey().equals(base.parentIndex.get(item.mediaId))) {
+                            items.put(item.mediaId, item);
+                        }
+                    }
+                }
+                index = items.build();
+            }
+            publish(base, new Snapshot(base.version + 1, sealed, index, parentIndex, base.contentHash), Collections.<String>emptySet());
+        }
+    }
+
+    /**
+     * Replace the whole tree with the given items in one swap.
+     *
+     * The new tree is grouped off to the side and compared per parent against
+     * the live one. Parents whose children are unchanged keep their existing
+     * list instance, so anything cached against it stays valid. Returns the
+     * parent IDs whose children changed; empty if contentHash matches the
+     * current snapshot or nothing differs.
+     */
+    public Set<String> replaceAll(List<MediaItemData> items, String contentHash) {
+        return replace(items, contentHash).changedParents;
+    }
+
+    /**
+     * What replacing the whole tree changed.
+     */
+    static final class Replacement {
+        static final Replacement NONE = new Replacement(Collections.<String>emptySet(), 0);
+
+        final Set<String> changedParents;
+        // Items whose mediaId was not in the catalog before
+        final int addedItems;
+
+        Replacement(Set<String> changedParents, int addedItems) {
+            this.changedParents = changedParents;
+            this.addedItems = addedItems;
+        }
+    }
+
+    /**
+     * A whole new tree collected one item at a time, for replace().
+     *
+     * Items are grouped under their parents and indexed as they arrive, so a
+     * parser can hand each one over as soon as it is decoded instead of first
+     * collecting the full item list. The content hash is the one
+     * computeContentHash gives for the same items in the same order.
+     */
+    static final class Loader {
+        private final Map<String, List<MediaItemData>> grouped = new HashMap<>();
+        // Last item per mediaId, matching the index's last-one-wins rule
+        private final HashTrie.Builder<MediaItemData> index = HashTrie.<MediaItemData>empty().toBuilder();
+        private final ContentDigest digest = new ContentDigest();
+        private int size;
+
+        static Loader of(List<MediaItemData> items) {
+            Loader loader = new Loader();
+            for (MediaItemData item : items) {
+                loader.add(item);
+            }
+            return loader;
+        }
+
+        public Loader add(MediaItemData item) {
+            List<MediaItemData> siblings = grouped.get(item.parentId);
+            if (siblings == null) {
+                siblings = new ArrayList<>();
+                grouped.put(item.parentId, siblings);
+            }
+            siblings.add(item);
+            index.put(item.mediaId, item);
+            size++;
+            digest.add(item);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * The content hash of the items added so far. No items may be added afterwards.
+         */
+        public String getContentHash() {
+            return digest.finish();
+        }
+    }
+
+    /**
+     * SHA-256 over every field of a run of items, length-prefixed so that no
+     * two different runs encode the same way. MediaItemData.hashCode() is only
+     * 32 bits and collides on trivial edits ("Aa" and "BB"), and a matching
+     * content hash makes replace() discard the update, so it needs a real digest.
+     */
+    private static final class ContentDigest {
+        private final MessageDigest digest;
+        private final byte[] scratch = new byte[4];
+        private int count;
+        private String result;
+
+        ContentDigest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to provide SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void add(MediaItemData item) {
+            if (result != null) {
+                throw new IllegalStateException("Content hash already taken");
+            }
+            digest.update((byte) (item.isBrowsable ? 1 : 0));
+            addString(item.parentId);
+            addString(item.mediaId);
+            addString(item.title);
+            addString(item.subtitle);
+            addString(item.description);
+            addString(item.url);
+            addString(item.artwork);
+            count++;
+        }
+
+        private void addString(String value) {
+            byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+            int length = bytes != null ? bytes.length : -1;
+            scratch[0] = (byte) (length >>> 24);
+            scratch[1] = (byte) (length >>> 16);
+            scratch[2] = (byte) (length >>> 8);
+            scratch[3] = (byte) length;
+            digest.update(scratch);
+            if (bytes != null) {
+                digest.update(bytes);
+            }
+        }
+
+        String finish() {
+            if (result == null) {
+                StringBuilder hex = new StringBuilder().append(count).append(':');
+                for (byte b : digest.digest()) {
+                    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                result = hex.toString();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * As replaceAll, also counting the items that are new to the catalog.
+     */
+    public Replacement replace(List<MediaItemData> items, String contentHash) {
+        return replace(Loader.of(items), contentHash);
+    }
+
+    /**
+     * As replace, taking the tree from a Loader, which must not be used afterwards.
+     * A null contentHash means the Loader's own hash.
+     */
+    public Replacement replace(Loader loader, String contentHash) {
+        if (contentHash == null) {
+            contentHash = loader.getContentHash();
+        }
+        synchronized (writeLock) {
+            Snapshot base = current.get();
+            if (contentHash.equals(base.contentHash)) {
+                return Replacement.NONE;
+            }
+
+            boolean compact = base.isCompact();
+            Map<String, List<MediaItemData>> grouped = loader.grouped;
+            Set<String> changedParents = new HashSet<>();
+            HashTrie.Builder<List<MediaItemData>> children = HashTrie.<List<MediaItemData>>empty().toBuilder();
+            for (Map.Entry<String, List<MediaItemData>> entry : grouped.entrySet()) {
+                List<MediaItemData> previous = base.children.get(entry.getKey());
+                if (previous != null && previous.equals(entry.getValue())) {
+                    children.put(entry.getKey(), previous);
+                    if (!compact) {
+                        // The kept list holds the old, equal objects; index those, as removals match by identity
+                        for (MediaItemData item : previous) {
+                            if (item.equals(loader.index.get(item.mediaId))) {
+                                loader.index.put(item.mediaId, item);
+                            }
+                        }
+                    }
+                } else {
+                    children.put(entry.getKey(), seal(entry.getKey(), entry.getValue(), compact));
+                    changedParents.add(entry.getKey());
+                }
+            }
+            if (compact && poolIsMostlyGarbage(children.build())) {
+                // Re-encode everything into a fresh pool so dropped strings can be collected
+                pool = new StringPool();
+                for (Map.Entry<String, List<MediaItemData>> entry : grouped.entrySet()) {
+                    children.put(entry.getKey(), seal(entry.getKey(), entry.getValue(), true));
+                }
+            }
+            for (String parentId : base.children.keySet()) {
+                if (!grouped.containsKey(parentId)) {
+                    changedParents.add(parentId);
+                }
+            }
+
+            HashTrie<MediaItemData> builtIndex = loader.index.build();
+            HashTrie<String> builtParentIndex = null;
+            if (compact) {
+                HashTrie.Builder<String> parentIndex = HashTrie.<String>empty().toBuilder();
+                for (Map.Entry<String, MediaItemData> entry : builtIndex.entrySet()) {
+                    parentIndex.put(entry.getKey(), entry.getValue().parentId);
+                }
+                builtParentIndex = parentIndex.build();
+                builtIndex = null;
+            }
+
+            int addedItems = 0;
+            for (String mediaId : compact ? builtParentIndex.keySet() : builtIndex.keySet()) {
+                if (compact ? !base.parentIndex.containsKey(mediaId) : !base.index.containsKey(mediaId)) {
+                    addedItems++;
+                }
+            }
+
+            // Unchanged parents still pick up the new hash so the next identical sync is a no-op
+            publish(base, new Snapshot(base.version + 1, children.build(), builtIndex, builtParentIndex, contentHash), changedParents);
+            return new Replacement(changedParents, addedItems);
+        }
+    }
+
+    /**
+     * As replace, but only while nothing has been published yet, so a restored
+     * or placeholder catalog never overwrites one that arrived first. Returns
+     * null when the catalog was already published.
+     */
+    public Replacement replaceIfUnpublished(List<MediaItemData> items, String contentHash) {
+        return replaceIfUnpublished(Loader.of(items), contentHash);
+    }
+
+    /**
+     * As replaceIfUnpublished, taking the tree from a Loader.
+     */
+    public Replacement replaceIfUnpublished(Loader loader, String contentHash) {
+        synchronized (writeLock) {
+            if (current.get().getVersion() != 0) {
+                return null;
+            }
+            return replace(loader, contentHash);
+        }
+    }
+
+    // Whether less than half of the pool is still referenced by the given lists
+    private boolean poolIsMostlyGarbage(Map<String, List<MediaItemData>> children) {
+        if (pool.size() < 1024) {
+            return false;
+        }
+        BitSet live = new BitSet(pool.size());
+        for (List<MediaItemData> items : children.values()) {
+            if (items instanceof CompactItemList && ((CompactItemList) items).getPool() == pool) {
+                ((CompactItemList) items).collectPoolIds(live);
+            }
+        }
+        return live.cardinality() * 2 < pool.size();
+    }
+
+    /**
+     * Order-sensitive hash of an item list, used to skip identical catalog syncs.
+     */
+    static String computeContentHash(List<MediaItemData> items) {
+        ContentDigest digest = new ContentDigest();
+        for (MediaItemData item : items) {
+            digest.add(item);
+        }
+        return digest.finish();
+    }
+
+    public void add(MediaItemData item) {
+        update(editor -> editor.add(item));
+    }
+
+    /**
+     * Remove every item and return the parent IDs that had children.
+     */
+    public Set<String> clear() {
+        return update(Editor::clear);
+    }
+
+    /**
+     * Look up an item by mediaId in the current snapshot.
+     */
+    public MediaItemData find(String mediaId) {
+        return current.get().find(mediaId);
+    }
+
+    public List<MediaItemData> getChildren(String parentId) {
+        return current.get().getChildren(parentId);
+    }
+
+    public int size() {
+        return current.get().size();
+    }
+
+    public int getParentCount() {
+        return current.get().getParentCount();
+    }
+}
@@ -0,0 +1,53 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.Objects;
+
+/**
+ * Holds the information for a single browsable or playable MediaItem.
+ * The parentId is a back-reference to the folder the item was added to.
+ */
+public class MediaItemData {
+    public String parentId;
+    public String mediaId;
+    public String title;
+    public String subtitle;
+    public String description;
+    public boolean isBrowsable;
+    public String url;
+    public String artwork;
+
+    public MediaItemData(String parentId, String mediaId, String title, String subtitle, String description, boolean isBrowsable, String url, String artwork) {
+        this.parentId = parentId;
+        this.mediaId = mediaId;
+        this.title = title;
+        this.subtitle = subtitle;
+        this.description = description;
+        this.isBrowsable = isBrowsable;
+        this.url = url;
+        this.artwork = artwork;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MediaItemData)) {
+            return false;
+        }
+        MediaItemData other = (MediaItemData) o;
+        return isBrowsable == other.isBrowsable
+            && Objects.equals(parentId, other.parentId)
+            && Objects.equals(mediaId, other.mediaId)
+            && Objects.equals(title, other.title)
+            && Objects.equals(subtitle, other.subtitle)
+            && Objects.equals(description, other.description)
+            && Objects.equals(url, other.url)
+            && Objects.equals(artwork, other.artwork);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(parentId, mediaId, title, subtitle, description, isBrowsable, url, artwork);
+    }
+}
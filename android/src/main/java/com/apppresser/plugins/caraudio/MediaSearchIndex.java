@@ -0,0 +1,251 @@
+package com.apppresser.plugins.caraudio;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted prefix index over MediaItemData title, subtitle and description,
+ * used for onSearch and onPlayFromSearch.
+ *
+ * Tokens are lower-cased, accent-stripped runs of letters and digits. Each
+ * query token matches every indexed token it is a prefix of. Results are
+ * ranked by how many query tokens matched and in which field, so a voice
+ * query with filler words still finds the item. The index is kept up to
+ * date from catalog commits, touching only the parents that changed. It
+ * stores mediaIds only; results are resolved against a catalog snapshot.
+ */
+class MediaSearchIndex {
+
+    private static final int FIELD_TITLE = 1;
+    private static final int FIELD_SUBTITLE = 2;
+    private static final int FIELD_DESCRIPTION = 4;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // token -> (mediaId -> fields the token appears in)
+    private final TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+
+    /**
+     * Apply a catalog commit: re-index new or replaced items of the changed
+     * parents and drop items that no longer exist.
+     *
+     * The index mirrors the item each mediaId resolves to in the catalog, so
+     * every mediaId seen in a changed parent is reconciled by ID rather than
+     * by list position: a move between parents, or a duplicate ID taking over
+     * from another copy, ends with exactly the resolved item indexed.
+     */
+    public void onCommit(MediaCatalog.Snapshot previous, MediaCatalog.Snapshot next, Set<String> changedParents) {
+        Set<String> touched = new HashSet<>();
+        for (String parentId : changedParents) {
+            List<MediaItemData> before = previous.getChildren(parentId);
+            List<MediaItemData> after = next.getChildren(parentId);
+            // Items an append left in place are indexed already; skipping them keeps single adds O(1)
+            int shared = SharedItemList.sharedPrefix(before, after);
+            for (MediaItemData item : before.subList(shared, before.size())) {
+                touched.add(item.mediaId);
+            }
+            for (MediaItemData item : after.subList(shared, after.size())) {
+                touched.add(item.mediaId);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (String mediaId : touched) {
+                MediaItemData old = previous.find(mediaId);
+                MediaItemData current = next.find(mediaId);
+                if (!Objects.equals(old, current)) {
+                    if (old != null) {
+                        removeLocked(old);
+                    }
+                    if (current != null) {
+                        addLocked(current);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return up to maxResults items of the snapshot matching the query, best match first.
+     */
+    public List<MediaItemData> search(MediaCatalog.Snapshot snapshot, String query, int maxResults) {
+        List<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Integer> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String queryToken : queryTokens) {
+                // Best score this query token gives each item, so one token counts once per item
+                Map<String, Integer> tokenScores = new HashMap<>();
+                SortedMap<String, Map<String, Integer>> matches = postings.subMap(queryToken, queryToken + Character.MAX_VALUE);
+                for (Map.Entry<String, Map<String, Integer>> match : matches.entrySet()) {
+                    boolean exact = match.getKey().length() == queryToken.length();
+                    for (Map.Entry<String, Integer> posting : match.getValue().entrySet()) {
+                        int score = fieldScore(posting.getValue()) * 2 + (exact ? 1 : 0);
+                        Integer best = tokenScores.get(posting.getKey());
+                        if (best == null || score > best) {
+                            tokenScores.put(posting.getKey(), score);
+                        }
+                    }
+                }
+                for (Map.Entry<String, Integer> entry : tokenScores.entrySet()) {
+                    // Coverage of the query dominates; field and exactness break ties
+                    Integer total = scores.get(entry.getKey());
+                    scores.put(entry.getKey(), (total != null ? total : 0) + 100 + entry.getValue());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Resolve against the caller's snapshot; IDs removed since are dropped. A short prefix can
+        // match much of the catalog, so keep only the best maxResults in a heap, worst on top.
+        PriorityQueue<Match> best = new PriorityQueue<>(Math.min(maxResults, scores.size()) + 1, WORST_FIRST);
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            if (best.size() == maxResults && entry.getValue() < best.peek().score) {
+                continue;
+            }
+            MediaItemData item = snapshot.find(entry.getKey());
+            if (item != null) {
+                best.add(new Match(item, entry.getValue()));
+                if (best.size() > maxResults) {
+                    best.poll();
+                }
+            }
+        }
+
+        MediaItemData[] results = new MediaItemData[best.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = best.poll().item;
+        }
+        return Arrays.asList(results);
+    }
+
+    // Lower score first, then longer title, so the heap evicts the match that would rank last
+    private static final Comparator<Match> WORST_FIRST = (a, b) -> {
+        int byScore = Integer.compare(a.score, b.score);
+        return byScore != 0 ? byScore : compareTitleLength(b.item, a.item);
+    };
+
+    private static final class Match {
+        final MediaItemData item;
+        final int score;
+
+        Match(MediaItemData item, int score) {
+            this.item = item;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Best playable match for a query, or null if nothing playable matches.
+     */
+    public MediaItemData findBestPlayable(MediaCatalog.Snapshot snapshot, String query) {
+        for (MediaItemData item : search(snapshot, query, 50)) {
+            if (!item.isBrowsable) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private void addLocked(MediaItemData item) {
+        for (Map.Entry<String, Integer> entry : fieldsOf(item).entrySet()) {
+            Map<String, Integer> posting = postings.get(entry.getKey());
+            if (posting == null) {
+                posting = new HashMap<>();
+                postings.put(entry.getKey(), posting);
+            }
+            posting.put(item.mediaId, entry.getValue());
+        }
+    }
+
+    // Tokens come from the item as it was indexed, so a changed item must be removed in its old form
+    private void removeLocked(MediaItemData item) {
+        for (String token : fieldsOf(item).keySet()) {
+            Map<String, Integer> posting = postings.get(token);
+            if (posting != null) {
+                posting.remove(item.mediaId);
+                if (posting.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    private static Map<String, Integer> fieldsOf(MediaItemData item) {
+        Map<String, Integer> fields = new HashMap<>();
+        collect(fields, item.title, FIELD_TITLE);
+        collect(fields, item.subtitle, FIELD_SUBTITLE);
+        collect(fields, item.description, FIELD_DESCRIPTION);
+        return fields;
+    }
+
+    private static void collect(Map<String, Integer> fields, String text, int field) {
+        for (String token : tokenize(text)) {
+            Integer existing = fields.get(token);
+            fields.put(token, existing != null ? existing | field : field);
+        }
+    }
+
+    private static int fieldScore(int fields) {
+        if ((fields & FIELD_TITLE) != 0) {
+            return 3;
+        }
+        if ((fields & FIELD_SUBTITLE) != 0) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static int compareTitleLength(MediaItemData a, MediaItemData b) {
+        int lengthA = a.title != null ? a.title.length() : Integer.MAX_VALUE;
+        int lengthB = b.title != null ? b.title.length() : Integer.MAX_VALUE;
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    /**
+     * Split text into lower-case, accent-free tokens of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+}
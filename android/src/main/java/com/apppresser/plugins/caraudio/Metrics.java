@@ -0,0 +1,204 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide playback metrics: counters, gauges and latency histograms.
+ *
+ * Like Trace this is static, so the player, the session and the browser
+ * service record into one registry without passing it around. Updates are
+ * lock-free atomics; after a series exists recording it allocates nothing,
+ * except for labelled series, where the key is concatenated. Histograms use
+ * fixed millisecond buckets, so they stay small however much is recorded.
+ *
+ * A series can carry a label, such as an error code or a parent ID. Labels
+ * are open-ended, so past MAX_SERIES series a new label is folded into
+ * OVERFLOW_LABEL instead of growing the registry without bound.
+ *
+ * snapshot() copies everything out for the app to ship; with reset it also
+ * zeroes counters and histograms so the next snapshot holds only what was
+ * recorded in between. Each value is read and reset atomically, the whole
+ * set is not.
+ */
+public final class Metrics {
+
+    // Upper bounds of the histogram buckets in milliseconds; one more bucket holds everything above
+    static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    static final int MAX_SERIES = 256;
+    static final String OVERFLOW_LABEL = "other";
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long valueMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && valueMs > BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sum.addAndGet(valueMs);
+            long previous;
+            while (valueMs > (previous = max.get()) && !max.compareAndSet(previous, valueMs)) {
+                // Lost a race with another maximum; try again against it
+            }
+        }
+
+        HistogramSnapshot snapshot(boolean reset) {
+            long[] counts = new long[BUCKET_BOUNDS_MS.length + 1];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+                count += counts[i];
+            }
+            long total = reset ? sum.getAndSet(0) : sum.get();
+            long largest = reset ? max.getAndSet(0) : max.get();
+            return new HistogramSnapshot(count, total, largest, counts);
+        }
+    }
+
+    /**
+     * Copy of one histogram.
+     */
+    public static final class HistogramSnapshot {
+        public final long count;
+        public final long sumMs;
+        public final long maxMs;
+        // Counts per bucket, matching BUCKET_BOUNDS_MS plus the overflow bucket
+        public final long[] buckets;
+
+        HistogramSnapshot(long count, long sumMs, long maxMs, long[] buckets) {
+            this.count = count;
+            this.sumMs = sumMs;
+            this.maxMs = maxMs;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Estimate of the given percentile (0 to 100): the upper bound of the bucket it falls in,
+         * capped at the maximum. 0 when nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MS[i], maxMs);
+                }
+            }
+            return maxMs;
+        }
+    }
+
+    /**
+     * Copy of the whole registry, with series sorted by key.
+     */
+    public static final class Snapshot {
+        public final Map<String, Long> counters;
+        public final Map<String, Long> gauges;
+        public final Map<String, HistogramSnapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, Long> gauges, Map<String, HistogramSnapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.gauges = Collections.unmodifiableMap(gauges);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    /**
+     * Count one event in the series name/label.
+     */
+    public static void increment(String name, String label) {
+        counter(seriesKey(counters, name, label)).incrementAndGet();
+    }
+
+    /**
+     * Set a gauge, a value that is replaced rather than accumulated, such as the catalog size.
+     */
+    public static void set(String name, long value) {
+        AtomicLong gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = gauges.computeIfAbsent(name, key -> new AtomicLong());
+        }
+        gauge.set(value);
+    }
+
+    public static void record(String name, long valueMs) {
+        histogram(name).record(valueMs);
+    }
+
+    /**
+     * Record a latency in the series name/label.
+     */
+    public static void record(String name, String label, long valueMs) {
+        histogram(seriesKey(histograms, name, label)).record(valueMs);
+    }
+
+    /**
+     * Copy out every series; with reset, counters and histograms start again from zero.
+     */
+    public static Snapshot snapshot(boolean reset) {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), reset ? entry.getValue().getAndSet(0) : entry.getValue().get());
+        }
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        return new Snapshot(counterValues, gaugeValues, histogramValues);
+    }
+
+    /**
+     * Drop every series; for tests.
+     */
+    static void clear() {
+        counters.clear();
+        gauges.clear();
+        histograms.clear();
+    }
+
+    private static AtomicLong counter(String key) {
+        AtomicLong counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private static Histogram histogram(String key) {
+        Histogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    // name/label, or name/OVERFLOW_LABEL once the registry is full and the series is new
+    private static String seriesKey(Map<String, ?> series, String name, String label) {
+        String key = name + "/" + (label != null ? label : OVERFLOW_LABEL);
+        if (series.size() >= MAX_SERIES && !series.containsKey(key)) {
+            return name + "/" + OVERFLOW_LABEL;
+        }
+        return key;
+    }
+}
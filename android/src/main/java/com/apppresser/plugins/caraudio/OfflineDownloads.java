@@ -0,0 +1,461 @@
+package com.apppresser.plugins.caraudio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads playable items' audio to app storage, so they play without coverage.
+ *
+ * Downloads run on a bounded worker pool. Bytes go to a .part file that a
+ * later attempt resumes with a Range request, so a lost connection costs
+ * only what was in flight; each download retries a few times with backoff
+ * before it is reported as failed. An optional SHA-256 is verified before
+ * the file is committed. Completed files count against a storage quota and
+ * the least recently played are deleted to make room.
+ *
+ * Metadata layout, one small file per download: magic, format version, URL,
+ * mediaId, byte count.
+ */
+class OfflineDownloads {
+
+    private static final String TAG = "OfflineDownloads";
+    private static final int MAGIC = 0x43414f44; // "CAOD"
+    private static final int FORMAT_VERSION = 1;
+    private static final String AUDIO_SUFFIX = ".audio";
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".meta";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    public static final String STATE_QUEUED = "queued";
+    public static final String STATE_DOWNLOADING = "downloading";
+    public static final String STATE_COMPLETED = "completed";
+    public static final String STATE_FAILED = "failed";
+    public static final String STATE_CANCELLED = "cancelled";
+
+    interface Listener {
+        void onDownloadChanged(Download download);
+    }
+
+    /**
+     * One requested download; fields are updated by its worker and read by anyone.
+     */
+    static final class Download {
+        final String url;
+        final String mediaId;
+        final String sha256;
+        volatile String state = STATE_QUEUED;
+        volatile long bytesDownloaded;
+        volatile long totalBytes = -1;
+        volatile String error;
+        volatile boolean cancelled;
+
+        Download(String url, String mediaId, String sha256) {
+            this.url = url;
+            this.mediaId = mediaId;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * A completed download on disk.
+     */
+    static final class Stored {
+        final String url;
+        final String mediaId;
+        final File file;
+        final long bytes;
+        volatile long lastUsed;
+
+        Stored(String url, String mediaId, File file, long bytes, long lastUsed) {
+            this.url = url;
+            this.mediaId = mediaId;
+            this.file = file;
+            this.bytes = bytes;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final File dir;
+    private final Listener listener;
+    private final ThreadPoolExecutor workers;
+    // url -> download that is queued or running
+    private final Map<String, Download> active = new ConcurrentHashMap<>();
+    // url -> completed file
+    private final Map<String, Stored> stored = new ConcurrentHashMap<>();
+    private final Object quotaLock = new Object();
+    private volatile long quotaBytes;
+
+    OfflineDownloads(File dir, long quotaBytes, int maxConcurrent, Listener listener) {
+        this.dir = dir;
+        this.quotaBytes = quotaBytes;
+        this.listener = listener;
+        int workerCount = Math.max(1, maxConcurrent);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "CarAudioDownload");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Trace.i(TAG, "downloadDirUnavailable", dir.getPath());
+        }
+        loadStored();
+    }
+
+    /**
+     * Local file holding url's audio, or null if it isn't downloaded. Marks it as recently played.
+     */
+    public File localFile(String url) {
+        Stored entry = url != null ? stored.get(url) : null;
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.exists()) {
+            stored.remove(url);
+            return null;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        entry.file.setLastModified(entry.lastUsed);
+        return entry.file;
+    }
+
+    public boolean isDownloaded(String url) {
+        return url != null && stored.containsKey(url);
+    }
+
+    /**
+     * Queue url for download; returns false if it is already downloaded or queued.
+     */
+    public boolean enqueue(String url, String mediaId, String sha256) {
+        if (url == null || url.isEmpty() || stored.containsKey(url)) {
+            return false;
+        }
+        Download download = new Download(url, mediaId, sha256 != null && !sha256.isEmpty() ? sha256.toLowerCase() : null);
+        if (active.putIfAbsent(url, download) != null) {
+            return false;
+        }
+        listener.onDownloadChanged(download);
+        workers.execute(() -> run(download));
+        return true;
+    }
+
+    /**
+     * Stop a queued or running download and delete what it fetched.
+     */
+    public boolean cancel(String url) {
+        Download download = active.get(url);
+        if (download == null) {
+            return false;
+        }
+        download.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Delete a completed download; returns false if there was none.
+     */
+    public boolean remove(String url) {
+        Stored entry = stored.remove(url);
+        if (entry == null) {
+            return false;
+        }
+        deleteFiles(AudioCache.keyFor(url));
+        return true;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        int count = Math.max(1, maxConcurrent);
+        // The maximum may never drop below the core size, so order the updates
+        if (count > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(count);
+            workers.setCorePoolSize(count);
+        } else {
+            workers.setCorePoolSize(count);
+            workers.setMaximumPoolSize(count);
+        }
+    }
+
+    public void setQuotaBytes(long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+        synchronized (quotaLock) {
+            evictFor(0);
+        }
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public long getUsedBytes() {
+        long used = 0;
+        for (Stored entry : stored.values()) {
+            used += entry.bytes;
+        }
+        return used;
+    }
+
+    public List<Download> getActive() {
+        return new ArrayList<>(active.values());
+    }
+
+    public List<Stored> getStored() {
+        return new ArrayList<>(stored.values());
+    }
+
+    public void shutdown() {
+        for (Download download : active.values()) {
+            download.cancelled = true;
+        }
+        workers.shutdownNow();
+    }
+
+    private void run(Download download) {
+        String key = AudioCache.keyFor(download.url);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                if (download.cancelled) {
+                    throw new InterruptedException();
+                }
+                try {
+                    fetch(download, key);
+                    break;
+                } catch (IOException e) {
+                    if (attempt >= MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    // Coverage often comes back within seconds; the next attempt resumes the .part file
+                    Trace.i(TAG, "retry", download.url, attempt);
+                    Thread.sleep(RETRY_DELAY_MS << (attempt - 1));
+                }
+            }
+            commit(download, key);
+        } catch (InterruptedException e) {
+            new File(dir, key + PART_SUFFIX).delete();
+            finish(download, STATE_CANCELLED, null);
+        } catch (IOException e) {
+            // The .part file is kept, so asking again resumes where this stopped
+            Trace.i(TAG, "downloadFailed", e.getMessage());
+            finish(download, STATE_FAILED, e.getMessage());
+        }
+    }
+
+    // Fetch the rest of the .part file; throws InterruptedException when cancelled
+    private void fetch(Download download, String key) throws IOException, InterruptedException {
+        File part = new File(dir, key + PART_SUFFIX);
+        long existing = part.exists() ? part.length() : 0;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(download.url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (existing > 0) {
+            connection.setRequestProperty("Range", "bytes=" + existing + "-");
+        }
+        try {
+            int code = connection.getResponseCode();
+            boolean resumed = code == 206 && existing > 0 && rangeStart(connection.getHeaderField("Content-Range")) == existing;
+            if (code == 416 && existing > 0) {
+                // The part file already holds everything, or is stale; start over next attempt
+                part.delete();
+                throw new IOException("Range not satisfiable");
+            }
+            if (code != 200 && !resumed) {
+                throw new IOException("HTTP " + code);
+            }
+            if (!resumed) {
+                existing = 0;
+            }
+            long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+            download.totalBytes = contentLength >= 0 ? existing + contentLength : -1;
+            download.bytesDownloaded = existing;
+            download.state = STATE_DOWNLOADING;
+            listener.onDownloadChanged(download);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long lastProgress = System.currentTimeMillis();
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(part, resumed), BUFFER_SIZE)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    if (download.cancelled) {
+                        throw new InterruptedException();
+                    }
+                    out.write(buffer, 0, read);
+                    download.bytesDownloaded += read;
+                    long now = System.currentTimeMillis();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_MS) {
+                        lastProgress = now;
+                        listener.onDownloadChanged(download);
+                    }
+                }
+            }
+            if (download.totalBytes >= 0 && part.length() != download.totalBytes) {
+                throw new IOException("Expected " + download.totalBytes + " bytes but got " + part.length());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Verify, make room under the quota and move the finished file into place
+    private void commit(Download download, String key) throws IOException {
+        File part = new File(dir, key + PART_SUFFIX);
+        if (download.sha256 != null) {
+            String actual = sha256Of(part);
+            if (!download.sha256.equals(actual)) {
+                part.delete();
+                throw new IOException("Checksum mismatch: expected " + download.sha256 + " but got " + actual);
+            }
+        }
+
+        long bytes = part.length();
+        File audio = new File(dir, key + AUDIO_SUFFIX);
+        synchronized (quotaLock) {
+            if (bytes > quotaBytes) {
+                part.delete();
+                throw new IOException("Download of " + bytes + " bytes exceeds the storage quota");
+            }
+            evictFor(bytes);
+            if (!part.renameTo(audio)) {
+                throw new IOException("Could not move " + part + " into place");
+            }
+            writeMeta(new File(dir, key + META_SUFFIX), download.url, download.mediaId, bytes);
+            stored.put(download.url, new Stored(download.url, download.mediaId, audio, bytes, System.currentTimeMillis()));
+        }
+        download.bytesDownloaded = bytes;
+        download.totalBytes = bytes;
+        finish(download, STATE_COMPLETED, null);
+    }
+
+    // Delete least recently played downloads until extraBytes more fits; caller holds quotaLock
+    private void evictFor(long extraBytes) {
+        List<Stored> byUse = new ArrayList<>(stored.values());
+        Collections.sort(byUse, (a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        long used = getUsedBytes();
+        for (Stored entry : byUse) {
+            if (used + extraBytes <= quotaBytes) {
+                break;
+            }
+            stored.remove(entry.url);
+            deleteFiles(AudioCache.keyFor(entry.url));
+            used -= entry.bytes;
+            Trace.i(TAG, "evict", entry.url, entry.bytes);
+        }
+    }
+
+    private void finish(Download download, String state, String error) {
+        download.state = state;
+        download.error = error;
+        active.remove(download.url, download);
+        listener.onDownloadChanged(download);
+    }
+
+    private void deleteFiles(String key) {
+        new File(dir, key + AUDIO_SUFFIX).delete();
+        new File(dir, key + META_SUFFIX).delete();
+        new File(dir, key + PART_SUFFIX).delete();
+    }
+
+    private void loadStored() {
+        File[] metas = dir.listFiles((parent, name) -> name.endsWith(META_SUFFIX));
+        if (metas == null) {
+            return;
+        }
+        for (File meta : metas) {
+            String key = meta.getName().substring(0, meta.getName().length() - META_SUFFIX.length());
+            File audio = new File(dir, key + AUDIO_SUFFIX);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Unknown format");
+                }
+                String url = in.readUTF();
+                String mediaId = in.readUTF();
+                long bytes = in.readLong();
+                if (!audio.exists() || audio.length() != bytes) {
+                    throw new IOException("Audio file is missing or has the wrong size");
+                }
+                stored.put(url, new Stored(url, mediaId.isEmpty() ? null : mediaId, audio, bytes, audio.lastModified()));
+            } catch (IOException e) {
+                meta.delete();
+                audio.delete();
+            }
+        }
+    }
+
+    private static void writeMeta(File meta, String url, String mediaId, long bytes) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(meta)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(url);
+            out.writeUTF(mediaId != null ? mediaId : "");
+            out.writeLong(bytes);
+        }
+    }
+
+    static String sha256Of(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // "bytes start-end/total" -> start, or -1
+    private static long rangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash > 0 ? parseLong(contentRange.substring("bytes ".length(), dash)) : -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.apppresser.plugins.caraudio;
+
+/**
+ * The current track's position as last read from the player, advanced the way
+ * session clients extrapolate it: position + speed * (now - read time).
+ *
+ * MediaPlayer only reports a position while prepared, playing or paused.
+ * After a stop or an error the last reading is frozen where it had advanced
+ * to, so the session shows where playback ended rather than 0; a new track
+ * starts again from 0. Not synchronized: CarAudio uses it on its playback
+ * thread only.
+ */
+class PlaybackPosition {
+
+    private long positionMs;
+    private float speed;
+    private long readAt;
+
+    /**
+     * Record a reading of the player at now, advancing at speed (0 unless playing).
+     */
+    public void read(long positionMs, float speed, long now) {
+        this.positionMs = Math.max(0, positionMs);
+        this.speed = Math.max(0, speed);
+        this.readAt = now;
+    }
+
+    /**
+     * Stop advancing at now, for a track that stopped or failed.
+     */
+    public void freeze(long now) {
+        positionMs = positionAt(now);
+        speed = 0;
+        readAt = now;
+    }
+
+    /**
+     * Back to the start, for a new track.
+     */
+    public void reset() {
+        positionMs = 0;
+        speed = 0;
+        readAt = 0;
+    }
+
+    public long positionAt(long now) {
+        if (speed == 0 || now <= readAt) {
+            return positionMs;
+        }
+        return positionMs + (long) (speed * (now - readAt));
+    }
+}
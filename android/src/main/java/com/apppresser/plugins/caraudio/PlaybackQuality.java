@@ -0,0 +1,200 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quality-of-experience numbers for each playback session, one session per track.
+ *
+ * A session begins when a track is requested and records the time until its
+ * first audio, how often and how long playback stalled to rebuffer, and how
+ * long it actually played, so the stall ratio is stall time over stall plus
+ * play time. Buffering before the first audio counts towards time-to-first-audio,
+ * not as a stall. The current session and the last RECENT_SESSIONS finished
+ * ones can be copied out, with the URL that was served, to compare hosts.
+ *
+ * CarAudio records from the playback thread and the plugin reads from its own,
+ * so methods are synchronized. Times are passed in by the caller
+ * (elapsedRealtime on the device), as in RetryPolicy.
+ */
+class PlaybackQuality {
+
+    static final int RECENT_SESSIONS = 20;
+
+    /**
+     * Copy of one session's numbers.
+     */
+    static final class Snapshot {
+        final String url;
+        // Wall-clock start, for lining sessions up with server logs
+        final long startedAtMillis;
+        // -1 until the first audio
+        final long timeToFirstAudioMs;
+        final int stallCount;
+        final long stallTimeMs;
+        final long playTimeMs;
+        // -1 when the player reported none, as for local files
+        final int bufferedPercent;
+        final boolean failed;
+        final boolean active;
+
+        Snapshot(String url, long startedAtMillis, long timeToFirstAudioMs, int stallCount, long stallTimeMs,
+                 long playTimeMs, int bufferedPercent, boolean failed, boolean active) {
+            this.url = url;
+            this.startedAtMillis = startedAtMillis;
+            this.timeToFirstAudioMs = timeToFirstAudioMs;
+            this.stallCount = stallCount;
+            this.stallTimeMs = stallTimeMs;
+            this.playTimeMs = playTimeMs;
+            this.bufferedPercent = bufferedPercent;
+            this.failed = failed;
+            this.active = active;
+        }
+
+        /**
+         * Share of the session spent stalled rather than playing, 0 to 1.
+         */
+        double stallRatio() {
+            long total = stallTimeMs + playTimeMs;
+            return total > 0 ? (double) stallTimeMs / total : 0;
+        }
+    }
+
+    private static final class Session {
+        String url;
+        long startedAtMillis;
+        long beganAt;
+        long timeToFirstAudioMs = -1;
+        int stallCount;
+        long stallTimeMs;
+        long playTimeMs;
+        int bufferedPercent = -1;
+        boolean failed;
+        // When the running stall or play period started; -1 when none is running
+        long stallStartedAt = -1;
+        long playStartedAt = -1;
+
+        Snapshot snapshot(long now, boolean active) {
+            long stall = stallTimeMs + (stallStartedAt >= 0 ? now - stallStartedAt : 0);
+            long play = playTimeMs + (playStartedAt >= 0 ? now - playStartedAt : 0);
+            return new Snapshot(url, startedAtMillis, timeToFirstAudioMs, stallCount, stall, play,
+                bufferedPercent, failed, active);
+        }
+    }
+
+    private Session current;
+    private final ArrayDeque<Snapshot> recent = new ArrayDeque<>(RECENT_SESSIONS);
+
+    /**
+     * Start a session for url, ending the current one.
+     */
+    public synchronized void begin(String url, long now, long wallClockMillis) {
+        end(now, false);
+        current = new Session();
+        current.url = url;
+        current.beganAt = now;
+        current.startedAtMillis = wallClockMillis;
+    }
+
+    /**
+     * The first audio of the session is playing, served from url.
+     */
+    public synchronized void firstAudio(String url, long now) {
+        if (current == null || current.timeToFirstAudioMs >= 0) {
+            return;
+        }
+        current.url = url;
+        current.timeToFirstAudioMs = now - current.beganAt;
+        current.playStartedAt = now;
+    }
+
+    /**
+     * Playback ran dry and the player is rebuffering.
+     */
+    public synchronized void stallStarted(long now) {
+        if (current == null || current.timeToFirstAudioMs < 0 || current.stallStartedAt >= 0) {
+            return;
+        }
+        stopPlaying(now);
+        current.stallCount++;
+        current.stallStartedAt = now;
+    }
+
+    public synchronized void stallEnded(long now) {
+        if (current == null || current.stallStartedAt < 0) {
+            return;
+        }
+        stopStall(now);
+        current.playStartedAt = now;
+    }
+
+    /**
+     * Paused by the user; neither playing nor stalled until resumed.
+     */
+    public synchronized void paused(long now) {
+        if (current == null) {
+            return;
+        }
+        stopStall(now);
+        stopPlaying(now);
+    }
+
+    public synchronized void resumed(long now) {
+        if (current == null || current.timeToFirstAudioMs < 0 || current.playStartedAt >= 0) {
+            return;
+        }
+        current.playStartedAt = now;
+    }
+
+    public synchronized void bufferedPercent(int percent) {
+        if (current != null) {
+            current.bufferedPercent = percent;
+        }
+    }
+
+    /**
+     * End the current session, if any, and keep it among the recent ones.
+     */
+    public synchronized void end(long now, boolean failed) {
+        if (current == null) {
+            return;
+        }
+        current.failed = failed;
+        stopStall(now);
+        stopPlaying(now);
+        if (recent.size() == RECENT_SESSIONS) {
+            recent.removeFirst();
+        }
+        recent.addLast(current.snapshot(now, false));
+        current = null;
+    }
+
+    /**
+     * The running session, or null between sessions.
+     */
+    public synchronized Snapshot current(long now) {
+        return current != null ? current.snapshot(now, true) : null;
+    }
+
+    /**
+     * Finished sessions, oldest first.
+     */
+    public synchronized List<Snapshot> recent() {
+        return new ArrayList<>(recent);
+    }
+
+    private void stopStall(long now) {
+        if (current.stallStartedAt >= 0) {
+            current.stallTimeMs += now - current.stallStartedAt;
+            current.stallStartedAt = -1;
+        }
+    }
+
+    private void stopPlaying(long now) {
+        if (current.playStartedAt >= 0) {
+            current.playTimeMs += now - current.playStartedAt;
+            current.playStartedAt = -1;
+        }
+    }
+}
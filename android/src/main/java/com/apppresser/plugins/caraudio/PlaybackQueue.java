@@ -0,0 +1,222 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The native play queue behind skip-next/previous, with shuffle and repeat.
+ *
+ * Entries keep the order they were set in; shuffle only changes the play
+ * order, so queue indexes published to the session stay stable. Turning
+ * shuffle on keeps the current entry playing and shuffles the rest after
+ * it. Repeat modes use the same values as PlaybackStateCompat's REPEAT_MODE
+ * constants. All methods are synchronized, since the session callbacks and
+ * plugin calls arrive on different threads.
+ */
+class PlaybackQueue {
+
+    public static final int REPEAT_NONE = 0;
+    public static final int REPEAT_ONE = 1;
+    public static final int REPEAT_ALL = 2;
+
+    /**
+     * One track in the queue.
+     */
+    public static final class Entry {
+        public final String mediaId;
+        public final String url;
+        public final String title;
+        public final String artist;
+        public final String album;
+        public final String artwork;
+        public final long duration;
+        // Tried in order when url fails to prepare
+        public final List<String> alternateUrls;
+
+        public Entry(String mediaId, String url, String title, String artist, String album, String artwork, long duration) {
+            this(mediaId, url, title, artist, album, artwork, duration, Collections.<String>emptyList());
+        }
+
+        public Entry(String mediaId, String url, String title, String artist, String album, String artwork, long duration,
+                     List<String> alternateUrls) {
+            this.mediaId = mediaId;
+            this.url = url;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.artwork = artwork;
+            this.duration = duration;
+            this.alternateUrls = alternateUrls;
+        }
+    }
+
+    private final Random random;
+    private List<Entry> entries = Collections.emptyList();
+    // Play order as indexes into entries; identity unless shuffled
+    private int[] order = new int[0];
+    private int position = -1;
+    private boolean shuffle = false;
+    private int repeatMode = REPEAT_NONE;
+
+    public PlaybackQueue() {
+        this(new Random());
+    }
+
+    PlaybackQueue(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Replace the queue and make startIndex the current entry; an empty list clears it.
+     */
+    public synchronized void set(List<Entry> newEntries, int startIndex) {
+        entries = Collections.unmodifiableList(new ArrayList<>(newEntries));
+        if (entries.isEmpty()) {
+            order = new int[0];
+            position = -1;
+            return;
+        }
+        int start = Math.max(0, Math.min(entries.size() - 1, startIndex));
+        buildOrder(start);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return entries;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized Entry current() {
+        return position >= 0 ? entries.get(order[position]) : null;
+    }
+
+    /**
+     * Index of the current entry in the order the queue was set, or -1.
+     */
+    public synchronized int getCurrentIndex() {
+        return position >= 0 ? order[position] : -1;
+    }
+
+    /**
+     * Entry that plays when the current one completes, honouring repeat; null at the end.
+     */
+    public synchronized Entry peekNext() {
+        int next = nextPosition(true);
+        return next >= 0 ? entries.get(order[next]) : null;
+    }
+
+    /**
+     * Move on after the current entry completed; repeat-one stays on the same entry.
+     */
+    public synchronized Entry advance() {
+        return moveTo(nextPosition(true));
+    }
+
+    /**
+     * Move on at the user's request; repeat-one does not hold a skip back.
+     */
+    public synchronized Entry skipToNext() {
+        return moveTo(nextPosition(false));
+    }
+
+    /**
+     * Step back one entry; the first entry stays current unless repeating all.
+     */
+    public synchronized Entry skipToPrevious() {
+        if (position < 0) {
+            return null;
+        }
+        if (position > 0) {
+            position--;
+        } else if (repeatMode == REPEAT_ALL) {
+            position = order.length - 1;
+        }
+        return current();
+    }
+
+    /**
+     * Make the entry at index current, keeping the play order; null if out of range.
+     */
+    public synchronized Entry skipTo(int index) {
+        if (index < 0 || index >= entries.size()) {
+            return null;
+        }
+        for (int i = 0; i < order.length; i++) {
+            if (order[i] == index) {
+                position = i;
+                break;
+            }
+        }
+        return current();
+    }
+
+    public synchronized boolean isShuffle() {
+        return shuffle;
+    }
+
+    public synchronized void setShuffle(boolean enabled) {
+        if (shuffle == enabled) {
+            return;
+        }
+        shuffle = enabled;
+        if (position >= 0) {
+            buildOrder(order[position]);
+        }
+    }
+
+    public synchronized int getRepeatMode() {
+        return repeatMode;
+    }
+
+    public synchronized void setRepeatMode(int mode) {
+        repeatMode = mode == REPEAT_ONE || mode == REPEAT_ALL ? mode : REPEAT_NONE;
+    }
+
+    private Entry moveTo(int next) {
+        if (next < 0) {
+            return null;
+        }
+        position = next;
+        return current();
+    }
+
+    private int nextPosition(boolean completed) {
+        if (position < 0) {
+            return -1;
+        }
+        if (completed && repeatMode == REPEAT_ONE) {
+            return position;
+        }
+        if (position + 1 < order.length) {
+            return position + 1;
+        }
+        return repeatMode == REPEAT_ALL ? 0 : -1;
+    }
+
+    // Rebuild the play order with the entry at currentIndex as the current position
+    private void buildOrder(int currentIndex) {
+        int size = entries.size();
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        if (!shuffle) {
+            position = currentIndex;
+            return;
+        }
+        // Current entry first, the rest Fisher-Yates shuffled after it
+        order[currentIndex] = 0;
+        order[0] = currentIndex;
+        for (int i = size - 1; i > 1; i--) {
+            int j = 1 + random.nextInt(i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        position = 0;
+    }
+}
@@ -0,0 +1,221 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CarAudio's playback state, changed only through a declared transition table.
+ *
+ * The state and a generation number are packed into one AtomicLong, so a
+ * reader on any thread sees a consistent pair and a transition is a single
+ * compare-and-set. begin() starts a new generation for each new track;
+ * callbacks capture the generation they were scheduled under and pass it
+ * back, so a late onPrepared or timeout from an earlier URL is dropped
+ * instead of moving the current track. Illegal transitions are rejected and
+ * leave the state as it was; callers check the result before touching the player.
+ *
+ * Every attempt, accepted or not, goes into a small ring buffer that
+ * dumpLog() copies out, for diagnosing states that get stuck. Rejections are
+ * also written through Trace, which goes to Logcat on a device.
+ */
+class PlaybackStateMachine {
+
+    private static final String TAG = "PlaybackState";
+    private static final int LOG_CAPACITY = 64;
+
+    enum State {
+        IDLE, PREPARING, PREPARED, PLAYING, PAUSED, STOPPED, ERROR
+    }
+
+    // Legal targets from each state within one track, following MediaPlayer's lifecycle: a track
+    // is prepared once, then plays and pauses until it stops, completes or fails, and release()
+    // takes any state back to IDLE.
+    private static final Map<State, EnumSet<State>> TRANSITIONS = new EnumMap<>(State.class);
+
+    // States a new track may begin in from each state. Any track can be replaced by one that
+    // prepares, or by a player that was prepared ahead (the gapless slot or the pool); only a
+    // playing track can hand over to its chained successor, which is already playing.
+    private static final Map<State, EnumSet<State>> BEGINS = new EnumMap<>(State.class);
+
+    static {
+        TRANSITIONS.put(State.IDLE, EnumSet.noneOf(State.class));
+        TRANSITIONS.put(State.PREPARING, EnumSet.of(State.IDLE, State.PREPARED, State.STOPPED, State.ERROR));
+        TRANSITIONS.put(State.PREPARED, EnumSet.of(State.IDLE, State.PLAYING, State.STOPPED, State.ERROR));
+        TRANSITIONS.put(State.PLAYING, EnumSet.of(State.IDLE, State.PAUSED, State.STOPPED, State.ERROR));
+        TRANSITIONS.put(State.PAUSED, EnumSet.of(State.IDLE, State.PLAYING, State.STOPPED, State.ERROR));
+        TRANSITIONS.put(State.STOPPED, EnumSet.of(State.IDLE));
+        TRANSITIONS.put(State.ERROR, EnumSet.of(State.IDLE));
+
+        for (State from : State.values()) {
+            BEGINS.put(from, EnumSet.of(State.PREPARING, State.PREPARED));
+        }
+        BEGINS.get(State.PLAYING).add(State.PLAYING);
+    }
+
+    private static final State[] STATES = State.values();
+
+    /**
+     * One logged transition attempt, copied out by dumpLog().
+     */
+    static final class Transition {
+        final long timeMillis;
+        final long generation;
+        final State from;
+        final State to;
+        final String reason;
+        final boolean accepted;
+
+        Transition(long timeMillis, long generation, State from, State to, String reason, boolean accepted) {
+            this.timeMillis = timeMillis;
+            this.generation = generation;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+            this.accepted = accepted;
+        }
+    }
+
+    // generation << 8 | state ordinal
+    private final AtomicLong packed = new AtomicLong(State.IDLE.ordinal());
+
+    // Ring buffer as parallel arrays, like Trace
+    private final long[] logTimes = new long[LOG_CAPACITY];
+    private final long[] logGenerations = new long[LOG_CAPACITY];
+    private final byte[] logFrom = new byte[LOG_CAPACITY];
+    private final byte[] logTo = new byte[LOG_CAPACITY];
+    private final String[] logReasons = new String[LOG_CAPACITY];
+    private final boolean[] logAccepted = new boolean[LOG_CAPACITY];
+    private long logWritten = 0;
+
+    static boolean isLegal(State from, State to) {
+        return TRANSITIONS.get(from).contains(to);
+    }
+
+    static boolean canBegin(State from, State to) {
+        return BEGINS.get(from).contains(to);
+    }
+
+    public State get() {
+        return stateOf(packed.get());
+    }
+
+    public long generation() {
+        return generationOf(packed.get());
+    }
+
+    public boolean is(State state) {
+        return get() == state;
+    }
+
+    /**
+     * Whether generation is still the current one, i.e. no new track has begun since.
+     */
+    public boolean isCurrent(long generation) {
+        return generationOf(packed.get()) == generation;
+    }
+
+    /**
+     * Start a new track's generation in state to. Returns the new generation, or -1 if no track may begin there.
+     */
+    public long begin(State to, String reason) {
+        while (true) {
+            long current = packed.get();
+            State from = stateOf(current);
+            long generation = generationOf(current);
+            if (!canBegin(from, to)) {
+                reject(generation, from, to, reason);
+                return -1;
+            }
+            if (packed.compareAndSet(current, pack(generation + 1, to))) {
+                log(generation + 1, from, to, reason, true);
+                return generation + 1;
+            }
+        }
+    }
+
+    /**
+     * Move to state to within the current generation, whatever it is; for commands such as pause and stop.
+     */
+    public boolean transition(State to, String reason) {
+        return transition(-1, to, reason);
+    }
+
+    /**
+     * Move to state to if generation is still current (any generation when -1) and the table allows it.
+     */
+    public boolean transition(long generation, State to, String reason) {
+        while (true) {
+            long current = packed.get();
+            State from = stateOf(current);
+            long currentGeneration = generationOf(current);
+            if (generation >= 0 && generation != currentGeneration) {
+                // A callback for a track that has since been replaced
+                log(generation, from, to, reason + " (stale)", false);
+                Trace.d(TAG, "stale", reason, generation);
+                return false;
+            }
+            if (!isLegal(from, to)) {
+                reject(currentGeneration, from, to, reason);
+                return false;
+            }
+            if (packed.compareAndSet(current, pack(currentGeneration, to))) {
+                log(currentGeneration, from, to, reason, true);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copy out the logged transitions, oldest first.
+     */
+    public List<Transition> dumpLog() {
+        synchronized (logTimes) {
+            int count = (int) Math.min(logWritten, LOG_CAPACITY);
+            List<Transition> transitions = new ArrayList<>(count);
+            for (long n = logWritten - count; n < logWritten; n++) {
+                int slot = (int) (n % LOG_CAPACITY);
+                transitions.add(new Transition(logTimes[slot], logGenerations[slot], STATES[logFrom[slot]],
+                    STATES[logTo[slot]], logReasons[slot], logAccepted[slot]));
+            }
+            return transitions;
+        }
+    }
+
+    private void reject(long generation, State from, State to, String reason) {
+        // The log below keeps the rejected attempt; dumpLog() is where to look for it
+        Trace.i(TAG, "illegalTransition", reason, generation);
+        log(generation, from, to, reason, false);
+    }
+
+    private void log(long generation, State from, State to, String reason, boolean accepted) {
+        synchronized (logTimes) {
+            int slot = (int) (logWritten % LOG_CAPACITY);
+            logTimes[slot] = System.currentTimeMillis();
+            logGenerations[slot] = generation;
+            logFrom[slot] = (byte) from.ordinal();
+            logTo[slot] = (byte) to.ordinal();
+            logReasons[slot] = reason;
+            logAccepted[slot] = accepted;
+            logWritten++;
+        }
+        if (accepted) {
+            Trace.d(TAG, to.name(), reason, generation);
+        }
+    }
+
+    private static long pack(long generation, State state) {
+        return (generation << 8) | state.ordinal();
+    }
+
+    private static State stateOf(long packed) {
+        return STATES[(int) (packed & 0xff)];
+    }
+
+    private static long generationOf(long packed) {
+        return packed >>> 8;
+    }
+}
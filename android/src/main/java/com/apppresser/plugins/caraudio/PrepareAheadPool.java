@@ -0,0 +1,155 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Players prepared speculatively for URLs the user is likely to pick next,
+ * so a selection that hits the pool starts without the connect and prepare.
+ *
+ * Entries are kept in access order and the least recently used is released
+ * first once the pool is over either cap. The memory cap is enforced with a
+ * fixed per-player estimate, since a player's real buffer size can't be
+ * measured. A pool with maxPlayers of 0 is disabled and holds nothing.
+ * Methods are synchronized; players are released through the Releaser, on
+ * whichever thread caused the eviction.
+ */
+class PrepareAheadPool<P> {
+
+    interface Releaser<P> {
+        void release(P player);
+    }
+
+    /**
+     * A pooled player, handed over by take() together with whether it finished preparing.
+     */
+    static final class Entry<P> {
+        final P player;
+        boolean prepared;
+
+        Entry(P player) {
+            this.player = player;
+        }
+    }
+
+    private final Releaser<P> releaser;
+    private final long bytesPerPlayer;
+    private final LinkedHashMap<String, Entry<P>> entries = new LinkedHashMap<>(8, 0.75f, true);
+    private int maxPlayers = 0;
+    private long maxBytes = Long.MAX_VALUE;
+
+    PrepareAheadPool(Releaser<P> releaser, long bytesPerPlayer) {
+        this.releaser = releaser;
+        this.bytesPerPlayer = Math.max(1, bytesPerPlayer);
+    }
+
+    /**
+     * Set the caps and release whatever no longer fits; maxPlayers of 0 disables the pool.
+     */
+    public synchronized void setLimits(int maxPlayers, long maxBytes) {
+        this.maxPlayers = Math.max(0, maxPlayers);
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        evictTo(capacity());
+    }
+
+    /**
+     * How many players may be held at once under both caps.
+     */
+    public synchronized int capacity() {
+        return (int) Math.min(maxPlayers, maxBytes / bytesPerPlayer);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether url is pooled; a hit also marks it as recently used.
+     */
+    public synchronized boolean touch(String url) {
+        return entries.get(url) != null;
+    }
+
+    /**
+     * Add a player whose prepare has been started, evicting the least recently used if full.
+     * Returns false, without taking the player, when the pool is disabled.
+     */
+    public synchronized boolean put(String url, P player) {
+        int capacity = capacity();
+        if (capacity == 0) {
+            return false;
+        }
+        Entry<P> replaced = entries.remove(url);
+        if (replaced != null) {
+            releaser.release(replaced.player);
+        }
+        evictTo(capacity - 1);
+        entries.put(url, new Entry<>(player));
+        return true;
+    }
+
+    /**
+     * Remove and return the entry for url, or null on a miss; the caller owns the player.
+     */
+    public synchronized Entry<P> take(String url) {
+        return url != null ? entries.remove(url) : null;
+    }
+
+    /**
+     * Record that a pooled player finished preparing; false if it is not pooled.
+     */
+    public synchronized boolean markPrepared(P player) {
+        Entry<P> entry = find(player);
+        if (entry == null) {
+            return false;
+        }
+        entry.prepared = true;
+        return true;
+    }
+
+    /**
+     * Drop and release a pooled player, e.g. after it failed; false if it is not pooled.
+     */
+    public synchronized boolean discard(P player) {
+        for (Iterator<Entry<P>> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry<P> entry = it.next();
+            if (entry.player == player) {
+                it.remove();
+                releaser.release(player);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release least recently used players until at most count remain.
+     */
+    public synchronized void trimTo(int count) {
+        evictTo(count);
+    }
+
+    public synchronized void clear() {
+        evictTo(0);
+    }
+
+    // Linear, but the pool holds a handful of players at most
+    private Entry<P> find(P player) {
+        for (Entry<P> entry : entries.values()) {
+            if (entry.player == player) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void evictTo(int count) {
+        Iterator<Map.Entry<String, Entry<P>>> it = entries.entrySet().iterator();
+        while (entries.size() > Math.max(0, count) && it.hasNext()) {
+            Entry<P> eldest = it.next().getValue();
+            it.remove();
+            releaser.release(eldest.player);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides how long a prepare may take, when a failed one is retried and which
+ * hosts are not worth trying at all.
+ *
+ * Timeouts follow measured prepare latency per host, the way TCP derives its
+ * retransmission timeout: a smoothed mean plus four mean deviations, clamped,
+ * and doubled for each retry of the same URL. Hosts without samples use the
+ * estimate across all hosts, or a default before anything was measured.
+ *
+ * Each host also has a circuit breaker. After CIRCUIT_FAILURES consecutive
+ * failures it opens and checkHost() refuses the host, so a dead CDN edge
+ * fails at once instead of after a timeout. Once the open period has passed
+ * one trial is let through; success closes the breaker, failure opens it again
+ * for twice as long.
+ *
+ * Times are passed in by the caller (elapsedRealtime on the device), which keeps this class free of Android.
+ */
+class RetryPolicy {
+
+    static final long DEFAULT_TIMEOUT_MS = 15000;
+    static final long MIN_TIMEOUT_MS = 4000;
+    static final long MAX_TIMEOUT_MS = 30000;
+    static final long BASE_BACKOFF_MS = 500;
+    static final long MAX_BACKOFF_MS = 8000;
+    static final int CIRCUIT_FAILURES = 3;
+    static final long CIRCUIT_OPEN_MS = 30000;
+    static final long MAX_CIRCUIT_OPEN_MS = 5 * 60 * 1000;
+    private static final int MAX_HOSTS = 32;
+
+    /**
+     * Latency estimate and breaker state for one host.
+     */
+    static final class HostStats {
+        // Smoothed latency and mean deviation; negative until the first sample
+        long smoothed = -1;
+        long deviation;
+        int consecutiveFailures;
+        long openUntil;
+        long openDuration = CIRCUIT_OPEN_MS;
+        boolean trialInFlight;
+    }
+
+    private final Random random;
+    private final HostStats overall = new HostStats();
+    private final LinkedHashMap<String, HostStats> hosts = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxAttempts = 3;
+
+    RetryPolicy() {
+        this(new Random());
+    }
+
+    // Tests pass a seeded Random so backoff jitter is repeatable
+    RetryPolicy(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Attempts per URL, including the first; 1 disables retries.
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public synchronized int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Prepare timeout for attempt (1-based) against url's host.
+     */
+    public synchronized long prepareTimeout(String url, int attempt) {
+        HostStats stats = statsFor(hostOf(url), false);
+        HostStats source = stats != null && stats.smoothed >= 0 ? stats : overall;
+        long timeout = source.smoothed >= 0 ? source.smoothed + 4 * source.deviation : DEFAULT_TIMEOUT_MS;
+        timeout = Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+        // Each retry gets twice as long, in case the estimate was simply too tight
+        for (int i = 1; i < attempt && timeout < MAX_TIMEOUT_MS; i++) {
+            timeout = Math.min(MAX_TIMEOUT_MS, timeout * 2);
+        }
+        return timeout;
+    }
+
+    /**
+     * Delay before retry number attempt (2 for the first retry): exponential with up to 50% jitter.
+     */
+    public synchronized long backoff(int attempt) {
+        long delay = BASE_BACKOFF_MS;
+        for (int i = 2; i < attempt && delay < MAX_BACKOFF_MS; i++) {
+            delay = Math.min(MAX_BACKOFF_MS, delay * 2);
+        }
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    /**
+     * Whether url's host may be tried now. While a breaker is half-open only one caller gets true.
+     */
+    public synchronized boolean checkHost(String url, long now) {
+        HostStats stats = statsFor(hostOf(url), false);
+        if (stats == null || stats.openUntil == 0) {
+            return true;
+        }
+        if (now < stats.openUntil) {
+            return false;
+        }
+        // Hold everyone else off for as long as the trial can take, in case its outcome is never reported
+        stats.trialInFlight = true;
+        stats.openUntil = now + MAX_TIMEOUT_MS;
+        return true;
+    }
+
+    /**
+     * Milliseconds until url's host may be tried again, 0 if it may be tried now.
+     */
+    public synchronized long retryAfter(String url, long now) {
+        HostStats stats = statsFor(hostOf(url), false);
+        return stats != null && stats.openUntil > now ? stats.openUntil - now : 0;
+    }
+
+    public synchronized void recordSuccess(String url, long latencyMs) {
+        HostStats stats = statsFor(hostOf(url), true);
+        if (stats != null) {
+            sample(stats, latencyMs);
+            stats.consecutiveFailures = 0;
+            stats.openUntil = 0;
+            stats.openDuration = CIRCUIT_OPEN_MS;
+            stats.trialInFlight = false;
+        }
+        sample(overall, latencyMs);
+    }
+
+    /**
+     * Count a failed prepare; returns true if this opened the host's breaker.
+     */
+    public synchronized boolean recordFailure(String url, long now) {
+        HostStats stats = statsFor(hostOf(url), true);
+        if (stats == null) {
+            return false;
+        }
+        stats.consecutiveFailures++;
+        if (stats.trialInFlight) {
+            // The half-open trial failed; stay away for longer this time
+            stats.trialInFlight = false;
+            stats.openDuration = Math.min(MAX_CIRCUIT_OPEN_MS, stats.openDuration * 2);
+            stats.openUntil = now + stats.openDuration;
+            return true;
+        }
+        if (stats.openUntil == 0 && stats.consecutiveFailures >= CIRCUIT_FAILURES) {
+            stats.openUntil = now + stats.openDuration;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget all measurements and close every breaker, e.g. after connectivity changes.
+     */
+    public synchronized void reset() {
+        hosts.clear();
+        overall.smoothed = -1;
+        overall.deviation = 0;
+    }
+
+    // RFC 6298 smoothing: gains of 1/8 for the mean and 1/4 for the deviation
+    private static void sample(HostStats stats, long latencyMs) {
+        if (stats.smoothed < 0) {
+            stats.smoothed = latencyMs;
+            stats.deviation = latencyMs / 2;
+        } else {
+            stats.deviation += (Math.abs(stats.smoothed - latencyMs) - stats.deviation) / 4;
+            stats.smoothed += (latencyMs - stats.smoothed) / 8;
+        }
+    }
+
+    private HostStats statsFor(String host, boolean create) {
+        if (host == null) {
+            return null;
+        }
+        HostStats stats = hosts.get(host);
+        if (stats == null && create) {
+            stats = new HostStats();
+            hosts.put(host, stats);
+            if (hosts.size() > MAX_HOSTS) {
+                Map.Entry<String, HostStats> eldest = hosts.entrySet().iterator().next();
+                hosts.remove(eldest.getKey());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Lower-cased host of an http(s) URL, or null for anything else (files, content URIs).
+     */
+    static String hostOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        int scheme = url.indexOf("://");
+        if (scheme < 0 || !url.regionMatches(true, 0, "http", 0, 4)) {
+            return null;
+        }
+        int start = scheme + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String authority = url.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            authority = authority.substring(at + 1);
+        }
+        return authority.isEmpty() ? null : authority.toLowerCase();
+    }
+}
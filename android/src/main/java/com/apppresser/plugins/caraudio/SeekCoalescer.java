@@ -0,0 +1,71 @@
+package com.apppresser.plugins.caraudio;
+
+/**
+ * Coalesces the seeks of one track while a seek is running on the player.
+ *
+ * Scrubbing sends many targets, but only one seek runs at a time. A target
+ * requested meanwhile replaces any earlier one and is handed out when the
+ * running seek completes, so the player only ever seeks to the latest.
+ * Seeks belong to the track generation they started in; a new track ends
+ * them. Not synchronized: CarAudio uses it on its playback thread only.
+ */
+class SeekCoalescer {
+
+    /**
+     * A seek to start on the player.
+     */
+    static final class Seek {
+        final long positionMs;
+        final boolean precise;
+
+        Seek(long positionMs, boolean precise) {
+            this.positionMs = positionMs;
+            this.precise = precise;
+        }
+    }
+
+    private boolean seeking;
+    private long generation;
+    private Seek pending;
+
+    /**
+     * Clamp a requested position to the track, when its duration is known (positive).
+     */
+    static long clamp(long positionMs, long durationMs) {
+        long target = Math.max(0, positionMs);
+        return durationMs > 0 ? Math.min(target, durationMs) : target;
+    }
+
+    /**
+     * Request a seek of the track in generation. Returns true if the caller should start it now,
+     * false if it waits for the running seek to complete.
+     */
+    public boolean request(long positionMs, boolean precise, long generation) {
+        if (isSeeking(generation)) {
+            pending = new Seek(positionMs, precise);
+            return false;
+        }
+        seeking = true;
+        this.generation = generation;
+        pending = null;
+        return true;
+    }
+
+    /**
+     * Whether a seek of the track in generation is running.
+     */
+    public boolean isSeeking(long generation) {
+        return seeking && this.generation == generation;
+    }
+
+    /**
+     * The running seek completed. Returns the latest target requested meanwhile, which is now
+     * running, or null when seeking is done.
+     */
+    public Seek complete() {
+        Seek next = pending;
+        pending = null;
+        seeking = next != null;
+        return next;
+    }
+}
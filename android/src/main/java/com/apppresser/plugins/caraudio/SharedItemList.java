@@ -0,0 +1,89 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable children of one parent in plain storage: the first size items
+ * of an array that later versions may share.
+ *
+ * Appending to the longest version writes into the spare capacity of the
+ * same array instead of copying it; older versions never read past their
+ * own size, so they do not see the new item. Appending to any other version
+ * copies, with room to grow. A run of single-item adds under one parent
+ * therefore costs amortized O(1) per add rather than a copy of its siblings.
+ */
+final class SharedItemList extends AbstractList<MediaItemData> implements RandomAccess {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private static final class Buffer {
+        final MediaItemData[] items;
+        // Length of the longest version; only that version may append in place
+        int used;
+
+        Buffer(MediaItemData[] items, int used) {
+            this.items = items;
+            this.used = used;
+        }
+    }
+
+    static final SharedItemList EMPTY = new SharedItemList(new Buffer(new MediaItemData[0], 0), 0);
+
+    private final Buffer buffer;
+    private final int size;
+
+    private SharedItemList(Buffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    static SharedItemList of(List<MediaItemData> items) {
+        MediaItemData[] array = items.toArray(new MediaItemData[0]);
+        return new SharedItemList(new Buffer(array, array.length), array.length);
+    }
+
+    /**
+     * This list with item added at the end; this list is unchanged.
+     */
+    SharedItemList append(MediaItemData item) {
+        // Two editors may start from the same version; only one of them gets the spare slot
+        synchronized (buffer) {
+            if (buffer.used == size && size < buffer.items.length) {
+                buffer.items[size] = item;
+                buffer.used++;
+                return new SharedItemList(buffer, size + 1);
+            }
+        }
+        MediaItemData[] items = new MediaItemData[Math.max(MIN_CAPACITY, size * 2)];
+        System.arraycopy(buffer.items, 0, items, 0, size);
+        items[size] = item;
+        return new SharedItemList(new Buffer(items, size + 1), size + 1);
+    }
+
+    /**
+     * Number of leading items two versions of a parent's children are known to share,
+     * without comparing them: the shorter length if one extends the other, otherwise 0.
+     */
+    static int sharedPrefix(List<MediaItemData> a, List<MediaItemData> b) {
+        if (a instanceof SharedItemList && b instanceof SharedItemList
+                && ((SharedItemList) a).buffer == ((SharedItemList) b).buffer) {
+            return Math.min(a.size(), b.size());
+        }
+        return 0;
+    }
+
+    @Override
+    public MediaItemData get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return buffer.items[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
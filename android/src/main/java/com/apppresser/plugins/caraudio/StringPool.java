@@ -0,0 +1,50 @@
+package com.apppresser.plugins.caraudio;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only table of distinct strings, referenced by int ID.
+ *
+ * Writers intern under the catalog's writer lock. Readers only resolve IDs
+ * that were interned before the snapshot they hold was published, so they
+ * never need the lock.
+ */
+final class StringPool {
+
+    static final int NULL_ID = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private volatile String[] values = new String[256];
+    private int size = 0;
+
+    /**
+     * Return the ID of an equal string already in the pool, adding it if needed.
+     */
+    int intern(String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = value;
+        values = current;
+        ids.put(value, size);
+        return size++;
+    }
+
+    String get(int id) {
+        return id == NULL_ID ? null : values[id];
+    }
+
+    int size() {
+        return size;
+    }
+}
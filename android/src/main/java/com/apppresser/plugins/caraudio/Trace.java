@@ -0,0 +1,211 @@
+package com.apppresser.plugins.caraudio;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Level-gated tracing for the plugin's hot paths.
+ *
+ * Calls below the current level return after one volatile read and allocate
+ * nothing, as long as callers pass values rather than concatenated strings.
+ * Enabled events are recorded into a fixed-size ring buffer that dump()
+ * copies out on demand, and are echoed to Logcat only if asked to. Errors
+ * and warnings still go straight to Log.e and Log.w.
+ */
+public final class Trace {
+
+    public static final int OFF = 0;
+    public static final int INFO = 1;
+    public static final int DEBUG = 2;
+
+    /** Marks an event recorded without a numeric value. */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final int CAPACITY = 512;
+
+    /**
+     * One recorded event, copied out of the ring buffer by dump().
+     */
+    public static final class Event {
+        public final long timeNanos;
+        public final int level;
+        public final String tag;
+        public final String name;
+        public final String detail;
+        public final long value;
+
+        Event(long timeNanos, int level, String tag, String name, String detail, long value) {
+            this.timeNanos = timeNanos;
+            this.level = level;
+            this.tag = tag;
+            this.name = name;
+            this.detail = detail;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name);
+            if (detail != null) {
+                text.append(' ').append(detail);
+            }
+            if (value != NO_VALUE) {
+                text.append(' ').append(value);
+            }
+            return text.toString();
+        }
+    }
+
+    private static volatile int level = OFF;
+    private static volatile boolean logcat = false;
+
+    // Ring buffer as parallel arrays, so recording allocates nothing
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] levels = new int[CAPACITY];
+    private static final String[] tags = new String[CAPACITY];
+    private static final String[] names = new String[CAPACITY];
+    private static final String[] details = new String[CAPACITY];
+    private static final long[] values = new long[CAPACITY];
+    private static long written = 0;
+
+    private Trace() {
+    }
+
+    public static void setLevel(int newLevel) {
+        level = Math.max(OFF, Math.min(DEBUG, newLevel));
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * Also print enabled events to Logcat, for development builds.
+     */
+    public static void setLogcat(boolean enabled) {
+        logcat = enabled;
+    }
+
+    /**
+     * Whether events at DEBUG are recorded; guard any call whose arguments cost something to build.
+     */
+    public static boolean debug() {
+        return level >= DEBUG;
+    }
+
+    public static void d(String tag, String name) {
+        if (level >= DEBUG) {
+            record(DEBUG, tag, name, null, NO_VALUE);
+        }
+    }
+
+    public static void d(String tag, String name, String detail) {
+        if (level >= DEBUG) {
+            record(DEBUG, tag, name, detail, NO_VALUE);
+        }
+    }
+
+    public static void d(String tag, String name, long value) {
+        if (level >= DEBUG) {
+            record(DEBUG, tag, name, null, value);
+        }
+    }
+
+    public static void d(String tag, String name, String detail, long value) {
+        if (level >= DEBUG) {
+            record(DEBUG, tag, name, detail, value);
+        }
+    }
+
+    public static void i(String tag, String name) {
+        if (level >= INFO) {
+            record(INFO, tag, name, null, NO_VALUE);
+        }
+    }
+
+    public static void i(String tag, String name, String detail) {
+        if (level >= INFO) {
+            record(INFO, tag, name, detail, NO_VALUE);
+        }
+    }
+
+    public static void i(String tag, String name, long value) {
+        if (level >= INFO) {
+            record(INFO, tag, name, null, value);
+        }
+    }
+
+    public static void i(String tag, String name, String detail, long value) {
+        if (level >= INFO) {
+            record(INFO, tag, name, detail, value);
+        }
+    }
+
+    private static void record(int eventLevel, String tag, String name, String detail, long value) {
+        synchronized (times) {
+            int slot = (int) (written % CAPACITY);
+            times[slot] = System.nanoTime();
+            levels[slot] = eventLevel;
+            tags[slot] = tag;
+            names[slot] = name;
+            details[slot] = detail;
+            values[slot] = value;
+            written++;
+        }
+        if (logcat) {
+            Event event = new Event(0, eventLevel, tag, name, detail, value);
+            Log.println(eventLevel == INFO ? Log.INFO : Log.DEBUG, tag, event.toString());
+        }
+    }
+
+    /**
+     * Copy out the recorded events, oldest first.
+     */
+    public static List<Event> dump() {
+        synchronized (times) {
+            int count = (int) Math.min(written, CAPACITY);
+            List<Event> events = new ArrayList<>(count);
+            for (long n = written - count; n < written; n++) {
+                int slot = (int) (n % CAPACITY);
+                events.add(new Event(times[slot], levels[slot], tags[slot], names[slot], details[slot], values[slot]));
+            }
+            return events;
+        }
+    }
+
+    public static void clear() {
+        synchronized (times) {
+            written = 0;
+            for (int slot = 0; slot < CAPACITY; slot++) {
+                tags[slot] = null;
+                names[slot] = null;
+                details[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Parse a level name from JavaScript; unknown names turn tracing off.
+     */
+    public static int parseLevel(String name) {
+        if ("debug".equalsIgnoreCase(name)) {
+            return DEBUG;
+        }
+        if ("info".equalsIgnoreCase(name)) {
+            return INFO;
+        }
+        return OFF;
+    }
+
+    public static String levelName(int level) {
+        switch (level) {
+            case DEBUG:
+                return "debug";
+            case INFO:
+                return "info";
+            default:
+                return "off";
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Test;
+
+public class AudioCacheTest {
+
+    private static File newDir() throws IOException {
+        return Files.createTempDirectory("audiocache").toFile();
+    }
+
+    private static void fill(AudioCache cache, AudioCache.Entry entry, long start, long end) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(entry.data, "rw")) {
+            file.seek(start);
+            file.write(new byte[(int) (end - start)]);
+        }
+        cache.addRange(entry, start, end);
+    }
+
+    @Test
+    public void ranges_mergeAndReportRuns() {
+        AudioCache.Ranges ranges = new AudioCache.Ranges();
+        ranges.add(100, 200);
+        ranges.add(300, 400);
+        assertEquals(2, ranges.count());
+        assertEquals(200, ranges.runEnd(150));
+        assertEquals(250, ranges.runEnd(250));
+
+        // Touching and overlapping ranges collapse into one
+        ranges.add(200, 300);
+        assertEquals(1, ranges.count());
+        assertEquals(400, ranges.runEnd(100));
+        ranges.add(50, 120);
+        assertEquals(350, ranges.total());
+        assertEquals(400, ranges.runEnd(50));
+    }
+
+    @Test
+    public void trim_evictsLeastRecentlyUsedButNotEntriesInUse() throws IOException {
+        AudioCache cache = new AudioCache(newDir(), 1000);
+
+        AudioCache.Entry a = cache.acquire("https://example.com/a.mp3");
+        cache.setInfo(a, 600, "audio/mpeg");
+        fill(cache, a, 0, 600);
+
+        // Both are held, so the cache may run over until one is released
+        AudioCache.Entry b = cache.acquire("https://example.com/b.mp3");
+        cache.setInfo(b, 600, "audio/mpeg");
+        fill(cache, b, 0, 600);
+        assertEquals(1200, cache.size());
+
+        cache.release(a);
+        assertEquals(600, cache.size());
+        assertFalse(a.data.exists());
+        assertTrue(b.data.exists());
+
+        AudioCache.Entry again = cache.acquire("https://example.com/b.mp3");
+        assertSame(b, again);
+        cache.release(again);
+        cache.release(b);
+        assertEquals(1, cache.count());
+        assertEquals(600, cache.size());
+    }
+
+    @Test
+    public void entries_surviveReopening() throws IOException {
+        File dir = newDir();
+        AudioCache cache = new AudioCache(dir, 1 << 20);
+        AudioCache.Entry entry = cache.acquire("https://example.com/a.mp3");
+        cache.setInfo(entry, 5000, "audio/ogg");
+        fill(cache, entry, 0, 1000);
+        fill(cache, entry, 3000, 4000);
+        cache.release(entry);
+
+        AudioCache reopened = new AudioCache(dir, 1 << 20);
+        assertEquals(2000, reopened.size());
+        AudioCache.Entry loaded = reopened.acquire("https://example.com/a.mp3");
+        assertEquals(5000, reopened.getLength(loaded));
+        assertEquals("audio/ogg", reopened.getContentType(loaded));
+        assertEquals(1000, reopened.cachedRunEnd(loaded, 0));
+        assertEquals(4000, reopened.cachedRunEnd(loaded, 3500));
+        assertEquals(2000, reopened.cachedRunEnd(loaded, 2000));
+        reopened.release(loaded);
+    }
+
+    @Test
+    public void changedLength_forgetsCachedRanges() throws IOException {
+        AudioCache cache = new AudioCache(newDir(), 1 << 20);
+        AudioCache.Entry entry = cache.acquire("https://example.com/a.mp3");
+        cache.setInfo(entry, 5000, "audio/mpeg");
+        fill(cache, entry, 0, 1000);
+
+        cache.setInfo(entry, 6000, "audio/mpeg");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.cachedRunEnd(entry, 0));
+
+        // Releasing an entry with nothing cached drops it
+        cache.release(entry);
+        assertEquals(0, cache.count());
+    }
+}
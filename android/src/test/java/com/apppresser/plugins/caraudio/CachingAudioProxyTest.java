@@ -0,0 +1,146 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingAudioProxyTest {
+
+    private static final int SIZE = 300 * 1024;
+
+    private final byte[] audio = new byte[SIZE];
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private HttpServer origin;
+    private CachingAudioProxy proxy;
+    private String originUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < SIZE; i++) {
+            audio[i] = (byte) (i * 31);
+        }
+        // Minimal origin that honours single byte ranges
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/track.mp3", exchange -> {
+            originRequests.incrementAndGet();
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = range != null ? Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-'))) : 0;
+            exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+            if (range != null) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+            }
+            exchange.sendResponseHeaders(range != null ? 206 : 200, SIZE - start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(audio, start, SIZE - start);
+            }
+        });
+        origin.start();
+        originUrl = "http://127.0.0.1:" + origin.getAddress().getPort() + "/track.mp3";
+
+        proxy = new CachingAudioProxy(new AudioCache(Files.createTempDirectory("proxycache").toFile(), 10 * 1024 * 1024));
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.stop();
+        origin.stop(0);
+    }
+
+    private static byte[] fetch(String url, String range, int expectedCode) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        assertEquals(expectedCode, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void proxyUrl_onlyRewritesHttpWhileRunning() {
+        assertTrue(proxy.proxyUrl(originUrl).startsWith("http://127.0.0.1:"));
+        assertEquals("file:///sdcard/a.mp3", proxy.proxyUrl("file:///sdcard/a.mp3"));
+        proxy.stop();
+        assertEquals(originUrl, proxy.proxyUrl(originUrl));
+    }
+
+    @Test
+    public void serves_recognizesOnlyItsOwnUrls() throws IOException {
+        String url = proxy.proxyUrl(originUrl);
+        assertTrue(proxy.serves(url));
+        assertFalse(proxy.serves(originUrl));
+        assertFalse(proxy.serves(null));
+
+        CachingAudioProxy other = new CachingAudioProxy(new AudioCache(Files.createTempDirectory("othercache").toFile(), 1024));
+        other.start();
+        try {
+            assertFalse(other.serves(url));
+        } finally {
+            other.stop();
+        }
+    }
+
+    @Test
+    public void replay_isServedFromDisk() throws IOException {
+        String url = proxy.proxyUrl(originUrl);
+
+        assertArrayEquals(audio, fetch(url, null, 200));
+        assertEquals(1, originRequests.get());
+        assertEquals(SIZE, proxy.getCache().size());
+        assertEquals(1, proxy.originFetchCount(originUrl));
+
+        // Whole replays and seeks back no longer reach the origin
+        assertArrayEquals(audio, fetch(url, null, 200));
+        assertArrayEquals(Arrays.copyOfRange(audio, 1000, 2000), fetch(url, "bytes=1000-1999", 206));
+        assertArrayEquals(Arrays.copyOfRange(audio, SIZE - 500, SIZE), fetch(url, "bytes=-500", 206));
+        assertEquals(1, originRequests.get());
+        // so a prepare of a cached track does not look like an origin round trip
+        assertEquals(1, proxy.originFetchCount(originUrl));
+    }
+
+    @Test
+    public void seekAhead_fetchesOnlyTheMissingRange() throws IOException {
+        String url = proxy.proxyUrl(originUrl);
+
+        assertArrayEquals(Arrays.copyOfRange(audio, 200000, SIZE), fetch(url, "bytes=200000-", 206));
+        assertEquals(SIZE - 200000, proxy.getCache().size());
+
+        // The start is fetched from the origin and the cached tail is still correct
+        assertArrayEquals(audio, fetch(url, "bytes=0-", 206));
+        assertEquals(2, originRequests.get());
+        assertEquals(2, proxy.originFetchCount(originUrl));
+        assertEquals(SIZE, proxy.getCache().size());
+    }
+
+    @Test
+    public void unknownPath_isRejected() throws IOException {
+        String url = proxy.proxyUrl(originUrl);
+        String forged = url.substring(0, url.lastIndexOf('/') + 1) + "0000";
+        HttpURLConnection connection = (HttpURLConnection) new URL(forged).openConnection();
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+    }
+}
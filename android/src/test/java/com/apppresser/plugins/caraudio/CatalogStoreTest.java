@@ -0,0 +1,144 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CatalogStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(Files.createTempDirectory("catalogstore").toFile(), "catalog.bin");
+    }
+
+    private static List<MediaItemData> sampleItems() {
+        List<MediaItemData> items = new ArrayList<>();
+        items.add(new MediaItemData("media_root_id", "artist", "Artist", "12 albums", null, true, null, null));
+        items.add(new MediaItemData("artist", "album", "Album", "", "", true, "", "https://example.com/cover.jpg"));
+        items.add(new MediaItemData("album", "t1", "Déjà vu", "Artist", "Album", false, "https://example.com/t1.mp3", ""));
+        items.add(new MediaItemData("album", "t2", "", "Artist", "Album", false, "https://example.com/t2.mp3", ""));
+        return items;
+    }
+
+    private static MediaCatalog restore(CatalogStore.Loaded loaded) {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(loaded.items, loaded.contentHash);
+        return catalog;
+    }
+
+    private void saveSample() throws IOException {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(sampleItems(), null);
+        new CatalogStore(file).save(catalog.snapshot());
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            raf.writeInt(value);
+        }
+    }
+
+    @Test
+    public void saveThenLoad_restoresTreeAndHash() throws IOException {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(sampleItems(), null);
+        new CatalogStore(file).save(catalog.snapshot());
+
+        CatalogStore.Loaded loaded = new CatalogStore(file).load();
+        assertNotNull(loaded);
+        assertEquals(4, loaded.items.size());
+        assertEquals(catalog.snapshot().getContentHash(), loaded.contentHash);
+
+        MediaCatalog restored = restore(loaded);
+        for (String parentId : catalog.snapshot().getParentIds()) {
+            assertEquals(catalog.getChildren(parentId), restored.getChildren(parentId));
+        }
+        assertEquals(catalog.getParentCount(), restored.getParentCount());
+        assertNull(restored.find("artist").url);
+        assertEquals("Déjà vu", restored.find("t1").title);
+    }
+
+    @Test
+    public void load_withoutUsableFileReturnsNull() throws IOException {
+        assertNull(new CatalogStore(file).load());
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x12345678);
+            out.writeInt(1);
+        }
+        assertNull(new CatalogStore(file).load());
+    }
+
+    @Test
+    public void load_ofTruncatedFileThrowsIOException() throws IOException {
+        saveSample();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        try {
+            new CatalogStore(file).load();
+            fail("truncated file loaded");
+        } catch (IOException expected) {
+            // Reported as a bad file, not as a runtime failure of the restore
+        }
+    }
+
+    @Test
+    public void load_ofCorruptLengthsThrowsIOExceptionWithoutAllocatingThem() throws IOException {
+        // Right after magic and version comes the hash's length prefix
+        for (int length : new int[] {Integer.MAX_VALUE, -7}) {
+            saveSample();
+            overwriteInt(8, length);
+            try {
+                new CatalogStore(file).load();
+                fail("corrupt string length " + length + " loaded");
+            } catch (IOException expected) {
+                // No OutOfMemoryError or NegativeArraySizeException
+            }
+        }
+
+        // A parent count far beyond what the file could hold
+        saveSample();
+        int hashLength;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(8);
+            hashLength = raf.readInt();
+        }
+        overwriteInt(8 + 4 + hashLength, Integer.MAX_VALUE);
+        try {
+            new CatalogStore(file).load();
+            fail("corrupt parent count loaded");
+        } catch (IOException expected) {
+            // Rejected before any parent is read
+        }
+    }
+
+    @Test
+    public void discard_deletesTheFileAndForgetsTheLastSave() throws IOException {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(sampleItems(), null);
+        CatalogStore store = new CatalogStore(file);
+        store.save(catalog.snapshot());
+        assertTrue(file.exists());
+
+        store.discard();
+        assertFalse(file.exists());
+        assertNull(store.load());
+
+        // The same snapshot is written again rather than skipped as already saved
+        store.save(catalog.snapshot());
+        assertTrue(file.exists());
+    }
+}
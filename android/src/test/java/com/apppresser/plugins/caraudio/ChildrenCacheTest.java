@@ -0,0 +1,144 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class ChildrenCacheTest {
+
+    private final List<String> built = new ArrayList<>();
+    private final ChildrenCache<String> cache = new ChildrenCache<>(item -> {
+        built.add(item.mediaId);
+        return "built:" + item.mediaId;
+    }, 256 * 1024);
+
+    private static MediaItemData track(String parentId, String mediaId) {
+        return new MediaItemData(parentId, mediaId, "Title " + mediaId, "Artist", "Album", false, "https://example.com/" + mediaId + ".mp3", "");
+    }
+
+    @Test
+    public void get_buildsOnceForTheSameSourceList() {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.add(track("album", "t1"));
+        catalog.add(track("album", "t2"));
+
+        ChildrenCache.Children<String> first = cache.get("album", catalog.getChildren("album"));
+        assertEquals(Arrays.asList("built:t1", "built:t2"), first.items);
+        assertSame(first, cache.get("album", catalog.getChildren("album")));
+        assertEquals(2, built.size());
+
+        // An edit under another parent leaves this parent's list, and its built items, alone
+        catalog.add(track("other", "t3"));
+        assertSame(first, cache.get("album", catalog.getChildren("album")));
+        assertEquals(2, built.size());
+    }
+
+    @Test
+    public void get_rebuildsWhenTheSourceListChanges() {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.add(track("album", "t1"));
+        MediaCatalog.Snapshot before = catalog.snapshot();
+        ChildrenCache.Children<String> first = cache.get("album", before.getChildren("album"));
+
+        // Even without an invalidation, a different list is never served the old items
+        catalog.add(track("album", "t2"));
+        ChildrenCache.Children<String> second = cache.get("album", catalog.getChildren("album"));
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList("built:t1", "built:t2"), second.items);
+
+        // A browse of the older snapshot gets items for that snapshot
+        assertEquals(Arrays.asList("built:t1"), cache.get("album", before.getChildren("album")).items);
+    }
+
+    @Test
+    public void invalidate_dropsOnlyTheNamedParents() {
+        List<MediaItemData> album = Arrays.asList(track("album", "t1"));
+        List<MediaItemData> other = Arrays.asList(track("other", "t2"));
+        ChildrenCache.Children<String> albumChildren = cache.get("album", album);
+        ChildrenCache.Children<String> otherChildren = cache.get("other", other);
+
+        cache.invalidate("album");
+        assertNotSame(albumChildren, cache.get("album", album));
+        assertSame(otherChildren, cache.get("other", other));
+
+        cache.invalidate(Arrays.asList("album", "other"));
+        assertNotSame(otherChildren, cache.get("other", other));
+        assertEquals(Arrays.asList("t1", "t2", "t1", "t2"), built);
+    }
+
+    @Test
+    public void get_ofNoChildrenBuildsNothing() {
+        ChildrenCache.Children<String> children = cache.get("empty", new ArrayList<MediaItemData>());
+        assertTrue(children.items.isEmpty());
+        assertEquals(0, children.unpagedLimit);
+        assertTrue(built.isEmpty());
+    }
+
+    private static List<MediaItemData> tracks(int count) {
+        List<MediaItemData> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(track("album", "t" + i));
+        }
+        return items;
+    }
+
+    @Test
+    public void page_servesTheRequestedSlice() {
+        ChildrenCache.Children<String> children = cache.get("album", tracks(25));
+
+        assertEquals(Arrays.asList("built:t0", "built:t1", "built:t2", "built:t3", "built:t4",
+            "built:t5", "built:t6", "built:t7", "built:t8", "built:t9"), children.page(0, 10));
+        assertEquals(Arrays.asList("built:t20", "built:t21", "built:t22", "built:t23", "built:t24"), children.page(2, 10));
+        assertTrue(children.page(3, 10).isEmpty());
+        // A page far past the end must not overflow into a valid index
+        assertTrue(children.page(Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+
+        // Without both extras the whole folder is sent, as it fits
+        assertFalse(ChildrenCache.isPaged(-1, 10));
+        assertFalse(ChildrenCache.isPaged(0, 0));
+        assertSame(children.items, children.page(-1, 10));
+        assertSame(children.items, children.page(0, 0));
+    }
+
+    @Test
+    public void unpagedResults_areCappedByEstimatedParcelSize() {
+        List<MediaItemData> items = tracks(5000);
+        int maxBytes = 64 * 1024;
+        ChildrenCache<String> capped = new ChildrenCache<>(item -> item.mediaId, maxBytes);
+
+        ChildrenCache.Children<String> children = capped.get("album", items);
+        assertEquals(5000, children.items.size());
+        // As many leading items as fit, and not one more
+        long bytes = 0;
+        for (int i = 0; i < children.unpagedLimit; i++) {
+            bytes += ChildrenCache.estimateParcelSize(items.get(i));
+        }
+        assertTrue(bytes <= maxBytes);
+        assertTrue(bytes + ChildrenCache.estimateParcelSize(items.get(children.unpagedLimit)) > maxBytes);
+        assertEquals(children.unpagedLimit, children.page(-1, -1).size());
+        assertEquals("t0", children.page(-1, -1).get(0));
+
+        // Paged browses are not capped; the client chose the page size
+        assertEquals(1000, children.page(1, 1000).size());
+
+        // A single item larger than the limit is still sent on its own
+        StringBuilder longTitle = new StringBuilder();
+        for (int i = 0; i < maxBytes; i++) {
+            longTitle.append('x');
+        }
+        List<MediaItemData> huge = Arrays.asList(
+            new MediaItemData("album", "huge", longTitle.toString(), "", "", false, "", ""), track("album", "t1"));
+        assertEquals(1, capped.get("huge", huge).unpagedLimit);
+    }
+
+    @Test
+    public void estimateParcelSize_countsStringsAsUtf16() {
+        MediaItemData item = new MediaItemData("album", "id", "Title", null, "", false, "", "");
+        // Length-prefixed UTF-16 for each string, a null marker for a missing one
+        assertEquals(ChildrenCache.MEDIA_ITEM_OVERHEAD_BYTES + (8 + 4) + (8 + 10) + 4 + 8,
+            ChildrenCache.estimateParcelSize(item));
+    }
+}
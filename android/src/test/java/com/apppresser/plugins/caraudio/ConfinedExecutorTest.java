@@ -0,0 +1,97 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfinedExecutorTest {
+
+    private ExecutorService thread;
+    private ConfinedExecutor confined;
+
+    @Before
+    public void setUp() throws Exception {
+        // A single-thread executor stands in for the playback HandlerThread and its Handler
+        thread = Executors.newSingleThreadExecutor();
+        AtomicReference<Thread> owner = new AtomicReference<>();
+        thread.submit(() -> owner.set(Thread.currentThread())).get();
+        confined = new ConfinedExecutor(owner.get(), thread::execute);
+    }
+
+    @After
+    public void tearDown() {
+        thread.shutdownNow();
+    }
+
+    private void drain() throws Exception {
+        thread.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void commandsFromOtherThreads_runOnTheConfiningThreadInOrder() throws Exception {
+        assertFalse(confined.inThread());
+        int callers = 4;
+        int perCaller = 500;
+        // Unsynchronized on purpose: only the confining thread touches it
+        List<String> ran = new ArrayList<>();
+        List<Boolean> onThread = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int c = 0; c < callers; c++) {
+            String caller = "c" + c;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perCaller; i++) {
+                    String command = caller + ":" + i;
+                    confined.execute(() -> {
+                        ran.add(command);
+                        onThread.add(confined.inThread());
+                    });
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        drain();
+
+        assertEquals(callers * perCaller, ran.size());
+        assertFalse(onThread.contains(false));
+        // Each caller's commands run in the order it sent them
+        int[] next = new int[callers];
+        for (String command : ran) {
+            int caller = Integer.parseInt(command.substring(1, command.indexOf(':')));
+            assertEquals(next[caller]++, Integer.parseInt(command.substring(command.indexOf(':') + 1)));
+        }
+    }
+
+    @Test
+    public void commandsOnTheConfiningThread_runAtOnce() throws Exception {
+        List<String> ran = new ArrayList<>();
+        confined.execute(() -> {
+            ran.add("outer");
+            // Posted, it would run after outer finished; on the confining thread it runs in place
+            confined.execute(() -> ran.add("inner"));
+            ran.add("after inner");
+        });
+        drain();
+        assertEquals(Arrays.asList("outer", "inner", "after inner"), ran);
+    }
+}
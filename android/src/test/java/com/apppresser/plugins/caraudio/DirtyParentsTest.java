@@ -0,0 +1,48 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class DirtyParentsTest {
+
+    @Test
+    public void mark_schedulesOneFlushPerWindowAndNotifiesEachParentOnce() {
+        DirtyParents dirty = new DirtyParents();
+        assertTrue(dirty.mark("album"));
+        for (int i = 0; i < 2000; i++) {
+            assertFalse(dirty.mark("album"));
+        }
+        assertFalse(dirty.mark(Arrays.asList("artist", "album")));
+        assertEquals(Arrays.asList("album", "artist"), dirty.drain());
+
+        // Nothing is left to notify, and the next change opens a new window
+        assertTrue(dirty.drain().isEmpty());
+        assertTrue(dirty.mark("album"));
+    }
+
+    @Test
+    public void batch_holdsTheFlushUntilTheOutermostEnd() {
+        DirtyParents dirty = new DirtyParents();
+        dirty.beginBatch();
+        dirty.beginBatch();
+        assertFalse(dirty.mark("album"));
+        assertFalse(dirty.mark(Collections.singletonList("artist")));
+        assertFalse(dirty.endBatch());
+        assertTrue(dirty.endBatch());
+        assertEquals(Arrays.asList("album", "artist"), dirty.drain());
+
+        // An unmatched end does not leave the batch count negative
+        assertTrue(dirty.endBatch());
+        assertTrue(dirty.mark("album"));
+    }
+
+    @Test
+    public void mark_ofNoParentsSchedulesNothing() {
+        DirtyParents dirty = new DirtyParents();
+        assertFalse(dirty.mark(Collections.<String>emptyList()));
+        assertTrue(dirty.drain().isEmpty());
+    }
+}
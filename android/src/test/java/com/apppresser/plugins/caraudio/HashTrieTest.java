@@ -0,0 +1,136 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class HashTrieTest {
+
+    @Test
+    public void builder_putGetRemove() {
+        HashTrie<String> trie = HashTrie.<String>empty().toBuilder()
+            .put("a", "1")
+            .put("b", "2")
+            .put("a", "3")
+            .put(null, "null key")
+            .remove("b")
+            .build();
+
+        assertEquals(2, trie.size());
+        assertEquals("3", trie.get("a"));
+        assertEquals("null key", trie.get(null));
+        assertNull(trie.get("b"));
+        assertFalse(trie.containsKey("b"));
+        assertTrue(trie.keySet().contains("a"));
+        assertSame(HashTrie.empty(), trie.toBuilder().remove("a").remove(null).build());
+    }
+
+    @Test
+    public void equalHashes_shareACollisionNode() {
+        // "Aa" and "BB" hash alike, so every mix of them collides
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                key.append((i & (1 << bit)) != 0 ? "Aa" : "BB");
+            }
+            keys.add(key.toString());
+        }
+        HashTrie.Builder<Integer> builder = HashTrie.<Integer>empty().toBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            builder.put(keys.get(i), i);
+        }
+        builder.remove(keys.get(3));
+        HashTrie<Integer> trie = builder.build();
+
+        assertEquals(15, trie.size());
+        assertNull(trie.get(keys.get(3)));
+        assertEquals(Integer.valueOf(15), trie.get(keys.get(15)));
+    }
+
+    @Test
+    public void versions_matchAHashMapAndStayUnchanged() {
+        Random random = new Random(7);
+        Map<String, Integer> expected = new HashMap<>();
+        HashTrie<Integer> trie = HashTrie.empty();
+        List<HashTrie<Integer>> versions = new ArrayList<>();
+        List<Map<String, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int round = 0; round < 500; round++) {
+            HashTrie.Builder<Integer> builder = trie.toBuilder();
+            for (int i = 0; i < 40; i++) {
+                String key = "k" + random.nextInt(2000);
+                if (random.nextInt(3) == 0) {
+                    builder.remove(key);
+                    expected.remove(key);
+                } else {
+                    builder.put(key, i);
+                    expected.put(key, i);
+                }
+                if (i == 20) {
+                    // Building mid-way must not let later changes through the builder leak into it
+                    versions.add(builder.build());
+                    expectedVersions.add(new HashMap<>(expected));
+                }
+            }
+            trie = builder.build();
+            versions.add(trie);
+            expectedVersions.add(new HashMap<>(expected));
+        }
+
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(expectedVersions.get(i), versions.get(i));
+            assertEquals(expectedVersions.get(i).size(), versions.get(i).size());
+        }
+    }
+
+    private static HashTrie<Integer> trieOf(int size) {
+        HashTrie.Builder<Integer> builder = HashTrie.<Integer>empty().toBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.put("key_" + i, i);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void depth_growsWithTheLogOfTheSize() {
+        // 32-way nodes: about log32(n) levels, so 40,000 keys sit about three levels deep
+        for (int size : new int[] {40, 40_000}) {
+            HashTrie<Integer> trie = trieOf(size);
+            long totalDepth = 0;
+            int maxDepth = 0;
+            for (int i = 0; i < size; i++) {
+                int depth = trie.depth("key_" + i);
+                totalDepth += depth;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+            int levels = (int) Math.ceil(Math.log(size) / Math.log(32));
+            assertTrue(size + " keys: average depth " + (double) totalDepth / size, totalDepth <= (long) size * (levels + 1));
+            assertTrue(size + " keys: max depth " + maxDepth, maxDepth <= levels + 3);
+        }
+    }
+
+    @Test
+    public void edits_copyOnlyThePathToTheKey() {
+        HashTrie<Integer> trie = trieOf(40_000);
+
+        HashTrie<Integer> updated = trie.toBuilder().put("key_123", -1).build();
+        assertEquals(trie.depth("key_123"), HashTrie.unsharedNodes(trie, updated));
+        assertEquals(Integer.valueOf(123), trie.get("key_123"));
+
+        HashTrie<Integer> removed = trie.toBuilder().remove("key_456").build();
+        assertTrue(HashTrie.unsharedNodes(trie, removed) <= trie.depth("key_456"));
+
+        // A new key may split an entry into one more node below its path
+        HashTrie<Integer> added = trie.toBuilder().put("new", 0).build();
+        assertTrue(HashTrie.unsharedNodes(trie, added) <= added.depth("new"));
+
+        // Putting the same value copies nothing
+        assertEquals(0, HashTrie.unsharedNodes(trie, trie.toBuilder().put("key_7", trie.get("key_7")).build()));
+    }
+}
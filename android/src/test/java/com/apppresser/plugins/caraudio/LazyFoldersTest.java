@@ -0,0 +1,61 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class LazyFoldersTest {
+
+    @Test
+    public void await_requestsEachFolderOnceAndCompletesEveryWaiter() {
+        LazyFolders<String> folders = new LazyFolders<>(10);
+
+        LazyFolders.Request<String> request = folders.await("albums", "car");
+        assertNotNull(request);
+        assertNull(folders.await("albums", "phone"));
+        assertNotNull(folders.await("artists", "car"));
+        assertEquals(2, folders.pendingParents().size());
+
+        LazyFolders.Request<String> completed = folders.complete("albums");
+        assertSame(request, completed);
+        assertEquals(Arrays.asList("car", "phone"), completed.waiters);
+        // A late timeout finds nothing left to complete
+        assertNull(folders.complete("albums"));
+        assertEquals(Collections.singletonList("artists"), folders.pendingParents());
+
+        // The next browse after completion asks again
+        assertNotNull(folders.await("albums", "car"));
+    }
+
+    @Test
+    public void provided_evictsTheLeastRecentlyBrowsedFolders() {
+        LazyFolders<String> folders = new LazyFolders<>(2);
+        assertTrue(folders.provided("a").isEmpty());
+        assertTrue(folders.provided("b").isEmpty());
+
+        // Browsing a makes b the coldest
+        folders.touch("a");
+        assertEquals(Collections.singletonList("b"), folders.provided("c"));
+        assertEquals(Arrays.asList("a", "c"), folders.loadedParents());
+
+        // Touching a folder that is not loaded does not track it
+        folders.touch("b");
+        assertEquals(Arrays.asList("a", "c"), folders.loadedParents());
+    }
+
+    @Test
+    public void setCapacity_evictsDownToTheNewSizeButKeepsOne() {
+        LazyFolders<String> folders = new LazyFolders<>(5);
+        for (String id : new String[] {"a", "b", "c", "d"}) {
+            folders.provided(id);
+        }
+        assertEquals(Arrays.asList("a", "b"), folders.setCapacity(2));
+        assertEquals(Collections.singletonList("c"), folders.setCapacity(0));
+        assertEquals(Collections.singletonList("d"), folders.loadedParents());
+
+        folders.forget("d");
+        assertTrue(folders.loadedParents().isEmpty());
+    }
+}
@@ -0,0 +1,98 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class MediaCatalogFootprintTest {
+
+    private static final int SHOWS = 100;
+
+    // Podcast-shaped catalog: every episode repeats its show's artist, album and artwork.
+    // Repeated values are fresh String instances, as they are when parsed from JSON.
+    private static List<MediaItemData> podcastItems(int episodes) {
+        List<MediaItemData> items = new ArrayList<>(episodes + SHOWS);
+        for (int s = 0; s < SHOWS; s++) {
+            items.add(new MediaItemData("media_root_id", "show_" + s, "Show " + s, "Host " + s, "", true, "", ""));
+        }
+        for (int e = 0; e < episodes; e++) {
+            int s = e % SHOWS;
+            items.add(new MediaItemData("show_" + s, "show_" + s + "_episode_" + e, "Episode " + e,
+                new String("Host " + s), new String("The Show Number " + s + " Podcast"), false,
+                "https://cdn.example.com/shows/" + s + "/episodes/" + e + ".mp3",
+                new String("https://cdn.example.com/shows/" + s + "/artwork-600x600.jpg")));
+        }
+        return items;
+    }
+
+    private static MediaCatalog buildCatalog(int episodes, boolean compact) {
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.setCompactStorage(compact);
+        catalog.replaceAll(podcastItems(episodes), null);
+        return catalog;
+    }
+
+    @Test
+    public void compactStorage_exposesSameItemsAsPlainStorage() {
+        MediaCatalog plain = buildCatalog(1_000, false);
+        MediaCatalog compact = buildCatalog(1_000, true);
+        assertTrue(compact.isCompactStorage());
+
+        assertEquals(plain.size(), compact.size());
+        assertEquals(plain.getParentCount(), compact.getParentCount());
+        assertEquals(plain.getChildren("media_root_id"), compact.getChildren("media_root_id"));
+        assertEquals(plain.getChildren("show_7"), compact.getChildren("show_7"));
+        assertEquals(plain.find("show_7_episode_907"), compact.find("show_7_episode_907"));
+        assertEquals("show_7", compact.find("show_7_episode_907").parentId);
+        assertTrue(compact.find("show_7").isBrowsable);
+        assertNull(compact.find("missing"));
+
+        compact.update(editor -> {
+            editor.removeChildren("show_7");
+            editor.add(new MediaItemData("show_8", "bonus", "Bonus", "Host 8", "", false, "https://example.com/bonus.mp3", ""));
+        });
+        assertNull(compact.find("show_7_episode_907"));
+        assertEquals("Bonus", compact.find("bonus").title);
+        assertEquals(11, compact.getChildren("show_8").size());
+
+        // Switching back keeps the content
+        compact.setCompactStorage(false);
+        assertFalse(compact.isCompactStorage());
+        assertEquals("Bonus", compact.find("bonus").title);
+        assertEquals(plain.find("show_9_episode_9"), compact.find("show_9_episode_9"));
+    }
+
+    @Test
+    public void compactStorage_usesLessHeapAt10kAnd100kItems() {
+        for (int episodes : new int[] { 10_000, 100_000 }) {
+            long plainBytes = retainedBytes(episodes, false);
+            long compactBytes = retainedBytes(episodes, true);
+            assertTrue("compact storage used " + compactBytes + " bytes vs " + plainBytes + " plain at " + episodes + " items",
+                compactBytes < plainBytes * 3 / 4);
+        }
+    }
+
+    private static long retainedBytes(int episodes, boolean compact) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long before = usedHeap();
+            MediaCatalog catalog = buildCatalog(episodes, compact);
+            long after = usedHeap();
+            assertEquals(episodes + SHOWS, catalog.size());
+            best = Math.min(best, after - before);
+        }
+        return best;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,390 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class MediaCatalogTest {
+
+    private static MediaCatalog buildCatalog(int folders, int tracksPerFolder) {
+        MediaCatalog catalog = new MediaCatalog();
+        for (int f = 0; f < folders; f++) {
+            String folderId = "folder_" + f;
+            catalog.add(new MediaItemData("media_root_id", folderId, "Folder " + f, "", "", true, "", ""));
+            for (int t = 0; t < tracksPerFolder; t++) {
+                String mediaId = folderId + "_track_" + t;
+                catalog.add(new MediaItemData(folderId, mediaId, "Track " + t, "Artist", "Album", false, "https://example.com/" + mediaId + ".mp3", ""));
+            }
+        }
+        return catalog;
+    }
+
+    @Test
+    public void find_returnsItemWithParentReference() {
+        MediaCatalog catalog = buildCatalog(3, 5);
+
+        MediaItemData item = catalog.find("folder_2_track_4");
+        assertNotNull(item);
+        assertEquals("folder_2", item.parentId);
+        assertEquals("https://example.com/folder_2_track_4.mp3", item.url);
+
+        MediaItemData folder = catalog.find("folder_1");
+        assertNotNull(folder);
+        assertTrue(folder.isBrowsable);
+        assertEquals("media_root_id", folder.parentId);
+
+        assertNull(catalog.find("missing"));
+        assertNull(catalog.find(null));
+    }
+
+    @Test
+    public void clear_emptiesChildrenAndIndex() {
+        MediaCatalog catalog = buildCatalog(2, 3);
+        assertEquals(2 + 6, catalog.size());
+
+        Set<String> affected = catalog.clear();
+        assertEquals(3, affected.size());
+        assertTrue(affected.contains("media_root_id"));
+        assertEquals(0, catalog.size());
+        assertEquals(0, catalog.getParentCount());
+        assertNull(catalog.find("folder_0_track_0"));
+        assertTrue(catalog.getChildren("folder_0").isEmpty());
+    }
+
+    @Test
+    public void snapshot_isUnaffectedByLaterCommits() {
+        MediaCatalog catalog = buildCatalog(1, 2);
+        MediaCatalog.Snapshot before = catalog.snapshot();
+
+        catalog.update(editor -> {
+            editor.clear();
+            editor.add(new MediaItemData("folder_9", "folder_9_track_0", "Track 0", "", "", false, "https://example.com/a.mp3", ""));
+        });
+        MediaCatalog.Snapshot after = catalog.snapshot();
+
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals(2, before.getChildCount("folder_0"));
+        assertNotNull(before.find("folder_0_track_1"));
+        assertEquals(0, after.getChildCount("folder_0"));
+        assertNull(after.find("folder_0_track_1"));
+        assertNotNull(after.find("folder_9_track_0"));
+    }
+
+    @Test
+    public void replaceAll_reportsOnlyChangedParentsAndKeepsUnchangedLists() {
+        List<MediaItemData> items = new ArrayList<>();
+        items.add(new MediaItemData("media_root_id", "a", "A", "", "", true, "", ""));
+        items.add(new MediaItemData("media_root_id", "b", "B", "", "", true, "", ""));
+        items.add(new MediaItemData("a", "a1", "A1", "", "", false, "https://example.com/a1.mp3", ""));
+        items.add(new MediaItemData("b", "b1", "B1", "", "", false, "https://example.com/b1.mp3", ""));
+
+        MediaCatalog catalog = new MediaCatalog();
+        assertEquals(3, catalog.replaceAll(items, null).size());
+        MediaCatalog.Snapshot first = catalog.snapshot();
+
+        // Same content: no-op
+        assertTrue(catalog.replaceAll(new ArrayList<>(items), null).isEmpty());
+        assertSame(first, catalog.snapshot());
+
+        // One episode changes in folder b
+        List<MediaItemData> updated = new ArrayList<>(items);
+        updated.set(3, new MediaItemData("b", "b1", "B1 (remastered)", "", "", false, "https://example.com/b1.mp3", ""));
+        Set<String> changed = catalog.replaceAll(updated, null);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains("b"));
+
+        MediaCatalog.Snapshot second = catalog.snapshot();
+        assertSame(first.getChildren("a"), second.getChildren("a"));
+        assertSame(first.getChildren("media_root_id"), second.getChildren("media_root_id"));
+        assertEquals("B1 (remastered)", second.find("b1").title);
+    }
+
+    @Test
+    public void replace_countsOnlyItemsNewToTheCatalog() {
+        List<MediaItemData> items = new ArrayList<>();
+        items.add(new MediaItemData("media_root_id", "a", "A", "", "", true, "", ""));
+        items.add(new MediaItemData("a", "a1", "A1", "", "", false, "https://example.com/a1.mp3", ""));
+
+        MediaCatalog catalog = new MediaCatalog();
+        assertEquals(2, catalog.replace(items, null).addedItems);
+
+        List<MediaItemData> updated = new ArrayList<>(items);
+        updated.set(1, new MediaItemData("a", "a1", "A1 (edited)", "", "", false, "https://example.com/a1.mp3", ""));
+        updated.add(new MediaItemData("a", "a2", "A2", "", "", false, "https://example.com/a2.mp3", ""));
+        MediaCatalog.Replacement replacement = catalog.replace(updated, null);
+        assertEquals(1, replacement.addedItems);
+        // Only folder a changed; the root keeps its children and is not reported
+        assertEquals(1, replacement.changedParents.size());
+        assertTrue(replacement.changedParents.contains("a"));
+
+        assertEquals(0, catalog.replace(updated, null).addedItems);
+    }
+
+    @Test
+    public void replace_seesEditsThatCollideUnderHashCode() {
+        // "Aa" and "BB" have the same String.hashCode(), and so the same MediaItemData.hashCode()
+        MediaItemData before = new MediaItemData("media_root_id", "t1", "Aa", "", "", false, "https://example.com/t1.mp3", "");
+        MediaItemData after = new MediaItemData("media_root_id", "t1", "BB", "", "", false, "https://example.com/t1.mp3", "");
+        assertEquals(before.hashCode(), after.hashCode());
+
+        List<MediaItemData> original = Collections.singletonList(before);
+        List<MediaItemData> edited = Collections.singletonList(after);
+        assertNotEquals(MediaCatalog.computeContentHash(original), MediaCatalog.computeContentHash(edited));
+
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(original, null);
+        assertEquals(Collections.singleton("media_root_id"), catalog.replace(edited, null).changedParents);
+        assertEquals("BB", catalog.find("t1").title);
+
+        // Field boundaries are part of the digest, so moving text between fields is a change too
+        MediaItemData split = new MediaItemData("media_root_id", "t1", "B", "B", "", false, "https://example.com/t1.mp3", "");
+        assertNotEquals(MediaCatalog.computeContentHash(edited), MediaCatalog.computeContentHash(Collections.singletonList(split)));
+    }
+
+    private static List<MediaItemData> artistTree(String extraId) {
+        List<MediaItemData> items = new ArrayList<>();
+        items.add(new MediaItemData("media_root_id", "artist", "Artist", "", "", true, "", ""));
+        items.add(new MediaItemData("artist", "album", "Album", "", "", true, "", ""));
+        items.add(new MediaItemData("album", "t1", "Track", "", "", false, "https://example.com/t1.mp3", ""));
+        items.add(new MediaItemData("media_root_id", extraId, "Extra", "", "", true, "", ""));
+        return items;
+    }
+
+    @Test
+    public void replace_withEqualItemsLeavesTheIndexConsistentForLaterEdits() {
+        for (boolean compact : new boolean[] {false, true}) {
+            MediaCatalog catalog = new MediaCatalog();
+            catalog.setCompactStorage(compact);
+            catalog.replace(artistTree("extra1"), null);
+            // Fresh but equal objects; only the root's children differ, so the artist's lists are kept
+            MediaCatalog.Replacement replacement = catalog.replace(artistTree("extra2"), null);
+            assertEquals(Collections.singleton("media_root_id"), replacement.changedParents);
+
+            int[] removed = new int[1];
+            catalog.update(editor -> removed[0] = editor.removeSubtree("artist"));
+            assertEquals(3, removed[0]);
+            assertNull(catalog.find("artist"));
+            assertNull(catalog.find("album"));
+            assertNull(catalog.find("t1"));
+            assertEquals(1, catalog.size());
+            assertNotNull(catalog.find("extra2"));
+
+            // setChildren drops the previous children's index entries as well
+            catalog.replace(artistTree("extra3"), null);
+            catalog.replace(artistTree("extra4"), null);
+            catalog.update(editor -> editor.setChildren("album", new ArrayList<MediaItemData>()));
+            assertNull(catalog.find("t1"));
+            assertEquals(3, catalog.size());
+        }
+    }
+
+    @Test
+    public void removeDescendants_releasesEveryLevelButKeepsTheFolder() {
+        // What evicting a lazily loaded folder does: grandchildren loaded later go too
+        MediaCatalog catalog = new MediaCatalog();
+        catalog.replace(artistTree("extra"), null);
+        catalog.add(new MediaItemData("album", "t2", "Track 2", "", "", false, "https://example.com/t2.mp3", ""));
+
+        int[] removed = new int[1];
+        Set<String> changed = catalog.update(editor -> removed[0] = editor.removeDescendants("artist"));
+        assertEquals(3, removed[0]);
+        assertTrue(changed.contains("artist"));
+        assertTrue(changed.contains("album"));
+        assertNotNull(catalog.find("artist"));
+        assertNull(catalog.find("album"));
+        assertNull(catalog.find("t1"));
+        assertNull(catalog.find("t2"));
+        assertFalse(catalog.snapshot().containsParent("artist"));
+        assertFalse(catalog.snapshot().containsParent("album"));
+        assertEquals(2, catalog.size());
+    }
+
+    @Test
+    public void replace_fromLoaderMatchesReplaceFromList() {
+        List<MediaItemData> items = new ArrayList<>();
+        items.add(new MediaItemData("media_root_id", "a", "A", "", "", true, "", ""));
+        items.add(new MediaItemData("a", "a1", "A1", "", "", false, "https://example.com/a1.mp3", ""));
+        items.add(new MediaItemData("media_root_id", "b", "B", "", "", true, "", ""));
+        items.add(new MediaItemData("a", "a2", "A2", "", "", false, "https://example.com/a2.mp3", ""));
+
+        MediaCatalog.Loader loader = new MediaCatalog.Loader();
+        for (MediaItemData item : items) {
+            loader.add(item);
+        }
+        assertEquals(4, loader.size());
+        assertEquals(MediaCatalog.computeContentHash(items), loader.getContentHash());
+
+        for (boolean compact : new boolean[] {false, true}) {
+            MediaCatalog streamed = new MediaCatalog();
+            MediaCatalog listed = new MediaCatalog();
+            streamed.setCompactStorage(compact);
+            listed.setCompactStorage(compact);
+            MediaCatalog.Replacement replacement = streamed.replace(MediaCatalog.Loader.of(items), null);
+            listed.replace(items, null);
+
+            assertEquals(4, replacement.addedItems);
+            assertEquals(2, replacement.changedParents.size());
+            assertEquals(listed.snapshot().getContentHash(), streamed.snapshot().getContentHash());
+            assertEquals(listed.getChildren("a"), streamed.getChildren("a"));
+            assertEquals(listed.getChildren("media_root_id"), streamed.getChildren("media_root_id"));
+            assertEquals("a", streamed.find("a2").parentId);
+        }
+    }
+
+    @Test
+    public void replaceIfUnpublished_neverOverwritesAPublishedCatalog() {
+        List<MediaItemData> restored = new ArrayList<>();
+        restored.add(new MediaItemData("media_root_id", "saved", "Saved", "", "", true, "", ""));
+        List<MediaItemData> defaults = new ArrayList<>();
+        defaults.add(new MediaItemData("media_root_id", "placeholder", "Placeholder", "", "", true, "", ""));
+
+        MediaCatalog catalog = new MediaCatalog();
+        assertNotNull(catalog.replaceIfUnpublished(restored, null));
+        assertNull(catalog.replaceIfUnpublished(defaults, null));
+        assertNotNull(catalog.find("saved"));
+        assertNull(catalog.find("placeholder"));
+
+        // Whatever arrived first also wins over a restore that finishes later
+        MediaCatalog fresh = new MediaCatalog();
+        fresh.add(new MediaItemData("media_root_id", "live", "Live", "", "", true, "", ""));
+        assertNull(fresh.replaceIfUnpublished(restored, null));
+        assertNull(fresh.find("saved"));
+    }
+
+    @Test
+    public void editor_removeUpdateMoveAndRemoveSubtreeTouchOnlyAffectedParents() {
+        MediaCatalog catalog = buildCatalog(3, 4);
+        catalog.add(new MediaItemData("folder_0", "nested", "Nested", "", "", true, "", ""));
+        catalog.add(new MediaItemData("nested", "nested_track", "Nested Track", "", "", false, "https://example.com/n.mp3", ""));
+
+        Set<String> changed = catalog.update(editor -> assertNotNull(editor.remove("folder_1_track_2")));
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains("folder_1"));
+        assertNull(catalog.find("folder_1_track_2"));
+        assertEquals(3, catalog.getChildren("folder_1").size());
+
+        changed = catalog.update(editor -> assertTrue(editor.update(
+            new MediaItemData("folder_2", "folder_2_track_1", "Renamed", "", "", false, "https://example.com/r.mp3", ""))));
+        assertEquals(1, changed.size());
+        assertEquals("Renamed", catalog.getChildren("folder_2").get(1).title);
+
+        changed = catalog.update(editor -> assertNotNull(editor.move("folder_2_track_0", "folder_1", 0)));
+        assertEquals(2, changed.size());
+        assertEquals("folder_1", catalog.find("folder_2_track_0").parentId);
+        assertEquals("folder_2_track_0", catalog.getChildren("folder_1").get(0).mediaId);
+
+        try {
+            catalog.update(editor -> editor.move("folder_0", "nested", -1));
+            fail("moving a folder under its own subtree should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("media_root_id", catalog.find("folder_0").parentId);
+        }
+
+        int[] removed = new int[1];
+        changed = catalog.update(editor -> removed[0] = editor.removeSubtree("folder_0"));
+        assertEquals(1 + 5 + 1, removed[0]);
+        assertTrue(changed.contains("media_root_id"));
+        assertTrue(changed.contains("folder_0"));
+        assertTrue(changed.contains("nested"));
+        assertFalse(changed.contains("folder_1"));
+        assertNull(catalog.find("nested_track"));
+        assertNotNull(catalog.find("folder_1_track_0"));
+    }
+
+    @Test
+    public void add_appendsInPlaceSoSiblingsAreCopiedOnlyWhenTheBufferGrows() {
+        for (int folders : new int[] {1, 50}) {
+            MediaCatalog catalog = new MediaCatalog();
+            int items = 40_000;
+            int[] copies = new int[folders];
+            for (int i = 0; i < items; i++) {
+                int folder = i % folders;
+                String folderId = "folder_" + folder;
+                List<MediaItemData> before = catalog.getChildren(folderId);
+                catalog.add(new MediaItemData(folderId, "track_" + i, "Track " + i, "Artist", "Album", false, "https://example.com/" + i + ".mp3", ""));
+                if (SharedItemList.sharedPrefix(before, catalog.getChildren(folderId)) < before.size()) {
+                    copies[folder]++;
+                }
+            }
+            assertEquals(items, catalog.size());
+
+            // A doubling buffer copies about log2(n) times per folder; copying on every add would be n
+            int perFolder = items / folders;
+            int bound = 32 - Integer.numberOfLeadingZeros(perFolder);
+            for (int folder = 0; folder < folders; folder++) {
+                assertTrue(folders + " folders: folder " + folder + " copied " + copies[folder] + " times",
+                    copies[folder] <= bound);
+            }
+        }
+    }
+
+    @Test
+    public void edit_ofOneLeafSharesEveryOtherList() {
+        MediaCatalog catalog = buildCatalog(400, 100);
+        MediaCatalog.Snapshot before = catalog.snapshot();
+
+        MediaItemData renamed = new MediaItemData("folder_17", "folder_17_track_42", "Renamed", "Artist", "Album", false,
+            "https://example.com/folder_17_track_42.mp3", "");
+        catalog.update(editor -> assertTrue(editor.update(renamed)));
+        MediaCatalog.Snapshot after = catalog.snapshot();
+
+        // Untouched parents keep their list, not an equal copy of it
+        for (String parentId : before.getParentIds()) {
+            if (!parentId.equals("folder_17")) {
+                assertSame(parentId, before.getChildren(parentId), after.getChildren(parentId));
+            }
+        }
+        // The edited folder's list is new, but its other items are the same objects
+        List<MediaItemData> edited = after.getChildren("folder_17");
+        assertNotSame(before.getChildren("folder_17"), edited);
+        for (int t = 0; t < 100; t++) {
+            if (t == 42) {
+                assertSame(renamed, edited.get(t));
+                assertSame(renamed, after.find("folder_17_track_42"));
+            } else {
+                assertSame(before.getChildren("folder_17").get(t), edited.get(t));
+            }
+        }
+        assertEquals("Track 42", before.find("folder_17_track_42").title);
+        assertEquals(400 + 400 * 100, after.size());
+    }
+
+    @Test
+    public void add_sharingSiblingsLeavesOlderSnapshotsAlone() {
+        MediaCatalog catalog = buildCatalog(1, 3);
+        MediaCatalog.Snapshot before = catalog.snapshot();
+
+        catalog.add(new MediaItemData("folder_0", "folder_0_track_3", "Track 3", "", "", false, "https://example.com/3.mp3", ""));
+        assertEquals(3, before.getChildCount("folder_0"));
+        assertEquals(4, catalog.getChildren("folder_0").size());
+
+        // Two edits started from the same version: only the first to commit wins, and the
+        // loser's append must not leak into what the winner published
+        MediaCatalog.Editor first = catalog.edit();
+        MediaCatalog.Editor second = catalog.edit();
+        second.add(new MediaItemData("folder_0", "lost", "Lost", "", "", false, "https://example.com/lost.mp3", ""));
+        first.add(new MediaItemData("folder_0", "kept", "Kept", "", "", false, "https://example.com/kept.mp3", ""));
+        first.commit();
+        try {
+            second.commit();
+            fail("a stale edit should not commit");
+        } catch (IllegalStateException expected) {
+            // Editing the newer version is fine
+        }
+        List<MediaItemData> children = catalog.getChildren("folder_0");
+        assertEquals(5, children.size());
+        assertEquals("kept", children.get(4).mediaId);
+        assertNull(catalog.find("lost"));
+
+        // Removing and then appending again in the latest version leaves the earlier one intact
+        MediaCatalog.Snapshot withKept = catalog.snapshot();
+        catalog.update(editor -> editor.remove("kept"));
+        catalog.add(new MediaItemData("folder_0", "replacement", "Replacement", "", "", false, "https://example.com/r.mp3", ""));
+        assertEquals("kept", withKept.getChildren("folder_0").get(4).mediaId);
+        assertEquals("replacement", catalog.getChildren("folder_0").get(4).mediaId);
+    }
+}
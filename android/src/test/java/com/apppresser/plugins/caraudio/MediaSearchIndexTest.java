@@ -0,0 +1,140 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaSearchIndexTest {
+
+    private MediaCatalog catalog;
+    private MediaSearchIndex index;
+
+    @Before
+    public void setUp() {
+        catalog = new MediaCatalog();
+        index = new MediaSearchIndex();
+        catalog.addCommitListener(index::onCommit);
+    }
+
+    private static MediaItemData track(String parentId, String mediaId, String title, String artist, String album) {
+        return new MediaItemData(parentId, mediaId, title, artist, album, false, "https://example.com/" + mediaId + ".mp3", "");
+    }
+
+    private List<String> search(String query, int maxResults) {
+        List<String> ids = new ArrayList<>();
+        for (MediaItemData item : index.search(catalog.snapshot(), query, maxResults)) {
+            ids.add(item.mediaId);
+        }
+        return ids;
+    }
+
+    @Test
+    public void tokenize_lowerCasesAndStripsAccents() {
+        assertEquals(Arrays.asList("beyonce", "deja", "vu", "2006"), MediaSearchIndex.tokenize("Beyoncé – Déjà Vu (2006)"));
+        assertTrue(MediaSearchIndex.tokenize("  ...  ").isEmpty());
+        assertTrue(MediaSearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    public void search_ranksCoverageThenFieldThenExactness() {
+        catalog.add(track("album", "subtitleOnly", "Intro", "Blue Band", "Album"));
+        catalog.add(track("album", "titlePrefix", "Bluebird", "Someone", "Album"));
+        catalog.add(track("album", "titleExact", "Blue", "Someone", "Album"));
+        catalog.add(track("album", "bothTokens", "Blue Monday", "Someone", "Album"));
+
+        assertEquals(Arrays.asList("bothTokens", "titleExact", "titlePrefix", "subtitleOnly"), search("blue monday", 10));
+        assertEquals(Arrays.asList("titleExact", "bothTokens", "titlePrefix", "subtitleOnly"), search("BLUE", 10));
+        assertEquals(Arrays.asList("titlePrefix"), search("bluebi", 10));
+        assertTrue(search("", 10).isEmpty());
+        assertTrue(search("blue", 0).isEmpty());
+    }
+
+    @Test
+    public void search_keepsOnlyTheBestMaxResults() {
+        // Every track matches the prefix with the same score, and each has a different title length
+        String[] idsByPadding = new String[500];
+        for (int i = 0; i < 500; i++) {
+            int padding = (i * 7919) % 500;
+            StringBuilder title = new StringBuilder("Song");
+            for (int pad = 0; pad < padding; pad++) {
+                title.append('s');
+            }
+            catalog.add(track("album", "track" + i, title.toString(), "Artist", "Album"));
+            idsByPadding[padding] = "track" + i;
+        }
+        catalog.add(track("album", "exact", "Song Two", "Artist", "Album"));
+
+        List<String> expected = new ArrayList<>(Arrays.asList("exact"));
+        expected.addAll(Arrays.asList(idsByPadding).subList(0, 4));
+        assertEquals(expected, search("song two", 5));
+        assertEquals(Arrays.asList(idsByPadding).subList(0, 3), search("so", 3));
+        assertEquals(501, search("so", 1000).size());
+    }
+
+    @Test
+    public void update_replacesTheIndexedTokensOfTheSameId() {
+        catalog.add(track("album", "t1", "Yesterday", "Artist", "Album"));
+        catalog.update(editor -> editor.update(track("album", "t1", "Tomorrow", "Artist", "Album")));
+
+        assertTrue(search("yesterday", 10).isEmpty());
+        assertEquals(Arrays.asList("t1"), search("tomorrow", 10));
+    }
+
+    @Test
+    public void reAddingAnId_indexesOnlyTheNewItem() {
+        catalog.add(track("album", "t1", "Yesterday", "Artist", "Album"));
+        catalog.update(editor -> editor.remove("t1"));
+        assertTrue(search("yesterday", 10).isEmpty());
+
+        catalog.add(track("album", "t1", "Yesterday", "Artist", "Album"));
+        assertEquals(Arrays.asList("t1"), search("yesterday", 10));
+
+        // The same ID added under another parent takes over, as it does in the catalog
+        catalog.add(track("other", "t1", "Tomorrow", "Artist", "Album"));
+        assertTrue(search("yesterday", 10).isEmpty());
+        assertEquals(Arrays.asList("t1"), search("tomorrow", 10));
+        assertEquals("other", index.search(catalog.snapshot(), "tomorrow", 10).get(0).parentId);
+    }
+
+    @Test
+    public void move_keepsTheItemSearchableWhateverOrderParentsAreVisited() {
+        // Changed parents come as a set, so try pairs that iterate in either order
+        for (int i = 0; i < 20; i++) {
+            setUp();
+            String from = "from" + i;
+            String to = "to" + i;
+            catalog.add(track(from, "t1", "Yesterday", "Artist", "Album"));
+            catalog.update(editor -> editor.move("t1", to, -1));
+
+            List<MediaItemData> results = index.search(catalog.snapshot(), "yesterday", 10);
+            assertEquals(1, results.size());
+            assertEquals(to, results.get(0).parentId);
+        }
+    }
+
+    @Test
+    public void replaceAll_dropsItemsThatAreGone() {
+        catalog.add(track("album", "t1", "Yesterday", "Artist", "Album"));
+        catalog.add(track("album", "t2", "Tomorrow", "Artist", "Album"));
+        catalog.replaceAll(Arrays.asList(track("album", "t2", "Tomorrow", "Artist", "Album"),
+            track("album", "t3", "Today", "Artist", "Album")), null);
+
+        assertTrue(search("yesterday", 10).isEmpty());
+        assertEquals(Arrays.asList("t2"), search("tomorrow", 10));
+        assertEquals(Arrays.asList("t3"), search("today", 10));
+    }
+
+    @Test
+    public void search_ofAnOlderSnapshotSkipsIdsItDoesNotHave() {
+        MediaCatalog.Snapshot before = catalog.snapshot();
+        catalog.add(track("album", "t1", "Yesterday", "Artist", "Album"));
+
+        assertTrue(index.search(before, "yesterday", 10).isEmpty());
+        assertNull(index.findBestPlayable(before, "yesterday"));
+        assertEquals("t1", index.findBestPlayable(catalog.snapshot(), "yesterday").mediaId);
+    }
+}
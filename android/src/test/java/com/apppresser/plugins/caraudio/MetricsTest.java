@@ -0,0 +1,109 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Metrics.clear();
+    }
+
+    @Test
+    public void counters_andGauges_appearInSnapshot() {
+        Metrics.increment("player.prepareTimeout");
+        Metrics.increment("player.error", "1/-1004");
+        Metrics.increment("player.error", "1/-1004");
+        Metrics.set("catalog.items", 1200);
+        Metrics.set("catalog.items", 1500);
+
+        Metrics.Snapshot snapshot = Metrics.snapshot(false);
+        assertEquals(Long.valueOf(1), snapshot.counters.get("player.prepareTimeout"));
+        assertEquals(Long.valueOf(2), snapshot.counters.get("player.error/1/-1004"));
+        assertEquals(Long.valueOf(1500), snapshot.gauges.get("catalog.items"));
+    }
+
+    @Test
+    public void histogram_bucketsAndEstimatesPercentiles() {
+        for (int i = 0; i < 90; i++) {
+            Metrics.record("player.prepareMs", 80);
+        }
+        for (int i = 0; i < 10; i++) {
+            Metrics.record("player.prepareMs", 4000);
+        }
+
+        Metrics.HistogramSnapshot histogram = Metrics.snapshot(false).histograms.get("player.prepareMs");
+        assertEquals(100, histogram.count);
+        assertEquals(90 * 80 + 10 * 4000, histogram.sumMs);
+        assertEquals(4000, histogram.maxMs);
+        assertEquals(90, histogram.buckets[3]);
+        assertEquals(100, histogram.percentile(50));
+        assertEquals(4000, histogram.percentile(95));
+        assertEquals(4000, histogram.percentile(100));
+    }
+
+    @Test
+    public void reset_startsCountingAgainButKeepsGauges() {
+        Metrics.increment("session.command", "play");
+        Metrics.record("browse.loadChildrenMs", 12);
+        Metrics.set("catalog.items", 7);
+
+        Metrics.snapshot(true);
+        Metrics.Snapshot after = Metrics.snapshot(false);
+        assertEquals(Long.valueOf(0), after.counters.get("session.command/play"));
+        assertEquals(0, after.histograms.get("browse.loadChildrenMs").count);
+        assertEquals(0, after.histograms.get("browse.loadChildrenMs").percentile(50));
+        assertEquals(Long.valueOf(7), after.gauges.get("catalog.items"));
+    }
+
+    @Test
+    public void labels_foldIntoOverflowWhenFull() {
+        for (int i = 0; i < Metrics.MAX_SERIES + 50; i++) {
+            Metrics.increment("browse.loadChildren", "parent" + i);
+        }
+        Metrics.Snapshot snapshot = Metrics.snapshot(false);
+        assertTrue(snapshot.counters.size() <= Metrics.MAX_SERIES + 1);
+        assertTrue(snapshot.counters.get("browse.loadChildren/" + Metrics.OVERFLOW_LABEL) >= 50);
+
+        // Series that already exist keep counting under their own label
+        Metrics.increment("browse.loadChildren", "parent0");
+        assertEquals(Long.valueOf(2), Metrics.snapshot(false).counters.get("browse.loadChildren/parent0"));
+    }
+
+    @Test
+    public void concurrentUpdates_areNotLost() throws InterruptedException {
+        int threads = 4;
+        int perThread = 5000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    Metrics.increment("session.command", "play");
+                    Metrics.record("player.prepareMs", i % 100);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Metrics.Snapshot snapshot = Metrics.snapshot(false);
+        assertEquals(Long.valueOf(threads * perThread), snapshot.counters.get("session.command/play"));
+        assertEquals(threads * perThread, snapshot.histograms.get("player.prepareMs").count);
+        assertEquals(99, snapshot.histograms.get("player.prepareMs").maxMs);
+    }
+}
@@ -0,0 +1,159 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OfflineDownloadsTest {
+
+    private static final int SIZE = 200 * 1024;
+
+    private final byte[] audio = new byte[SIZE];
+    private final Map<String, String> ranges = new ConcurrentHashMap<>();
+    private final Map<String, OfflineDownloads.Download> finished = new ConcurrentHashMap<>();
+    private CountDownLatch done;
+    private HttpServer origin;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < SIZE; i++) {
+            audio[i] = (byte) (i * 17);
+        }
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.put(exchange.getRequestURI().getPath(), range != null ? range : "");
+            int start = range != null ? Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-'))) : 0;
+            if (range != null) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+            }
+            exchange.sendResponseHeaders(range != null ? 206 : 200, SIZE - start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(audio, start, SIZE - start);
+            }
+        });
+        origin.start();
+        dir = Files.createTempDirectory("offline").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        origin.stop(0);
+    }
+
+    private String url(String name) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + "/" + name;
+    }
+
+    private OfflineDownloads open(long quota, int expected) {
+        done = new CountDownLatch(expected);
+        return new OfflineDownloads(dir, quota, 2, download -> {
+            if (OfflineDownloads.STATE_COMPLETED.equals(download.state)
+                    || OfflineDownloads.STATE_FAILED.equals(download.state)
+                    || OfflineDownloads.STATE_CANCELLED.equals(download.state)) {
+                finished.put(download.url, download);
+                done.countDown();
+            }
+        });
+    }
+
+    private void await() throws InterruptedException {
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    public void download_isVerifiedAndServedLocally() throws Exception {
+        OfflineDownloads downloads = open(10 * SIZE, 1);
+        assertTrue(downloads.enqueue(url("a.mp3"), "track-a", sha256(audio).toUpperCase()));
+        await();
+
+        assertEquals(OfflineDownloads.STATE_COMPLETED, finished.get(url("a.mp3")).state);
+        File local = downloads.localFile(url("a.mp3"));
+        assertNotNull(local);
+        assertArrayEquals(audio, Files.readAllBytes(local.toPath()));
+        assertFalse(downloads.enqueue(url("a.mp3"), "track-a", null));
+
+        // Completed downloads are picked up again after a restart
+        OfflineDownloads reopened = open(10 * SIZE, 0);
+        assertTrue(reopened.isDownloaded(url("a.mp3")));
+        assertEquals(SIZE, reopened.getUsedBytes());
+        assertEquals("track-a", reopened.getStored().get(0).mediaId);
+    }
+
+    @Test
+    public void partialFile_isResumedWithARangeRequest() throws Exception {
+        File part = new File(dir, AudioCache.keyFor(url("b.mp3")) + ".part");
+        try (FileOutputStream out = new FileOutputStream(part)) {
+            out.write(audio, 0, 50000);
+        }
+        OfflineDownloads downloads = open(10 * SIZE, 1);
+        downloads.enqueue(url("b.mp3"), null, sha256(audio));
+        await();
+
+        assertEquals("bytes=50000-", ranges.get("/b.mp3"));
+        assertEquals(OfflineDownloads.STATE_COMPLETED, finished.get(url("b.mp3")).state);
+        assertArrayEquals(audio, Files.readAllBytes(downloads.localFile(url("b.mp3")).toPath()));
+        assertFalse(part.exists());
+    }
+
+    @Test
+    public void checksumMismatch_failsAndKeepsNothing() throws Exception {
+        OfflineDownloads downloads = open(10 * SIZE, 1);
+        downloads.enqueue(url("c.mp3"), null, sha256(Arrays.copyOf(audio, 10)));
+        await();
+
+        OfflineDownloads.Download download = finished.get(url("c.mp3"));
+        assertEquals(OfflineDownloads.STATE_FAILED, download.state);
+        assertTrue(download.error.startsWith("Checksum mismatch"));
+        assertNull(downloads.localFile(url("c.mp3")));
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void quota_evictsLeastRecentlyPlayed() throws Exception {
+        OfflineDownloads downloads = open(2 * SIZE, 2);
+        downloads.enqueue(url("d.mp3"), null, null);
+        downloads.enqueue(url("e.mp3"), null, null);
+        await();
+        // Playing d makes e the oldest
+        Thread.sleep(5);
+        assertNotNull(downloads.localFile(url("d.mp3")));
+
+        done = new CountDownLatch(1);
+        downloads.enqueue(url("f.mp3"), null, null);
+        await();
+
+        assertTrue(downloads.isDownloaded(url("d.mp3")));
+        assertFalse(downloads.isDownloaded(url("e.mp3")));
+        assertTrue(downloads.isDownloaded(url("f.mp3")));
+        assertEquals(2 * SIZE, downloads.getUsedBytes());
+
+        // Shrinking the quota evicts straight away
+        downloads.setQuotaBytes(SIZE - 1);
+        assertEquals(0, downloads.getUsedBytes());
+    }
+}
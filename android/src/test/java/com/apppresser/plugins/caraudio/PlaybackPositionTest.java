@@ -0,0 +1,53 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PlaybackPositionTest {
+
+    @Test
+    public void positionAt_advancesAtTheSpeedReadWithThePosition() {
+        PlaybackPosition position = new PlaybackPosition();
+        assertEquals(0, position.positionAt(1000));
+
+        // Playing: clients extrapolate from one reading, so no further updates are needed
+        position.read(5000, 1.0f, 10_000);
+        assertEquals(5000, position.positionAt(10_000));
+        assertEquals(8000, position.positionAt(13_000));
+
+        position.read(8000, 1.5f, 13_000);
+        assertEquals(11_000, position.positionAt(15_000));
+
+        // Paused: speed 0 holds the position
+        position.read(11_000, 0.0f, 15_000);
+        assertEquals(11_000, position.positionAt(60_000));
+    }
+
+    @Test
+    public void freeze_keepsWherePlaybackEnded() {
+        PlaybackPosition position = new PlaybackPosition();
+        position.read(5000, 1.0f, 10_000);
+
+        // The player failed 20 seconds into playing, when it can no longer be read
+        position.freeze(30_000);
+        assertEquals(25_000, position.positionAt(30_000));
+        assertEquals(25_000, position.positionAt(90_000));
+        // A second error report does not move it
+        position.freeze(90_000);
+        assertEquals(25_000, position.positionAt(120_000));
+
+        position.reset();
+        assertEquals(0, position.positionAt(120_000));
+    }
+
+    @Test
+    public void read_neverPublishesANegativePositionOrSpeed() {
+        PlaybackPosition position = new PlaybackPosition();
+        position.read(-20, -1.0f, 1000);
+        assertEquals(0, position.positionAt(5000));
+        // A clock reading earlier than the update does not move backwards
+        position.read(4000, 1.0f, 5000);
+        assertEquals(4000, position.positionAt(4000));
+    }
+}
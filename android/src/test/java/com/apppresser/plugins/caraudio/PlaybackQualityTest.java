@@ -0,0 +1,73 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+
+public class PlaybackQualityTest {
+
+    private static final String URL = "https://cdn-a.example.com/track.mp3";
+    private static final String MIRROR = "https://cdn-b.example.com/track.mp3";
+
+    @Test
+    public void session_measuresFirstAudioStallsAndPlayTime() {
+        PlaybackQuality quality = new PlaybackQuality();
+        quality.begin(URL, 1000, 50000);
+        // Buffering before the first audio is start-up time, not a stall
+        quality.stallStarted(1200);
+        quality.firstAudio(MIRROR, 1800);
+        quality.stallEnded(1900);
+
+        quality.stallStarted(4800);
+        quality.stallEnded(5800);
+        quality.stallStarted(8800);
+
+        PlaybackQuality.Snapshot snapshot = quality.current(9800);
+        assertTrue(snapshot.active);
+        assertEquals(MIRROR, snapshot.url);
+        assertEquals(50000, snapshot.startedAtMillis);
+        assertEquals(800, snapshot.timeToFirstAudioMs);
+        assertEquals(2, snapshot.stallCount);
+        assertEquals(2000, snapshot.stallTimeMs);
+        assertEquals(6000, snapshot.playTimeMs);
+        assertEquals(0.25, snapshot.stallRatio(), 1e-9);
+    }
+
+    @Test
+    public void pause_stopsBothClocks() {
+        PlaybackQuality quality = new PlaybackQuality();
+        quality.begin(URL, 0, 0);
+        quality.firstAudio(URL, 100);
+        quality.stallStarted(1100);
+        quality.paused(1600);
+        quality.resumed(9600);
+        quality.end(10600, false);
+
+        PlaybackQuality.Snapshot snapshot = quality.recent().get(0);
+        assertFalse(snapshot.active);
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(500, snapshot.stallTimeMs);
+        assertEquals(2000, snapshot.playTimeMs);
+    }
+
+    @Test
+    public void recent_keepsFinishedSessionsBounded() {
+        PlaybackQuality quality = new PlaybackQuality();
+        quality.begin(URL, 0, 0);
+        quality.end(500, true);
+        assertNull(quality.current(600));
+        PlaybackQuality.Snapshot failed = quality.recent().get(0);
+        assertTrue(failed.failed);
+        assertEquals(-1, failed.timeToFirstAudioMs);
+
+        for (int i = 0; i < 30; i++) {
+            // Beginning a session ends the previous one
+            quality.begin(URL + "?" + i, 1000 + i, 0);
+        }
+        List<PlaybackQuality.Snapshot> recent = quality.recent();
+        assertEquals(PlaybackQuality.RECENT_SESSIONS, recent.size());
+        assertEquals(URL + "?28", recent.get(recent.size() - 1).url);
+        assertEquals(URL + "?29", quality.current(2000).url);
+    }
+}
@@ -0,0 +1,96 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class PlaybackQueueTest {
+
+    private static List<PlaybackQueue.Entry> entries(int count) {
+        List<PlaybackQueue.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new PlaybackQueue.Entry("track_" + i, "https://example.com/" + i + ".mp3", "Track " + i, "Artist", "Album", "", 1000));
+        }
+        return entries;
+    }
+
+    @Test
+    public void skips_stopAtTheEndsUnlessRepeatingAll() {
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.set(entries(3), 1);
+        assertEquals(1, queue.getCurrentIndex());
+
+        assertEquals("track_2", queue.skipToNext().mediaId);
+        assertNull(queue.skipToNext());
+        assertNull(queue.peekNext());
+        assertEquals(2, queue.getCurrentIndex());
+
+        assertEquals("track_1", queue.skipToPrevious().mediaId);
+        assertEquals("track_0", queue.skipToPrevious().mediaId);
+        assertEquals("track_0", queue.skipToPrevious().mediaId);
+
+        queue.setRepeatMode(PlaybackQueue.REPEAT_ALL);
+        assertEquals("track_2", queue.skipToPrevious().mediaId);
+        assertEquals("track_0", queue.peekNext().mediaId);
+        assertEquals("track_0", queue.advance().mediaId);
+    }
+
+    @Test
+    public void repeatOne_holdsCompletionButNotUserSkips() {
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.set(entries(3), 0);
+        queue.setRepeatMode(PlaybackQueue.REPEAT_ONE);
+
+        assertEquals("track_0", queue.peekNext().mediaId);
+        assertEquals("track_0", queue.advance().mediaId);
+        assertEquals("track_1", queue.skipToNext().mediaId);
+    }
+
+    @Test
+    public void shuffle_keepsCurrentEntryAndVisitsEveryEntryOnce() {
+        PlaybackQueue queue = new PlaybackQueue(new Random(42));
+        queue.set(entries(20), 7);
+        queue.setShuffle(true);
+        assertEquals(7, queue.getCurrentIndex());
+
+        Set<Integer> visited = new HashSet<>();
+        visited.add(queue.getCurrentIndex());
+        while (queue.skipToNext() != null) {
+            assertTrue(visited.add(queue.getCurrentIndex()));
+        }
+        assertEquals(20, visited.size());
+
+        // Turning shuffle off resumes the set order from the current entry
+        int current = queue.getCurrentIndex();
+        queue.setShuffle(false);
+        assertEquals(current, queue.getCurrentIndex());
+        if (current + 1 < 20) {
+            assertSame(queue.getEntries().get(current + 1), queue.peekNext());
+        } else {
+            assertNull(queue.peekNext());
+        }
+    }
+
+    @Test
+    public void skipTo_andEmptyQueue() {
+        PlaybackQueue queue = new PlaybackQueue();
+        assertNull(queue.current());
+        assertNull(queue.skipToNext());
+        assertNull(queue.skipToPrevious());
+        assertEquals(-1, queue.getCurrentIndex());
+
+        queue.set(entries(4), 0);
+        assertEquals("track_3", queue.skipTo(3).mediaId);
+        assertNull(queue.skipTo(4));
+        assertEquals(3, queue.getCurrentIndex());
+
+        queue.set(new ArrayList<>(), 0);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.current());
+    }
+}
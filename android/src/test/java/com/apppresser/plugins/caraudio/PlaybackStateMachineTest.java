@@ -0,0 +1,133 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import com.apppresser.plugins.caraudio.PlaybackStateMachine.State;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class PlaybackStateMachineTest {
+
+    @Test
+    public void table_rejectsIllegalTransitions() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertFalse(machine.transition(State.PLAYING, "play without prepare"));
+        assertFalse(machine.transition(State.PAUSED, "pause while idle"));
+        assertEquals(State.IDLE, machine.get());
+
+        long generation = machine.begin(State.PREPARING, "play");
+        assertTrue(machine.transition(generation, State.PREPARED, "prepared"));
+        assertTrue(machine.transition(generation, State.PLAYING, "started"));
+        assertTrue(machine.transition(State.PAUSED, "pause"));
+        assertTrue(machine.transition(State.STOPPED, "stop"));
+        assertFalse(machine.transition(State.PAUSED, "pause after stop"));
+        assertFalse(machine.transition(State.ERROR, "error after stop"));
+        assertEquals(State.STOPPED, machine.get());
+    }
+
+    @Test
+    public void table_followsTheMediaPlayerLifecycle() {
+        // Only a track being prepared becomes prepared
+        for (State from : new State[] {State.PLAYING, State.PAUSED, State.STOPPED, State.ERROR, State.IDLE}) {
+            assertFalse(from + " to PREPARED", PlaybackStateMachine.isLegal(from, State.PREPARED));
+        }
+        assertFalse(PlaybackStateMachine.isLegal(State.PREPARING, State.PLAYING));
+        assertFalse(PlaybackStateMachine.isLegal(State.PREPARED, State.PAUSED));
+        assertFalse(PlaybackStateMachine.isLegal(State.ERROR, State.PLAYING));
+        assertFalse(PlaybackStateMachine.isLegal(State.PLAYING, State.PLAYING));
+        for (State from : State.values()) {
+            // A new track is needed to prepare again, and release() returns every state to IDLE
+            assertFalse(from + " to PREPARING", PlaybackStateMachine.isLegal(from, State.PREPARING));
+            assertEquals(from + " to IDLE", from != State.IDLE, PlaybackStateMachine.isLegal(from, State.IDLE));
+        }
+    }
+
+    @Test
+    public void begin_startsNewTracksOnlyWhereAPlayerCanTakeOver() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        // The gapless handover needs a playing track to hand over from
+        assertEquals(-1, machine.begin(State.PLAYING, "gaplessHandover"));
+        assertEquals(State.IDLE, machine.get());
+
+        long generation = machine.begin(State.PREPARED, "nextAdopted");
+        assertTrue(machine.transition(generation, State.PLAYING, "startedPrepared"));
+        long handover = machine.begin(State.PLAYING, "gaplessHandover");
+        assertEquals(generation + 1, handover);
+        assertTrue(machine.transition(State.STOPPED, "completed"));
+
+        // Stopped or failed tracks are replaced by preparing another
+        assertFalse(machine.transition(State.PREPARED, "prepared after stop"));
+        assertTrue(machine.begin(State.PREPARING, "play") > handover);
+        assertTrue(machine.transition(State.ERROR, "prepareFailed"));
+        assertTrue(machine.begin(State.PREPARED, "prepareAheadAdopted") >= 0);
+    }
+
+    @Test
+    public void staleGeneration_isDropped() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        long first = machine.begin(State.PREPARING, "play a");
+        long second = machine.begin(State.PREPARING, "play b");
+        assertTrue(second > first);
+        assertFalse(machine.isCurrent(first));
+
+        // A late onPrepared for the first URL must not start the second
+        assertFalse(machine.transition(first, State.PREPARED, "prepared"));
+        assertEquals(State.PREPARING, machine.get());
+        assertTrue(machine.transition(second, State.PREPARED, "prepared"));
+    }
+
+    @Test
+    public void log_recordsAttemptsAndIsBounded() {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        long generation = machine.begin(State.PREPARING, "play");
+        machine.transition(State.PAUSED, "pause while preparing");
+        machine.transition(generation, State.ERROR, "timeout");
+
+        List<PlaybackStateMachine.Transition> log = machine.dumpLog();
+        assertEquals(3, log.size());
+        assertEquals(State.IDLE, log.get(0).from);
+        assertEquals(generation, log.get(0).generation);
+        assertFalse(log.get(1).accepted);
+        assertEquals("pause while preparing", log.get(1).reason);
+        assertEquals(State.ERROR, log.get(2).to);
+        assertTrue(log.get(2).accepted);
+
+        for (int i = 0; i < 200; i++) {
+            machine.begin(State.PREPARING, "play " + i);
+        }
+        log = machine.dumpLog();
+        assertEquals(64, log.size());
+        assertEquals("play 199", log.get(63).reason);
+    }
+
+    @Test
+    public void concurrentBegins_eachGetADistinctGeneration() throws InterruptedException {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        int threads = 4;
+        int perThread = 1000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    machine.begin(State.PREPARING, "play");
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, machine.generation());
+        assertEquals(State.PREPARING, machine.get());
+    }
+}
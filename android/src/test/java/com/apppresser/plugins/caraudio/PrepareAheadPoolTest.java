@@ -0,0 +1,95 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class PrepareAheadPoolTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final List<String> released = new ArrayList<>();
+
+    private PrepareAheadPool<String> newPool(int maxPlayers, long maxBytes) {
+        PrepareAheadPool<String> pool = new PrepareAheadPool<>(released::add, 4 * MB);
+        pool.setLimits(maxPlayers, maxBytes);
+        return pool;
+    }
+
+    @Test
+    public void disabledPool_takesNothing() {
+        PrepareAheadPool<String> pool = newPool(0, 0);
+        assertEquals(0, pool.capacity());
+        assertFalse(pool.put("a", "player_a"));
+        assertEquals(0, pool.size());
+        assertNull(pool.take("a"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        PrepareAheadPool<String> pool = newPool(2, 0);
+        pool.put("a", "player_a");
+        pool.put("b", "player_b");
+        assertTrue(pool.touch("a"));
+
+        pool.put("c", "player_c");
+        assertEquals(2, pool.size());
+        assertEquals(1, released.size());
+        assertEquals("player_b", released.get(0));
+        assertFalse(pool.touch("b"));
+
+        // Re-preparing a pooled URL releases the old player
+        pool.put("c", "player_c2");
+        assertEquals("player_c", released.get(1));
+        assertEquals("player_c2", pool.take("c").player);
+    }
+
+    @Test
+    public void memoryCap_limitsCapacity() {
+        PrepareAheadPool<String> pool = newPool(5, 9 * MB);
+        assertEquals(2, pool.capacity());
+        pool.put("a", "player_a");
+        pool.put("b", "player_b");
+        pool.put("c", "player_c");
+        assertEquals(2, pool.size());
+
+        pool.setLimits(5, 4 * MB);
+        assertEquals(1, pool.size());
+        assertTrue(pool.touch("c"));
+    }
+
+    @Test
+    public void take_handsOverWithoutReleasing() {
+        PrepareAheadPool<String> pool = newPool(3, 0);
+        pool.put("a", "player_a");
+        pool.put("b", "player_b");
+        assertTrue(pool.markPrepared("player_a"));
+        assertFalse(pool.markPrepared("unknown"));
+
+        PrepareAheadPool.Entry<String> hit = pool.take("a");
+        assertEquals("player_a", hit.player);
+        assertTrue(hit.prepared);
+        assertFalse(pool.take("b").prepared);
+        assertTrue(released.isEmpty());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void discardAndClear_releasePlayers() {
+        PrepareAheadPool<String> pool = newPool(3, 0);
+        pool.put("a", "player_a");
+        pool.put("b", "player_b");
+        pool.put("c", "player_c");
+
+        assertTrue(pool.discard("player_b"));
+        assertFalse(pool.discard("player_b"));
+        pool.trimTo(1);
+        assertEquals("player_a", released.get(1));
+        assertTrue(pool.touch("c"));
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertEquals(3, released.size());
+    }
+}
@@ -0,0 +1,97 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    private static final String A = "https://cdn-a.example.com/track.mp3";
+    private static final String A2 = "https://CDN-A.example.com:443/other.mp3?x=1";
+    private static final String B = "https://cdn-b.example.com/track.mp3";
+
+    @Test
+    public void hostOf_normalisesHttpUrlsAndIgnoresOthers() {
+        assertEquals("cdn-a.example.com", RetryPolicy.hostOf(A));
+        assertEquals("cdn-a.example.com:443", RetryPolicy.hostOf(A2));
+        assertEquals("host", RetryPolicy.hostOf("http://user:pw@host#frag"));
+        assertNull(RetryPolicy.hostOf("/data/user/0/app/files/a.audio"));
+        assertNull(RetryPolicy.hostOf("content://media/external/audio/1"));
+    }
+
+    @Test
+    public void timeout_followsMeasuredLatencyAndDoublesPerRetry() {
+        RetryPolicy policy = new RetryPolicy(new Random(1));
+        assertEquals(RetryPolicy.DEFAULT_TIMEOUT_MS, policy.prepareTimeout(A, 1));
+
+        for (int i = 0; i < 20; i++) {
+            policy.recordSuccess(A, 1000);
+        }
+        long fast = policy.prepareTimeout(A, 1);
+        assertEquals(RetryPolicy.MIN_TIMEOUT_MS, fast);
+        assertEquals(2 * fast, policy.prepareTimeout(A, 2));
+        assertEquals(RetryPolicy.MAX_TIMEOUT_MS, policy.prepareTimeout(A, 5));
+
+        // An unmeasured host falls back to the estimate across all hosts
+        assertEquals(fast, policy.prepareTimeout(B, 1));
+
+        for (int i = 0; i < 20; i++) {
+            policy.recordSuccess(B, 6000);
+        }
+        long slow = policy.prepareTimeout(B, 1);
+        assertTrue(slow > 6000 && slow <= RetryPolicy.MAX_TIMEOUT_MS);
+        assertEquals(fast, policy.prepareTimeout(A, 1));
+    }
+
+    @Test
+    public void backoff_growsExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy(new Random(7));
+        for (int attempt = 2; attempt <= 8; attempt++) {
+            long cap = Math.min(RetryPolicy.MAX_BACKOFF_MS, RetryPolicy.BASE_BACKOFF_MS << (attempt - 2));
+            long delay = policy.backoff(attempt);
+            assertTrue(delay >= cap / 2 && delay <= cap);
+        }
+    }
+
+    @Test
+    public void breaker_opensAfterRepeatedFailuresAndLetsOneTrialThrough() {
+        RetryPolicy policy = new RetryPolicy(new Random(1));
+        long now = 1000;
+        assertFalse(policy.recordFailure(A, now));
+        assertFalse(policy.recordFailure(A, now));
+        assertTrue(policy.recordFailure(A, now));
+
+        // Open: the host fails fast, other hosts are unaffected
+        assertFalse(policy.checkHost(A, now + 1));
+        assertEquals(RetryPolicy.CIRCUIT_OPEN_MS - 1, policy.retryAfter(A, now + 1));
+        assertTrue(policy.checkHost(B, now + 1));
+
+        // Half-open: one trial, which fails and doubles the open period
+        now += RetryPolicy.CIRCUIT_OPEN_MS;
+        assertTrue(policy.checkHost(A, now));
+        assertFalse(policy.checkHost(A, now));
+        assertTrue(policy.recordFailure(A, now));
+        assertEquals(2 * RetryPolicy.CIRCUIT_OPEN_MS, policy.retryAfter(A, now));
+
+        // A successful trial closes it again
+        now += 2 * RetryPolicy.CIRCUIT_OPEN_MS;
+        assertTrue(policy.checkHost(A, now));
+        policy.recordSuccess(A, 800);
+        assertTrue(policy.checkHost(A, now));
+        assertTrue(policy.checkHost(A, now));
+        assertEquals(0, policy.retryAfter(A, now));
+    }
+
+    @Test
+    public void breaker_trialThatNeverReportsExpires() {
+        RetryPolicy policy = new RetryPolicy(new Random(1));
+        for (int i = 0; i < RetryPolicy.CIRCUIT_FAILURES; i++) {
+            policy.recordFailure(A, 0);
+        }
+        long now = RetryPolicy.CIRCUIT_OPEN_MS;
+        assertTrue(policy.checkHost(A, now));
+        assertFalse(policy.checkHost(A, now + RetryPolicy.MAX_TIMEOUT_MS - 1));
+        assertTrue(policy.checkHost(A, now + RetryPolicy.MAX_TIMEOUT_MS));
+    }
+}
@@ -0,0 +1,55 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SeekCoalescerTest {
+
+    @Test
+    public void scrubbing_seeksOnlyToTheLatestTargetAfterEachCompletion() {
+        SeekCoalescer seeks = new SeekCoalescer();
+        assertFalse(seeks.isSeeking(1));
+        assertTrue(seeks.request(1000, false, 1));
+        assertTrue(seeks.isSeeking(1));
+
+        // The car sends a burst of targets while the first seek runs
+        for (long position = 2000; position <= 30_000; position += 1000) {
+            assertFalse(seeks.request(position, false, 1));
+        }
+        assertFalse(seeks.request(31_000, true, 1));
+
+        SeekCoalescer.Seek next = seeks.complete();
+        assertEquals(31_000, next.positionMs);
+        assertTrue(next.precise);
+        assertTrue(seeks.isSeeking(1));
+
+        // Nothing was requested during the second seek, so seeking is done
+        assertNull(seeks.complete());
+        assertFalse(seeks.isSeeking(1));
+        assertTrue(seeks.request(5000, false, 1));
+    }
+
+    @Test
+    public void newTrack_endsTheSeeksOfTheOldOne() {
+        SeekCoalescer seeks = new SeekCoalescer();
+        assertTrue(seeks.request(1000, false, 1));
+        assertFalse(seeks.request(2000, false, 1));
+
+        // Track 2 began before the seek completed: its seek starts at once and
+        // the target queued for track 1 is dropped
+        assertFalse(seeks.isSeeking(2));
+        assertTrue(seeks.request(500, true, 2));
+        assertNull(seeks.complete());
+    }
+
+    @Test
+    public void clamp_keepsTargetsWithinTheTrack() {
+        assertEquals(0, SeekCoalescer.clamp(-500, 60_000));
+        assertEquals(60_000, SeekCoalescer.clamp(90_000, 60_000));
+        assertEquals(30_000, SeekCoalescer.clamp(30_000, 60_000));
+        // Live streams report no duration
+        assertEquals(90_000, SeekCoalescer.clamp(90_000, -1));
+        assertEquals(90_000, SeekCoalescer.clamp(90_000, 0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.apppresser.plugins.caraudio;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TraceTest {
+
+    @Before
+    public void setUp() {
+        Trace.setLevel(Trace.OFF);
+        Trace.setLogcat(false);
+        Trace.clear();
+    }
+
+    @After
+    public void tearDown() {
+        Trace.setLevel(Trace.OFF);
+        Trace.clear();
+    }
+
+    @Test
+    public void level_gatesWhatIsRecorded() {
+        Trace.i("Tag", "off");
+        Trace.d("Tag", "off", 1);
+        assertTrue(Trace.dump().isEmpty());
+        assertFalse(Trace.debug());
+
+        Trace.setLevel(Trace.INFO);
+        Trace.i("Tag", "info", "detail");
+        Trace.d("Tag", "debug", "detail", 2);
+        assertEquals(1, Trace.dump().size());
+
+        Trace.setLevel(Trace.DEBUG);
+        assertTrue(Trace.debug());
+        Trace.d("Tag", "debug", "detail", 2);
+        List<Trace.Event> events = Trace.dump();
+        assertEquals(2, events.size());
+        assertEquals(Trace.INFO, events.get(0).level);
+        assertEquals(Trace.DEBUG, events.get(1).level);
+        assertEquals("Tag", events.get(1).tag);
+        assertEquals("debug detail 2", events.get(1).toString());
+        assertEquals("info detail", events.get(0).toString());
+    }
+
+    @Test
+    public void dump_keepsTheNewestEventsOldestFirst() {
+        Trace.setLevel(Trace.INFO);
+        for (int i = 0; i < 2000; i++) {
+            Trace.i("Tag", "event", i);
+        }
+        List<Trace.Event> events = Trace.dump();
+        assertEquals(512, events.size());
+        assertEquals(2000 - 512, events.get(0).value);
+        assertEquals(1999, events.get(511).value);
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i).timeNanos >= events.get(i - 1).timeNanos);
+        }
+
+        Trace.clear();
+        assertTrue(Trace.dump().isEmpty());
+    }
+
+    @Test
+    public void levels_parseAndClamp() {
+        assertEquals(Trace.DEBUG, Trace.parseLevel("DEBUG"));
+        assertEquals(Trace.INFO, Trace.parseLevel("info"));
+        assertEquals(Trace.OFF, Trace.parseLevel("verbose"));
+        assertEquals(Trace.OFF, Trace.parseLevel(null));
+        assertEquals("debug", Trace.levelName(Trace.DEBUG));
+        assertEquals("off", Trace.levelName(42));
+
+        Trace.setLevel(42);
+        assertEquals(Trace.DEBUG, Trace.getLevel());
+        Trace.setLevel(-1);
+        assertEquals(Trace.OFF, Trace.getLevel());
+    }
+}
@@ -5,6 +5,23 @@ export interface PlayOptions {
   album?: string;
   artwork?: string;
   duration?: number;
+  /**
+   * Mirrors of url, tried in order when it fails to prepare.
+   */
+  alternateUrls?: string[];
+}
+
+export interface SeekOptions {
+  /**
+   * Target position in milliseconds.
+   */
+  position: number;
+  /**
+   * 'precise' lands on the exact position; 'fast' lands on the nearest sync frame,
+   * which is quicker on streams. Defaults to 'precise'; Android 8+ only, earlier
+   * versions let the player choose.
+   */
+  mode?: 'precise' | 'fast';
 }
 
 export interface PlaybackStatus {
@@ -15,8 +32,27 @@ export interface PlaybackStatus {
 }
 
 export interface AndroidAutoCommandData {
-  action: 'play' | 'pause' | 'stop' | 'skipToNext' | 'skipToPrevious' | 'seekTo';
+  action: 'play' | 'pause' | 'stop' | 'skipToNext' | 'skipToPrevious' | 'seekTo' | 'trackSelected' | 'trackChanged';
   position?: number;
+  /**
+   * Why the native side changed track, sent with 'trackChanged':
+   * 'completion', 'skipToNext', 'skipToPrevious', 'skipToQueueItem' or 'queue'.
+   */
+  reason?: string;
+  /**
+   * Index in the queue passed to setQueue, when the track came from it.
+   */
+  queueIndex?: number;
+  mediaId?: string;
+  /**
+   * Track fields, sent with 'trackSelected' and 'trackChanged'.
+   */
+  url?: string;
+  title?: string;
+  artist?: string;
+  album?: string;
+  artwork?: string;
+  duration?: number;
 }
 
 export interface AndroidAutoStatus {
@@ -54,6 +90,353 @@ export interface MediaItemData {
 
 export interface SetMediaItemsOptions {
   items: MediaItemData[];
+  /**
+   * Optional hash identifying this catalog. When it matches the catalog currently applied,
+   * the call returns immediately without rebuilding anything.
+   */
+  hash?: string;
+}
+
+export interface SetMediaItemsResult {
+  success: boolean;
+  /**
+   * Number of items whose mediaId was not in the catalog before; 0 when the catalog was unchanged.
+   */
+  itemsAdded: number;
+  /**
+   * Number of parents whose children changed and were re-sent to Android Auto.
+   */
+  changedParents?: number;
+  /**
+   * Hash of the catalog now applied: the one passed in, or one computed from the items.
+   */
+  hash?: string;
+}
+
+export interface LoadMediaItemsFromFileOptions {
+  /**
+   * Absolute path of a catalog JSON file readable by the app.
+   */
+  path?: string;
+  /**
+   * content:// or file:// URI of a catalog JSON document. Used instead of path when both are set.
+   */
+  uri?: string;
+  /**
+   * Optional hash identifying this catalog; overrides a "hash" field in the document.
+   */
+  hash?: string;
+}
+
+export interface LoadMediaItemsFromFileResult extends SetMediaItemsResult {
+  /**
+   * Items read from the document, new or not.
+   */
+  itemsRead?: number;
+  /**
+   * Items ignored because they were missing type, mediaId or title.
+   */
+  itemsSkipped?: number;
+}
+
+export interface MediaItemsLoadProgress {
+  itemsRead: number;
+  bytesRead: number;
+  /**
+   * Size of the document in bytes, or -1 when unknown.
+   */
+  totalBytes: number;
+}
+
+export interface CatalogOptions {
+  /**
+   * How long catalog changes are coalesced before Android Auto is notified, in milliseconds.
+   */
+  notifyDelayMs?: number;
+  /**
+   * When enabled, folders with no children are requested through the `loadChildren` event
+   * the first time Android Auto opens them. Answer with `provideChildren`.
+   */
+  lazyLoading?: boolean;
+  /**
+   * Maximum number of lazily loaded folders kept in memory; the least recently browsed are evicted.
+   */
+  lazyCacheSize?: number;
+  /**
+   * Store the catalog in a compact form that shares repeated strings such as artist,
+   * album and artwork. Reduces memory for catalogs with tens of thousands of items.
+   */
+  compactStorage?: boolean;
+}
+
+export interface ProvideChildrenOptions {
+  parentId: string;
+  items: MediaItemData[];
+}
+
+export interface LoadChildrenRequest {
+  parentId: string;
+}
+
+export interface UpdateItemOptions {
+  mediaId: string;
+  /**
+   * A different parentId moves the item to the end of that folder.
+   */
+  parentId?: string;
+  title?: string;
+  subtitle?: string;
+  description?: string;
+  url?: string;
+  artwork?: string;
+}
+
+export interface MoveItemOptions {
+  mediaId: string;
+  parentId: string;
+  /**
+   * Position among the new siblings; appended when omitted.
+   */
+  position?: number;
+}
+
+export interface QueueItem {
+  /**
+   * Catalog mediaId; fields left out, including url, are filled in from the catalog item.
+   */
+  mediaId?: string;
+  url?: string;
+  title?: string;
+  artist?: string;
+  album?: string;
+  artwork?: string;
+  duration?: number;
+  /**
+   * Mirrors of url, tried in order when it fails to prepare.
+   */
+  alternateUrls?: string[];
+}
+
+export interface SetQueueOptions {
+  items: QueueItem[];
+  /**
+   * Index of the current item. Defaults to 0.
+   */
+  startIndex?: number;
+  /**
+   * Start playing the current item now. Defaults to false.
+   */
+  play?: boolean;
+  /**
+   * Queue title shown by Android Auto.
+   */
+  title?: string;
+}
+
+export type RepeatMode = 'none' | 'one' | 'all';
+
+export interface QueueState {
+  success: boolean;
+  /**
+   * Index of the current item in the queue as set, or -1 without a queue.
+   */
+  index: number;
+  shuffle: boolean;
+  repeat: RepeatMode;
+}
+
+export interface PlaybackOptions {
+  /**
+   * How many players may be prepared ahead for likely selections: the first
+   * playable item of a folder browsed in Android Auto, prepare requests from
+   * the car, and prepareAhead() hints. 0, the default, turns this off.
+   */
+  prepareAheadPlayers?: number;
+  /**
+   * Memory budget for prepared players, charged at an estimated 4 MB each. No limit when omitted.
+   */
+  prepareAheadMemoryMb?: number;
+  /**
+   * Size of the on-disk cache that streamed audio is kept in, so replays,
+   * seeks back and resumes don't go to the network. Defaults to 256 MB;
+   * 0 turns the cache off and deletes it.
+   */
+  audioCacheMb?: number;
+  /**
+   * How many times play() tries an item's URLs, with a backoff between
+   * rounds, before it reports an error. Defaults to 3; 1 disables retries.
+   */
+  prepareAttempts?: number;
+}
+
+export interface PrepareAheadItem {
+  url?: string;
+  /**
+   * Catalog mediaId, used when url is omitted.
+   */
+  mediaId?: string;
+}
+
+export interface DownloadItem {
+  url?: string;
+  /**
+   * Catalog mediaId, used to look up the URL when url is omitted and reported back in events.
+   */
+  mediaId?: string;
+  /**
+   * Expected SHA-256 of the file as hex; a download that doesn't match is deleted and reported as failed.
+   */
+  sha256?: string;
+}
+
+export interface DownloadTarget {
+  url?: string;
+  mediaId?: string;
+}
+
+export type DownloadState = 'queued' | 'downloading' | 'completed' | 'failed' | 'cancelled';
+
+export interface DownloadStatus {
+  url: string;
+  mediaId?: string;
+  state: DownloadState;
+  bytesDownloaded: number;
+  /**
+   * -1 until the server has reported the size.
+   */
+  totalBytes: number;
+  error?: string;
+}
+
+export interface DownloadOptions {
+  /**
+   * Downloads that run at once. Defaults to 2.
+   */
+  maxConcurrent?: number;
+  /**
+   * Storage for completed downloads. Defaults to 1024 MB; the least recently
+   * played downloads are deleted to make room for new ones.
+   */
+  quotaMb?: number;
+}
+
+export interface DownloadsResult {
+  downloads: DownloadStatus[];
+  usedBytes: number;
+  quotaBytes: number;
+}
+
+export type TraceLevel = 'off' | 'info' | 'debug';
+
+export interface TraceOptions {
+  /**
+   * Which native events are recorded. Defaults to 'off', which records nothing.
+   */
+  level: TraceLevel;
+  /**
+   * Also print recorded events to Logcat.
+   */
+  logcat?: boolean;
+}
+
+export interface TraceEvent {
+  /**
+   * Milliseconds since the event was recorded.
+   */
+  ageMs: number;
+  level: TraceLevel;
+  tag: string;
+  event: string;
+  detail?: string;
+  value?: number;
+}
+
+export type NativePlaybackState = 'idle' | 'preparing' | 'prepared' | 'playing' | 'paused' | 'stopped' | 'error';
+
+export interface StateTransition {
+  /**
+   * Milliseconds since the transition was attempted.
+   */
+  ageMs: number;
+  /**
+   * Increases with each new track; stale callbacks carry an older one.
+   */
+  generation: number;
+  from: NativePlaybackState;
+  to: NativePlaybackState;
+  reason: string;
+  /**
+   * False for transitions the state table rejected and for stale callbacks.
+   */
+  accepted: boolean;
+}
+
+export interface PlaybackQuality {
+  /**
+   * URL that was served; an alternate URL when the main one failed.
+   */
+  url: string;
+  host?: string;
+  /**
+   * Epoch milliseconds when the track was requested.
+   */
+  startedAt: number;
+  /**
+   * Milliseconds from the request to the first audio; missing until it plays.
+   */
+  timeToFirstAudioMs?: number;
+  /**
+   * Times playback ran dry and rebuffered after it had started. Seeks are not counted.
+   */
+  stallCount: number;
+  stallTimeMs: number;
+  playTimeMs: number;
+  /**
+   * Stall time over stall plus play time, 0 to 1.
+   */
+  stallRatio: number;
+  /**
+   * Last buffering progress the player reported; missing for local files.
+   */
+  bufferedPercent?: number;
+  /**
+   * The track ended in an error.
+   */
+  failed: boolean;
+  active: boolean;
+}
+
+export interface LatencyHistogram {
+  count: number;
+  sumMs: number;
+  maxMs: number;
+  /**
+   * Percentile estimates: the upper bound of the bucket each falls in.
+   */
+  p50Ms: number;
+  p95Ms: number;
+  p99Ms: number;
+  /**
+   * Counts per bucket, matching bucketBoundsMs plus one bucket for everything above.
+   */
+  buckets: number[];
+}
+
+export interface PlaybackStats {
+  /**
+   * Event counts, keyed by name or name/label, e.g. 'player.error/1/-1004',
+   * 'session.command/play', 'browse.loadChildren/<parentId>', 'audio.focusLoss/transient'.
+   */
+  counters: { [name: string]: number };
+  /**
+   * Current values, e.g. 'catalog.items'.
+   */
+  gauges: { [name: string]: number };
+  /**
+   * Latencies, e.g. 'player.prepareMs', 'player.prepareNextMs', 'browse.loadChildrenMs/<parentId>'.
+   */
+  histograms: { [name: string]: LatencyHistogram };
+  bucketBoundsMs: number[];
 }
 
 export interface CarAudioPlugin {
@@ -61,25 +444,81 @@ export interface CarAudioPlugin {
   pause(): Promise<PlaybackStatus>;
   resume(): Promise<PlaybackStatus>;
   stop(): Promise<PlaybackStatus>;
+  seekTo(options: SeekOptions): Promise<{ success: boolean }>;
   getStatus(): Promise<PlaybackStatus>;
   ensureAudibleVolume(): Promise<{ success: boolean }>;
   
   // Android Auto methods
   enableAndroidAuto(options: { enabled: boolean }): Promise<AndroidAutoStatus>;
   updateAndroidAutoNowPlaying(options: PlayOptions): Promise<{ success: boolean }>;
+  /**
+   * Prepare the track that follows the current one, so it starts without a gap.
+   * Omit `url` to clear it.
+   */
+  setNextTrack(options: Partial<PlayOptions>): Promise<{ success: boolean }>;
+  
+  // Native queue: skips and track completion move through it without waiting for JavaScript,
+  // which is told afterwards with a 'trackChanged' androidAutoCommand. While a queue is set it
+  // drives setNextTrack; an empty items array clears it.
+  setQueue(options: SetQueueOptions): Promise<{ success: boolean; itemsAdded: number }>;
+  skipToNext(): Promise<QueueState>;
+  skipToPrevious(): Promise<QueueState>;
+  skipToQueueItem(options: { index: number }): Promise<QueueState>;
+  setQueueMode(options: { shuffle?: boolean; repeat?: RepeatMode }): Promise<QueueState>;
+  
+  // Prepare-ahead: a play() of a prepared URL starts without waiting for connect and prepare
+  configurePlayback(options: PlaybackOptions): Promise<{ success: boolean; prepareAheadCapacity: number; audioCacheBytes: number; prepareAttempts: number }>;
+  prepareAhead(options: { items: PrepareAheadItem[] }): Promise<{ success: boolean; requested: number }>;
+  
+  // Offline downloads: downloaded tracks play from storage, including ones picked in Android Auto
+  downloadItems(options: { items: DownloadItem[] }): Promise<{ success: boolean; queued: number }>;
+  cancelDownload(options: DownloadTarget): Promise<{ success: boolean }>;
+  removeDownload(options: DownloadTarget): Promise<{ success: boolean }>;
+  getDownloads(): Promise<DownloadsResult>;
+  configureDownloads(options: DownloadOptions): Promise<{ success: boolean; usedBytes: number; quotaBytes: number }>;
   
   // Media item management methods
   clearMediaItems(): Promise<{ success: boolean }>;
   addBrowsableItem(options: BrowsableItemOptions): Promise<{ success: boolean }>;
   addPlayableItem(options: PlayableItemOptions): Promise<{ success: boolean }>;
-  setMediaItems(options: SetMediaItemsOptions): Promise<{ success: boolean; itemsAdded: number }>;
+  setMediaItems(options: SetMediaItemsOptions): Promise<SetMediaItemsResult>;
   refreshAndroidAutoUI(): Promise<{ success: boolean }>;
+  configureCatalog(options: CatalogOptions): Promise<{ success: boolean }>;
+  loadMediaItemsFromFile(options: LoadMediaItemsFromFileOptions): Promise<LoadMediaItemsFromFileResult>;
+  provideChildren(options: ProvideChildrenOptions): Promise<{ success: boolean; itemsAdded: number }>;
+  removeItem(options: { mediaId: string }): Promise<{ success: boolean }>;
+  removeSubtree(options: { mediaId: string }): Promise<{ success: boolean; itemsRemoved: number }>;
+  updateItem(options: UpdateItemOptions): Promise<{ success: boolean }>;
+  moveItem(options: MoveItemOptions): Promise<{ success: boolean }>;
+  
+  // Diagnostics
+  setTraceLevel(options: TraceOptions): Promise<{ success: boolean; level: TraceLevel }>;
+  dumpTrace(options?: { clear?: boolean }): Promise<{ events: TraceEvent[] }>;
+  /**
+   * Snapshot of the native playback metrics. With reset, counters and histograms
+   * start again from zero, so successive snapshots can be shipped as deltas.
+   */
+  getPlaybackStats(options?: { reset?: boolean }): Promise<PlaybackStats>;
+  getPlaybackQuality(): Promise<{ current?: PlaybackQuality; recent: PlaybackQuality[] }>;
+  dumpStateLog(): Promise<{ state: NativePlaybackState; generation: number; transitions: StateTransition[] }>;
   
   // Event listeners
   addListener(
     eventName: 'androidAutoCommand',
     listenerFunc: (data: AndroidAutoCommandData) => void,
   ): Promise<any>;
+  addListener(
+    eventName: 'mediaItemsLoadProgress',
+    listenerFunc: (data: MediaItemsLoadProgress) => void,
+  ): Promise<any>;
+  addListener(
+    eventName: 'loadChildren',
+    listenerFunc: (data: LoadChildrenRequest) => void,
+  ): Promise<any>;
+  addListener(
+    eventName: 'downloadProgress',
+    listenerFunc: (data: DownloadStatus) => void,
+  ): Promise<any>;
   
   removeAllListeners(): Promise<void>;
 }
@@ -7,7 +7,31 @@ import type {
   AndroidAutoStatus,
   BrowsableItemOptions,
   PlayableItemOptions,
-  SetMediaItemsOptions
+  SetMediaItemsOptions,
+  SetMediaItemsResult,
+  CatalogOptions,
+  LoadMediaItemsFromFileOptions,
+  LoadMediaItemsFromFileResult,
+  ProvideChildrenOptions,
+  TraceOptions,
+  TraceLevel,
+  TraceEvent,
+  UpdateItemOptions,
+  MoveItemOptions,
+  SetQueueOptions,
+  QueueState,
+  RepeatMode,
+  PlaybackOptions,
+  PrepareAheadItem,
+  DownloadItem,
+  DownloadTarget,
+  DownloadOptions,
+  DownloadsResult,
+  NativePlaybackState,
+  StateTransition,
+  SeekOptions,
+  PlaybackQuality,
+  PlaybackStats
 } from './definitions';
 
 export class CarAudioWeb extends WebPlugin implements CarAudioPlugin {
@@ -27,6 +51,10 @@ export class CarAudioWeb extends WebPlugin implements CarAudioPlugin {
     console.warn('CarAudio.stop is not implemented for web.');
     return Promise.reject('Not implemented for web.');
   }
+  async seekTo(options: SeekOptions): Promise<{ success: boolean }> {
+    console.warn('CarAudio.seekTo is not implemented for web.', options);
+    return Promise.reject('Not implemented for web.');
+  }
   async getStatus(): Promise<PlaybackStatus> {
     console.warn('CarAudio.getStatus is not implemented for web.');
     return Promise.reject('Not implemented for web.');
@@ -63,7 +91,7 @@ export class CarAudioWeb extends WebPlugin implements CarAudioPlugin {
     return Promise.resolve({ success: false });
   }
 
-  async setMediaItems(options: SetMediaItemsOptions): Promise<{ success: boolean; itemsAdded: number }> {
+  async setMediaItems(options: SetMediaItemsOptions): Promise<SetMediaItemsResult> {
     console.warn('CarAudio.setMediaItems is not available on web platform.', options);
     return Promise.resolve({ success: false, itemsAdded: 0 });
   }
@@ -72,4 +100,129 @@ export class CarAudioWeb extends WebPlugin implements CarAudioPlugin {
     console.warn('CarAudio.refreshAndroidAutoUI is not available on web platform.');
     return Promise.resolve({ success: false });
   }
+
+  async configureCatalog(options: CatalogOptions): Promise<{ success: boolean }> {
+    console.warn('CarAudio.configureCatalog is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async loadMediaItemsFromFile(options: LoadMediaItemsFromFileOptions): Promise<LoadMediaItemsFromFileResult> {
+    console.warn('CarAudio.loadMediaItemsFromFile is not available on web platform.', options);
+    return Promise.resolve({ success: false, itemsAdded: 0 });
+  }
+
+  async provideChildren(options: ProvideChildrenOptions): Promise<{ success: boolean; itemsAdded: number }> {
+    console.warn('CarAudio.provideChildren is not available on web platform.', options);
+    return Promise.resolve({ success: false, itemsAdded: 0 });
+  }
+
+  async setTraceLevel(options: TraceOptions): Promise<{ success: boolean; level: TraceLevel }> {
+    console.warn('CarAudio.setTraceLevel is not available on web platform.', options);
+    return Promise.resolve({ success: false, level: 'off' });
+  }
+
+  async dumpTrace(options?: { clear?: boolean }): Promise<{ events: TraceEvent[] }> {
+    console.warn('CarAudio.dumpTrace is not available on web platform.', options);
+    return Promise.resolve({ events: [] });
+  }
+
+  async removeItem(options: { mediaId: string }): Promise<{ success: boolean }> {
+    console.warn('CarAudio.removeItem is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async removeSubtree(options: { mediaId: string }): Promise<{ success: boolean; itemsRemoved: number }> {
+    console.warn('CarAudio.removeSubtree is not available on web platform.', options);
+    return Promise.resolve({ success: false, itemsRemoved: 0 });
+  }
+
+  async updateItem(options: UpdateItemOptions): Promise<{ success: boolean }> {
+    console.warn('CarAudio.updateItem is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async moveItem(options: MoveItemOptions): Promise<{ success: boolean }> {
+    console.warn('CarAudio.moveItem is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async setNextTrack(options: Partial<PlayOptions>): Promise<{ success: boolean }> {
+    console.warn('CarAudio.setNextTrack is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async setQueue(options: SetQueueOptions): Promise<{ success: boolean; itemsAdded: number }> {
+    console.warn('CarAudio.setQueue is not available on web platform.', options);
+    return Promise.resolve({ success: false, itemsAdded: 0 });
+  }
+
+  async skipToNext(): Promise<QueueState> {
+    console.warn('CarAudio.skipToNext is not available on web platform.');
+    return Promise.resolve({ success: false, index: -1, shuffle: false, repeat: 'none' });
+  }
+
+  async skipToPrevious(): Promise<QueueState> {
+    console.warn('CarAudio.skipToPrevious is not available on web platform.');
+    return Promise.resolve({ success: false, index: -1, shuffle: false, repeat: 'none' });
+  }
+
+  async skipToQueueItem(options: { index: number }): Promise<QueueState> {
+    console.warn('CarAudio.skipToQueueItem is not available on web platform.', options);
+    return Promise.resolve({ success: false, index: -1, shuffle: false, repeat: 'none' });
+  }
+
+  async setQueueMode(options: { shuffle?: boolean; repeat?: RepeatMode }): Promise<QueueState> {
+    console.warn('CarAudio.setQueueMode is not available on web platform.', options);
+    return Promise.resolve({ success: false, index: -1, shuffle: false, repeat: 'none' });
+  }
+
+  async configurePlayback(options: PlaybackOptions): Promise<{ success: boolean; prepareAheadCapacity: number; audioCacheBytes: number; prepareAttempts: number }> {
+    console.warn('CarAudio.configurePlayback is not available on web platform.', options);
+    return Promise.resolve({ success: false, prepareAheadCapacity: 0, audioCacheBytes: 0, prepareAttempts: 0 });
+  }
+
+  async prepareAhead(options: { items: PrepareAheadItem[] }): Promise<{ success: boolean; requested: number }> {
+    console.warn('CarAudio.prepareAhead is not available on web platform.', options);
+    return Promise.resolve({ success: false, requested: 0 });
+  }
+
+  async downloadItems(options: { items: DownloadItem[] }): Promise<{ success: boolean; queued: number }> {
+    console.warn('CarAudio.downloadItems is not available on web platform.', options);
+    return Promise.resolve({ success: false, queued: 0 });
+  }
+
+  async cancelDownload(options: DownloadTarget): Promise<{ success: boolean }> {
+    console.warn('CarAudio.cancelDownload is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async removeDownload(options: DownloadTarget): Promise<{ success: boolean }> {
+    console.warn('CarAudio.removeDownload is not available on web platform.', options);
+    return Promise.resolve({ success: false });
+  }
+
+  async getDownloads(): Promise<DownloadsResult> {
+    console.warn('CarAudio.getDownloads is not available on web platform.');
+    return Promise.resolve({ downloads: [], usedBytes: 0, quotaBytes: 0 });
+  }
+
+  async configureDownloads(options: DownloadOptions): Promise<{ success: boolean; usedBytes: number; quotaBytes: number }> {
+    console.warn('CarAudio.configureDownloads is not available on web platform.', options);
+    return Promise.resolve({ success: false, usedBytes: 0, quotaBytes: 0 });
+  }
+
+  async getPlaybackStats(options?: { reset?: boolean }): Promise<PlaybackStats> {
+    console.warn('CarAudio.getPlaybackStats is not available on web platform.', options);
+    return Promise.resolve({ counters: {}, gauges: {}, histograms: {}, bucketBoundsMs: [] });
+  }
+
+  async getPlaybackQuality(): Promise<{ current?: PlaybackQuality; recent: PlaybackQuality[] }> {
+    console.warn('CarAudio.getPlaybackQuality is not available on web platform.');
+    return Promise.resolve({ recent: [] });
+  }
+
+  async dumpStateLog(): Promise<{ state: NativePlaybackState; generation: number; transitions: StateTransition[] }> {
+    console.warn('CarAudio.dumpStateLog is not available on web platform.');
+    return Promise.resolve({ state: 'idle', generation: 0, transitions: [] });
+  }
 }